@@ -17,8 +17,9 @@ public class Aggregate extends Operator {
      * Constructor.
      * 
      * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
+     * construct an {@link IntegerAggregator}, {@link NumericAggregator} or
+     * {@link StringAggregator} to help you with your implementation of
+     * readNext().
      * 
      * 
      * @param child
@@ -49,15 +50,18 @@ public class Aggregate extends Operator {
     	Type[] attrTypes;
     	String[] attrNames;
     	
+    	Type aType = child.getTupleDesc().getFieldType(aFieldIdx);
+    	Type aggType = aggregateType(aType, aop);
+    	
     	if(gbFieldIdx == Aggregator.NO_GROUPING) {
-    		dstSchema = Utility.getTupleDesc(1);
+    		dstSchema = new TupleDesc(new Type[] { aggType });
     	}
     	else {
     		attrTypes = new Type[2];
         	attrNames = new String[2];
         	
         	attrTypes[0] = child.getTupleDesc().getFieldType(gbFieldIdx);
-        	attrTypes[1] = Type.INT_TYPE;
+        	attrTypes[1] = aggType;
         	
         	attrNames[0] = child.getTupleDesc().getFieldName(gbFieldIdx);
         	attrNames[1] = child.getTupleDesc().getFieldName(aFieldIdx);
@@ -71,9 +75,12 @@ public class Aggregate extends Operator {
 			gbType  = childNode.getTupleDesc().getFieldType(gbFieldIdx);
 		}
 
-    	if(childNode.getTupleDesc().getFieldType(aFieldIdx) == Type.INT_TYPE) {
+    	if(aType == Type.INT_TYPE) {
     			agg = new IntegerAggregator(gbFieldIdx, gbType, aFieldIdx, aop);
     	}
+    	else if(aType == Type.LONG_TYPE || aType == Type.DOUBLE_TYPE || aType == Type.DATE_TYPE) {
+    			agg = new NumericAggregator(gbFieldIdx, gbType, aFieldIdx, aType, aop);
+    	}
     	else {
     		agg = new StringAggregator(gbFieldIdx, gbType, aFieldIdx, aop);
     	}
@@ -82,6 +89,20 @@ public class Aggregate extends Operator {
 
     }
 
+    /**
+     * @return the type of the values produced by aggregating a field of type
+     *         fieldType with aop: COUNT is always an INT_TYPE, the other
+     *         aggregates of a LONG_TYPE, DOUBLE_TYPE or DATE_TYPE field keep
+     *         that type, and everything else is an INT_TYPE.
+     */
+    public static Type aggregateType(Type fieldType, Aggregator.Op aop) {
+    	if(aop != Aggregator.Op.COUNT && (fieldType == Type.LONG_TYPE
+    			|| fieldType == Type.DOUBLE_TYPE || fieldType == Type.DATE_TYPE)) {
+    		return fieldType;
+    	}
+    	return Type.INT_TYPE;
+    }
+
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      *         field index in the <b>INPUT</b> tuples. If not, return
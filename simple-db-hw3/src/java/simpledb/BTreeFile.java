@@ -0,0 +1,707 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that stores the tuples of a table in a B+ tree
+ * ordered on one key field, so that lookups of a key or a range of keys only
+ * read the pages on the path to the matching tuples (see
+ * {@link #indexIterator} and {@link IndexScan}).
+ * <p>
+ * The file is a sequence of pages of four kinds, all accessed through the
+ * BufferPool:
+ * <ul>
+ * <li> page 0 is the {@link BTreeRootPtrPage}, pointing to the root and to
+ *      the first header page
+ * <li> {@link BTreeInternalPage}s hold keys and child pointers
+ * <li> {@link BTreeLeafPage}s hold the tuples in key order and are linked to
+ *      their left and right siblings
+ * <li> {@link BTreeHeaderPage}s keep track of the pages freed by merges, so
+ *      they can be reused
+ * </ul>
+ * Full pages are split on insert. A page less than half full after a delete
+ * takes tuples or entries from a sibling under the same parent if it has
+ * more than it needs, and is merged with it otherwise. Duplicate keys are
+ * allowed: a search goes to the leftmost leaf that can hold the key and
+ * follows the right sibling pointers from there.
+ * <p>
+ * Tables are stored in this format when a field of their catalog entry is
+ * annotated with <tt>index</tt>, e.g.
+ * <pre>
+ *     users (id int pk index, name string)
+ * </pre>
+ * and are written by {@link HeapFileEncoder#convertBTree}.
+ *
+ * @see BTreePageId
+ */
+public class BTreeFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+    // the transaction that freed each free page, until it is reused
+    private final HashMap<Integer, TransactionId> freedBy = new HashMap<Integer, TransactionId>();
+
+    /**
+     * Constructs a B+ tree file backed by the specified file. An empty or
+     * missing file is an empty tree.
+     *
+     * @param f the file that stores the on-disk backing store for this tree
+     * @param key the field which the tree is keyed on
+     * @param td the tuple descriptor of tuples in the file
+     */
+    public BTreeFile(File f, int key, TupleDesc td) {
+        this.f = f;
+        this.tableid = f.getAbsolutePath().hashCode();
+        this.keyField = key;
+        this.td = td;
+    }
+
+    /** Returns the File backing this BTreeFile on disk. */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the index of the field the tree is keyed on */
+    public int keyField() {
+        return keyField;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BTreePageId id = (BTreePageId) pid;
+        RandomAccessFile rf = null;
+        try {
+            rf = new RandomAccessFile(f, "r");
+            byte pageBuf[] = new byte[BufferPool.getPageSize()];
+            long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+            if (offset + pageBuf.length > rf.length())
+                throw new IllegalArgumentException("Read past end of table");
+            rf.seek(offset);
+            rf.readFully(pageBuf);
+            Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+            switch (id.pgcateg()) {
+            case BTreePageId.ROOT_PTR:
+                return new BTreeRootPtrPage(id, pageBuf);
+            case BTreePageId.INTERNAL:
+                return new BTreeInternalPage(id, pageBuf, td, keyField);
+            case BTreePageId.LEAF:
+                return new BTreeLeafPage(id, pageBuf, td, keyField);
+            case BTreePageId.HEADER:
+                return new BTreeHeaderPage(id, pageBuf);
+            default:
+                throw new IllegalArgumentException("Unknown page category " + id.pgcateg());
+            }
+        } catch (FileNotFoundException e) {
+            throw new IllegalArgumentException("Read past end of table");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                if (rf != null)
+                    rf.close();
+            } catch (IOException ioe) {
+                // Ignore failures closing the file
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile rf = new RandomAccessFile(f, "rw");
+        rf.seek((long) pgNo * BufferPool.getPageSize());
+        rf.write(data);
+        rf.close();
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the root
+     * pointer page and free pages.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Get a page through the BufferPool, preferring the copy in dirtypages
+     * if this operation has already modified the page. Pages fetched with
+     * READ_WRITE permission are added to dirtypages.
+     */
+    Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, PageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        Page p = dirtypages.get(pid);
+        if (p != null)
+            return p;
+        p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE)
+            dirtypages.put(pid, p);
+        return p;
+    }
+
+    /**
+     * Get the root pointer page, creating the file with an empty root leaf
+     * if it does not exist yet.
+     */
+    BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm)
+            throws DbException, IOException, TransactionAbortedException {
+        synchronized (this) {
+            if (f.length() == 0) {
+                writePageData(0, BTreeRootPtrPage.createPageData(1, BTreePageId.LEAF));
+                writePageData(1, BTreeLeafPage.createEmptyPageData());
+            }
+        }
+        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), perm);
+    }
+
+    /**
+     * Find the leftmost leaf page below pid that can hold tuples with key f,
+     * or the leftmost leaf of all if f is null. Internal pages on the way
+     * are only read; the leaf is fetched with the specified permissions.
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid,
+            Permissions perm, Field f) throws DbException, TransactionAbortedException {
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage p = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+            int i = 0;
+            if (f != null) {
+                while (i < p.getNumKeys() && f.compare(Predicate.Op.GREATER_THAN, p.getKey(i)))
+                    i++;
+            }
+            pid = p.getChildId(i);
+        }
+        return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+    }
+
+    /** Convenience method to find a leaf page when there is no dirtypages map */
+    BTreeLeafPage findLeafPage(TransactionId tid, Field f)
+            throws DbException, TransactionAbortedException, IOException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY);
+        return findLeafPage(tid, dirtypages, rootPtr.getRootId(), Permissions.READ_ONLY, f);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(keyField);
+        if (key == null || key.getType() != td.getFieldType(keyField))
+            throw new DbException("tuple has no valid key");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY);
+        BTreeLeafPage leaf = findLeafPage(tid, dirtypages, rootPtr.getRootId(), Permissions.READ_WRITE, key);
+        if (leaf.isFull())
+            leaf = splitLeafPage(tid, dirtypages, leaf, key);
+        leaf.insertTuple(t);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Split a full leaf page, moving its upper half of tuples to a new page
+     * to its right and adding an entry for the new page to the parent, which
+     * is split itself if needed.
+     *
+     * @return the half that a tuple with key field belongs in
+     */
+    BTreeLeafPage splitLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeLeafPage page,
+            Field field) throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage right = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+        int n = page.getNumTuples();
+        for (int i = n / 2; i < n; i++)
+            right.insertTuple(page.removeTuple(n / 2));
+
+        BTreePageId oldRightId = page.getRightSiblingId();
+        if (oldRightId != null) {
+            BTreeLeafPage oldRight = (BTreeLeafPage) getPage(tid, dirtypages, oldRightId, Permissions.READ_WRITE);
+            oldRight.setLeftSiblingId(right.getId());
+        }
+        right.setRightSiblingId(oldRightId);
+        right.setLeftSiblingId(page.getId());
+        page.setRightSiblingId(right.getId());
+
+        Field splitKey = right.getKey(0);
+        BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), page.getId());
+        parent.insertEntry(splitKey, page.getId(), right.getId());
+        page.setParentId(parent.getId());
+        right.setParentId(parent.getId());
+
+        return field.compare(Predicate.Op.GREATER_THAN, splitKey) ? right : page;
+    }
+
+    /**
+     * Split a full internal page, moving its upper half of entries to a new
+     * page to its right and the middle key up to the parent, which is split
+     * itself if needed.
+     *
+     * @return the half that holds the child with id child
+     */
+    BTreeInternalPage splitInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeInternalPage page, BTreePageId child)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage right = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+        Field midKey = page.splitInto(right, page.getNumKeys() / 2);
+        for (int i = 0; i < right.getNumChildren(); i++)
+            setParent(tid, dirtypages, right.getChildId(i), right.getId());
+
+        BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), page.getId());
+        parent.insertEntry(midKey, page.getId(), right.getId());
+        page.setParentId(parent.getId());
+        right.setParentId(parent.getId());
+
+        return right.indexOfChild(child.getPageNumber()) >= 0 ? right : page;
+    }
+
+    private void setParent(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId child,
+            BTreePageId parent) throws DbException, TransactionAbortedException {
+        BTreePage p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
+        p.setParentId(parent);
+    }
+
+    /**
+     * Get the parent page parentId of child for adding an entry to it. If
+     * the parent is full it is split, and the half holding child is
+     * returned; if child is the root, a new empty root is created above it.
+     */
+    BTreeInternalPage getParentWithEmptySlots(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreePageId parentId, BTreePageId child)
+            throws DbException, IOException, TransactionAbortedException {
+        if (parentId.pgcateg() == BTreePageId.ROOT_PTR) {
+            BTreeInternalPage root = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+            BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE);
+            rootPtr.setRootId(root.getId());
+            return root;
+        }
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId, Permissions.READ_WRITE);
+        if (parent.isFull())
+            parent = splitInternalPage(tid, dirtypages, parent, child);
+        return parent;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        BTreeLeafPage leaf = findTuple(tid, dirtypages, t);
+        if (leaf == null)
+            throw new DbException("tuple is not a member of this file");
+        leaf = (BTreeLeafPage) getPage(tid, dirtypages, leaf.getId(), Permissions.READ_WRITE);
+        leaf.deleteTuple(t);
+        if (!leaf.isRoot() && leaf.getNumTuples() < leaf.getMaxTuples() / 2)
+            handleMinOccupancyLeafPage(tid, dirtypages, leaf);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * @return the leaf holding a tuple with t's values, trying the page of
+     *   t's RecordId first, or null if there is none
+     */
+    private BTreeLeafPage findTuple(TransactionId tid, HashMap<PageId, Page> dirtypages, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid != null && rid.getPageId() instanceof BTreePageId
+                && rid.getPageId().getTableId() == tableid
+                && ((BTreePageId) rid.getPageId()).pgcateg() == BTreePageId.LEAF
+                && rid.getPageId().getPageNumber() < numPages()) {
+            BTreeLeafPage p = (BTreeLeafPage) getPage(tid, dirtypages, rid.getPageId(), Permissions.READ_ONLY);
+            if (p.find(t) >= 0)
+                return p;
+        }
+        // the tuple has moved; look it up by its key
+        Field key = t.getField(keyField);
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY);
+        BTreeLeafPage p = findLeafPage(tid, dirtypages, rootPtr.getRootId(), Permissions.READ_ONLY, key);
+        while (p != null) {
+            if (p.find(t) >= 0)
+                return p;
+            if (p.getNumTuples() > 0 && p.getKey(p.getNumTuples() - 1).compare(Predicate.Op.GREATER_THAN, key))
+                return null;
+            BTreePageId next = p.getRightSiblingId();
+            p = next == null ? null
+                : (BTreeLeafPage) getPage(tid, dirtypages, next, Permissions.READ_ONLY);
+        }
+        return null;
+    }
+
+    /**
+     * Rebalance a leaf page that is less than half full, by taking tuples
+     * from a sibling under the same parent if it has enough, and merging
+     * with it otherwise.
+     */
+    void handleMinOccupancyLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeLeafPage page)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, page.getParentId(),
+                Permissions.READ_WRITE);
+        int i = parent.indexOfChild(page.getId().getPageNumber());
+        int half = page.getMaxTuples() / 2;
+        if (i > 0) {
+            BTreeLeafPage left = (BTreeLeafPage) getPage(tid, dirtypages, parent.getChildId(i - 1),
+                    Permissions.READ_WRITE);
+            if (left.getNumTuples() > half) {
+                int move = (left.getNumTuples() - page.getNumTuples()) / 2;
+                for (int j = 0; j < move; j++)
+                    page.insertTuple(left.removeTuple(left.getNumTuples() - 1));
+                parent.setKey(i - 1, page.getKey(0));
+            } else {
+                mergeLeafPages(tid, dirtypages, left, page, parent, i - 1);
+            }
+        } else {
+            BTreeLeafPage right = (BTreeLeafPage) getPage(tid, dirtypages, parent.getChildId(i + 1),
+                    Permissions.READ_WRITE);
+            if (right.getNumTuples() > half) {
+                int move = (right.getNumTuples() - page.getNumTuples()) / 2;
+                for (int j = 0; j < move; j++)
+                    page.insertTuple(right.removeTuple(0));
+                parent.setKey(i, right.getKey(0));
+            } else {
+                mergeLeafPages(tid, dirtypages, page, right, parent, i);
+            }
+        }
+    }
+
+    /**
+     * Move all tuples of right into its left sibling left, free right and
+     * remove key keyIdx, which separates them, from their parent.
+     */
+    void mergeLeafPages(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeLeafPage left,
+            BTreeLeafPage right, BTreeInternalPage parent, int keyIdx)
+            throws DbException, IOException, TransactionAbortedException {
+        while (right.getNumTuples() > 0)
+            left.insertTuple(right.removeTuple(0));
+        BTreePageId rightRightId = right.getRightSiblingId();
+        left.setRightSiblingId(rightRightId);
+        if (rightRightId != null) {
+            BTreeLeafPage rr = (BTreeLeafPage) getPage(tid, dirtypages, rightRightId, Permissions.READ_WRITE);
+            rr.setLeftSiblingId(left.getId());
+        }
+        setEmptyPage(tid, dirtypages, right.getId());
+        deleteParentEntry(tid, dirtypages, left, parent, keyIdx);
+    }
+
+    /**
+     * Remove key keyIdx and the child right of it from parent after that
+     * child has been merged into left. An empty root is replaced by left;
+     * a parent that becomes less than half full is rebalanced.
+     */
+    private void deleteParentEntry(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePage left,
+            BTreeInternalPage parent, int keyIdx)
+            throws DbException, IOException, TransactionAbortedException {
+        parent.removeKeyAndRightChild(keyIdx);
+        if (parent.isRoot()) {
+            if (parent.getNumKeys() == 0) {
+                BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE);
+                rootPtr.setRootId(left.getId());
+                left.setParentId(rootPtr.getId());
+                setEmptyPage(tid, dirtypages, parent.getId());
+            }
+        } else if (parent.getNumKeys() < parent.getMaxKeys() / 2) {
+            handleMinOccupancyInternalPage(tid, dirtypages, parent);
+        }
+    }
+
+    /**
+     * Rebalance an internal page that is less than half full, by rotating
+     * entries through the parent from a sibling under the same parent if it
+     * has enough, and merging with it otherwise.
+     */
+    void handleMinOccupancyInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeInternalPage page) throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, page.getParentId(),
+                Permissions.READ_WRITE);
+        int i = parent.indexOfChild(page.getId().getPageNumber());
+        int half = page.getMaxKeys() / 2;
+        if (i > 0) {
+            BTreeInternalPage left = (BTreeInternalPage) getPage(tid, dirtypages, parent.getChildId(i - 1),
+                    Permissions.READ_WRITE);
+            if (left.getNumKeys() > half) {
+                int move = (left.getNumKeys() - page.getNumKeys()) / 2;
+                for (int j = 0; j < move; j++) {
+                    int last = left.getNumKeys() - 1;
+                    BTreePageId child = left.getChildId(last + 1);
+                    page.prependEntry(child, parent.getKey(i - 1));
+                    parent.setKey(i - 1, left.getKey(last));
+                    left.removeKeyAndRightChild(last);
+                    setParent(tid, dirtypages, child, page.getId());
+                }
+            } else {
+                mergeInternalPages(tid, dirtypages, left, page, parent, i - 1);
+            }
+        } else {
+            BTreeInternalPage right = (BTreeInternalPage) getPage(tid, dirtypages, parent.getChildId(i + 1),
+                    Permissions.READ_WRITE);
+            if (right.getNumKeys() > half) {
+                int move = (right.getNumKeys() - page.getNumKeys()) / 2;
+                for (int j = 0; j < move; j++) {
+                    BTreePageId child = right.getChildId(0);
+                    page.appendEntry(parent.getKey(i), child);
+                    parent.setKey(i, right.getKey(0));
+                    right.removeKeyAndLeftChild(0);
+                    setParent(tid, dirtypages, child, page.getId());
+                }
+            } else {
+                mergeInternalPages(tid, dirtypages, page, right, parent, i);
+            }
+        }
+    }
+
+    /**
+     * Move key keyIdx of parent and all entries of right into its left
+     * sibling left, free right and remove the key from parent.
+     */
+    void mergeInternalPages(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeInternalPage left,
+            BTreeInternalPage right, BTreeInternalPage parent, int keyIdx)
+            throws DbException, IOException, TransactionAbortedException {
+        left.appendEntry(parent.getKey(keyIdx), right.getChildId(0));
+        for (int j = 0; j < right.getNumKeys(); j++)
+            left.appendEntry(right.getKey(j), right.getChildId(j + 1));
+        for (int j = 0; j < right.getNumChildren(); j++)
+            setParent(tid, dirtypages, right.getChildId(j), left.getId());
+        setEmptyPage(tid, dirtypages, right.getId());
+        deleteParentEntry(tid, dirtypages, left, parent, keyIdx);
+    }
+
+    /**
+     * Get a page of the specified category that is not in use, reusing a
+     * page freed earlier or appending one to the file. The page is empty
+     * and is added to dirtypages.
+     */
+    Page getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgcateg)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = getEmptyPageNo(tid, dirtypages);
+        // a free page is all zeros, but may still be cached under the
+        // category it had before it was freed
+        for (int c = BTreePageId.ROOT_PTR; c <= BTreePageId.HEADER; c++) {
+            if (c != pgcateg)
+                Database.getBufferPool().flushAndDiscardPage(new BTreePageId(tableid, pgNo, c));
+        }
+        return getPage(tid, dirtypages, new BTreePageId(tableid, pgNo, pgcateg), Permissions.READ_WRITE);
+    }
+
+    /**
+     * @return true if page pgNo, which is marked free, must not be reused
+     *   yet: it was freed by this operation, or by a transaction that may
+     *   still roll back and need it again
+     */
+    private boolean isFreeing(HashMap<PageId, Page> dirtypages, int pgNo) {
+        for (int c = BTreePageId.ROOT_PTR; c <= BTreePageId.HEADER; c++) {
+            if (dirtypages.containsKey(new BTreePageId(tableid, pgNo, c)))
+                return true;
+        }
+        synchronized (freedBy) {
+            TransactionId freer = freedBy.get(pgNo);
+            if (freer == null)
+                return false;
+            if (Database.getLogFile().isActive(freer))
+                return true;
+            freedBy.remove(pgNo);
+            return false;
+        }
+    }
+
+    private int appendPage(byte[] data) throws IOException {
+        synchronized (this) {
+            int pgNo = numPages();
+            writePageData(pgNo, data);
+            return pgNo;
+        }
+    }
+
+    /**
+     * @return the number of a page that is not in use, taken from the header
+     *   pages or appended to the file
+     */
+    int getEmptyPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY);
+        BTreePageId headerId = rootPtr.getHeaderId();
+        int k = 0;
+        while (headerId != null) {
+            BTreeHeaderPage hp = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+            int slot = hp.getEmptySlot();
+            while (slot >= 0 && isFreeing(dirtypages, k * BTreeHeaderPage.getNumSlots() + slot))
+                slot = hp.getEmptySlot(slot + 1);
+            if (slot >= 0) {
+                hp = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+                hp.markSlotUsed(slot, true);
+                return k * BTreeHeaderPage.getNumSlots() + slot;
+            }
+            headerId = hp.getNextPageId();
+            k++;
+        }
+        return appendPage(BTreeLeafPage.createEmptyPageData());
+    }
+
+    /**
+     * Mark page id as free so it can be reused once its transaction
+     * commits, creating the header pages needed to keep track of it.
+     */
+    void setEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId id)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = id.getPageNumber();
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY);
+        BTreePageId headerId = rootPtr.getHeaderId();
+        if (headerId == null) {
+            headerId = newHeaderPage(tid, dirtypages, null);
+            rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE);
+            rootPtr.setHeaderId(headerId);
+        }
+        for (int k = 0; k < pgNo / BTreeHeaderPage.getNumSlots(); k++) {
+            BTreeHeaderPage hp = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+            BTreePageId next = hp.getNextPageId();
+            if (next == null) {
+                next = newHeaderPage(tid, dirtypages, headerId);
+                hp = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+                hp.setNextPageId(next);
+            }
+            headerId = next;
+        }
+        BTreeHeaderPage hp = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+        hp.markSlotUsed(pgNo % BTreeHeaderPage.getNumSlots(), false);
+        // clear the page, so a stale RecordId doesn't find its tuples there;
+        // the empty page keeps the before image of the page, so clearing it
+        // is logged and rolled back like any other change
+        Page old = getPage(tid, dirtypages, id, Permissions.READ_WRITE);
+        BTreePage empty = id.pgcateg() == BTreePageId.LEAF
+            ? new BTreeLeafPage(id, BTreeLeafPage.createEmptyPageData(), td, keyField)
+            : new BTreeInternalPage(id, BTreeInternalPage.createEmptyPageData(), td, keyField);
+        empty.setBeforeImage(old.getBeforeImage().getPageData());
+        dirtypages.put(id, empty);
+        synchronized (freedBy) {
+            freedBy.put(pgNo, tid);
+        }
+    }
+
+    /** Append a header page that marks all its pages in use */
+    private BTreePageId newHeaderPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId prev)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId id = new BTreePageId(tableid, appendPage(BTreeHeaderPage.createEmptyPageData()),
+                BTreePageId.HEADER);
+        BTreeHeaderPage hp = (BTreeHeaderPage) getPage(tid, dirtypages, id, Permissions.READ_WRITE);
+        hp.init();
+        hp.setPrevPageId(prev);
+        return id;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeSearchIterator(this, tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key passes ipred, in key
+     * order. Only the leaves that can hold such tuples are read, except for
+     * LIKE and NOT_EQUALS, which need a scan of all leaves.
+     *
+     * @param tid the transaction performing the lookup
+     * @param ipred the predicate over the key field
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeSearchIterator(this, tid, ipred);
+    }
+}
+
+/**
+ * Iterates over the tuples of a BTreeFile in key order, optionally only the
+ * ones whose key passes an IndexPredicate.
+ */
+class BTreeSearchIterator extends AbstractDbFileIterator {
+
+    final BTreeFile f;
+    final TransactionId tid;
+    final IndexPredicate ipred;
+    Iterator<Tuple> it;
+    BTreePageId nextLeaf;
+    boolean done;
+
+    public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+        this.f = f;
+        this.tid = tid;
+        this.ipred = ipred;
+        this.done = true;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        Field start = null;
+        if (ipred != null) {
+            switch (ipred.getOp()) {
+            case EQUALS:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                start = ipred.getField();
+                break;
+            default:
+                break;
+            }
+        }
+        try {
+            BTreeLeafPage leaf = f.findLeafPage(tid, start);
+            it = leaf.iterator();
+            nextLeaf = leaf.getRightSiblingId();
+            done = false;
+        } catch (IOException e) {
+            throw new DbException("couldn't read " + f.getFile() + ": " + e);
+        }
+    }
+
+    /** @return true if no tuple after one with key can pass ipred */
+    private boolean pastEnd(Field key) {
+        switch (ipred.getOp()) {
+        case EQUALS:
+        case LESS_THAN_OR_EQ:
+            return key.compare(Predicate.Op.GREATER_THAN, ipred.getField());
+        case LESS_THAN:
+            return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, ipred.getField());
+        default:
+            return false;
+        }
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (!done) {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (ipred == null)
+                    return t;
+                Field key = t.getField(f.keyField());
+                if (ipred.matches(key))
+                    return t;
+                if (pastEnd(key)) {
+                    done = true;
+                    return null;
+                }
+            }
+            if (nextLeaf == null) {
+                done = true;
+                return null;
+            }
+            BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, nextLeaf,
+                    Permissions.READ_ONLY);
+            it = leaf.iterator();
+            nextLeaf = leaf.getRightSiblingId();
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        it = null;
+        done = true;
+    }
+}
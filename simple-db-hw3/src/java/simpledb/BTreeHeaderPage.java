@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeHeaderPage records which pages of a {@link BTreeFile} are in use, so
+ * that pages freed by merges can be reused instead of growing the file.
+ * Header pages form a doubly linked list starting at the page the
+ * {@link BTreeRootPtrPage} points to; the kth header page has one bit for
+ * each of the pages k * getNumSlots() .. (k + 1) * getNumSlots() - 1.
+ * <p>
+ * The layout of a page is the page numbers of the previous and the next
+ * header page, 0 if there is none (2 ints), followed by the bitmap.
+ */
+public class BTreeHeaderPage implements Page {
+
+    static final int HEADER_SIZE = 8;
+
+    private final BTreePageId pid;
+    private int prev;
+    private int next;
+    private final byte[] bitmap;
+    private TransactionId dirtier;
+
+    private byte[] oldData;
+    private final Byte oldDataLock = new Byte((byte) 0);
+
+    /**
+     * Create a BTreeHeaderPage from a set of bytes of data read from disk.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        prev = dis.readInt();
+        next = dis.readInt();
+        bitmap = new byte[BufferPool.getPageSize() - HEADER_SIZE];
+        dis.readFully(bitmap);
+        setBeforeImage();
+    }
+
+    /** @return the number of pages a header page keeps track of */
+    public static int getNumSlots() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) * 8;
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /** Mark all pages this header page keeps track of as in use */
+    public void init() {
+        java.util.Arrays.fill(bitmap, (byte) 0xFF);
+    }
+
+    public boolean isSlotUsed(int i) {
+        return (bitmap[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    public void markSlotUsed(int i, boolean used) {
+        if (used)
+            bitmap[i / 8] |= (byte) (1 << (i % 8));
+        else
+            bitmap[i / 8] &= (byte) ~(1 << (i % 8));
+    }
+
+    /** @return the first slot that is not in use, or -1 if all are */
+    public int getEmptySlot() {
+        return getEmptySlot(0);
+    }
+
+    /** @return the first slot from slot from on that is not in use, or -1 if all are */
+    public int getEmptySlot(int from) {
+        for (int b = from / 8; b < bitmap.length; b++) {
+            if (bitmap[b] == (byte) 0xFF)
+                continue;
+            for (int i = Math.max(b * 8, from); i < b * 8 + 8; i++)
+                if (!isSlotUsed(i))
+                    return i;
+        }
+        return -1;
+    }
+
+    public BTreePageId getPrevPageId() {
+        return prev == 0 ? null : new BTreePageId(pid.getTableId(), prev, BTreePageId.HEADER);
+    }
+
+    public BTreePageId getNextPageId() {
+        return next == 0 ? null : new BTreePageId(pid.getTableId(), next, BTreePageId.HEADER);
+    }
+
+    public void setPrevPageId(BTreePageId id) {
+        prev = id == null ? 0 : id.getPageNumber();
+    }
+
+    public void setNextPageId(BTreePageId id) {
+        next = id == null ? 0 : id.getPageNumber();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(prev);
+            dos.writeInt(next);
+            dos.write(bitmap);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to a byte array doesn't fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * BTreeHeaderPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreeHeaderPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new BTreeHeaderPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
@@ -0,0 +1,225 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeInternalPage holds keys and child pointers of a {@link BTreeFile}. An
+ * internal page with n keys has n + 1 children; the keys in the subtree of
+ * child i are at least key i - 1 and at most key i. All children of a page
+ * are of the same category, either all internal or all leaf pages.
+ * <p>
+ * The layout of a page is:
+ * <ul>
+ * <li> the page number of the parent (an int), the category of the
+ *      children (a byte) and the number of children n + 1 (an int)
+ * <li> the page number of child 0 (an int)
+ * <li> n pairs of a key, in the key type's serialized format, and the page
+ *      number of the child to its right
+ * </ul>
+ * While the tree is being rebalanced, a page may briefly have one child and
+ * no keys.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    static final int HEADER_SIZE = 9;
+
+    private final ArrayList<Field> keys;
+    private final ArrayList<Integer> children;
+    private int childCategory;
+
+    /**
+     * Create a BTreeInternalPage from a set of bytes of data read from disk,
+     * looking up the schema and key field of the tree in the Catalog.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, getFile(id).getTupleDesc(), getFile(id).keyField());
+    }
+
+    BTreeInternalPage(BTreePageId id, byte[] data, TupleDesc td, int keyField) throws IOException {
+        super(id, td, keyField);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        parent = dis.readInt();
+        childCategory = dis.readByte();
+        int n = dis.readInt() - 1;
+        keys = new ArrayList<Field>();
+        children = new ArrayList<Integer>();
+        if (n >= 0) {
+            try {
+                children.add(dis.readInt());
+                for (int i = 0; i < n; i++) {
+                    keys.add(getKeyType().parse(dis));
+                    children.add(dis.readInt());
+                }
+            } catch (java.text.ParseException e) {
+                throw new IOException("parsing error!", e);
+            }
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of keys an internal page of a tree with the specified key type holds */
+    static int getMaxKeys(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE - 4) / (keyType.getLen() + 4);
+    }
+
+    public int getMaxKeys() {
+        return getMaxKeys(getKeyType());
+    }
+
+    public int getNumKeys() {
+        return keys.size();
+    }
+
+    public boolean isFull() {
+        return keys.size() >= getMaxKeys();
+    }
+
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    public void setKey(int i, Field key) {
+        keys.set(i, key);
+    }
+
+    /** @return the number of children, getNumKeys() + 1 unless the page is empty */
+    public int getNumChildren() {
+        return children.size();
+    }
+
+    public BTreePageId getChildId(int i) {
+        return new BTreePageId(pid.getTableId(), children.get(i), childCategory);
+    }
+
+    /** @return the position of the child with page number pgNo, or -1 */
+    public int indexOfChild(int pgNo) {
+        return children.indexOf(pgNo);
+    }
+
+    private void checkChild(BTreePageId id) throws DbException {
+        if (id.getTableId() != pid.getTableId())
+            throw new DbException("child must belong to the same table");
+        if (id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.LEAF)
+            throw new DbException("child must be an internal or leaf page");
+        if (!children.isEmpty() && id.pgcateg() != childCategory)
+            throw new DbException("all children must be of the same category");
+        childCategory = id.pgcateg();
+    }
+
+    /**
+     * Add key and the child right of it to this page, next to the existing
+     * child left. If the page is empty, it gets left and right as its only
+     * children.
+     *
+     * @throws DbException if the page is full or left is not a child of it
+     */
+    public void insertEntry(Field key, BTreePageId left, BTreePageId right) throws DbException {
+        if (isFull())
+            throw new DbException("No room on page for entry.");
+        checkChild(left);
+        checkChild(right);
+        if (children.isEmpty()) {
+            children.add(left.getPageNumber());
+            keys.add(key);
+            children.add(right.getPageNumber());
+            return;
+        }
+        int i = children.indexOf(left.getPageNumber());
+        if (i < 0)
+            throw new DbException("left child is not on this page");
+        keys.add(i, key);
+        children.add(i + 1, right.getPageNumber());
+    }
+
+    /** Add key and the child right of it after the last child of this non-empty page */
+    public void appendEntry(Field key, BTreePageId child) throws DbException {
+        checkChild(child);
+        keys.add(key);
+        children.add(child.getPageNumber());
+    }
+
+    /** Make child the first child of this non-empty page and key the key right of it */
+    public void prependEntry(BTreePageId child, Field key) throws DbException {
+        checkChild(child);
+        keys.add(0, key);
+        children.add(0, child.getPageNumber());
+    }
+
+    /** Remove key i and the child right of it */
+    public void removeKeyAndRightChild(int i) {
+        keys.remove(i);
+        children.remove(i + 1);
+    }
+
+    /** Remove key i and the child left of it */
+    public void removeKeyAndLeftChild(int i) {
+        keys.remove(i);
+        children.remove(i);
+    }
+
+    /**
+     * Move the keys and children right of key mid to the empty page right,
+     * and remove key mid, which is returned.
+     */
+    public Field splitInto(BTreeInternalPage right, int mid) throws DbException {
+        Field midKey = keys.get(mid);
+        right.checkChild(getChildId(mid + 1));
+        right.children.addAll(children.subList(mid + 1, children.size()));
+        right.keys.addAll(keys.subList(mid + 1, keys.size()));
+        children.subList(mid + 1, children.size()).clear();
+        keys.subList(mid, keys.size()).clear();
+        return midKey;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(parent);
+            dos.writeByte(childCategory);
+            dos.writeInt(children.size());
+            if (!children.isEmpty()) {
+                Tuple t = new Tuple(new TupleDesc(new Type[] { getKeyType() }));
+                dos.writeInt(children.get(0));
+                for (int i = 0; i < keys.size(); i++) {
+                    t.setField(0, keys.get(i));
+                    getKeyType().serialize(t, 0, dos);
+                    dos.writeInt(children.get(i + 1));
+                }
+            }
+            dos.write(new byte[BufferPool.getPageSize() - baos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to a byte array doesn't fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * BTreeInternalPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new BTreeInternalPage(pid, oldDataRef, td, keyField);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeLeafPage holds the tuples of a {@link BTreeFile}, sorted on the key
+ * field. The leaves form a doubly linked list in key order.
+ * <p>
+ * The layout of a page is:
+ * <ul>
+ * <li> the page numbers of the parent, the left sibling and the right
+ *      sibling (0 if there is none), and the number of tuples (4 ints)
+ * <li> the tuples in key order, each td.getSize() bytes long
+ * </ul>
+ * The RecordId of a tuple is its position on the page, so it changes when
+ * tuples before it are inserted or deleted; {@link #deleteTuple} falls back
+ * to looking the tuple up by value.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    static final int HEADER_SIZE = 16;
+
+    private final ArrayList<Tuple> tuples;
+    private int leftSibling;
+    private int rightSibling;
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk,
+     * looking up the schema and key field of the tree in the Catalog.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, getFile(id).getTupleDesc(), getFile(id).keyField());
+    }
+
+    BTreeLeafPage(BTreePageId id, byte[] data, TupleDesc td, int keyField) throws IOException {
+        super(id, td, keyField);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        parent = dis.readInt();
+        leftSibling = dis.readInt();
+        rightSibling = dis.readInt();
+        int n = dis.readInt();
+        tuples = new ArrayList<Tuple>(n);
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++)
+                    td.getFieldType(j).parseInto(dis, t, j);
+                t.setRecordId(new RecordId(pid, i));
+                tuples.add(t);
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("parsing error!", e);
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of tuples a leaf page of schema td holds */
+    static int getMaxTuples(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    public int getMaxTuples() {
+        return getMaxTuples(td);
+    }
+
+    public int getNumTuples() {
+        return tuples.size();
+    }
+
+    public boolean isFull() {
+        return tuples.size() >= getMaxTuples();
+    }
+
+    /** @return the ith tuple in key order */
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    /** @return the key of the ith tuple in key order */
+    public Field getKey(int i) {
+        return tuples.get(i).getField(keyField);
+    }
+
+    public BTreePageId getLeftSiblingId() {
+        return leftSibling == 0 ? null
+            : new BTreePageId(pid.getTableId(), leftSibling, BTreePageId.LEAF);
+    }
+
+    public BTreePageId getRightSiblingId() {
+        return rightSibling == 0 ? null
+            : new BTreePageId(pid.getTableId(), rightSibling, BTreePageId.LEAF);
+    }
+
+    /** Set the left sibling of this page; null if there is none */
+    public void setLeftSiblingId(BTreePageId id) {
+        leftSibling = id == null ? 0 : id.getPageNumber();
+    }
+
+    /** Set the right sibling of this page; null if there is none */
+    public void setRightSiblingId(BTreePageId id) {
+        rightSibling = id == null ? 0 : id.getPageNumber();
+    }
+
+    private void renumber(int from) {
+        for (int i = from; i < tuples.size(); i++)
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Adds the specified tuple to the page after all tuples with a key less
+     * than or equal to its key.
+     *
+     * @throws DbException if the page is full or the tupledesc is mismatched.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("Schema mismatch.");
+        if (isFull())
+            throw new DbException("No room on page for tuple.");
+        Field key = t.getField(keyField);
+        int pos = tuples.size();
+        while (pos > 0 && getKey(pos - 1).compare(Predicate.Op.GREATER_THAN, key))
+            pos--;
+        tuples.add(pos, t);
+        renumber(pos);
+    }
+
+    /** @return true if the fields of a and b are equal */
+    static boolean sameValues(Tuple a, Tuple b) {
+        if (a.numFields() != b.numFields())
+            return false;
+        for (int i = 0; i < a.numFields(); i++) {
+            Field fa = a.getField(i);
+            if (fa == null ? b.getField(i) != null : !fa.equals(b.getField(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the position of a tuple on this page with the same values as
+     *   t, preferring the slot of t's RecordId, or -1 if there is none
+     */
+    public int find(Tuple t) {
+        RecordId r = t.getRecordId();
+        if (r != null && pid.equals(r.getPageId())) {
+            int slot = r.getTupleNumber();
+            if (slot >= 0 && slot < tuples.size() && sameValues(tuples.get(slot), t))
+                return slot;
+        }
+        for (int i = 0; i < tuples.size(); i++)
+            if (sameValues(tuples.get(i), t))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @throws DbException if no tuple with t's values is on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        int i = find(t);
+        if (i < 0)
+            throw new DbException("tuple is not on this page");
+        tuples.remove(i);
+        renumber(i);
+        t.setRecordId(new RecordId(pid, -1));
+    }
+
+    /** Remove and return the ith tuple in key order */
+    public Tuple removeTuple(int i) {
+        Tuple t = tuples.remove(i);
+        renumber(i);
+        return t;
+    }
+
+    public Iterator<Tuple> iterator() {
+        return Collections.unmodifiableList(new ArrayList<Tuple>(tuples)).iterator();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(parent);
+            dos.writeInt(leftSibling);
+            dos.writeInt(rightSibling);
+            dos.writeInt(tuples.size());
+            for (Tuple t : tuples)
+                for (int j = 0; j < td.numFields(); j++)
+                    td.getFieldType(j).serialize(t, j, dos);
+            dos.write(new byte[BufferPool.getPageSize() - baos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to a byte array doesn't fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * BTreeLeafPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new BTreeLeafPage(pid, oldDataRef, td, keyField);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+}
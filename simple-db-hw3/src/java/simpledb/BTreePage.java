@@ -0,0 +1,95 @@
+package simpledb;
+
+/**
+ * BTreePage holds what the internal and leaf pages of a {@link BTreeFile}
+ * have in common: the schema and key field of the tree, and the page number
+ * of the page's parent. The parent of the root page is the root pointer
+ * page, page 0.
+ *
+ * @see BTreeInternalPage
+ * @see BTreeLeafPage
+ */
+public abstract class BTreePage implements Page {
+
+    protected final BTreePageId pid;
+    protected final TupleDesc td;
+    protected final int keyField;
+    protected int parent;
+    protected TransactionId dirtier;
+
+    protected byte[] oldData;
+    protected final Byte oldDataLock = new Byte((byte) 0);
+
+    protected BTreePage(BTreePageId id, TupleDesc td, int keyField) {
+        this.pid = id;
+        this.td = td;
+        this.keyField = keyField;
+    }
+
+    /** @return the BTreeFile the page with the specified id belongs to */
+    static BTreeFile getFile(PageId id) {
+        return (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /** @return the type of the key field */
+    public Type getKeyType() {
+        return td.getFieldType(keyField);
+    }
+
+    /**
+     * @return the id of the parent of this page; the root pointer page if
+     *   this page is the root
+     */
+    public BTreePageId getParentId() {
+        if (parent == 0)
+            return new BTreePageId(pid.getTableId(), 0, BTreePageId.ROOT_PTR);
+        return new BTreePageId(pid.getTableId(), parent, BTreePageId.INTERNAL);
+    }
+
+    /**
+     * Set the parent of this page.
+     *
+     * @throws DbException if id is not an internal page or the root pointer
+     *   page of this page's file
+     */
+    public void setParentId(BTreePageId id) throws DbException {
+        if (id == null || id.getTableId() != pid.getTableId())
+            throw new DbException("parent id must belong to the same table");
+        if (id.pgcateg() == BTreePageId.ROOT_PTR)
+            parent = 0;
+        else if (id.pgcateg() == BTreePageId.INTERNAL)
+            parent = id.getPageNumber();
+        else
+            throw new DbException("parent must be an internal or root pointer page");
+    }
+
+    /** @return true if this page is the root of the tree */
+    public boolean isRoot() {
+        return parent == 0;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /** Make data, the contents of a page this page replaces, its before image */
+    void setBeforeImage(byte[] data) {
+        synchronized (oldDataLock) {
+            oldData = data.clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+/** Unique identifier for the pages of a {@link BTreeFile}. */
+public class BTreePageId implements PageId {
+
+    /** the page at the start of the file that points to the root */
+    public final static int ROOT_PTR = 0;
+    public final static int INTERNAL = 1;
+    public final static int LEAF = 2;
+    /** pages recording which pages of the file are free */
+    public final static int HEADER = 3;
+
+    private final int tableId;
+    private final int pgNo;
+    private final int pgcateg;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param pgcateg which kind of page it is: ROOT_PTR, INTERNAL, LEAF or
+     *   HEADER
+     */
+    public BTreePageId(int tableId, int pgNo, int pgcateg) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.pgcateg = pgcateg;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    /** @return the category of this page: ROOT_PTR, INTERNAL, LEAF or HEADER */
+    public int pgcateg() {
+        return pgcateg;
+    }
+
+    static String categToString(int categ) {
+        switch (categ) {
+        case ROOT_PTR:
+            return "ROOT_PTR";
+        case INTERNAL:
+            return "INTERNAL";
+        case LEAF:
+            return "LEAF";
+        case HEADER:
+            return "HEADER";
+        default:
+            return "UNKNOWN";
+        }
+    }
+
+    public int hashCode() {
+        return tableId + (pgNo * 4 + pgcateg) * 1000;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId))
+            return false;
+        BTreePageId id = (BTreePageId) o;
+        return id.tableId == tableId && id.pgNo == pgNo && id.pgcateg == pgcateg;
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pgNo + ", " + categToString(pgcateg) + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pgNo, pgcateg };
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeRootPtrPage is page 0 of every {@link BTreeFile}. It records where
+ * the root of the tree and the first header page are, so that the root can
+ * move as the tree grows and shrinks.
+ * <p>
+ * The layout of a page is the page number of the root (an int), the
+ * category of the root (a byte) and the page number of the first header
+ * page, 0 if there is none (an int). The rest of the page is unused.
+ */
+public class BTreeRootPtrPage implements Page {
+
+    private final BTreePageId pid;
+    private int root;
+    private int rootCategory;
+    private int header;
+    private TransactionId dirtier;
+
+    private byte[] oldData;
+    private final Byte oldDataLock = new Byte((byte) 0);
+
+    /**
+     * Create a BTreeRootPtrPage from a set of bytes of data read from disk.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        root = dis.readInt();
+        rootCategory = dis.readByte();
+        header = dis.readInt();
+        setBeforeImage();
+    }
+
+    /** @return the id of the root pointer page of the specified table */
+    public static BTreePageId getId(int tableid) {
+        return new BTreePageId(tableid, 0, BTreePageId.ROOT_PTR);
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /** @return the id of the root page, or null if the tree has none */
+    public BTreePageId getRootId() {
+        return root == 0 ? null : new BTreePageId(pid.getTableId(), root, rootCategory);
+    }
+
+    /**
+     * Make the specified internal or leaf page the root of the tree.
+     *
+     * @throws DbException if id is not an internal or leaf page of this table
+     */
+    public void setRootId(BTreePageId id) throws DbException {
+        if (id.getTableId() != pid.getTableId())
+            throw new DbException("root must belong to the same table");
+        if (id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.LEAF)
+            throw new DbException("root must be an internal or leaf page");
+        root = id.getPageNumber();
+        rootCategory = id.pgcateg();
+    }
+
+    /** @return the id of the first header page, or null if there is none */
+    public BTreePageId getHeaderId() {
+        return header == 0 ? null : new BTreePageId(pid.getTableId(), header, BTreePageId.HEADER);
+    }
+
+    public void setHeaderId(BTreePageId id) {
+        header = id == null ? 0 : id.getPageNumber();
+    }
+
+    /**
+     * @return the bytes of a root pointer page pointing to the specified
+     *   root page and to no header page
+     */
+    static byte[] createPageData(int rootPgNo, int rootCategory) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = (byte) (rootPgNo >>> 24);
+        data[1] = (byte) (rootPgNo >>> 16);
+        data[2] = (byte) (rootPgNo >>> 8);
+        data[3] = (byte) rootPgNo;
+        data[4] = (byte) rootCategory;
+        return data;
+    }
+
+    public byte[] getPageData() {
+        byte[] data = createPageData(root, rootCategory);
+        data[5] = (byte) (header >>> 24);
+        data[6] = (byte) (header >>> 16);
+        data[7] = (byte) (header >>> 8);
+        data[8] = (byte) header;
+        return data;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreeRootPtrPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new BTreeRootPtrPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
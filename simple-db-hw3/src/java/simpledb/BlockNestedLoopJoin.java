@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin joins two children by nested loops over blocks of the
+ * outer child: it reads up to {@link #BLOCK_SIZE} outer tuples into memory,
+ * then scans the inner child once, pairing each inner tuple with every tuple
+ * of the block. The inner child is scanned once per block, rather than once
+ * per outer tuple as by {@link Join}, and any predicate can be joined on.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Most outer tuples held in memory at once */
+    public static final int BLOCK_SIZE = 20000;
+
+    private final JoinPredicate pred;
+    private OpIterator outer, inner;
+    private TupleDesc comboTD;
+    private final ArrayList<Tuple> block = new ArrayList<Tuple>();
+    // the inner tuple being paired with the block, and the next tuple of
+    // the block to pair it with
+    private Tuple innerTuple;
+    private int next;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        pred = p;
+        outer = child1;
+        inner = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /** Read the next block of outer tuples; @return false if there are none */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < BLOCK_SIZE && outer.hasNext())
+            block.add(outer.next());
+        innerTuple = null;
+        return !block.isEmpty();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outer.open();
+        inner.open();
+        loadBlock();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        inner.close();
+        outer.close();
+        block.clear();
+        innerTuple = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        outer.rewind();
+        inner.rewind();
+        loadBlock();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of each inner tuple with each tuple of
+     * the block it satisfies the predicate with, block by block.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (!block.isEmpty()) {
+            if (innerTuple != null) {
+                while (next < block.size()) {
+                    Tuple t1 = block.get(next++);
+                    if (pred.filter(t1, innerTuple))
+                        return Tuple.merge(comboTD, t1, innerTuple);
+                }
+            }
+            if (inner.hasNext()) {
+                innerTuple = inner.next();
+                next = 0;
+            } else if (loadBlock()) {
+                inner.rewind();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { outer, inner };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        outer = children[0];
+        inner = children[1];
+        comboTD = TupleDesc.merge(outer.getTupleDesc(), inner.getTupleDesc());
+    }
+}
@@ -12,6 +12,10 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Pages of running transactions may be written to disk (STEAL), and those
+ * of committing transactions are not (NO-FORCE); the {@link LogFile} logs
+ * the changes first, so that recovery can undo or redo them.
  * 
  * @Threadsafe, all fields are final
  */
@@ -73,15 +77,18 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
     	
-       HeapPage p = (HeapPage) pages.get(pid);
+       Database.getOptimisticValidator().read(tid, pid);
+       Page p = pages.get(pid);
        
        if(p == null) {
     	   if(pages.size() >= numPages) {
     		   evictPage();
     	   }
     	   DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-    	   p = (HeapPage) file.readPage(pid); 	   
-    	   p.setPermissions(perm);
+    	   p = file.readPage(pid); 	   
+    	   if(p instanceof HeapPage) {
+    		   ((HeapPage) p).setPermissions(perm);
+    	   }
            pages.put(pid, p);
 
        }
@@ -99,8 +106,10 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public  void releasePage(TransactionId tid, PageId pid) {
-    	HeapPage hp = (HeapPage) pages.get(pid);
-    	hp.setPermissions(null);
+    	Page p = pages.get(pid);
+    	if(p instanceof HeapPage) {
+    		((HeapPage) p).setPermissions(null);
+    	}
     }
 
     /**
@@ -131,6 +140,8 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        Database.getVersionStore().transactionComplete(tid, commit);
+        Database.getOptimisticValidator().transactionComplete(tid);
     }
 
     /**
@@ -151,8 +162,21 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
             	
+    	OptimisticValidator validator = Database.getOptimisticValidator();
+    	if(validator.bufferInsert(tid, tableId, t)) {
+    		return;
+    	}
     	DbFile tableFile = Database.getCatalog().getDatabaseFile(tableId);
     	ArrayList<Page> dirtyPages = tableFile.insertTuple(tid, t);
+    	if(tableFile instanceof HeapFile) {
+    		Database.getVersionStore().inserted(tid, t);
+    	}
+    	TableStats.recordInsert(tableId, t);
+    	HashIndexFile index = Database.getCatalog().getHashIndex(tableId);
+    	if(index != null) {
+    		dirtyPages.addAll(index.insertTuple(tid, t));
+    	}
+    	Database.getIndexCache().invalidate(tableId);
     	System.out.println("Received " + dirtyPages.size() + " dirty pages.");
     	synchronized(this) {
     		for(Page p : dirtyPages) {
@@ -170,7 +194,7 @@ public class BufferPool {
     			}
     		}
     	}
-    	
+    	validator.written(dirtyPages);
   }
 
     /**
@@ -189,9 +213,28 @@ public class BufferPool {
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
     	
-    	
+    	OptimisticValidator validator = Database.getOptimisticValidator();
+    	if(validator.bufferDelete(tid, t)) {
+    		return;
+    	}
     	DbFile tableFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-    	ArrayList<Page> dirtyPages = tableFile.deleteTuple(tid, t);
+    	RecordId rid = t.getRecordId();
+    	if(tableFile instanceof HeapFile) {
+    		Database.getVersionStore().checkDelete(tid, t);
+    	}
+    	// the index entry goes first, while t still has its RecordId
+    	ArrayList<Page> dirtyPages = new ArrayList<Page>();
+    	HashIndexFile index = Database.getCatalog().getHashIndex(tableFile.getId());
+    	if(index != null) {
+    		dirtyPages.addAll(index.deleteTuple(tid, t));
+    	}
+    	dirtyPages.addAll(tableFile.deleteTuple(tid, t));
+    	if(tableFile instanceof HeapFile) {
+    		// snapshots that don't see the delete keep seeing the tuple
+    		Database.getVersionStore().deleted(tid, t, rid);
+    	}
+    	TableStats.recordDelete(tableFile.getId(), t);
+    	Database.getIndexCache().invalidate(tableFile.getId());
 
     	synchronized(this) {
     		for(Page p : dirtyPages) {
@@ -209,7 +252,23 @@ public class BufferPool {
     			}
     		}
     	}
+    	validator.written(dirtyPages);
+    }
 
+    /**
+     * Mark the pages dirtied by an operation of tid outside insertTuple and
+     * deleteTuple as dirty, and put them back in the cache in case the
+     * operation's own page requests evicted them.
+     */
+    synchronized void putDirtyPages(TransactionId tid, List<Page> dirtyPages) throws DbException {
+    	for(Page p : dirtyPages) {
+    		p.markDirty(true, tid);
+    		if(pages.get(p.getId()) == null && pages.size() >= numPages) {
+    			evictPage();
+    		}
+    		pages.put(p.getId(), p);
+    	}
+    	Database.getOptimisticValidator().written(dirtyPages);
     }
 
     /**
@@ -241,22 +300,76 @@ public class BufferPool {
     }
 
     /**
-     * Flushes a certain page to disk
+     * Write the specified page to disk if it is dirty, and remove it from
+     * the buffer pool.  Used by B+ tree files to reuse a free page under
+     * another category than the one it is cached under.
+     */
+    synchronized void flushAndDiscardPage(PageId pid) throws IOException {
+    	if(pages.containsKey(pid)) {
+    		flushPage(pid);
+    		pages.remove(pid);
+    	}
+    }
+
+    /**
+     * Flushes a certain page to disk.  If the page was dirtied by a running
+     * transaction, its changes are logged, and the log forced, before it is
+     * written.
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
 
-    	HeapPage p = (HeapPage) pages.get(pid);
+    	Page p = pages.get(pid);
     	TransactionId tid = p.isDirty();
     	if(tid != null) {
+    		LogFile log = Database.getLogFile();
+    		if(log.isActive(tid)) {
+    			log.logWrite(tid, p.getBeforeImage(), p);
+    			log.force();
+    		}
     		int tableId = p.getId().getTableId();
-    		HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
-    		hf.writePage(p);
+    		DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+    		f.writePage(p);
     		p.markDirty(false, tid);
+    		p.setBeforeImage();
+    		log.pageWritten(pid);
     	}
     	
    }
 
+    /**
+     * Log the changes tid made to the pages it dirtied, and make their
+     * current contents their before images, so that tid can commit without
+     * writing them to disk.  The pages stay dirty, and are written when they
+     * are evicted or flushed.
+     */
+    public synchronized void logPages(TransactionId tid) throws IOException {
+    	LogFile log = Database.getLogFile();
+    	for(Page p : pages.values()) {
+    		if(p.isDirty() == tid) {
+    			log.logWrite(tid, p.getBeforeImage(), p);
+    			p.setBeforeImage();
+    		}
+    	}
+    }
+
+    /**
+     * Undo the changes of an aborting transaction to the pages it dirtied in
+     * the cache by replacing them with their before images, which hold what
+     * the last committed transactions wrote, and need not be on disk yet.
+     * Pages tid wrote to disk are restored by the LogFile.
+     */
+    synchronized void restorePages(TransactionId tid) {
+    	for(PageId pid : pages.keySet()) {
+    		Page p = pages.get(pid);
+    		if(p.isDirty() == tid) {
+    			Page before = p.getBeforeImage();
+    			before.markDirty(true, tid);
+    			pages.put(pid, before);
+    		}
+    	}
+    }
+
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
@@ -271,15 +384,21 @@ public class BufferPool {
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
-     * Find the page with the lowest tid that is not locked and release it -- locking not done yet
+     * Clean pages are evicted first; if all pages are dirty, the page with the
+     * lowest tid is written out before it is evicted, so its changes are not
+     * lost -- locking not done yet
      */
     private synchronized  void evictPage() throws DbException {
     	TransactionId minTid = null;
     	PageId minPgId = null;
     	
     	for(PageId p : pages.keySet()) {
-    		HeapPage pg = (HeapPage) pages.get(p);
+    		Page pg = pages.get(p);
     		TransactionId tid = pg.isDirty();
+    		if(tid == null) {
+    			pages.remove(p);
+    			return;
+    		}
     		if(minTid == null || tid.getId() < minTid.getId()) {
     			minTid = tid;
     			minPgId = p;
@@ -288,6 +407,11 @@ public class BufferPool {
     
     	// if pages not empty
     	if(minPgId != null) {
+    		try {
+    			flushPage(minPgId);
+    		} catch (IOException e) {
+    			throw new DbException("could not flush page " + minPgId + ": " + e.getMessage());
+    		}
     		pages.remove(minPgId);
     	}
     }
@@ -49,8 +49,12 @@ public class Catalog {
      * Creates a new, empty catalog.
      */
 	public Map<Integer, TableDesc> tableMap; // name to table details
+	private Map<Integer, HashIndexFile> hashIndexes; // indexed table id to its index
+	private Map<Integer, HashIndexFile> indexFiles; // index id to index
 	public Catalog() {
 		tableMap = new HashMap<Integer, TableDesc>();
+		hashIndexes = new HashMap<Integer, HashIndexFile>();
+		indexFiles = new HashMap<Integer, HashIndexFile>();
 	}
 
     /**
@@ -135,11 +139,36 @@ public class Catalog {
     	if(tableMap.containsKey(tableid)) {
     		return tableMap.get(tableid).databaseFile;
     	}
+    	if(indexFiles.containsKey(tableid)) {
+    		return indexFiles.get(tableid);
+    	}
     	
     	throw new NoSuchElementException();
     
     }
 
+    /**
+     * Add a hash index of the primary key of a table. The index is kept up
+     * to date by the BufferPool, and its pages can be read through the
+     * BufferPool like those of a table, but it is not listed as a table.
+     * @param index the index; index.getIndexedTableId() must be in the catalog
+     */
+    public void addHashIndex(HashIndexFile index) {
+    	HashIndexFile old = hashIndexes.put(index.getIndexedTableId(), index);
+    	if(old != null) {
+    		indexFiles.remove(old.getId());
+    	}
+    	indexFiles.put(index.getId(), index);
+    }
+
+    /**
+     * @return the hash index of the primary key of the specified table, or
+     *   null if it has none
+     */
+    public HashIndexFile getHashIndex(int tableid) {
+    	return hashIndexes.get(tableid);
+    }
+
     public String getPrimaryKey(int tableid) {
     	if(tableMap.containsKey(tableid)) {
     		return tableMap.get(tableid).primaryKey;
@@ -165,6 +194,8 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
     	tableMap.clear();
+    	hashIndexes.clear();
+    	indexFiles.clear();
     }
     
     /**
@@ -178,7 +209,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [options]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -186,22 +217,33 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                int indexField = -1;
+                boolean hashPk = false;
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
-                        types.add(Type.STRING_TYPE);
+                    Type type = Type.forName(els2[1]);
+                    if (type != null)
+                        types.add(type);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    // annotations follow the type, e.g. "id int pk index"
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("hash"))
+                            hashPk = true;
+                        else if (els2[i].trim().equals("index")) {
+                            if (indexField >= 0) {
+                                System.out.println("Only one field can be indexed in table " + name);
+                                System.exit(0);
+                            }
+                            indexField = names.size() - 1;
+                        }
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -209,9 +251,43 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // table options follow the field list, e.g. "... ) slotted"
+                boolean slotted = false;
+                boolean columnar = false;
+                for (String opt : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (opt.length() == 0)
+                        continue;
+                    if (opt.toLowerCase().equals("slotted"))
+                        slotted = true;
+                    else if (opt.toLowerCase().equals("columnar"))
+                        columnar = true;
+                    else {
+                        System.out.println("Unknown table option " + opt);
+                        System.exit(0);
+                    }
+                }
+                if (indexField >= 0 && (slotted || columnar)) {
+                    System.out.println("Indexed table " + name + " can't be slotted or columnar");
+                    System.exit(0);
+                }
+                if (hashPk && (primaryKey.length() == 0 || indexField >= 0 || columnar)) {
+                    System.out.println("Only the primary key of a heap file table can be hashed in table " + name);
+                    System.exit(0);
+                }
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (indexField >= 0)
+                    tabHf = new BTreeFile(tabFile, indexField, t);
+                else if (columnar)
+                    tabHf = new ColumnarFile(tabFile, t);
+                else if (slotted)
+                    tabHf = new SlottedHeapFile(tabFile, t);
+                else
+                    tabHf = new HeapFile(tabFile, t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                if (hashPk)
+                    addHashIndex(loadHashIndex(new File(baseFolder+"/"+name + ".hash"), tabHf, t.fieldNameToIndex(primaryKey)));
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -221,5 +297,29 @@ public class Catalog {
             System.exit(0);
         }
     }
+
+    /**
+     * Open the hash index of field keyField of table tabHf stored in
+     * indexFile, building it from the table's tuples if the file is missing.
+     */
+    private HashIndexFile loadHashIndex(File indexFile, DbFile tabHf, int keyField) throws IOException {
+        boolean exists = indexFile.length() > 0;
+        HashIndexFile index = new HashIndexFile(indexFile, tabHf.getId(), keyField,
+                tabHf.getTupleDesc().getFieldType(keyField));
+        if (!exists && tabHf.numPages() > 0) {
+            indexFiles.put(index.getId(), index);
+            TransactionId tid = new TransactionId();
+            try {
+                index.build(tid);
+                Database.getBufferPool().flushPages(tid);
+            } catch (DbException e) {
+                throw new IOException("couldn't build " + indexFile + ": " + e.getMessage());
+            } catch (TransactionAbortedException e) {
+                throw new IOException("couldn't build " + indexFile + ": " + e.getMessage());
+            }
+            System.out.println("Built hash index " + indexFile);
+        }
+        return index;
+    }
 }
 
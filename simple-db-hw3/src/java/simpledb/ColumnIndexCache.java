@@ -0,0 +1,208 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ColumnIndexCache keeps in-memory hash indexes from the values of a field
+ * of a base table to the RecordIds of the tuples holding them, for
+ * {@link IndexNestedLoopJoin}. An index is built by one scan of the table
+ * the first time it is asked for, and is kept across queries until a tuple
+ * of its table is inserted or deleted through the BufferPool. When the
+ * estimated memory used by all indexes exceeds the cache's budget, the least
+ * recently used indexes are dropped.
+ * <p>
+ * Only tables stored in a {@link HeapFile} or {@link BTreeFile} can be
+ * indexed, since the tuples are fetched again by RecordId.
+ */
+public class ColumnIndexCache {
+
+    /** Default memory budget of the cache, in bytes */
+    public static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+    /** Estimated memory used per indexed tuple besides its key, in bytes */
+    static final int BYTES_PER_ENTRY = 40;
+
+    /** An index of one field of one table */
+    public static class Index {
+        final DbFile file;
+        final int field;
+        final HashMap<Field, ArrayList<RecordId>> map = new HashMap<Field, ArrayList<RecordId>>();
+        long bytes;
+
+        Index(DbFile file, int field) {
+            this.file = file;
+            this.field = field;
+        }
+
+        /** @return the RecordIds of the tuples whose field equals key; empty if there are none */
+        public List<RecordId> lookup(Field key) {
+            ArrayList<RecordId> rids = map.get(key);
+            return rids == null ? Collections.<RecordId>emptyList() : rids;
+        }
+
+        /** @return the number of distinct values of the field */
+        public int numKeys() {
+            return map.size();
+        }
+
+        /** @return the estimated memory used by this index, in bytes */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    private final long maxBytes;
+    private long usedBytes;
+    /** indexes by tableId and field, least recently used first */
+    private final LinkedHashMap<Long, Index> indexes = new LinkedHashMap<Long, Index>(16, 0.75f, true);
+    /** number of times each table has been written to */
+    private final HashMap<Integer, Long> versions = new HashMap<Integer, Long>();
+
+    /**
+     * Create an empty cache.
+     *
+     * @param maxBytes the estimated memory the indexes may use together
+     */
+    public ColumnIndexCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    private static Long key(int tableId, int field) {
+        return ((long) tableId << 32) | (field & 0xffffffffL);
+    }
+
+    /** @return true if the tuples of f can be indexed by this cache */
+    public static boolean canIndex(DbFile f) {
+        return f instanceof HeapFile || f instanceof BTreeFile;
+    }
+
+    /**
+     * @return true if an up to date index of field of table tableId is in
+     *   the cache, so using it costs no scan of the table
+     */
+    public synchronized boolean isCached(int tableId, int field) {
+        Index ix = indexes.get(key(tableId, field));
+        return ix != null && ix.file == Database.getCatalog().getDatabaseFile(tableId);
+    }
+
+    /** @return the estimated memory used by the cached indexes, in bytes */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private long version(int tableId) {
+        Long v = versions.get(tableId);
+        return v == null ? 0 : v;
+    }
+
+    /**
+     * Return the index of field of table tableId, building it with a scan
+     * of the table if it is not cached.
+     *
+     * @param tid the transaction to scan the table as
+     * @return the index, or null if the table can't be indexed, the index
+     *   would be larger than the cache, or the table was written to while
+     *   the index was built
+     */
+    public Index getIndex(TransactionId tid, int tableId, int field)
+            throws DbException, TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!canIndex(f))
+            return null;
+        long version;
+        synchronized (this) {
+            Index ix = indexes.get(key(tableId, field));
+            if (ix != null && ix.file == f)
+                return ix;
+            version = version(tableId);
+        }
+
+        Index ix = build(tid, f, field);
+        if (ix == null)
+            return null;
+
+        synchronized (this) {
+            if (version(tableId) != version)
+                return null;
+            Index old = indexes.put(key(tableId, field), ix);
+            if (old != null)
+                usedBytes -= old.bytes;
+            usedBytes += ix.bytes;
+            Iterator<Index> it = indexes.values().iterator();
+            while (usedBytes > maxBytes && it.hasNext()) {
+                Index lru = it.next();
+                if (lru == ix)
+                    continue;
+                usedBytes -= lru.bytes;
+                it.remove();
+            }
+        }
+        return ix;
+    }
+
+    /** Scan f and index field, giving up if the index gets larger than the cache */
+    private Index build(TransactionId tid, DbFile f, int field)
+            throws DbException, TransactionAbortedException {
+        Index ix = new Index(f, field);
+        DbFileIterator it = f instanceof PushdownDbFile
+            ? ((PushdownDbFile) f).iterator(tid, new int[] { field }, new Predicate[0])
+            : f.iterator(tid);
+        int keyLen = f.getTupleDesc().getFieldType(field).getLen();
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                ArrayList<RecordId> rids = ix.map.get(t.getField(field));
+                if (rids == null) {
+                    rids = new ArrayList<RecordId>(1);
+                    ix.map.put(t.getField(field), rids);
+                }
+                rids.add(t.getRecordId());
+                ix.bytes += keyLen + BYTES_PER_ENTRY;
+                if (ix.bytes > maxBytes)
+                    return null;
+            }
+        } finally {
+            it.close();
+        }
+        return ix;
+    }
+
+    /**
+     * Drop the indexes of table tableId, because its tuples have changed.
+     * An index of it that is being built when this is called is not cached.
+     */
+    public synchronized void invalidate(int tableId) {
+        versions.put(tableId, version(tableId) + 1);
+        Iterator<Map.Entry<Long, Index>> it = indexes.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Index> e = it.next();
+            if ((int) (e.getKey() >> 32) == tableId) {
+                usedBytes -= e.getValue().bytes;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Fetch the tuple with RecordId rid through the BufferPool.
+     *
+     * @return the tuple, or null if it has been deleted
+     */
+    public static Tuple fetch(TransactionId tid, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        Page p = Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+        int slot = rid.getTupleNumber();
+        try {
+            if (p instanceof TuplePage)
+                return ((TuplePage) p).getTuple(slot);
+            if (p instanceof BTreeLeafPage) {
+                BTreeLeafPage lp = (BTreeLeafPage) p;
+                return slot >= 0 && slot < lp.getNumTuples() ? lp.getTuple(slot) : null;
+            }
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        throw new DbException("can't fetch tuples from " + p.getClass().getSimpleName());
+    }
+}
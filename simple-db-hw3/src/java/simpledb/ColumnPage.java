@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * ColumnPage stores the values of a single column of a {@link ColumnarFile}
+ * for a run of consecutive rows. All values of a column have the same fixed
+ * width (see {@link Type#getLen}), so row r of a column always lives in slot
+ * r % capacity of page r / capacity.
+ * <p>
+ * The layout of a page is:
+ * <ul>
+ * <li> the number of values on the page (an int)
+ * <li> the smallest and the largest value on the page, each in the
+ *      column type's serialized format (zeroes while the page is empty)
+ * <li> the values, back to back
+ * </ul>
+ * Deleting rows does not shrink the min/max range, so it always covers the
+ * live values on the page.
+ */
+public class ColumnPage implements Page {
+
+    final ColumnPageId pid;
+    final Type type;
+    final int capacity;
+    int count;
+    final byte[] values;
+    final ByteBuffer buf;
+    Field min, max;
+    TransactionId dirtier;
+
+    byte[] oldData;
+    private final Byte oldDataLock=new Byte((byte)0);
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk.
+     *
+     * @param id the id of this page
+     * @param type the type of the values of this column
+     * @param data the bytes of the page; all zeroes is an empty page
+     */
+    public ColumnPage(ColumnPageId id, Type type, byte[] data) throws IOException {
+        this.pid = id;
+        this.type = type;
+        this.capacity = getCapacity(type);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        count = dis.readInt();
+        try {
+            if (count > 0) {
+                min = type.parse(dis);
+                max = type.parse(dis);
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("bad column page header", e);
+        }
+        int header = getHeaderSize(type);
+        values = Arrays.copyOfRange(data, header, header + capacity * type.getLen());
+        buf = ByteBuffer.wrap(values);
+        setBeforeImage();
+    }
+
+    /** @return the number of header bytes on a page of a column of type t */
+    static int getHeaderSize(Type t) {
+        return 4 + 2 * t.getLen();
+    }
+
+    /** @return the number of values a page of a column of type t holds */
+    static int getCapacity(Type t) {
+        return (BufferPool.getPageSize() - getHeaderSize(t)) / t.getLen();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * ColumnPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /** @return the number of values on this page */
+    public int getCount() {
+        return count;
+    }
+
+    /** @return the smallest value added to this page, or null if it is empty */
+    public Field getMin() {
+        return min;
+    }
+
+    /** @return the largest value added to this page, or null if it is empty */
+    public Field getMax() {
+        return max;
+    }
+
+    public boolean isFull() {
+        return count >= capacity;
+    }
+
+    /**
+     * Store the value in slot of this page into field i of t, which must be
+     * of this page's type, without creating a Field object.
+     */
+    public void readInto(int slot, Tuple t, int i) {
+        int off = slot * type.getLen();
+        switch (type) {
+        case INT_TYPE:
+            t.setInt(i, buf.getInt(off));
+            break;
+        case LONG_TYPE:
+        case DATE_TYPE:
+            t.setLong(i, buf.getLong(off));
+            break;
+        case DOUBLE_TYPE:
+            t.setDouble(i, buf.getDouble(off));
+            break;
+        case BOOLEAN_TYPE:
+            t.setBoolean(i, values[off] != 0);
+            break;
+        case STRING_TYPE:
+            int len = buf.getInt(off);
+            t.setStringBytes(i, Arrays.copyOfRange(values, off + 4, off + 4 + len));
+            break;
+        }
+    }
+
+    /** @return the value in slot of this page, which must be a BOOLEAN_TYPE page */
+    public boolean getBoolean(int slot) {
+        return values[slot] != 0;
+    }
+
+    /** Overwrite the value in slot of this page, which must be a BOOLEAN_TYPE page */
+    public void setBoolean(int slot, boolean v) {
+        values[slot] = (byte) (v ? 1 : 0);
+    }
+
+    /**
+     * Append field i of t, which must be of this page's type, to this page
+     * and widen the page's min/max range to include it.
+     *
+     * @return the slot the value was stored in
+     * @throws DbException if the page is full
+     */
+    public int append(Tuple t, int i) throws DbException {
+        if (isFull())
+            throw new DbException("column page is full");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(type.getLen());
+        try {
+            type.serialize(t, i, new DataOutputStream(baos));
+        } catch (IOException e) {
+            throw new DbException("couldn't serialize value: " + e);
+        }
+        System.arraycopy(baos.toByteArray(), 0, values, count * type.getLen(), type.getLen());
+        Field v = t.getField(i);
+        if (min == null || v.compare(Predicate.Op.LESS_THAN, min))
+            min = v;
+        if (max == null || v.compare(Predicate.Op.GREATER_THAN, max))
+            max = v;
+        return count++;
+    }
+
+    /**
+     * Append a true value to this page, which must be a BOOLEAN_TYPE page.
+     * Used for the live column of a ColumnarFile, which needs no min/max.
+     *
+     * @return the slot the value was stored in
+     * @throws DbException if the page is full
+     */
+    public int appendLive() throws DbException {
+        if (isFull())
+            throw new DbException("column page is full");
+        values[count] = 1;
+        return count++;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(count);
+            if (count > 0) {
+                Tuple t = new Tuple(new TupleDesc(new Type[] { type, type }));
+                t.setField(0, min);
+                t.setField(1, max);
+                type.serialize(t, 0, dos);
+                type.serialize(t, 1, dos);
+            } else {
+                dos.write(new byte[2 * type.getLen()]);
+            }
+            dos.write(values);
+            dos.write(new byte[BufferPool.getPageSize() - baos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to a byte array doesn't fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new ColumnPage(pid, type, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+/** Unique identifier for ColumnPage objects: a page of one column of a
+ * {@link ColumnarFile}. */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column of the table (numFields() for the column of
+     *   live flags)
+     * @param pgNo The page number in that column.
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pageNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column of the table this page belongs to */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the page number in the column getColumn() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pageNo;
+    }
+
+    public int hashCode() {
+        return tableId + (pageNo * 64 + column) * 1000;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId))
+            return false;
+        ColumnPageId id = (ColumnPageId) o;
+        return id.tableId == tableId && id.column == column && id.pageNo == pageNo;
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + column + ", " + pageNo + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.  Size of returned array must contain
+     *  number of integers that corresponds to number of args to one of the
+     *  constructors.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, column, pageNo };
+    }
+}
@@ -0,0 +1,344 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnarFile is a DbFile that stores each field of a table in a file of its
+ * own, as a sequence of {@link ColumnPage}s. A scan that only needs a few
+ * fields of a wide table only reads the pages of those fields, and pages
+ * whose min/max range rules out a selection predicate are not read at all.
+ * <p>
+ * The rows of the table are numbered in insertion order, and row r of field
+ * i lives in slot r % capacity of page r / capacity of that field's column,
+ * where capacity is the number of values of the field's type that fit on a
+ * page. A table with base file <tt>f</tt> is stored in these files:
+ * <ul>
+ * <li> <tt>f.0</tt> .. <tt>f.(n-1)</tt>: the columns of the n fields
+ * <li> <tt>f.live</tt>: a BOOLEAN column recording for every row whether it
+ *      has been deleted. Its page and slot number form the RecordId of a row.
+ * <li> <tt>f</tt> itself: the {@link ZoneMap} of all columns, so a scan can
+ *      skip pages without reading them
+ * </ul>
+ * Tables are stored in this format when their catalog entry is followed by
+ * the <tt>columnar</tt> option, and are written by
+ * {@link HeapFileEncoder#convertColumnar}.
+ *
+ * @see ColumnPage
+ */
+public class ColumnarFile implements PushdownDbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int tableId;
+    private final ZoneMap zones;
+
+    /**
+     * Open the columnar table whose zone map is stored in f. The column
+     * files are created when the first tuple is inserted.
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.tableId = f.getAbsolutePath().hashCode();
+        this.zones = ZoneMap.open(f, columnTypes(td));
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getId() {
+        return tableId;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the file holding column c; column numFields() is the live column */
+    File getColumnFile(int c) {
+        return getColumnFile(file, c, td.numFields());
+    }
+
+    /**
+     * @return the file holding column c of the table with zone map f and
+     *   numFields fields
+     */
+    static File getColumnFile(File f, int c, int numFields) {
+        return new File(f.getPath() + "." + (c == numFields ? "live" : String.valueOf(c)));
+    }
+
+    /** @return the type of column c */
+    Type getColumnType(int c) {
+        return c == td.numFields() ? Type.BOOLEAN_TYPE : td.getFieldType(c);
+    }
+
+    /** @return the number of pages in column c */
+    public int numPages(int c) {
+        return (int) (getColumnFile(c).length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns the number of pages in all columns together, which is what a
+     * scan of all fields reads.
+     */
+    public int numPages() {
+        int n = 0;
+        for (int c = 0; c <= td.numFields(); c++)
+            n += numPages(c);
+        return n;
+    }
+
+    /** @return the zones of the columns' pages */
+    ZoneMap getZoneMap() {
+        return zones;
+    }
+
+    /** @return the types of the columns of a table of schema td, including the live column */
+    static Type[] columnTypes(TupleDesc td) {
+        Type[] types = new Type[td.numFields() + 1];
+        for (int c = 0; c < td.numFields(); c++)
+            types[c] = td.getFieldType(c);
+        types[td.numFields()] = Type.BOOLEAN_TYPE;
+        return types;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId id = (ColumnPageId) pid;
+        RandomAccessFile rf = null;
+        try {
+            rf = new RandomAccessFile(getColumnFile(id.getColumn()), "r");
+            byte pageBuf[] = new byte[BufferPool.getPageSize()];
+            long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+            if (offset + pageBuf.length > rf.length()) {
+                throw new IllegalArgumentException("Read past end of column " + id.getColumn());
+            }
+            rf.seek(offset);
+            rf.readFully(pageBuf);
+            Debug.log(1, "ColumnarFile.readPage: read page %d of column %d",
+                    id.getPageNumber(), id.getColumn());
+            return new ColumnPage(id, getColumnType(id.getColumn()), pageBuf);
+        } catch (FileNotFoundException e) {
+            throw new IllegalArgumentException("Read past end of column " + id.getColumn());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                if (rf != null)
+                    rf.close();
+            } catch (IOException ioe) {
+                // Ignore failures closing the file
+            }
+        }
+    }
+
+    /**
+     * Write the page to its column file. The zone map is written first, so
+     * that the zones on disk always cover the pages on disk.
+     */
+    public void writePage(Page page) throws IOException {
+        ColumnPageId id = (ColumnPageId) page.getId();
+        zones.flush(file);
+        RandomAccessFile rf = new RandomAccessFile(getColumnFile(id.getColumn()), "rw");
+        rf.seek((long) id.getPageNumber() * BufferPool.getPageSize());
+        rf.write(page.getPageData());
+        rf.close();
+    }
+
+    private void appendNewPage(int c) throws IOException {
+        synchronized (this) {
+            BufferedOutputStream bw = new BufferedOutputStream(
+                    new FileOutputStream(getColumnFile(c), true));
+            bw.write(ColumnPage.createEmptyPageData());
+            bw.close();
+        }
+    }
+
+    /**
+     * Get page p of column c for writing, adding it to the column first if
+     * it does not exist yet.
+     */
+    private ColumnPage getWritablePage(TransactionId tid, int c, int p)
+            throws DbException, IOException, TransactionAbortedException {
+        if (p >= numPages(c))
+            appendNewPage(c);
+        return (ColumnPage) Database.getBufferPool().getPage(tid,
+                new ColumnPageId(tableId, c, p), Permissions.READ_WRITE);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("Schema mismatch.");
+        for (int i = 0; i < td.numFields(); i++)
+            if (t.getField(i) == null || t.getField(i).getType() != td.getFieldType(i))
+                throw new DbException("field " + i + " is not a " + td.getFieldType(i));
+
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        int live = td.numFields();
+        synchronized (this) {
+            // the live column decides the row number of the new tuple
+            int livePage = Math.max(numPages(live) - 1, 0);
+            ColumnPage lp = getWritablePage(tid, live, livePage);
+            if (lp.isFull())
+                lp = getWritablePage(tid, live, ++livePage);
+            long row = (long) livePage * ColumnPage.getCapacity(Type.BOOLEAN_TYPE) + lp.getCount();
+
+            for (int c = 0; c < live; c++) {
+                int cap = ColumnPage.getCapacity(td.getFieldType(c));
+                int p = (int) (row / cap);
+                ColumnPage cp = getWritablePage(tid, c, p);
+                if (cp.getCount() != row % cap)
+                    throw new DbException("columns of table " + tableId + " out of sync");
+                cp.append(t, c);
+                cp.markDirty(true, tid);
+                dirty.add(cp);
+                zones.set(c, p, new Field[] { cp.getMin(), cp.getMax() });
+            }
+            int slot = lp.appendLive();
+            lp.markDirty(true, tid);
+            dirty.add(lp);
+            t.setRecordId(new RecordId(lp.getId(), slot));
+        }
+        return dirty;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof ColumnPageId)
+                || rid.getPageId().getTableId() != tableId
+                || ((ColumnPageId) rid.getPageId()).getColumn() != td.numFields())
+            throw new DbException("tuple is not a member of this file");
+        ColumnPage lp = (ColumnPage) Database.getBufferPool().getPage(tid,
+                rid.getPageId(), Permissions.READ_WRITE);
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= lp.getCount() || !lp.getBoolean(slot))
+            throw new DbException("tuple slot is already empty");
+        lp.setBoolean(slot, false);
+        lp.markDirty(true, tid);
+        t.setRecordId(new RecordId(lp.getId(), -1));
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        dirty.add(lp);
+        return dirty;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, new Predicate[0]);
+    }
+
+    // see PushdownDbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] preds) {
+        if (fields == null) {
+            fields = new int[td.numFields()];
+            for (int i = 0; i < fields.length; i++)
+                fields[i] = i;
+        }
+        return new ColumnarFileIterator(this, tid, fields, preds);
+    }
+}
+
+class ColumnarFileIterator extends AbstractDbFileIterator {
+
+    final ColumnarFile cf;
+    final TransactionId tid;
+    final int[] fields;
+    final Predicate[] preds;
+    final int liveCol;
+    final int liveCap;
+    /** the page currently read of every column, by column number */
+    final ColumnPage[] cur;
+
+    long row;
+    long numRows;
+
+    public ColumnarFileIterator(ColumnarFile cf, TransactionId tid, int[] fields, Predicate[] preds) {
+        this.cf = cf;
+        this.tid = tid;
+        this.fields = fields;
+        this.preds = preds;
+        this.liveCol = cf.getTupleDesc().numFields();
+        this.liveCap = ColumnPage.getCapacity(Type.BOOLEAN_TYPE);
+        this.cur = new ColumnPage[liveCol + 1];
+        this.numRows = -1;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        row = 0;
+        int livePages = cf.numPages(liveCol);
+        if (livePages == 0) {
+            numRows = 0;
+            return;
+        }
+        ColumnPage last = getPage(liveCol, livePages - 1);
+        numRows = (long) (livePages - 1) * liveCap + last.getCount();
+    }
+
+    private ColumnPage getPage(int c, int p) throws DbException, TransactionAbortedException {
+        ColumnPage page = cur[c];
+        if (page == null || page.getId().getPageNumber() != p) {
+            page = (ColumnPage) Database.getBufferPool().getPage(tid,
+                    new ColumnPageId(cf.getId(), c, p), Permissions.READ_ONLY);
+            cur[c] = page;
+        }
+        return page;
+    }
+
+    /**
+     * Move row past the pages whose zones show that no row on them passes
+     * one of the predicates, and return the row that scanning resumes at.
+     */
+    private long skipPages(long r) {
+        boolean moved = true;
+        while (moved && r < numRows) {
+            moved = false;
+            for (Predicate pred : preds) {
+                int cap = ColumnPage.getCapacity(cf.getColumnType(pred.getField()));
+                int p = (int) (r / cap);
+                if (!cf.getZoneMap().mayMatch(pred, p)) {
+                    r = (long) (p + 1) * cap;
+                    moved = true;
+                }
+            }
+        }
+        return r;
+    }
+
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        if (numRows < 0)
+            return null;
+        while (true) {
+            row = skipPages(row);
+            if (row >= numRows)
+                return null;
+            long r = row++;
+            ColumnPage lp = getPage(liveCol, (int) (r / liveCap));
+            if (!lp.getBoolean((int) (r % liveCap)))
+                continue;
+
+            Tuple t = new Tuple(cf.getTupleDesc());
+            for (int f : fields) {
+                int cap = ColumnPage.getCapacity(cf.getColumnType(f));
+                getPage(f, (int) (r / cap)).readInto((int) (r % cap), t, f);
+            }
+            t.setRecordId(new RecordId(lp.getId(), (int) (r % liveCap)));
+            return t;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        Arrays.fill(cur, null);
+        numRows = -1;
+    }
+}
@@ -17,6 +17,9 @@ public class Database {
     private static AtomicReference<Database> _instance = new AtomicReference<Database>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final ColumnIndexCache _indexcache;
+    private final VersionStore _versionstore;
+    private final OptimisticValidator _validator;
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
@@ -24,6 +27,9 @@ public class Database {
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _indexcache = new ColumnIndexCache(ColumnIndexCache.DEFAULT_MAX_BYTES);
+        _versionstore = new VersionStore();
+        _validator = new OptimisticValidator();
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -45,6 +51,21 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the in-memory column index cache of the static Database instance */
+    public static ColumnIndexCache getIndexCache() {
+        return _instance.get()._indexcache;
+    }
+
+    /** Return the tuple version store of the static Database instance */
+    public static VersionStore getVersionStore() {
+        return _instance.get()._versionstore;
+    }
+
+    /** Return the validator of optimistic transactions of the static Database instance */
+    public static OptimisticValidator getOptimisticValidator() {
+        return _instance.get()._validator;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -73,6 +94,28 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /**
+     * Method used for testing -- create a new, empty column index cache with
+     * the given memory budget and return it
+     */
+    public static ColumnIndexCache resetIndexCache(long maxBytes) {
+        java.lang.reflect.Field indexCacheF=null;
+        try {
+            indexCacheF = Database.class.getDeclaredField("_indexcache");
+            indexCacheF.setAccessible(true);
+            indexCacheF.set(_instance.get(), new ColumnIndexCache(maxBytes));
+        } catch (NoSuchFieldException e) {
+            e.printStackTrace();
+        } catch (SecurityException e) {
+            e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        }
+        return _instance.get()._indexcache;
+    }
+
     // reset the database, used for unit tests only.
     public static void reset() {
         _instance.set(new Database());
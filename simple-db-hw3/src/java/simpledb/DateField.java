@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.io.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Instance of Field that stores a single date/time, as milliseconds since
+ * 1970-01-01 00:00:00 UTC. Dates are always read and printed in UTC.
+ */
+public class DateField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final DateTimeFormatter DATE_TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter DATE_TIME_MILLIS =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private final long value;
+
+    /**
+     * @return the date as milliseconds since the epoch
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param millis The value of this field, in milliseconds since the epoch.
+     */
+    public DateField(long millis) {
+        value = millis;
+    }
+
+    /**
+     * Parse a date written as <tt>yyyy-MM-dd</tt>, <tt>yyyy-MM-dd HH:mm:ss</tt>
+     * (optionally with <tt>.SSS</tt> milliseconds, and with either a space
+     * or a 'T' between date and time) or as a plain number of milliseconds
+     * since the epoch.
+     *
+     * @return the date as milliseconds since the epoch
+     * @throws java.text.ParseException if s is not in one of these formats
+     */
+    public static long parse(String s) throws java.text.ParseException {
+        s = s.trim();
+        try {
+            if (s.length() > 10)
+                return LocalDateTime.parse(s.replace('T', ' '),
+                        s.indexOf('.') > 0 ? DATE_TIME_MILLIS : DATE_TIME)
+                        .toInstant(ZoneOffset.UTC).toEpochMilli();
+            if (s.indexOf('-', 1) > 0)
+                return LocalDate.parse(s).atStartOfDay(ZoneOffset.UTC)
+                        .toInstant().toEpochMilli();
+            return Long.parseLong(s);
+        } catch (DateTimeParseException e) {
+            throw new java.text.ParseException("couldn't parse date " + s, e.getErrorIndex());
+        } catch (NumberFormatException e) {
+            throw new java.text.ParseException("couldn't parse date " + s, 0);
+        }
+    }
+
+    public String toString() {
+        LocalDateTime t = LocalDateTime.ofEpochSecond(Math.floorDiv(value, 1000L),
+                (int) Math.floorMod(value, 1000L) * 1000000, ZoneOffset.UTC);
+        if (Math.floorMod(value, 86400000L) == 0)
+            return t.toLocalDate().toString();
+        return t.format(Math.floorMod(value, 1000L) == 0 ? DATE_TIME : DATE_TIME_MILLIS);
+    }
+
+    public int hashCode() {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    public boolean equals(Object field) {
+        return ((DateField) field).value == value;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeLong(value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DateField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+
+        DateField dVal = (DateField) val;
+
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return value == dVal.value;
+        case NOT_EQUALS:
+            return value != dVal.value;
+        case GREATER_THAN:
+            return value > dVal.value;
+        case GREATER_THAN_OR_EQ:
+            return value >= dVal.value;
+        case LESS_THAN:
+            return value < dVal.value;
+        case LESS_THAN_OR_EQ:
+            return value <= dVal.value;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.DATE_TYPE
+     */
+    public Type getType() {
+        return Type.DATE_TYPE;
+    }
+}
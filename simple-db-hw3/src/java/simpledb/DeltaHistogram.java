@@ -0,0 +1,219 @@
+package simpledb;
+
+import java.io.*;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleBinaryOperator;
+
+/** A class to represent the values inserted into and deleted from a numeric
+ * field since its statistics were computed, as a fixed-width histogram of the
+ * net change in the number of values in each bucket.
+ * <p>
+ * The buckets cover the range of the field when it was analyzed, with one
+ * more bucket on each side for the values inserted outside it. Buckets are
+ * counters that many threads can update at once without locking, so
+ * recording inserts and deletes doesn't serialize them.
+ *
+ * @Threadsafe
+ */
+public class DeltaHistogram {
+
+    // buckets[0] holds the values below min, buckets[n + 1] those above max
+    private final LongAdder[] buckets;
+    private final double min, max;
+    private final double width;
+    private final boolean integral;
+    // the extremes of the values below min, and of those above max
+    private final DoubleAccumulator lowest = minimum(), belowHighest = maximum();
+    private final DoubleAccumulator aboveLowest = minimum(), highest = maximum();
+
+    private static DoubleAccumulator minimum() {
+        return new DoubleAccumulator(new DoubleBinaryOperator() {
+            public double applyAsDouble(double a, double b) {
+                return Math.min(a, b);
+            }
+        }, Double.POSITIVE_INFINITY);
+    }
+
+    private static DoubleAccumulator maximum() {
+        return new DoubleAccumulator(new DoubleBinaryOperator() {
+            public double applyAsDouble(double a, double b) {
+                return Math.max(a, b);
+            }
+        }, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Create a new DeltaHistogram.
+     *
+     * @param buckets The number of buckets to split [min, max] into
+     * @param min The minimum value of the field when it was analyzed
+     * @param max The maximum value of the field when it was analyzed
+     * @param integral true if the values are whole numbers; used to estimate
+     *   how many distinct values share a bucket
+     */
+    public DeltaHistogram(int buckets, double min, double max, boolean integral) {
+        this.buckets = new LongAdder[buckets + 2];
+        for (int i = 0; i < this.buckets.length; i++)
+            this.buckets[i] = new LongAdder();
+        this.min = min;
+        this.max = max;
+        this.integral = integral;
+        width = max > min ? (max - min) / buckets : 1.0;
+    }
+
+    private int bucket(double v) {
+        if (v < min)
+            return 0;
+        if (v > max)
+            return buckets.length - 1;
+        int b = (int) ((v - min) / width);
+        return 1 + Math.min(buckets.length - 3, b);
+    }
+
+    /** @return true if b is one of the buckets of the values outside [min, max] */
+    private boolean outer(int b) {
+        return b == 0 || b == buckets.length - 1;
+    }
+
+    /** @return the lowest value of bucket b */
+    private double low(int b) {
+        return b == 0 ? lowest.get() : b == buckets.length - 1 ? aboveLowest.get() : min + (b - 1) * width;
+    }
+
+    /**
+     * @return the highest value of bucket b; the outer buckets hold their
+     *   highest value, the others hold values up to it
+     */
+    private double high(int b) {
+        return b == 0 ? belowHighest.get() : b == buckets.length - 1 ? highest.get() : min + b * width;
+    }
+
+    /** Widen the outer buckets to hold v */
+    private void extend(double v) {
+        if (v < min) {
+            lowest.accumulate(v);
+            belowHighest.accumulate(v);
+        } else if (v > max) {
+            aboveLowest.accumulate(v);
+            highest.accumulate(v);
+        }
+    }
+
+    /** Record that v has been inserted */
+    public void addValue(double v) {
+        extend(v);
+        buckets[bucket(v)].increment();
+    }
+
+    /**
+     * Record that v has been deleted. A sampled table may hold values outside
+     * the range it was analyzed with, so v may fall in an outer bucket too.
+     */
+    public void removeValue(double v) {
+        extend(v);
+        buckets[bucket(v)].decrement();
+    }
+
+    /** @return the net change in the number of values equal to v */
+    private double equalCount(double v) {
+        int b = bucket(v);
+        long count = buckets[b].sum();
+        if (count == 0 || outer(b) && (v < low(b) || v > high(b)))
+            return 0.0;
+        // values in a bucket are assumed to be spread uniformly; whole
+        // numbers can only take so many distinct values in a bucket
+        double distinct;
+        if (!integral)
+            distinct = Math.max(1.0, Math.abs(count));
+        else if (outer(b))
+            distinct = Math.floor(high(b) - low(b)) + 1;
+        else
+            distinct = Math.max(1.0, Math.floor(width));
+        return count / distinct;
+    }
+
+    /** @return the net change in the number of values strictly less than v */
+    private double lessCount(double v) {
+        double less = 0.0;
+        for (int b = 0; b < buckets.length; b++) {
+            long count = buckets[b].sum();
+            if (count == 0)
+                continue;
+            // values are assumed spread uniformly over the bucket
+            double lo = low(b), hi = high(b);
+            if (hi > lo)
+                less += count * Math.max(0.0, Math.min(1.0, (v - lo) / (hi - lo)));
+            else if (v > lo)
+                less += count;
+        }
+        return less;
+    }
+
+    /** @return the net change in the number of values */
+    public long total() {
+        long total = 0;
+        for (LongAdder b : buckets)
+            total += b.sum();
+        return total;
+    }
+
+    /**
+     * Estimate the net change in the number of values satisfying a
+     * particular predicate and operand; negative if more of them were
+     * deleted than inserted.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted change in the number of values satisfying the predicate
+     */
+    public double estimateCount(Predicate.Op op, double v) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equalCount(v);
+        case NOT_EQUALS:
+            return total() - equalCount(v);
+        case LESS_THAN:
+            return lessCount(v);
+        case LESS_THAN_OR_EQ:
+            return lessCount(v) + equalCount(v);
+        case GREATER_THAN:
+            return total() - lessCount(v) - equalCount(v);
+        case GREATER_THAN_OR_EQ:
+            return total() - lessCount(v);
+        default:
+            return 0.0;
+        }
+    }
+
+    /**
+     * Write the number of buckets and range of this histogram to dos, to
+     * be read back by {@link #readRange}; the counts aren't written.
+     */
+    void writeRange(DataOutputStream dos) throws IOException {
+        dos.writeInt(buckets.length - 2);
+        dos.writeDouble(min);
+        dos.writeDouble(max);
+        dos.writeBoolean(integral);
+    }
+
+    /** @return an empty histogram of the range written by {@link #writeRange} */
+    static DeltaHistogram readRange(DataInputStream dis) throws IOException {
+        int buckets = dis.readInt();
+        double min = dis.readDouble();
+        double max = dis.readDouble();
+        return new DeltaHistogram(buckets, min, max, dis.readBoolean());
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int b = 0; b < buckets.length; b++)
+            s.append("bucket ").append(b).append(" [").append(low(b)).append(", ")
+                .append(high(b)).append("): ").append(buckets[b].sum()).append('\n');
+        return s.toString();
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a single double precision floating point
+ * number.
+ */
+public class DoubleField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final double value;
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param d The value of this field.
+     */
+    public DoubleField(double d) {
+        value = d;
+    }
+
+    public String toString() {
+        return Double.toString(value);
+    }
+
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(value);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    public boolean equals(Object field) {
+        return Double.compare(((DoubleField) field).value, value) == 0;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeDouble(value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not a DoubleField
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+
+        int cmpVal = Double.compare(value, ((DoubleField) val).value);
+
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return cmpVal == 0;
+        case NOT_EQUALS:
+            return cmpVal != 0;
+        case GREATER_THAN:
+            return cmpVal > 0;
+        case GREATER_THAN_OR_EQ:
+            return cmpVal >= 0;
+        case LESS_THAN:
+            return cmpVal < 0;
+        case LESS_THAN_OR_EQ:
+            return cmpVal <= 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.DOUBLE_TYPE
+     */
+    public Type getType() {
+        return Type.DOUBLE_TYPE;
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb;
+
+import java.io.*;
+
+/** A class to represent a fixed-width histogram over a single numeric field
+ * whose values do not fit an IntHistogram: LONG_TYPE, DOUBLE_TYPE and
+ * DATE_TYPE fields are all histogrammed as doubles.
+ */
+public class DoubleHistogram {
+
+    private final int[] hBuckets;
+    private final double min, max;
+    private final double width;
+    private final boolean integral;
+    private int numTuples = 0;
+
+    /**
+     * Create a new DoubleHistogram.
+     *
+     * @param buckets The number of buckets to split the input value into.
+     * @param min The minimum value that will ever be passed to this class for histogramming
+     * @param max The maximum value that will ever be passed to this class for histogramming
+     * @param integral true if the values are whole numbers (longs and dates);
+     *   used to estimate how many distinct values share a bucket
+     */
+    public DoubleHistogram(int buckets, double min, double max, boolean integral) {
+        hBuckets = new int[buckets];
+        this.min = min;
+        this.max = max;
+        this.integral = integral;
+        width = max > min ? (max - min) / buckets : 1.0;
+    }
+
+    private int bucket(double v) {
+        int b = (int) ((v - min) / width);
+        return Math.max(0, Math.min(hBuckets.length - 1, b));
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
+    public void addValue(double v) {
+        hBuckets[bucket(v)]++;
+        numTuples++;
+    }
+
+    /** @return the fraction of values in the bucket of v that equal v */
+    private double equalsFraction(double v) {
+        int b = bucket(v);
+        double frac = (double) hBuckets[b] / numTuples;
+        // values in a bucket are assumed to be spread uniformly; whole
+        // numbers can only take so many distinct values in a bucket
+        double distinct = integral ? Math.max(1.0, Math.floor(width)) : Math.max(1.0, hBuckets[b]);
+        return frac / distinct;
+    }
+
+    /** @return the fraction of values strictly less than v */
+    private double lessThan(double v) {
+        if (v <= min)
+            return 0.0;
+        if (v > max)
+            return 1.0;
+        int b = bucket(v);
+        double result = 0.0;
+        for (int i = 0; i < b; i++)
+            result += (double) hBuckets[i] / numTuples;
+        double left = min + b * width;
+        result += (double) hBuckets[b] / numTuples * Math.min(1.0, (v - left) / width);
+        return result;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, double v) {
+        if (numTuples == 0)
+            return 0.0;
+        double eq = v < min || v > max ? 0.0 : equalsFraction(v);
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eq;
+        case NOT_EQUALS:
+            return 1.0 - eq;
+        case LESS_THAN:
+            return lessThan(v);
+        case LESS_THAN_OR_EQ:
+            return Math.min(1.0, lessThan(v) + eq);
+        case GREATER_THAN:
+            return Math.max(0.0, 1.0 - lessThan(v) - eq);
+        case GREATER_THAN_OR_EQ:
+            return Math.max(0.0, 1.0 - lessThan(v));
+        default:
+            return 0.0;
+        }
+    }
+
+    /**
+     * @return the average selectivity of this histogram.
+     */
+    public double avgSelectivity() {
+        return 1.0;
+    }
+
+    /** Write this histogram to dos, to be read back by {@link #read} */
+    void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(hBuckets.length);
+        dos.writeDouble(min);
+        dos.writeDouble(max);
+        dos.writeBoolean(integral);
+        dos.writeInt(numTuples);
+        for (int h : hBuckets)
+            dos.writeInt(h);
+    }
+
+    /** @return a histogram written by {@link #write} */
+    static DoubleHistogram read(DataInputStream dis) throws IOException {
+        int buckets = dis.readInt();
+        double min = dis.readDouble();
+        double max = dis.readDouble();
+        DoubleHistogram h = new DoubleHistogram(buckets, min, max, dis.readBoolean());
+        h.numTuples = dis.readInt();
+        for (int i = 0; i < buckets; i++)
+            h.hBuckets[i] = dis.readInt();
+        return h;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < hBuckets.length; i++)
+            s.append("bucket ").append(i).append(" [").append(min + i * width)
+                .append(", ").append(min + (i + 1) * width).append("): ")
+                .append(hBuckets[i]).append('\n');
+        return s.toString();
+    }
+}
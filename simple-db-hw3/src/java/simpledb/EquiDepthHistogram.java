@@ -0,0 +1,282 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/** A class to represent an equi-depth histogram over a single numeric field,
+ * with a list of its most common values.
+ * <p>
+ * The most common values are kept with their exact counts, so predicates on
+ * the heavy hitters of skewed columns are estimated exactly. The remaining
+ * values are split into buckets holding about the same number of values
+ * each, so dense ranges get narrow buckets rather than sharing one wide
+ * bucket with sparse ranges, as in an {@link IntHistogram}.
+ * <p>
+ * Unlike the equi-width histograms, it is built at once from all the values,
+ * since its bucket boundaries depend on them.
+ */
+public class EquiDepthHistogram {
+
+    // most common values, ascending, with their counts
+    private final double[] mcvs;
+    private final int[] mcvCounts;
+    // the buckets of the other values: the lowest and highest value, count
+    // and number of distinct values of each, ascending
+    private final double[] lows, highs;
+    private final int[] counts, distinct;
+    private final boolean integral;
+    private final int numTuples;
+
+    /**
+     * Create a new EquiDepthHistogram of the values.
+     *
+     * @param values The values to histogram; sorted in place
+     * @param buckets The number of buckets to split the values that are not
+     *   among the most common values into
+     * @param maxMcvs The maximum number of most common values to keep
+     * @param integral true if the values are whole numbers; used to estimate
+     *   the fraction of a bucket less than a value
+     */
+    public EquiDepthHistogram(double[] values, int buckets, int maxMcvs, boolean integral) {
+        this.integral = integral;
+        numTuples = values.length;
+        Arrays.sort(values);
+
+        // distinct values and their counts
+        int n = 0;
+        double[] keys = new double[values.length];
+        int[] freqs = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (n > 0 && keys[n - 1] == values[i]) {
+                freqs[n - 1]++;
+            } else {
+                keys[n] = values[i];
+                freqs[n++] = 1;
+            }
+        }
+
+        // a value is common if it occurs more often than the average value,
+        // and more than once
+        final int[] f = freqs;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return f[b] - f[a];
+            }
+        });
+        double average = n == 0 ? 0 : (double) values.length / n;
+        int m = 0;
+        while (m < Math.min(maxMcvs, n) && freqs[order[m]] > 1 && freqs[order[m]] >= average)
+            m++;
+        boolean[] common = new boolean[n];
+        for (int i = 0; i < m; i++)
+            common[order[i]] = true;
+        mcvs = new double[m];
+        mcvCounts = new int[m];
+        int rest = values.length;
+        for (int i = 0, j = 0; i < n; i++) {
+            if (common[i]) {
+                mcvs[j] = keys[i];
+                mcvCounts[j++] = freqs[i];
+                rest -= freqs[i];
+            }
+        }
+
+        // fill each bucket with the next distinct values until it holds its
+        // share of the rest; a value is never split between buckets
+        ArrayList<double[]> bounds = new ArrayList<double[]>();
+        ArrayList<int[]> sizes = new ArrayList<int[]>();
+        double depth = Math.max(1.0, (double) rest / buckets);
+        int filled = 0;
+        for (int i = 0; i < n; i++) {
+            if (common[i])
+                continue;
+            if (bounds.isEmpty() || filled >= depth * bounds.size() && bounds.size() < buckets) {
+                bounds.add(new double[] { keys[i], keys[i] });
+                sizes.add(new int[2]);
+            }
+            bounds.get(bounds.size() - 1)[1] = keys[i];
+            int[] size = sizes.get(sizes.size() - 1);
+            size[0] += freqs[i];
+            size[1]++;
+            filled += freqs[i];
+        }
+        int b = bounds.size();
+        lows = new double[b];
+        highs = new double[b];
+        counts = new int[b];
+        distinct = new int[b];
+        for (int i = 0; i < b; i++) {
+            lows[i] = bounds.get(i)[0];
+            highs[i] = bounds.get(i)[1];
+            counts[i] = sizes.get(i)[0];
+            distinct[i] = sizes.get(i)[1];
+        }
+    }
+
+    private EquiDepthHistogram(double[] mcvs, int[] mcvCounts, double[] lows, double[] highs,
+                               int[] counts, int[] distinct, boolean integral, int numTuples) {
+        this.mcvs = mcvs;
+        this.mcvCounts = mcvCounts;
+        this.lows = lows;
+        this.highs = highs;
+        this.counts = counts;
+        this.distinct = distinct;
+        this.integral = integral;
+        this.numTuples = numTuples;
+    }
+
+    /** Write this histogram to dos, to be read back by {@link #read} */
+    void write(DataOutputStream dos) throws IOException {
+        dos.writeBoolean(integral);
+        dos.writeInt(numTuples);
+        dos.writeInt(mcvs.length);
+        for (int i = 0; i < mcvs.length; i++) {
+            dos.writeDouble(mcvs[i]);
+            dos.writeInt(mcvCounts[i]);
+        }
+        dos.writeInt(lows.length);
+        for (int i = 0; i < lows.length; i++) {
+            dos.writeDouble(lows[i]);
+            dos.writeDouble(highs[i]);
+            dos.writeInt(counts[i]);
+            dos.writeInt(distinct[i]);
+        }
+    }
+
+    /** @return a histogram written by {@link #write} */
+    static EquiDepthHistogram read(DataInputStream dis) throws IOException {
+        boolean integral = dis.readBoolean();
+        int numTuples = dis.readInt();
+        int m = dis.readInt();
+        double[] mcvs = new double[m];
+        int[] mcvCounts = new int[m];
+        for (int i = 0; i < m; i++) {
+            mcvs[i] = dis.readDouble();
+            mcvCounts[i] = dis.readInt();
+        }
+        int b = dis.readInt();
+        double[] lows = new double[b], highs = new double[b];
+        int[] counts = new int[b], distinct = new int[b];
+        for (int i = 0; i < b; i++) {
+            lows[i] = dis.readDouble();
+            highs[i] = dis.readDouble();
+            counts[i] = dis.readInt();
+            distinct[i] = dis.readInt();
+        }
+        return new EquiDepthHistogram(mcvs, mcvCounts, lows, highs, counts, distinct,
+                                      integral, numTuples);
+    }
+
+    /** @return the number of most common values kept */
+    public int numMcvs() {
+        return mcvs.length;
+    }
+
+    /** @return the number of buckets of the values that are not most common */
+    public int numBuckets() {
+        return lows.length;
+    }
+
+    /** @return the number of values equal to v */
+    private double equalCount(double v) {
+        int i = Arrays.binarySearch(mcvs, v);
+        if (i >= 0)
+            return mcvCounts[i];
+        int b = bucket(v);
+        if (b < 0 || v > highs[b])
+            return 0;
+        // the values of a bucket are assumed to occur equally often; a
+        // value between two of them may not occur at all
+        return (double) counts[b] / distinct[b];
+    }
+
+    /** @return the last bucket whose lowest value is at most v, or -1 */
+    private int bucket(double v) {
+        int i = Arrays.binarySearch(lows, v);
+        if (i < 0)
+            i = -i - 2;
+        return i;
+    }
+
+    /** @return the number of values strictly less than v */
+    private double lessCount(double v) {
+        double less = 0;
+        for (int i = 0; i < mcvs.length && mcvs[i] < v; i++)
+            less += mcvCounts[i];
+        int b = bucket(v);
+        for (int i = 0; i < b; i++)
+            less += counts[i];
+        if (b >= 0) {
+            if (v > highs[b]) {
+                less += counts[b];
+            } else if (v > lows[b]) {
+                // values are assumed spread uniformly over the bucket
+                double width = integral ? highs[b] - lows[b] + 1 : highs[b] - lows[b];
+                less += counts[b] * (v - lows[b]) / width;
+            }
+        }
+        return less;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on the
+     * values. The most common values are consulted first.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, double v) {
+        if (numTuples == 0)
+            return 0.0;
+        double equal = equalCount(v) / numTuples;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equal;
+        case NOT_EQUALS:
+            return 1.0 - equal;
+        case LESS_THAN:
+            return lessCount(v) / numTuples;
+        case LESS_THAN_OR_EQ:
+            return Math.min(1.0, lessCount(v) / numTuples + equal);
+        case GREATER_THAN:
+            return Math.max(0.0, 1.0 - lessCount(v) / numTuples - equal);
+        case GREATER_THAN_OR_EQ:
+            return 1.0 - lessCount(v) / numTuples;
+        default:
+            return 0.0;
+        }
+    }
+
+    /**
+     * @return the probability that two values drawn from the histogram are
+     *   equal, that is, the average selectivity of an equality predicate
+     */
+    public double avgSelectivity() {
+        if (numTuples == 0)
+            return 1.0;
+        double sum = 0;
+        for (int c : mcvCounts)
+            sum += (double) c * c;
+        for (int i = 0; i < counts.length; i++)
+            sum += (double) counts[i] * counts[i] / distinct[i];
+        return sum / ((double) numTuples * numTuples);
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < mcvs.length; i++)
+            s.append("value ").append(mcvs[i]).append(": ").append(mcvCounts[i]).append("\n");
+        for (int i = 0; i < lows.length; i++)
+            s.append("bucket [").append(lows[i]).append(", ").append(highs[i]).append("]: ")
+             .append(counts[i]).append(" of ").append(distinct[i]).append(" values\n");
+        return s.toString();
+    }
+}
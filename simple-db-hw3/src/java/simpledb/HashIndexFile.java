@@ -0,0 +1,484 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is a persistent hash index from the primary key of a table
+ * stored in a {@link HeapFile} to the RecordIds of its tuples, so that a
+ * lookup of one key reads the meta page, the key's bucket and the tuples'
+ * heap pages, however large the table is (see {@link #indexIterator} and
+ * {@link IndexScan}).
+ * <p>
+ * The index uses linear hashing. Page 0 is the {@link HashIndexMetaPage};
+ * the other pages are {@link HashIndexPage}s, each the primary page of a
+ * bucket, an overflow page chained to one, or a free page. When the
+ * entries fill more than {@link #SPLIT_LOAD} of the primary pages, the
+ * next bucket in turn is split in two, so the index grows one bucket at a
+ * time. Overflow pages emptied by deletes or splits are put on a free list
+ * and reused; buckets are never merged.
+ * <p>
+ * The index is kept up to date by {@link BufferPool#insertTuple} and
+ * {@link BufferPool#deleteTuple}, which call {@link #insertTuple} and
+ * {@link #deleteTuple} with the tuples of the table. A table's primary key
+ * is indexed when it is annotated with <tt>hash</tt> in the catalog, e.g.
+ * <pre>
+ *     users (id int pk hash, name string)
+ * </pre>
+ *
+ * @see Catalog#getHashIndex
+ */
+public class HashIndexFile implements DbFile {
+
+    /** Fraction of the primary pages' capacity used before a bucket is split */
+    public static final double SPLIT_LOAD = 0.75;
+
+    private final File f;
+    private final int tableid;
+    private final int indexedTableId;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td;
+
+    /**
+     * Constructs a hash index backed by the specified file. An empty or
+     * missing file is an empty index.
+     *
+     * @param f the file that stores the on-disk backing store for this index
+     * @param indexedTableId the table whose tuples are indexed; must be
+     *            stored in a HeapFile
+     * @param keyField the field of the table that is indexed
+     * @param keyType the type of that field
+     */
+    public HashIndexFile(File f, int indexedTableId, int keyField, Type keyType) {
+        this.f = f;
+        this.tableid = f.getAbsolutePath().hashCode();
+        this.indexedTableId = indexedTableId;
+        this.keyField = keyField;
+        this.keyType = keyType;
+        this.td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "page", "slot" });
+    }
+
+    /** Returns the File backing this HashIndexFile on disk. */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return tableid;
+    }
+
+    /**
+     * Returns the schema of the entries of the index: the key and the page
+     * number and slot of the RecordId of the tuple holding it.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the id of the table whose tuples are indexed */
+    public int getIndexedTableId() {
+        return indexedTableId;
+    }
+
+    /** @return the index of the field of the indexed table that is indexed */
+    public int keyField() {
+        return keyField;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HashIndexPageId id = (HashIndexPageId) pid;
+        RandomAccessFile rf = null;
+        try {
+            rf = new RandomAccessFile(f, "r");
+            byte pageBuf[] = new byte[BufferPool.getPageSize()];
+            long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+            if (offset + pageBuf.length > rf.length())
+                throw new IllegalArgumentException("Read past end of table");
+            rf.seek(offset);
+            rf.readFully(pageBuf);
+            Debug.log(1, "HashIndexFile.readPage: read page %d", id.getPageNumber());
+            if (id.isMeta())
+                return new HashIndexMetaPage(id, pageBuf);
+            return new HashIndexPage(id, pageBuf, keyType, indexedTableId);
+        } catch (FileNotFoundException e) {
+            throw new IllegalArgumentException("Read past end of table");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                if (rf != null)
+                    rf.close();
+            } catch (IOException ioe) {
+                // Ignore failures closing the file
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    private void writePageData(int pgNo, byte[] data) throws IOException {
+        RandomAccessFile rf = new RandomAccessFile(f, "rw");
+        rf.seek((long) pgNo * BufferPool.getPageSize());
+        rf.write(data);
+        rf.close();
+    }
+
+    /**
+     * Returns the number of pages in this HashIndexFile, including the meta
+     * page and free pages, but not the pages added since the BufferPool
+     * last wrote them.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /** @return the hash of key, with its bits spread so low bits vary */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * Get a page through the BufferPool, preferring the copy in dirtypages
+     * if this operation has already modified the page. Pages fetched with
+     * READ_WRITE permission are added to dirtypages.
+     */
+    private Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, PageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        Page p = dirtypages.get(pid);
+        if (p != null)
+            return p;
+        p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE)
+            dirtypages.put(pid, p);
+        return p;
+    }
+
+    /**
+     * Get the meta page, creating the file with one empty bucket if it does
+     * not exist yet.
+     */
+    HashIndexMetaPage getMetaPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm)
+            throws DbException, IOException, TransactionAbortedException {
+        synchronized (this) {
+            if (f.length() == 0) {
+                writePageData(0, HashIndexMetaPage.createPageData());
+                writePageData(1, HashIndexPage.createEmptyPageData());
+            }
+        }
+        return (HashIndexMetaPage) getPage(tid, dirtypages, HashIndexMetaPage.getId(tableid), perm);
+    }
+
+    private HashIndexPage getBucketPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashIndexPageId pid, Permissions perm) throws DbException, TransactionAbortedException {
+        return (HashIndexPage) getPage(tid, dirtypages, pid, perm);
+    }
+
+    /**
+     * @return an empty page that is not in use, taken from the free list or
+     *   appended to the file
+     */
+    private HashIndexPage getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            HashIndexMetaPage meta) throws DbException, IOException, TransactionAbortedException {
+        HashIndexPageId id;
+        if (meta.getFreeHead() != 0) {
+            id = new HashIndexPageId(tableid, meta.getFreeHead());
+            HashIndexPage p = getBucketPage(tid, dirtypages, id, Permissions.READ_WRITE);
+            HashIndexPageId next = p.getOverflowId();
+            meta.setFreeHead(next == null ? 0 : next.getPageNumber());
+            p.clear();
+            return p;
+        }
+        // the page is only added to the file when the BufferPool writes it,
+        // and the meta page counts it, so an abort that restores the meta
+        // page leaves no page behind
+        id = new HashIndexPageId(tableid, meta.getNumPages());
+        meta.setNumPages(meta.getNumPages() + 1);
+        HashIndexPage p = new HashIndexPage(id, HashIndexPage.createEmptyPageData(), keyType, indexedTableId);
+        dirtypages.put(id, p);
+        return p;
+    }
+
+    /** Put page p on the free list */
+    private void setEmptyPage(HashIndexMetaPage meta, HashIndexPage p) {
+        p.clear();
+        p.setOverflowId(meta.getFreeHead() == 0 ? null : new HashIndexPageId(tableid, meta.getFreeHead()));
+        meta.setFreeHead(p.getId().getPageNumber());
+    }
+
+    /** Add an entry to the chain starting at page head, extending the chain if it is full */
+    private void addToChain(TransactionId tid, HashMap<PageId, Page> dirtypages, HashIndexMetaPage meta,
+            HashIndexPageId head, Field key, RecordId rid)
+            throws DbException, IOException, TransactionAbortedException {
+        HashIndexPage p = getBucketPage(tid, dirtypages, head, Permissions.READ_WRITE);
+        while (p.isFull()) {
+            HashIndexPageId next = p.getOverflowId();
+            if (next == null) {
+                HashIndexPage overflow = getEmptyPage(tid, dirtypages, meta);
+                p.setOverflowId(overflow.getId());
+                p = overflow;
+            } else {
+                p = getBucketPage(tid, dirtypages, next, Permissions.READ_WRITE);
+            }
+        }
+        p.addEntry(key, rid);
+    }
+
+    /**
+     * Add an entry for tuple t of the indexed table, splitting the next
+     * bucket if the index has become too full.
+     *
+     * @param t a tuple of the indexed table, with its RecordId set
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(keyField);
+        if (key == null || key.getType() != keyType)
+            throw new DbException("tuple has no valid key");
+        if (t.getRecordId() == null)
+            throw new DbException("tuple has no RecordId");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        HashIndexMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_WRITE);
+        addToChain(tid, dirtypages, meta, meta.getBucketId(meta.bucketOf(hash(key))), key, t.getRecordId());
+        meta.setNumEntries(meta.getNumEntries() + 1);
+        if (meta.getNumEntries() > SPLIT_LOAD * meta.getNumBuckets() * HashIndexPage.getMaxEntries(keyType)
+                && meta.getNumBuckets() < HashIndexMetaPage.getMaxBuckets())
+            splitBucket(tid, dirtypages, meta);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Split the next bucket to split: rehash its entries with one more bit
+     * of the hash into itself and a new bucket, freeing the overflow pages
+     * it no longer needs.
+     */
+    private void splitBucket(TransactionId tid, HashMap<PageId, Page> dirtypages, HashIndexMetaPage meta)
+            throws DbException, IOException, TransactionAbortedException {
+        int old = meta.getNext();
+        HashIndexPageId oldHead = meta.getBucketId(old);
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        HashIndexPageId id = oldHead;
+        while (id != null) {
+            HashIndexPage p = getBucketPage(tid, dirtypages, id, Permissions.READ_WRITE);
+            for (int i = 0; i < p.getNumEntries(); i++) {
+                keys.add(p.getKey(i));
+                rids.add(p.getRecordId(i));
+            }
+            id = p.getOverflowId();
+            if (p.getId().equals(oldHead))
+                p.clear();
+            else
+                setEmptyPage(meta, p);
+        }
+
+        HashIndexPage added = getEmptyPage(tid, dirtypages, meta);
+        meta.addBucket(added.getId().getPageNumber());
+        for (int i = 0; i < keys.size(); i++) {
+            HashIndexPageId head = meta.bucketOf(hash(keys.get(i))) == old ? oldHead : added.getId();
+            addToChain(tid, dirtypages, meta, head, keys.get(i), rids.get(i));
+        }
+    }
+
+    /**
+     * Remove the entry for tuple t of the indexed table, freeing its page if
+     * it is an overflow page left empty.
+     *
+     * @param t a tuple of the indexed table, with its RecordId set
+     * @throws DbException if the index has no entry for t
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(keyField);
+        RecordId rid = t.getRecordId();
+        if (key == null || rid == null)
+            throw new DbException("tuple has no key or RecordId");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        HashIndexMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_WRITE);
+        HashIndexPage prev = null;
+        HashIndexPageId id = meta.getBucketId(meta.bucketOf(hash(key)));
+        while (id != null) {
+            HashIndexPage p = getBucketPage(tid, dirtypages, id, Permissions.READ_ONLY);
+            id = p.getOverflowId();
+            if (!p.hasEntry(key, rid)) {
+                prev = p;
+                continue;
+            }
+            p = getBucketPage(tid, dirtypages, p.getId(), Permissions.READ_WRITE);
+            p.removeEntry(key, rid);
+            if (prev != null && p.getNumEntries() == 0) {
+                prev = getBucketPage(tid, dirtypages, prev.getId(), Permissions.READ_WRITE);
+                prev.setOverflowId(id);
+                setEmptyPage(meta, p);
+            }
+            meta.setNumEntries(meta.getNumEntries() - 1);
+            return new ArrayList<Page>(dirtypages.values());
+        }
+        throw new DbException("tuple is not in the index");
+    }
+
+    /**
+     * @return the RecordIds of the tuples of the indexed table whose key
+     *   equals key
+     */
+    public List<RecordId> lookup(TransactionId tid, Field key)
+            throws DbException, TransactionAbortedException {
+        ArrayList<RecordId> found = new ArrayList<RecordId>();
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        HashIndexMetaPage meta;
+        try {
+            meta = getMetaPage(tid, dirtypages, Permissions.READ_ONLY);
+        } catch (IOException e) {
+            throw new DbException("couldn't read " + f + ": " + e);
+        }
+        HashIndexPageId id = meta.getBucketId(meta.bucketOf(hash(key)));
+        while (id != null) {
+            HashIndexPage p = getBucketPage(tid, dirtypages, id, Permissions.READ_ONLY);
+            for (int i = 0; i < p.getNumEntries(); i++)
+                if (p.getKey(i).equals(key))
+                    found.add(p.getRecordId(i));
+            id = p.getOverflowId();
+        }
+        return found;
+    }
+
+    /**
+     * Add entries for all tuples of the indexed table, for an index that is
+     * created for a table that already has tuples.
+     */
+    public void build(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(indexedTableId).iterator(tid);
+        it.open();
+        while (it.hasNext())
+            Database.getBufferPool().putDirtyPages(tid, insertTuple(tid, it.next()));
+        it.close();
+    }
+
+    /**
+     * @return an iterator over the tuples of the indexed table whose key
+     *   passes ipred, which must be an equality
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        if (ipred.getOp() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("a hash index only supports equality lookups");
+        return new HashIndexLookupIterator(this, tid, ipred.getField());
+    }
+
+    /** @return an iterator over the entries of the index, as tuples of getTupleDesc() */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIndexEntryIterator(this, tid);
+    }
+}
+
+/**
+ * Iterates over the tuples of the table indexed by a HashIndexFile whose key
+ * equals a constant, fetching them by RecordId.
+ */
+class HashIndexLookupIterator extends AbstractDbFileIterator {
+
+    final HashIndexFile f;
+    final TransactionId tid;
+    final Field key;
+    Iterator<RecordId> it;
+
+    public HashIndexLookupIterator(HashIndexFile f, TransactionId tid, Field key) {
+        this.f = f;
+        this.tid = tid;
+        this.key = key;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = f.lookup(tid, key).iterator();
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (it != null && it.hasNext()) {
+            Tuple t = ColumnIndexCache.fetch(tid, it.next());
+            if (t != null && key.equals(t.getField(f.keyField())))
+                return t;
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        it = null;
+    }
+}
+
+/**
+ * Iterates over the entries of a HashIndexFile, bucket by bucket.
+ */
+class HashIndexEntryIterator extends AbstractDbFileIterator {
+
+    final HashIndexFile f;
+    final TransactionId tid;
+    HashIndexMetaPage meta;
+    int bucket;
+    HashIndexPageId nextPage;
+    HashIndexPage page;
+    int entry;
+
+    public HashIndexEntryIterator(HashIndexFile f, TransactionId tid) {
+        this.f = f;
+        this.tid = tid;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        try {
+            meta = f.getMetaPage(tid, new HashMap<PageId, Page>(), Permissions.READ_ONLY);
+        } catch (IOException e) {
+            throw new DbException("couldn't read " + f.getFile() + ": " + e);
+        }
+        bucket = 0;
+        nextPage = meta.getBucketId(0);
+        page = null;
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (meta == null)
+            return null;
+        while (page == null || entry >= page.getNumEntries()) {
+            if (nextPage == null) {
+                if (++bucket >= meta.getNumBuckets())
+                    return null;
+                nextPage = meta.getBucketId(bucket);
+            }
+            page = (HashIndexPage) Database.getBufferPool().getPage(tid, nextPage, Permissions.READ_ONLY);
+            nextPage = page.getOverflowId();
+            entry = 0;
+        }
+        Tuple t = new Tuple(f.getTupleDesc());
+        RecordId rid = page.getRecordId(entry);
+        t.setField(0, page.getKey(entry));
+        t.setField(1, new IntField(rid.getPageId().getPageNumber()));
+        t.setField(2, new IntField(rid.getTupleNumber()));
+        entry++;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        meta = null;
+        page = null;
+    }
+}
@@ -0,0 +1,214 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashIndexMetaPage is page 0 of every {@link HashIndexFile}. It holds the
+ * state of the linear hashing scheme and the directory of buckets.
+ * <p>
+ * The layout of a page is six ints -- the level, the next bucket to split,
+ * the number of entries in the index, the first free page (0 if there is
+ * none), the number of pages of the index and the number of buckets --
+ * followed by the directory: the page number of the primary page of each
+ * bucket. The directory has to fit in the rest of the meta page, which
+ * limits the number of buckets to {@link #getMaxBuckets}; once there are
+ * that many, buckets are no longer split and their overflow chains grow
+ * instead.
+ * <p>
+ * New pages are numbered from the number of pages the meta page holds
+ * rather than from the size of the file, so adding one is undone with the
+ * meta page.
+ */
+public class HashIndexMetaPage implements Page {
+
+    static final int HEADER_SIZE = 24;
+
+    private final HashIndexPageId pid;
+    private int level;
+    private int next;
+    private int numEntries;
+    private int freeHead;
+    private int numPages;
+    private int[] buckets;
+    private TransactionId dirtier;
+
+    private byte[] oldData;
+    private final Byte oldDataLock = new Byte((byte) 0);
+
+    /**
+     * Create a HashIndexMetaPage from a set of bytes of data read from disk.
+     */
+    public HashIndexMetaPage(HashIndexPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        level = dis.readInt();
+        next = dis.readInt();
+        numEntries = dis.readInt();
+        freeHead = dis.readInt();
+        numPages = dis.readInt();
+        int n = dis.readInt();
+        buckets = new int[Math.max(n, 1)];
+        for (int i = 0; i < n; i++)
+            buckets[i] = dis.readInt();
+        setBeforeImage();
+    }
+
+    /** @return the id of the meta page of the specified index */
+    public static HashIndexPageId getId(int tableid) {
+        return new HashIndexPageId(tableid, 0);
+    }
+
+    public HashIndexPageId getId() {
+        return pid;
+    }
+
+    /** @return the largest number of buckets the directory can hold */
+    public static int getMaxBuckets() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / 4;
+    }
+
+    /** @return the number of buckets of the index */
+    public int getNumBuckets() {
+        return (1 << level) + next;
+    }
+
+    /** @return the number of entries in the index */
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    public void setNumEntries(int n) {
+        numEntries = n;
+    }
+
+    /**
+     * @return the bucket a key with the specified hash goes to: the hash
+     *   modulo 2^level, or modulo 2^(level+1) if that bucket has already been
+     *   split in this round
+     */
+    public int bucketOf(int hash) {
+        int b = hash & ((1 << level) - 1);
+        if (b < next)
+            b = hash & ((2 << level) - 1);
+        return b;
+    }
+
+    /** @return the id of the primary page of bucket b */
+    public HashIndexPageId getBucketId(int b) {
+        return new HashIndexPageId(pid.getTableId(), buckets[b]);
+    }
+
+    /** @return the next bucket to split */
+    public int getNext() {
+        return next;
+    }
+
+    /** @return the number of bits of the hash used by buckets not split yet */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Record the split of bucket getNext() into itself and a new bucket
+     * getNumBuckets() with primary page pgNo, and advance to the next bucket
+     * to split, starting a new round once all buckets of this one are split.
+     */
+    public void addBucket(int pgNo) {
+        int b = getNumBuckets();
+        if (b >= buckets.length) {
+            int[] grown = new int[Math.min(buckets.length * 2, getMaxBuckets())];
+            System.arraycopy(buckets, 0, grown, 0, buckets.length);
+            buckets = grown;
+        }
+        buckets[b] = pgNo;
+        next++;
+        if (next == 1 << level) {
+            level++;
+            next = 0;
+        }
+    }
+
+    /** @return the first page of the free list, or 0 if it is empty */
+    public int getFreeHead() {
+        return freeHead;
+    }
+
+    public void setFreeHead(int pgNo) {
+        freeHead = pgNo;
+    }
+
+    /** @return the number of pages of the index, including the meta page and free pages */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    public void setNumPages(int n) {
+        numPages = n;
+    }
+
+    /**
+     * @return the bytes of a meta page of an index with one bucket, whose
+     *   primary page is page 1
+     */
+    static byte[] createPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[19] = 2; // two pages
+        data[23] = 1; // one bucket
+        data[27] = 1; // at page 1
+        return data;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(level);
+            dos.writeInt(next);
+            dos.writeInt(numEntries);
+            dos.writeInt(freeHead);
+            dos.writeInt(numPages);
+            int n = getNumBuckets();
+            dos.writeInt(n);
+            for (int i = 0; i < n; i++)
+                dos.writeInt(buckets[i]);
+            dos.write(new byte[BufferPool.getPageSize() - HEADER_SIZE - 4 * n]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashIndexMetaPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new HashIndexMetaPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
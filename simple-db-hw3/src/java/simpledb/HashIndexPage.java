@@ -0,0 +1,203 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexPage is a bucket page of a {@link HashIndexFile}: the primary
+ * page of a bucket, one of the overflow pages chained to it, or a page on
+ * the free list. It holds entries mapping a key to the RecordId of a tuple
+ * of the indexed table, in no particular order.
+ * <p>
+ * The layout of a page is the page number of the next page of the chain
+ * (0 if there is none) and the number of entries (2 ints), followed by the
+ * entries, each the key and the page number and slot of the RecordId.
+ */
+public class HashIndexPage implements Page {
+
+    static final int HEADER_SIZE = 8;
+
+    private final HashIndexPageId pid;
+    private final Type keyType;
+    private final int indexedTableId;
+    private int overflow;
+    private final ArrayList<Field> keys;
+    private final ArrayList<RecordId> rids;
+    private TransactionId dirtier;
+
+    private byte[] oldData;
+    private final Byte oldDataLock = new Byte((byte) 0);
+
+    /**
+     * Create a HashIndexPage from a set of bytes of data read from disk.
+     *
+     * @param keyType the type of the keys of the index
+     * @param indexedTableId the table whose tuples the RecordIds refer to
+     */
+    public HashIndexPage(HashIndexPageId id, byte[] data, Type keyType, int indexedTableId)
+            throws IOException {
+        this.pid = id;
+        this.keyType = keyType;
+        this.indexedTableId = indexedTableId;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        overflow = dis.readInt();
+        int n = dis.readInt();
+        keys = new ArrayList<Field>(n);
+        rids = new ArrayList<RecordId>(n);
+        try {
+            for (int i = 0; i < n; i++) {
+                keys.add(keyType.parse(dis));
+                int pgNo = dis.readInt();
+                int slot = dis.readInt();
+                rids.add(new RecordId(new HeapPageId(indexedTableId, pgNo), slot));
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("parsing error!", e);
+        }
+        setBeforeImage();
+    }
+
+    public HashIndexPageId getId() {
+        return pid;
+    }
+
+    /** @return the number of entries a page of an index on keyType holds */
+    static int getMaxEntries(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    public int getNumEntries() {
+        return keys.size();
+    }
+
+    public boolean isFull() {
+        return keys.size() >= getMaxEntries(keyType);
+    }
+
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    public RecordId getRecordId(int i) {
+        return rids.get(i);
+    }
+
+    /**
+     * Add an entry to the page.
+     *
+     * @throws DbException if the page is full or key has the wrong type
+     */
+    public void addEntry(Field key, RecordId rid) throws DbException {
+        if (isFull())
+            throw new DbException("No slots available.");
+        if (key == null || key.getType() != keyType)
+            throw new DbException("key has the wrong type");
+        keys.add(key);
+        rids.add(rid);
+    }
+
+    /** @return the index of the entry for key and rid on the page, or -1 if there is none */
+    private int indexOf(Field key, RecordId rid) {
+        for (int i = 0; i < keys.size(); i++) {
+            if (keys.get(i).equals(key) && rids.get(i).equals(rid))
+                return i;
+        }
+        return -1;
+    }
+
+    /** @return true if the page has an entry for key and rid */
+    public boolean hasEntry(Field key, RecordId rid) {
+        return indexOf(key, rid) >= 0;
+    }
+
+    /**
+     * Remove the entry for key and rid from the page.
+     *
+     * @return true if there was one
+     */
+    public boolean removeEntry(Field key, RecordId rid) {
+        int i = indexOf(key, rid);
+        if (i < 0)
+            return false;
+        int last = keys.size() - 1;
+        keys.set(i, keys.get(last));
+        rids.set(i, rids.get(last));
+        keys.remove(last);
+        rids.remove(last);
+        return true;
+    }
+
+    /** Remove all entries from the page and unlink it from its chain */
+    public void clear() {
+        keys.clear();
+        rids.clear();
+        overflow = 0;
+    }
+
+    /** @return the id of the next page of the chain, or null if there is none */
+    public HashIndexPageId getOverflowId() {
+        return overflow == 0 ? null : new HashIndexPageId(pid.getTableId(), overflow);
+    }
+
+    public void setOverflowId(HashIndexPageId id) {
+        overflow = id == null ? 0 : id.getPageNumber();
+    }
+
+    /** @return the bytes of an empty page */
+    static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(overflow);
+            dos.writeInt(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                keys.get(i).serialize(dos);
+                dos.writeInt(rids.get(i).getPageId().getPageNumber());
+                dos.writeInt(rids.get(i).getTupleNumber());
+            }
+            dos.write(new byte[BufferPool.getPageSize() - HEADER_SIZE
+                    - keys.size() * (keyType.getLen() + 8)]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashIndexPage getBeforeImage() {
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new HashIndexPage(pid, oldDataRef, keyType, indexedTableId);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a {@link HashIndexFile}. Page 0 is the
+ * {@link HashIndexMetaPage}; all others are {@link HashIndexPage}s.
+ */
+public class HashIndexPageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash index.
+     *
+     * @param tableId the id of the HashIndexFile
+     * @param pgNo the page number in that file
+     */
+    public HashIndexPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the id of the HashIndexFile this page belongs to */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the page number in the file getTableId() */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    /** @return true if this is the meta page of its file */
+    public boolean isMeta() {
+        return pgNo == 0;
+    }
+
+    public int hashCode() {
+        return tableId + pgNo * 1000;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof HashIndexPageId))
+            return false;
+        HashIndexPageId id = (HashIndexPageId) o;
+        return id.tableId == tableId && id.pgNo == pgNo;
+    }
+
+    public String toString() {
+        return "HashIndexPageId(" + tableId + ", " + pgNo + ")";
+    }
+
+    /**
+     * Return a representation of this object as an array of integers, for
+     * writing to disk.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pgNo };
+    }
+}
@@ -8,12 +8,23 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. Subclasses may store their tuples on a different kind of
+ * {@link TuplePage} by overriding {@link #createPage} and
+ * {@link #createEmptyPageData}.
+ * <p>
+ * For every page, HeapFile also keeps the min/max of every field other than
+ * STRING_TYPE fields in a {@link ZoneMap}, which is stored next to the file
+ * as <tt>f.zones</tt>. Inserts widen the zones of the page they write to;
+ * deletes leave them alone. Scans given predicates through
+ * {@link #iterator(TransactionId, int[], Predicate[])} skip pages whose zones
+ * rule out a predicate, without reading them. The zones of files written by
+ * {@link HeapFileEncoder} are unknown until {@link #rebuildZoneMap} is run.
  * 
  * @see simpledb.HeapPage#HeapPage
+ * @see SlottedHeapFile
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile implements PushdownDbFile {
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -26,6 +37,7 @@ public class HeapFile implements DbFile {
 	private final TupleDesc tupleDesc;
 	private final File file;
 	private final int tableId;
+	private final ZoneMap zones;
 	
 	
     public HeapFile(File f, TupleDesc td) {
@@ -33,6 +45,7 @@ public class HeapFile implements DbFile {
     	tupleDesc = td;
     	file = f;
     	tableId = f.getAbsolutePath().hashCode();
+    	zones = ZoneMap.open(getZoneMapFile(), fieldTypes(td));
     }
 
     /**
@@ -44,6 +57,30 @@ public class HeapFile implements DbFile {
     	return file;
     }
 
+    /**
+     * Returns the file the zone map of this HeapFile is stored in.
+     */
+    public File getZoneMapFile() {
+    	return new File(file.getPath() + ".zones");
+    }
+
+    ZoneMap getZoneMap() {
+    	return zones;
+    }
+
+    private static Type[] fieldTypes(TupleDesc td) {
+    	Type[] types = new Type[td.numFields()];
+    	for(int i = 0; i < types.length; ++i) {
+    		types[i] = td.getFieldType(i);
+    	}
+    	return types;
+    }
+
+    /** @return true if HeapFiles keep zones for fields of type t */
+    static boolean isZoned(Type t) {
+    	return t != Type.STRING_TYPE;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere ensure that each
@@ -89,8 +126,7 @@ public class HeapFile implements DbFile {
                           + BufferPool.getPageSize() + " bytes from heapfile");
               }
               Debug.log(1, "HeapFile.readPage: read page %d", id.getPageNumber());
-              HeapPage p = new HeapPage(id, pageBuf);
-              return p;
+              return createPage(id, pageBuf);
           } catch (IOException e) {
               throw new RuntimeException(e);
           } finally {
@@ -105,12 +141,27 @@ public class HeapFile implements DbFile {
 
     }
 
+    /**
+     * Build the in-memory page for the specified bytes read from disk.
+     */
+    protected TuplePage createPage(HeapPageId id, byte[] data) throws IOException {
+    	return new HeapPage(id, data);
+    }
+
+    /**
+     * @return the bytes of an empty page, as appended to grow the file
+     */
+    protected byte[] createEmptyPageData() {
+    	return HeapPage.createEmptyPageData();
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-    	HeapPage hp = (HeapPage) page;
+    	// the zones on disk must cover the pages on disk
+    	zones.flush(getZoneMapFile());
     	RandomAccessFile rf = new RandomAccessFile(file, "rw");
-    	rf.seek(hp.getId().getPageNumber() * BufferPool.getPageSize());
-    	rf.write(hp.getPageData());
+    	rf.seek(page.getId().getPageNumber() * BufferPool.getPageSize());
+    	rf.write(page.getPageData());
     	rf.close();
     }
     
@@ -127,7 +178,7 @@ public class HeapFile implements DbFile {
     	synchronized (this) {
             BufferedOutputStream bw = new BufferedOutputStream(
                     new FileOutputStream(file, true));
-            byte[] pageBuf = HeapPage.createEmptyPageData();
+            byte[] pageBuf = createEmptyPageData();
             bw.write(pageBuf);
             bw.close();
     	}
@@ -140,9 +191,11 @@ public class HeapFile implements DbFile {
     	ArrayList<Page> dirty = new ArrayList<Page>();
     	for(int i = 0; i < numPages(); ++i) {
     		HeapPageId pgid = new HeapPageId(tableId, i);
-    		HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pgid, Permissions.READ_WRITE);
-    		if(p.getNumEmptySlots() > 0) {
+    		TuplePage p = (TuplePage) Database.getBufferPool().getPage(tid, pgid, Permissions.READ_WRITE);
+    		if(p.hasRoomFor(t)) {
+    			boolean first = hasUnknownZone(i) && !p.iterator().hasNext();
     			p.insertTuple(t);
+    			widenZones(i, t, first);
     			p.markDirty(true, tid);
     			dirty.add(p);
     			return dirty;
@@ -154,8 +207,9 @@ public class HeapFile implements DbFile {
     	
     	HeapPageId pid = new HeapPageId(tableId, numPages());
     	appendNewPage();
-    	HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+    	TuplePage p = (TuplePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
     	p.insertTuple(t);
+    	widenZones(pid.getPageNumber(), t, true);
     	p.markDirty(true, tid);
     	dirty.add(p);    	
 
@@ -170,7 +224,8 @@ public class HeapFile implements DbFile {
     	ArrayList<Page> dirty = new ArrayList<Page>();
     	RecordId rid = t.recId;
     	PageId pgid = rid.getPageId();
-    	HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pgid, Permissions.READ_WRITE);
+    	TuplePage p = (TuplePage) Database.getBufferPool().getPage(tid, pgid, Permissions.READ_WRITE);
+    	// the page's zones are left as they are: still correct, if loose
     	p.deleteTuple(t);
     	p.markDirty(true, tid);
     	dirty.add(p);
@@ -181,9 +236,75 @@ public class HeapFile implements DbFile {
     	
     }
 
+    private boolean hasUnknownZone(int pgno) {
+    	for(int i = 0; i < tupleDesc.numFields(); ++i) {
+    		if(isZoned(tupleDesc.getFieldType(i)) && zones.get(i, pgno) == null) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
+    /**
+     * Widen the zones of page pgno to cover t. A zone that is unknown is only
+     * set if t is the first tuple on the page.
+     */
+    private void widenZones(int pgno, Tuple t, boolean first) {
+    	for(int i = 0; i < tupleDesc.numFields(); ++i) {
+    		Field v = t.getField(i);
+    		if(!isZoned(tupleDesc.getFieldType(i)) || v == null
+    				|| v.getType() != tupleDesc.getFieldType(i)) {
+    			continue;
+    		}
+    		if(first || zones.get(i, pgno) != null) {
+    			zones.widen(i, pgno, v, v);
+    		}
+    	}
+    }
+
+    /**
+     * Recompute the zones of all pages of this file from their tuples and
+     * write the zone map to disk. Used to create the zone map of a file
+     * written by HeapFileEncoder, and to tighten zones after many deletes.
+     */
+    public void rebuildZoneMap(TransactionId tid)
+            throws DbException, TransactionAbortedException, IOException {
+    	zones.clear();
+    	for(int i = 0; i < numPages(); ++i) {
+    		HeapPageId pgid = new HeapPageId(tableId, i);
+    		TuplePage p = (TuplePage) Database.getBufferPool().getPage(tid, pgid, Permissions.READ_ONLY);
+    		Iterator<Tuple> it = p.iterator();
+    		boolean first = true;
+    		while(it.hasNext()) {
+    			widenZones(i, it.next(), first);
+    			first = false;
+    		}
+    	}
+    	zones.write(getZoneMapFile());
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-       return new HeapFileIterator(this, tid);
+       return new HeapFileIterator(this, tid, new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator that skips the pages whose zones show that none of
+     * their tuples pass one of preds. Tuples are stored whole, so all fields
+     * are read whatever fields asks for.
+     *
+     * @see PushdownDbFile#iterator(TransactionId, int[], Predicate[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] preds) {
+       return new HeapFileIterator(this, tid, preds);
+    }
+
+    /**
+     * Returns an iterator over the tuples of pages first to end - 1, so
+     * that ranges of the file can be scanned in parallel.
+     */
+    DbFileIterator iterator(TransactionId tid, int first, int end) {
+       return new HeapFileIterator(this, tid, new Predicate[0], first, end);
     }
 
 
@@ -196,14 +317,34 @@ class HeapFileIterator extends AbstractDbFileIterator {
 
     TransactionId tid;
     HeapFile hf;
+    Predicate[] preds;
+    // the pages scanned are first to end - 1, or to the last page
+    int first;
+    int end;
+
+    public HeapFileIterator(HeapFile hf, TransactionId tid, Predicate[] preds) {
+        this(hf, tid, preds, 0, Integer.MAX_VALUE);
+    }
 
-    public HeapFileIterator(HeapFile hf, TransactionId tid) {
+    public HeapFileIterator(HeapFile hf, TransactionId tid, Predicate[] preds, int first, int end) {
         this.hf = hf;
         this.tid = tid;
+        this.preds = preds;
+        this.first = first;
+        this.end = end;
+    }
+
+    /** @return true if the zones of page pgno allow a tuple on it to pass all preds */
+    private boolean mayMatch(int pgno) {
+        for (Predicate p : preds) {
+            if (!hf.getZoneMap().mayMatch(p, pgno))
+                return false;
+        }
+        return true;
     }
 
     public void open() throws DbException, TransactionAbortedException {
-        curpgno = -1;
+        curpgno = first - 1;
     }
 
     protected Tuple readNext() throws TransactionAbortedException, DbException {
@@ -211,12 +352,14 @@ class HeapFileIterator extends AbstractDbFileIterator {
             it = null;
 
        // System.out.println("Working from hf.numpages = " + hf.numPages() + " with a curpage " + curpgno);
-        while (it == null && curpgno < hf.numPages() - 1) {
+        while (it == null && curpgno < Math.min(end, hf.numPages()) - 1) {
             curpgno++;
+            if (!mayMatch(curpgno))
+                continue;
             HeapPageId curpid = new HeapPageId(hf.getId(), curpgno);
-            HeapPage curp = (HeapPage) Database.getBufferPool().getPage(tid,
+            TuplePage curp = (TuplePage) Database.getBufferPool().getPage(tid,
                     curpid, Permissions.READ_ONLY);
-            it = curp.iterator();
+            it = Database.getVersionStore().visibleTuples(tid, curpid, curp.iterator());
             if (!it.hasNext()) {
                 it = null;
             }
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -68,12 +69,12 @@ public class HeapFileEncoder {
 
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
-    * int,...,int\n<br>
-    * int,...,int\n<br>
+    * Assume format of the input file is:<br>
+    * value,...,value\n<br>
+    * value,...,value\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, and each value is written as
+    * accepted by {@link Type#parseText} for its column's type.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
@@ -95,7 +96,8 @@ public class HeapFileEncoder {
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
       }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+      // each page starts with its LSN, which is 0 until the page is logged
+      int nrecords = ((npagebytes - HeapPage.LSN_SIZE) * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
       
     //  per record, we need one bit; there are nrecords per page, so we need
     // nrecords bits, i.e., ((nrecords/32)+1) integers.
@@ -104,8 +106,11 @@ public class HeapFileEncoder {
         nheaderbytes++;  //ceiling
     int nheaderbits = nheaderbytes * 8;
 
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    BufferedReader br = new BufferedReader(new InputStreamReader(
+            new FileInputStream(inFile), StringField.CHARSET));
     FileOutputStream os = new FileOutputStream(outFile);
+    // a zone map of an earlier version of the file would be wrong
+    new File(outFile.getPath() + ".zones").delete();
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -146,17 +151,22 @@ public class HeapFileEncoder {
                 }
             }
             else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
+                byte[] bs = StringField.truncate(StringField.encode(s.trim()), Type.STRING_LEN);
+                int overflow = Type.STRING_LEN - bs.length;
+                pageStream.writeInt(bs.length);
+                pageStream.write(bs);
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
             }
+            else {
+                try {
+                    typeAr[fieldNo].parseText(s.trim()).serialize(pageStream);
+                } catch (java.text.ParseException e) {
+                    System.out.println ("BAD LINE : " + s);
+                    for (int i = 0; i < typeAr[fieldNo].getLen(); i++)
+                        pageStream.write((byte)0);
+                }
+            }
             curpos = 0;
             if (c == '\n')
                 fieldNo = 0;
@@ -201,10 +211,11 @@ public class HeapFileEncoder {
             
             // pad the rest of the page with zeroes
             
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
+            for (i=0; i<(npagebytes - (HeapPage.LSN_SIZE + recordcount * nrecbytes + nheaderbytes)); i++)
                 pageStream.writeByte(0);
             
-            // write header and body to file
+            // write LSN, header and body to file
+            os.write(new byte[HeapPage.LSN_SIZE]);
             headerStream.flush();
             headerBAOS.writeTo(os);
             pageStream.flush();
@@ -223,4 +234,267 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a binary page file made of
+   * {@link SlottedHeapPage}s, the format read by {@link SlottedHeapFile}.
+   * The input format is the same as for {@link #convert}; tuples are packed
+   * onto each page until the next one no longer fits.
+   *
+   * @see SlottedHeapPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @throws IOException if the input/output file can't be opened or a
+   *   tuple is too large for a page
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+
+    Type[] types = new Type[numFields];
+    System.arraycopy(typeAr, 0, types, 0, numFields);
+    TupleDesc td = new TupleDesc(types);
+
+    BufferedReader br = new BufferedReader(new InputStreamReader(
+            new FileInputStream(inFile), StringField.CHARSET));
+    FileOutputStream os = new FileOutputStream(outFile);
+    // a zone map of an earlier version of the file would be wrong
+    new File(outFile.getPath() + ".zones").delete();
+
+    ArrayList<Tuple> page = new ArrayList<Tuple>();
+    int pageBytes = SlottedHeapPage.HEADER_SIZE;
+    int npages = 0;
+    String line;
+    while ((line = br.readLine()) != null) {
+        if (line.trim().length() == 0)
+            continue;
+        Tuple t = parseLine(line, td, fieldSeparator);
+
+        int size = SlottedHeapPage.encodedSize(td, t) + SlottedHeapPage.SLOT_SIZE;
+        if (pageBytes + size > npagebytes && !page.isEmpty()) {
+            os.write(SlottedHeapPage.createPageData(td, page, npagebytes));
+            npages++;
+            page.clear();
+            pageBytes = SlottedHeapPage.HEADER_SIZE;
+        }
+        page.add(t);
+        pageBytes += size;
+    }
+
+    // flush the last page; an empty file still gets one empty page
+    if (!page.isEmpty() || npages == 0)
+        os.write(SlottedHeapPage.createPageData(td, page, npagebytes));
+    br.close();
+    os.close();
+  }
+
+  /**
+   * Parse one line of a text file in the format read by {@link #convert}
+   * into a tuple of schema td.
+   *
+   * @throws IOException if a field other than an INT_TYPE field is malformed
+   */
+  private static Tuple parseLine(String line, TupleDesc td, char fieldSeparator)
+      throws IOException {
+    String[] vals = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+    Tuple t = new Tuple(td);
+    for (int i = 0; i < td.numFields(); i++) {
+        String s = i < vals.length ? vals[i].trim() : "";
+        Type type = td.getFieldType(i);
+        if (type == Type.INT_TYPE) {
+            try {
+                t.setInt(i, Integer.parseInt(s));
+            } catch (NumberFormatException e) {
+                System.out.println ("BAD LINE : " + s);
+                t.setInt(i, 0);
+            }
+        } else if (type == Type.STRING_TYPE) {
+            t.setStringBytes(i, StringField.truncate(StringField.encode(s), Type.STRING_LEN));
+        } else {
+            try {
+                t.setField(i, type.parseText(s));
+            } catch (java.text.ParseException e) {
+                throw new IOException("BAD LINE : " + line, e);
+            }
+        }
+    }
+    return t;
+  }
+
+  /** Convert the specified input text file into the files of a
+   * {@link ColumnarFile}: one file of {@link ColumnPage}s per field, the
+   * live column and the zone map. The input format is the same as for
+   * {@link #convert}. Pages are BufferPool.getPageSize() bytes long.
+   *
+   * @see ColumnarFile
+   * @param inFile The input file to read data from
+   * @param outFile The zone map file; the columns are written next to it
+   * @param numFields the number of fields in each input line/output tuple
+   * @throws IOException if the input/output files can't be opened
+   */
+  public static void convertColumnar(File inFile, File outFile,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+
+    Type[] types = new Type[numFields + 1];
+    System.arraycopy(typeAr, 0, types, 0, numFields);
+    types[numFields] = Type.BOOLEAN_TYPE;
+    TupleDesc td = new TupleDesc(java.util.Arrays.copyOf(types, numFields));
+
+    BufferedReader br = new BufferedReader(new InputStreamReader(
+            new FileInputStream(inFile), StringField.CHARSET));
+    OutputStream[] os = new OutputStream[numFields + 1];
+    ColumnPage[] pages = new ColumnPage[numFields + 1];
+    int[] npages = new int[numFields + 1];
+    ZoneMap zones = new ZoneMap(types);
+    for (int c = 0; c <= numFields; c++) {
+        os[c] = new BufferedOutputStream(new FileOutputStream(
+                ColumnarFile.getColumnFile(outFile, c, numFields)));
+    }
+
+    String line;
+    try {
+        while ((line = br.readLine()) != null) {
+            if (line.trim().length() == 0)
+                continue;
+            Tuple t = parseLine(line, td, fieldSeparator);
+            for (int c = 0; c <= numFields; c++) {
+                if (pages[c] == null)
+                    pages[c] = new ColumnPage(new ColumnPageId(0, c, npages[c]++),
+                            types[c], ColumnPage.createEmptyPageData());
+                if (c == numFields)
+                    pages[c].appendLive();
+                else
+                    pages[c].append(t, c);
+                if (pages[c].isFull()) {
+                    flushColumnPage(pages[c], os[c], zones, c == numFields);
+                    pages[c] = null;
+                }
+            }
+        }
+    } catch (DbException e) {
+        throw new IOException(e);
+    }
+
+    for (int c = 0; c <= numFields; c++) {
+        if (pages[c] != null)
+            flushColumnPage(pages[c], os[c], zones, c == numFields);
+        os[c].close();
+    }
+    br.close();
+    zones.write(outFile);
+  }
+
+  private static void flushColumnPage(ColumnPage page, OutputStream os,
+                 ZoneMap zones, boolean live) throws IOException {
+    os.write(page.getPageData());
+    if (!live)
+        zones.set(page.getId().getColumn(), page.getId().getPageNumber(),
+                new Field[] { page.getMin(), page.getMax() });
+  }
+
+  /** Convert the specified input text file into a {@link BTreeFile} keyed
+   * on field keyField. The input format is the same as for {@link #convert}
+   * and need not be sorted. The tuples are sorted on the key and packed into
+   * full leaf pages, and the internal pages are built bottom up from the
+   * leaves. Pages are BufferPool.getPageSize() bytes long.
+   *
+   * @see BTreeFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param keyField the field the tree is keyed on
+   * @param numFields the number of fields in each input line/output tuple
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertBTree(File inFile, File outFile, final int keyField,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+
+    Type[] types = new Type[numFields];
+    System.arraycopy(typeAr, 0, types, 0, numFields);
+    TupleDesc td = new TupleDesc(types);
+
+    BufferedReader br = new BufferedReader(new InputStreamReader(
+            new FileInputStream(inFile), StringField.CHARSET));
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    String line;
+    while ((line = br.readLine()) != null) {
+        if (line.trim().length() == 0)
+            continue;
+        tuples.add(parseLine(line, td, fieldSeparator));
+    }
+    br.close();
+    java.util.Collections.sort(tuples, new java.util.Comparator<Tuple>() {
+        public int compare(Tuple a, Tuple b) {
+            Field ka = a.getField(keyField), kb = b.getField(keyField);
+            if (ka.compare(Predicate.Op.LESS_THAN, kb))
+                return -1;
+            return ka.compare(Predicate.Op.GREATER_THAN, kb) ? 1 : 0;
+        }
+    });
+
+    // page 0 is the root pointer; the leaves come next, then the internal
+    // pages one level at a time
+    ArrayList<BTreePage> pages = new ArrayList<BTreePage>();
+    ArrayList<Field> firstKeys = new ArrayList<Field>();
+    int perLeaf = BTreeLeafPage.getMaxTuples(td);
+    int pgNo = 1;
+    try {
+        BTreeLeafPage prev = null;
+        for (int start = 0; start < tuples.size() || start == 0; start += perLeaf) {
+            BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(0, pgNo++, BTreePageId.LEAF),
+                    BTreeLeafPage.createEmptyPageData(), td, keyField);
+            for (int i = start; i < Math.min(start + perLeaf, tuples.size()); i++)
+                leaf.insertTuple(tuples.get(i));
+            if (prev != null) {
+                prev.setRightSiblingId(leaf.getId());
+                leaf.setLeftSiblingId(prev.getId());
+            }
+            pages.add(leaf);
+            firstKeys.add(leaf.getNumTuples() > 0 ? leaf.getKey(0) : null);
+            prev = leaf;
+        }
+
+        int perNode = BTreeInternalPage.getMaxKeys(types[keyField]) + 1;
+        int levelStart = 0;
+        while (pages.size() - levelStart > 1) {
+            int levelEnd = pages.size();
+            int n = levelEnd - levelStart;
+            int start = 0;
+            while (start < n) {
+                int end = Math.min(start + perNode, n);
+                // don't leave a node with a single child at the end
+                if (end < n && n - end < 2)
+                    end = n - 2;
+                BTreeInternalPage node = new BTreeInternalPage(
+                        new BTreePageId(0, pgNo++, BTreePageId.INTERNAL),
+                        BTreeInternalPage.createEmptyPageData(), td, keyField);
+                BTreePage first = pages.get(levelStart + start);
+                first.setParentId(node.getId());
+                for (int i = start + 1; i < end; i++) {
+                    BTreePage child = pages.get(levelStart + i);
+                    if (i == start + 1)
+                        node.insertEntry(firstKeys.get(levelStart + i), first.getId(), child.getId());
+                    else
+                        node.appendEntry(firstKeys.get(levelStart + i), child.getId());
+                    child.setParentId(node.getId());
+                }
+                pages.add(node);
+                firstKeys.add(firstKeys.get(levelStart + start));
+                start = end;
+            }
+            levelStart = levelEnd;
+        }
+    } catch (DbException e) {
+        throw new IOException(e);
+    }
+
+    BTreePage root = pages.get(pages.size() - 1);
+    FileOutputStream os = new FileOutputStream(outFile);
+    os.write(BTreeRootPtrPage.createPageData(root.getId().getPageNumber(), root.getId().pgcateg()));
+    for (BTreePage p : pages)
+        os.write(p.getPageData());
+    os.close();
+  }
 }
@@ -11,7 +11,7 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
@@ -21,6 +21,10 @@ public class HeapPage implements Page {
     boolean isDirty;
     TransactionId tid;
     Permissions lock;
+    long lsn;
+
+    /** Bytes of the page LSN at the start of each page */
+    static final int LSN_SIZE = 8;
     
 
 
@@ -29,10 +33,12 @@ public class HeapPage implements Page {
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
-     * The format of a HeapPage is a set of header bytes indicating
-     * the slots of the page that are in use, some number of tuple slots.
+     * The format of a HeapPage is the page LSN (a long, the offset in the
+     * log of the last UPDATE record of the page), a set of header bytes
+     * indicating the slots of the page that are in use, some number of
+     * tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor(((BufferPool.getPageSize()-8)*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
      * The number of 8-bit header words is equal to:
@@ -52,6 +58,7 @@ public class HeapPage implements Page {
         lock = null;
         
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        lsn = dis.readLong();
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
@@ -75,13 +82,25 @@ public class HeapPage implements Page {
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
-    	int pageSize = BufferPool.getPageSize();
+    	int pageSize = BufferPool.getPageSize() - LSN_SIZE;
     	int tupleSize = td.getSize();
     	
     	return pageSize * 8 / (tupleSize * 8 + 1);
 
     }
     
+    /**
+     * @return the LSN of the page: the offset in the log of the last UPDATE
+     *   record of the page, or 0 if it has never been logged
+     */
+    public long getLsn() {
+        return lsn;
+    }
+
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
     public  synchronized void setPermissions(Permissions perms) {
     	lock = perms;
     }
@@ -154,8 +173,7 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                td.getFieldType(j).parseInto(dis, t, j);
             }
         } catch (java.text.ParseException e) {
             e.printStackTrace();
@@ -181,6 +199,12 @@ public class HeapPage implements Page {
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
 
+        try {
+            dos.writeLong(lsn);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
         // create the header of the page
         for (int i=0; i<header.length; i++) {
             try {
@@ -209,10 +233,8 @@ public class HeapPage implements Page {
 
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-                
+                    td.getFieldType(j).serialize(tuples[i], j, dos);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -220,7 +242,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (LSN_SIZE + header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -237,7 +259,8 @@ public class HeapPage implements Page {
         return baos.toByteArray();
     }
 
-    Tuple getTuple(int idx) {
+    // see TuplePage.java for javadocs
+    public Tuple getTuple(int idx) {
 
         if (idx >= tuples.length)
             throw new NoSuchElementException();
@@ -319,6 +342,13 @@ public class HeapPage implements Page {
     	
     }
 
+    /**
+     * @return true if the page has an empty slot for t
+     */
+    public boolean hasRoomFor(Tuple t) {
+    	return getNumEmptySlots() > 0;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
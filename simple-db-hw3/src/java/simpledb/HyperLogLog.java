@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HyperLogLog is a sketch of the number of distinct values of a field, in
+ * 2^precision bytes whatever the number of values (Flajolet et al., 2007).
+ * Each value is hashed; the first bits of the hash choose a register, which
+ * keeps the longest run of leading zeros seen in the rest of the hash. The
+ * standard error of the estimate is about 1.04 / sqrt(2^precision).
+ * <p>
+ * Sketches of the same precision merge into the sketch of the union of
+ * their values, so the sketches of ranges of a table, or of the tuples
+ * inserted since it was analyzed, can be combined without seeing the values
+ * again.
+ *
+ * @Threadsafe
+ */
+public class HyperLogLog {
+
+    /** Default precision: 4096 registers, for an error of about 1.6% */
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int precision;
+    private final byte[] registers;
+    // the last estimate, until a register grows; negative if there is none
+    private double estimate = -1;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /** @param precision the log2 of the number of registers, 4 to 16 */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16)
+            throw new IllegalArgumentException("precision must be 4 to 16: " + precision);
+        this.precision = precision;
+        registers = new byte[1 << precision];
+    }
+
+    /** @return v with its bits mixed, so that every input bit affects every output bit */
+    static long mix(long v) {
+        // the finalizer of MurmurHash3
+        v ^= v >>> 33;
+        v *= 0xff51afd7ed558ccdL;
+        v ^= v >>> 33;
+        v *= 0xc4ceb9fe1a85ec53L;
+        v ^= v >>> 33;
+        return v;
+    }
+
+    /** Add a value given by its bits; equal values must have equal bits */
+    public void addLong(long v) {
+        long h = mix(v);
+        int idx = (int) (h >>> (64 - precision));
+        // the rest of the hash, with a stop bit so the run is at most 64 - precision
+        long rest = (h << precision) | (1L << (precision - 1));
+        byte rho = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        // registers rarely grow once many values have been added, so only
+        // the adds that grow one take the lock
+        if (rho > registers[idx]) {
+            synchronized (this) {
+                if (rho > registers[idx]) {
+                    registers[idx] = rho;
+                    estimate = -1;
+                }
+            }
+        }
+    }
+
+    public void addDouble(double v) {
+        // 0.0 and -0.0 are equal
+        addLong(v == 0.0 ? 0L : Double.doubleToLongBits(v));
+    }
+
+    public void addString(String s) {
+        // 64-bit FNV-1a, so distinct strings rarely share a hash
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        addLong(h);
+    }
+
+    /** Add field i of t */
+    public void addField(Tuple t, int i) {
+        Type type = t.getTupleDesc().getFieldType(i);
+        if (type == Type.INT_TYPE)
+            addLong(t.getInt(i));
+        else if (type == Type.LONG_TYPE || type == Type.DATE_TYPE)
+            addLong(t.getLong(i));
+        else if (type == Type.DOUBLE_TYPE)
+            addDouble(t.getDouble(i));
+        else if (type == Type.BOOLEAN_TYPE)
+            addLong(t.getBoolean(i) ? 1 : 0);
+        else
+            addString(((StringField) t.getField(i)).getValue());
+    }
+
+    /** Merge other, which must have the same precision, into this sketch */
+    public synchronized void merge(HyperLogLog other) {
+        if (other.precision != precision)
+            throw new IllegalArgumentException("can't merge sketches of precision "
+                                               + other.precision + " into " + precision);
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+        estimate = -1;
+    }
+
+    /** Write this sketch to dos, to be read back by {@link #read} */
+    synchronized void write(DataOutputStream dos) throws IOException {
+        dos.writeByte(precision);
+        dos.write(registers);
+    }
+
+    /** @return a sketch written by {@link #write} */
+    static HyperLogLog read(DataInputStream dis) throws IOException {
+        HyperLogLog h = new HyperLogLog(dis.readByte());
+        dis.readFully(h.registers);
+        return h;
+    }
+
+    /** @return the estimated number of distinct values added */
+    public synchronized double estimate() {
+        if (estimate >= 0)
+            return estimate;
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double e = alpha * m * m / sum;
+        // few values leave registers empty; count those instead
+        if (e <= 2.5 * m && zeros > 0)
+            e = m * Math.log((double) m / zeros);
+        estimate = e;
+        return e;
+    }
+}
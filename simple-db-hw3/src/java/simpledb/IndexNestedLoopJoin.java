@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin is an equality join that, instead of rescanning the
+ * inner relation for every outer tuple, looks each outer tuple's join value
+ * up in an in-memory index of the inner base table's join field, and
+ * fetches only the matching inner tuples by RecordId. The index comes from
+ * the shared {@link ColumnIndexCache}, so it is built once and reused by
+ * later queries until the inner table is written to.
+ * <p>
+ * The inner child must be a {@link SeqScan}, possibly below some
+ * {@link Filter}s, whose predicates are applied to the fetched tuples. If
+ * the index can't be built (e.g. it doesn't fit in the cache), the join
+ * runs as a plain nested loops {@link Join}.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator outer, inner;
+    private TupleDesc comboTD;
+
+    private ColumnIndexCache.Index index;
+    private Join fallback;
+    private TransactionId tid;
+    private final ArrayList<Predicate> innerPreds = new ArrayList<Predicate>();
+    private Tuple outerTuple;
+    private Iterator<RecordId> matches;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on
+     *
+     * @param p
+     *            The predicate to use to join the children; must be an
+     *            equality
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join; see
+     *            {@link #canUse}
+     * @throws IllegalArgumentException if the join can't use an index of
+     *            child2
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canUse(p, child1, child2))
+            throw new IllegalArgumentException("join of " + child2.getTupleDesc() + " can't use an index");
+        pred = p;
+        outer = child1;
+        inner = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the SeqScan at the bottom of a chain of Filters, or null if
+     *   inner is not such a chain
+     */
+    static SeqScan baseScan(OpIterator inner) {
+        while (inner instanceof Filter)
+            inner = ((Filter) inner).getChildren()[0];
+        return inner instanceof SeqScan ? (SeqScan) inner : null;
+    }
+
+    /**
+     * @return true if a join of outer and inner on p can be run as an
+     *   IndexNestedLoopJoin: p is an equality of fields of the same type and
+     *   inner scans a base table the {@link ColumnIndexCache} can index
+     */
+    public static boolean canUse(JoinPredicate p, OpIterator outer, OpIterator inner) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            return false;
+        SeqScan scan = baseScan(inner);
+        if (scan == null || !ColumnIndexCache.canIndex(scan.srcData))
+            return false;
+        return outer.getTupleDesc().getFieldType(p.getField1())
+            == inner.getTupleDesc().getFieldType(p.getField2());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table name
+     */
+    public String getJoinField1Name() {
+        return outer.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table name
+     */
+    public String getJoinField2Name() {
+        return inner.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /** @return true if the join is using an index, false if it fell back to nested loops */
+    public boolean isUsingIndex() {
+        return index != null;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        SeqScan scan = baseScan(inner);
+        tid = scan.xactionId;
+        index = Database.getIndexCache().getIndex(tid, scan.tableId, pred.getField2());
+        if (index == null) {
+            fallback = new Join(pred, outer, inner);
+            fallback.open();
+        } else {
+            innerPreds.clear();
+            for (OpIterator o = inner; o instanceof Filter; o = ((Filter) o).getChildren()[0])
+                innerPreds.add(((Filter) o).getPredicate());
+            // the inner child is never read
+            outer.open();
+        }
+        outerTuple = null;
+        matches = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (fallback != null)
+            fallback.close();
+        else if (index != null)
+            outer.close();
+        fallback = null;
+        index = null;
+        outerTuple = null;
+        matches = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (fallback != null) {
+            fallback.rewind();
+            return;
+        }
+        outer.rewind();
+        outerTuple = null;
+        matches = null;
+    }
+
+    private boolean passesInnerFilters(Tuple t) {
+        for (Predicate p : innerPreds)
+            if (!p.filter(t))
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of an outer tuple with each inner tuple
+     * the index finds for its join value, in outer order.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (fallback != null)
+            return fallback.hasNext() ? fallback.next() : null;
+        while (true) {
+            while (matches != null && matches.hasNext()) {
+                Tuple t2 = ColumnIndexCache.fetch(tid, matches.next());
+                if (t2 != null && passesInnerFilters(t2))
+                    return Tuple.merge(comboTD, outerTuple, t2);
+            }
+            if (!outer.hasNext())
+                return null;
+            outerTuple = outer.next();
+            matches = index.lookup(outerTuple.getField(pred.getField1())).iterator();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { outer, inner };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        outer = children[0];
+        inner = children[1];
+        comboTD = TupleDesc.merge(outer.getTupleDesc(), inner.getTupleDesc());
+    }
+}
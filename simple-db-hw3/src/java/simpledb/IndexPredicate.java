@@ -0,0 +1,65 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key field of an index to a constant. It is
+ * what an {@link IndexScan} looks up, like a {@link Predicate} without the
+ * field number.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field fieldvalue;
+
+    /**
+     * Constructor.
+     *
+     * @param op the operation to apply (as defined in Predicate.Op); the
+     *   key is the left hand side of the comparison
+     * @param fvalue the value to compare the key against
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue) {
+        this.op = op;
+        this.fieldvalue = fvalue;
+    }
+
+    public Field getField() {
+        return fieldvalue;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /** @return true if key passes this predicate */
+    public boolean matches(Field key) {
+        return key.compare(op, fieldvalue);
+    }
+
+    /**
+     * @return true if an index can look this predicate up, rather than
+     *   having to check every key: all comparisons except LIKE and
+     *   NOT_EQUALS
+     */
+    public static boolean isIndexable(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof IndexPredicate))
+            return false;
+        IndexPredicate ipd = (IndexPredicate) o;
+        return op == ipd.op && fieldvalue.equals(ipd.fieldvalue);
+    }
+
+    public int hashCode() {
+        return op.hashCode() * 31 + fieldvalue.hashCode();
+    }
+
+    public String toString() {
+        return "key " + op + " " + fieldvalue;
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose key
+ * passes an {@link IndexPredicate}, only reading the pages of the index that
+ * can hold them. The table is either stored in a {@link BTreeFile}, which
+ * returns the tuples in key order, or has a {@link HashIndexFile} of its
+ * primary key, which only serves equality lookups.
+ */
+public class IndexScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    final TransactionId xactionId;
+    final int tableId;
+    final String tableAlias;
+    final IndexPredicate ipred;
+    final DbFile srcData;
+    final int keyField;
+    DbFileIterator srcDataItr;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be stored in a BTreeFile or have a
+     *            hash index
+     * @param tableAlias
+     *            the alias of this table (needed by the parser); the returned
+     *            tupleDesc has fields with name tableAlias.fieldName
+     * @param ipred
+     *            the predicate over the table's key field; must be an
+     *            equality if the index is a hash index
+     * @throws DbException if the table has no index that can serve ipred
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred)
+            throws DbException {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        HashIndexFile hf = Database.getCatalog().getHashIndex(tableid);
+        if (f instanceof BTreeFile) {
+            srcData = f;
+            keyField = ((BTreeFile) f).keyField();
+        } else if (hf != null && ipred.getOp() == Predicate.Op.EQUALS) {
+            srcData = hf;
+            keyField = hf.keyField();
+        } else {
+            throw new DbException("table " + tableid + " has no index for " + ipred);
+        }
+        xactionId = tid;
+        tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.ipred = ipred;
+    }
+
+    /**
+     * @return the table name of the table the operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableId);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the predicate over the key field this operator looks up */
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /** @return the index of the key field the lookup is on */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (srcDataItr == null) {
+            if (srcData instanceof BTreeFile)
+                srcDataItr = ((BTreeFile) srcData).indexIterator(xactionId, ipred);
+            else
+                srcDataItr = ((HashIndexFile) srcData).indexIterator(xactionId, ipred);
+        }
+        srcDataItr.open();
+    }
+
+    /**
+     * Returns the TupleDesc with field names from the underlying table,
+     * prefixed with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = td.getFieldType(i);
+            names[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return srcDataItr.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        return srcDataItr.next();
+    }
+
+    public void close() {
+        srcDataItr.close();
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        srcDataItr.rewind();
+    }
+}
@@ -1,5 +1,7 @@
  package simpledb;
 
+import java.io.*;
+
 /** A class to represent a fixed-width histogram over a single integer-based field.
  */
 public class IntHistogram {
@@ -91,7 +93,7 @@ public class IntHistogram {
     			}
     			else{
     				height = hBuckets[bIndex];
-    				return (double)(height/span)/numTuples;
+    				return (double) height / span / numTuples;
     			}
     		case LESS_THAN:
     			if(v <= min){
@@ -148,7 +150,7 @@ public class IntHistogram {
     					double a2 = (double) tempHeight / numTuples;
     					result = result + a2;
     				}
-    				result = result + (double)(height/span)/numTuples;
+    				result = result + (double) height / span / numTuples;
     				return result;
     			}
     		case GREATER_THAN_OR_EQ:
@@ -168,7 +170,7 @@ public class IntHistogram {
     					double a2 = (double) tempHeight / numTuples;
     					result = result + a2;
     				}
-    				result = result + (double)(height/span)/numTuples;
+    				result = result + (double) height / span / numTuples;
 
     				return result;
     			}
@@ -178,7 +180,7 @@ public class IntHistogram {
     			}
     			else{
     				height = hBuckets[bIndex];
-    				double result = (double)(height/span)/numTuples;
+    				double result = (double) height / span / numTuples;
     				return 1.0 - result;
     			}
     		default:
@@ -204,6 +206,29 @@ public class IntHistogram {
         return 1.0;
     }
     
+    /** Write this histogram to dos, to be read back by {@link #read} */
+    void write(DataOutputStream dos) throws IOException {
+    	dos.writeInt(numBuckets);
+    	dos.writeInt(min);
+    	dos.writeInt(max);
+    	dos.writeInt(numTuples);
+    	for(int h : hBuckets){
+    		dos.writeInt(h);
+    	}
+    }
+
+    /** @return a histogram written by {@link #write} */
+    static IntHistogram read(DataInputStream dis) throws IOException {
+    	int buckets = dis.readInt();
+    	int min = dis.readInt();
+    	IntHistogram h = new IntHistogram(buckets, min, dis.readInt());
+    	h.numTuples = dis.readInt();
+    	for(int i = 0; i < buckets; i++){
+    		h.hBuckets[i] = dis.readInt();
+    	}
+    	return h;
+    }
+
     /**
      * @return A string describing this histogram, for debugging purposes
      */
@@ -26,6 +26,7 @@ public class Join extends Operator {
     private boolean isOpen;
     private Tuple lhsTuple;
     private Tuple rhsTuple;
+    private TupleDesc comboTD;
     
     public Join(JoinPredicate p, OpIterator child1, OpIterator child2) {
     	predicate = p;
@@ -33,6 +34,7 @@ public class Join extends Operator {
     	rhsChild = child2;
     	isOpen = false;
     	lhsTuple = null;
+    	comboTD = TupleDesc.merge(lhsChild.getTupleDesc(), rhsChild.getTupleDesc());
     
     }
 
@@ -65,10 +67,7 @@ public class Join extends Operator {
      *      implementation logic.
      */
     public TupleDesc getTupleDesc() {
-    	TupleDesc ltd = lhsChild.getTupleDesc();
-    	TupleDesc rtd = rhsChild.getTupleDesc();
-    	return TupleDesc.merge(ltd, rtd);
-
+    	return comboTD;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -143,22 +142,7 @@ public class Join extends Operator {
     
     
     private Tuple emitTuple(Tuple lhs, Tuple rhs) {
-    	int fieldNo = 0;
-    	int i;
-    	TupleDesc td = getTupleDesc();
-    	Tuple out = new Tuple(td);
-    	
-		for(i = 0; i < lhsChild.getTupleDesc().numFields(); ++i) {
-			out.setField(fieldNo, lhs.getField(i));
-			++fieldNo;
-		}
-		
-		for(i = 0; i < rhsChild.getTupleDesc().numFields(); ++i) {
-			out.setField(fieldNo, rhs.getField(i));
-
-			++fieldNo;
-		}
-		return out;
+    	return Tuple.merge(comboTD, lhs, rhs);
     }
     
     private void advanceLhs() throws TransactionAbortedException, DbException {
@@ -206,6 +190,7 @@ public class Join extends Operator {
     public void setChildren(OpIterator[] children) {
     	lhsChild = children[0];
     	rhsChild = children[1];
+    	comboTD = TupleDesc.merge(lhsChild.getTupleDesc(), rhsChild.getTupleDesc());
     	
     }
 
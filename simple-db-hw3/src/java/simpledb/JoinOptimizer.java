@@ -2,9 +2,6 @@ package simpledb;
 
 import java.util.*;
 
-import javax.swing.*;
-import javax.swing.tree.*;
-
 /**
  * The JoinOptimizer class is responsible for ordering a series of joins
  * optimally, and for selecting the best instantiation of a join for a given
@@ -40,7 +37,8 @@ public class JoinOptimizer {
      * @param plan1
      *            The left join node's child
      * @param plan2
-     *            The right join node's child
+     *            The right join node's child; plan1 itself if it already
+     *            joins the two tables, in which case the join filters it
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
             OpIterator plan1, OpIterator plan2) throws ParsingException {
@@ -68,6 +66,26 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
+        if (plan1 == plan2) {
+            // an earlier join joined the two tables
+            return new JoinFilter(p, plan1);
+        }
+        switch (lj.algorithm) {
+        case INDEX:
+            if (IndexNestedLoopJoin.canUse(p, plan1, plan2))
+                return new IndexNestedLoopJoin(p, plan1, plan2);
+            break;
+        case HASH:
+            // fields of different types are never equal keys
+            if (p.getOperator() == Predicate.Op.EQUALS
+                    && plan1.getTupleDesc().getFieldType(t1id) == plan2.getTupleDesc().getFieldType(t2id))
+                return new HashEquiJoin(p, plan1, plan2);
+            break;
+        case BLOCK_NESTED_LOOP:
+            return new BlockNestedLoopJoin(p, plan1, plan2);
+        default:
+            break;
+        }
         j = new Join(p,plan1,plan2);
 
         return j;
@@ -82,6 +100,10 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
+     * <p>
+     * This is the cost of running the join as nested loops, by {@link Join};
+     * the optimizer chooses among the other algorithms with
+     * {@link #estimateJoinCost(LogicalJoinNode, LogicalJoinNode.Algorithm, int, int, double, double, boolean)}.
      * 
      * 
      * @param j
@@ -102,17 +124,121 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, LogicalJoinNode.Algorithm.NESTED_LOOP, card1, card2,
+                cost1, cost2, true);
+    }
+
+    /** Cost of processing a tuple, or of applying a predicate to one */
+    static final double CPUCOSTPERTUPLE = 1.0;
+
+    /**
+     * Estimate the cost of running a join with a particular algorithm, as
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     * <p>
+     * The algorithms that hold the outer side in memory, a block of it at a
+     * time, spill by scanning the inner side once per block. Scanning the
+     * inner side again reads its pages again unless it is a base table that
+     * fits in the buffer pool, and runs its joins again if it is a join.
+     *
+     * @param a
+     *            The algorithm
+     * @param innerIsBase
+     *            true if the right-hand side of the join is a scan of the
+     *            base table j.t2Alias rather than a join, so it may be
+     *            joined by an {@link IndexNestedLoopJoin}
+     * @return the cost, or Double.MAX_VALUE if the algorithm can't run j
+     */
+    double estimateJoinCost(LogicalJoinNode j, LogicalJoinNode.Algorithm a, int card1,
+            int card2, double cost1, double cost2, boolean innerIsBase) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 5.
-            return card1 + cost1 + cost2;
-        } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            return a == LogicalJoinNode.Algorithm.NESTED_LOOP ? card1 + cost1 + cost2
+                : Double.MAX_VALUE;
+        }
+        // every algorithm scans both sides once
+        double scans = cost1 + cost2;
+        double rescan = innerIsBase && fitsInBufferPool(cost2) ? card2 * CPUCOSTPERTUPLE : cost2;
+        switch (a) {
+        case NESTED_LOOP:
+            // scan the inner side once per outer tuple, and apply the
+            // predicate to every pair
+            return scans + Math.max(card1 - 1, 0) * rescan
+                + (double) card1 * card2 * CPUCOSTPERTUPLE;
+        case BLOCK_NESTED_LOOP: {
+            double blocks = Math.ceil((double) card1 / BlockNestedLoopJoin.BLOCK_SIZE);
+            return scans + Math.max(blocks - 1, 0) * rescan
+                + (card1 + (double) card1 * card2) * CPUCOSTPERTUPLE;
+        }
+        case HASH: {
+            if (j.p != Predicate.Op.EQUALS)
+                return Double.MAX_VALUE;
+            // HashEquiJoin hashes a block of outer tuples, and probes it with
+            // every inner tuple
+            double blocks = Math.ceil((double) card1 / (HashEquiJoin.MAP_SIZE + 1));
+            return scans + Math.max(blocks - 1, 0) * rescan
+                + (card1 + Math.max(blocks, 1) * card2 + joinCardinality(j, card1, card2))
+                * CPUCOSTPERTUPLE;
+        }
+        case INDEX:
+            return innerIsBase ? estimateIndexJoinCost(j, card1, card2, cost1, cost2)
+                : Double.MAX_VALUE;
+        default:
+            return Double.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return true if a base table whose scan costs cost fits in the buffer
+     *   pool, so that once it is read, reading it again costs no I/O
+     */
+    private static boolean fitsInBufferPool(double cost) {
+        return Math.max(1.0, cost / TableStats.IOCOSTPERPAGE) <= Database.getBufferPool().numPages;
+    }
+
+    /** @return the estimated number of pairs of tuples j joins, without primary keys */
+    private int joinCardinality(LogicalJoinNode j, int card1, int card2) {
+        return estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias, j.f1PureName,
+                j.f2PureName, card1, card2, false, false, TableStats.getStatsMap(),
+                p.getTableAliasToIdMapping());
+    }
+
+    /**
+     * Estimate the cost of running a join as an {@link IndexNestedLoopJoin},
+     * which builds (or reuses) an index of the inner table's join field and
+     * then, for each outer tuple, probes it once and fetches every match.
+     *
+     * @return the cost, or Double.MAX_VALUE if the join can't use an index
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        if (j.p != Predicate.Op.EQUALS || j.t2Alias == null)
+            return Double.MAX_VALUE;
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return Double.MAX_VALUE;
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        if (!ColumnIndexCache.canIndex(f))
+            return Double.MAX_VALUE;
+        int field;
+        try {
+            field = f.getTupleDesc().fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return Double.MAX_VALUE;
         }
+
+        // building the index costs a scan of the inner table
+        double build = Database.getIndexCache().isCached(tableId, field) ? 0 : cost2 + card2;
+        // matches per probe, consistent with estimateTableJoinCardinality
+        int card = joinCardinality(j, card1, card2);
+        double matches = Math.max(1.0, (double) card / Math.max(card1, 1));
+        double fetches = card1 * matches;
+        // each match may be on a different page, but if the inner table fits
+        // in the buffer pool each of its pages is read at most once
+        double pages2 = Math.max(1.0, cost2 / TableStats.IOCOSTPERPAGE);
+        double reads = fitsInBufferPool(cost2) ? Math.min(fetches, pages2) : fetches;
+        return cost1 + build + card1 + fetches
+            + reads * Math.min(TableStats.IOCOSTPERPAGE, cost2);
     }
 
     /**
@@ -158,12 +284,21 @@ public class JoinOptimizer {
     	int card = 1;
     	
     	if(joinOp == Predicate.Op.EQUALS){
+    		double ndv = Math.max(
+    				distinctValues(stats, tableAliasToId, table1Alias, field1PureName, card1),
+    				distinctValues(stats, tableAliasToId, table2Alias, field2PureName, card2));
     		if(t2pkey && !t1pkey){
     			card = card1;
     		}
     		else if(t1pkey && !t2pkey){
     			card = card2;
     		}
+    		else if(ndv > 0){
+    			// each value of the side with fewer distinct values is
+    			// assumed to match; pairs of equal values are then spread
+    			// over the values of the side with more
+    			card = (int) Math.min(Integer.MAX_VALUE, (double) card1 * card2 / ndv);
+    		}
     		else {
     			if(card1 > card2){
     				card = card1;
@@ -181,6 +316,29 @@ public class JoinOptimizer {
         return card <= 0 ? 1 : card;
     }
 
+    /**
+     * @return the estimated number of distinct values of field of the table
+     *   alias stands for, at most card, or 0 if there are no statistics of it
+     */
+    private static double distinctValues(Map<String, TableStats> stats,
+            Map<String, Integer> tableAliasToId, String alias, String field, int card) {
+        if (stats == null || tableAliasToId == null || alias == null)
+            return 0;
+        Integer tableId = tableAliasToId.get(alias);
+        if (tableId == null)
+            return 0;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return 0;
+        int i;
+        try {
+            i = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            return 0;
+        }
+        return Math.min(s.distinctValues(i), Math.max(card, 1));
+    }
+
     /**
      * Helper method to enumerate all of the subsets of a given size of a
      * specified vector.
@@ -214,9 +372,56 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Most relations whose joins {@link #orderJoins} orders by dynamic
+     * programming; its PlanCache takes space exponential in the number of
+     * relations
+     */
+    static final int MAX_DP_RELATIONS = 20;
+
+    /** Most relations whose joins {@link #orderJoins} orders at all */
+    static final int MAX_RELATIONS = 64;
+
+    private static volatile int dpThreshold = 16;
+    private static volatile long greedyBudgetMillis = 500;
+
+    /**
+     * Set the most relations whose joins are ordered by dynamic
+     * programming, at most {@link #MAX_DP_RELATIONS}; the joins of more are
+     * ordered greedily.
+     */
+    public static void setDpThreshold(int relations) {
+        if (relations < 1 || relations > MAX_DP_RELATIONS)
+            throw new IllegalArgumentException("threshold must be 1 to "
+                                               + MAX_DP_RELATIONS + ": " + relations);
+        dpThreshold = relations;
+    }
+
+    /**
+     * Set the time the greedy ordering may spend looking for cheaper plans
+     * than its first; the first plan is always found, however long it takes.
+     */
+    public static void setGreedyBudget(long millis) {
+        greedyBudgetMillis = millis;
+    }
+
+    /** Most plans the greedy ordering tries within its time budget */
+    static final int GREEDY_PASSES = 64;
+
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * The best plan of every connected set of relations is found by dynamic
+     * programming over the bitmasks of the sets, as in DPccp (Moerkotte and
+     * Neumann, 2006): only pairs of connected sets with a join between them
+     * are enumerated, so cross products are never considered, and each pair
+     * only once. Plans may be bushy: both sides of a join may be joins, such
+     * as the joins of pairs of dimension tables of a snowflake schema.
+     * <p>
+     * Queries of more relations than the threshold set by
+     * {@link #setDpThreshold} are ordered greedily instead, as in GOO
+     * (Fegaras, 1998).
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -228,8 +433,10 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed: each after the joins of the
+     *         plans it joins. Joins of tables an earlier join joined filter
+     *         its output.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -240,370 +447,479 @@ public class JoinOptimizer {
             throws ParsingException {
         //Not necessary for labs 1--3
 
-        // some code goes here
-        //Replace the following
-        //return joins;
-    	
-    	PlanCache pCache = new PlanCache();
-    	Set<LogicalJoinNode> hashSet = new HashSet<LogicalJoinNode>(joins);
-    	hashSet.addAll(joins);
-    	Set<Set<LogicalJoinNode>> joinSet = enumerateSubsets(joins, 1);
-    	
-    	int sizeofJoinSet = joinSet.size();
-    	
-    	for(int i = 1; i <= sizeofJoinSet; i++){
-    		Set<Set<LogicalJoinNode>> subSet = enumerateSubsets(joins, i);
-    		
-    		for(Set<LogicalJoinNode> s: subSet){
-    			Double currentCost = Double.MAX_VALUE;
-    			
-    			Integer currentCard = Integer.MAX_VALUE;
-    			
-    			Vector<LogicalJoinNode> currentPlan = null;
-    			
-    			for(LogicalJoinNode node : s){
-    				CostCard cc = computeCostAndCardOfSubplan(stats, filterSelectivities, node, s, Double.MAX_VALUE, pCache);
-    				
-    				if(cc.cost < currentCost && cc != null){
-    					currentCost = cc.cost;
-    					currentCard = cc.card;
-    					currentPlan = cc.plan;
-    				}
-    				
-    			}
-    			pCache.addPlan(s, currentCost, currentCard, currentPlan);
-    		}
+    	if(joins.isEmpty()) {
+    		return joins;
     	}
-    	
-    	Vector<LogicalJoinNode> result = pCache.getOrder(hashSet);
-    	return result;
-
+    	JoinGraph g = new JoinGraph(stats, filterSelectivities);
+    	if (g.size() > dpThreshold)
+    		return g.orderGreedily(System.nanoTime() + greedyBudgetMillis * 1000000L);
+    	g.enumerate();
+    	return g.order();
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     * The estimated cost and cardinality of joining two plans, and the join
+     * between them that does it
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    private static class JoinStep {
+        double cost;
+        int card;
+        // the number of the join, and its node with the outer side as t1Alias
+        int best;
+        LogicalJoinNode join;
+        // the cheapest algorithm to run the join with
+        LogicalJoinNode.Algorithm algorithm;
+        // true if a join of the plan is on a primary key
+        boolean pkey;
+
+        /** @return the node of the join, with its algorithm set */
+        LogicalJoinNode node() {
+            if (algorithm == join.algorithm)
+                return join;
+            // don't change the node shared with the other plans
+            LogicalJoinNode j = new LogicalJoinNode(join.t1Alias, join.t2Alias,
+                    join.f1PureName, join.f2PureName, join.p);
+            j.algorithm = algorithm;
+            return j;
+        }
+    }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+    /** A plan of a set of relations found by the greedy ordering */
+    private static class Subplan {
+        long relations;
+        double cost;
+        int card;
+        boolean pkey;
+        // its joins, each after the joins of the plans it joins
+        final Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+    }
+
+    /**
+     * The join graph of the query: its relations, numbered in the order
+     * they first appear in the joins, and the joins between them. The
+     * subquery of each LogicalSubplanJoinNode is a relation of its own,
+     * joined only to the table the node joins it with.
+     */
+    private class JoinGraph {
+        final HashMap<String, TableStats> stats;
+        // the alias of each relation; null for subqueries
+        final ArrayList<String> aliases = new ArrayList<String>();
+        final HashMap<String, Integer> relations = new HashMap<String, Integer>();
+        // the relations of t1Alias and t2Alias of each join, and whether it
+        // joins a primary key
+        final int[] lefts, rights;
+        final boolean[] pkeys;
+        // each join with its inner and outer sides swapped; null for subqueries
+        final LogicalJoinNode[] swapped;
+        // the relations each relation shares a join with
+        final long[] neighbors;
+        // the cost and cardinality of the filtered scan of each relation
+        final double[] scanCosts;
+        final int[] scanCards;
+        // the best plans found by enumerate()
+        PlanCache pc;
+        // the join the best plan of each set uses between its two sides
+        int[] bestJoins;
+
+        JoinGraph(HashMap<String, TableStats> stats,
+                HashMap<String, Double> filterSelectivities) throws ParsingException {
+            this.stats = stats;
+            lefts = new int[joins.size()];
+            rights = new int[joins.size()];
+            pkeys = new boolean[joins.size()];
+            swapped = new LogicalJoinNode[joins.size()];
+            for (int k = 0; k < joins.size(); k++) {
+                LogicalJoinNode j = joins.get(k);
+                lefts[k] = relation(j.t1Alias);
+                if (j instanceof LogicalSubplanJoinNode) {
+                    rights[k] = aliases.size();
+                    aliases.add(null);
+                } else {
+                    rights[k] = relation(j.t2Alias);
+                    swapped[k] = j.swapInnerOuter();
+                }
+                pkeys[k] = isPkey(j.t1Alias, j.f1PureName)
+                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName));
+            }
+            int n = aliases.size();
+            if (n > MAX_RELATIONS)
+                throw new ParsingException("Can't order the joins of more than "
+                        + MAX_RELATIONS + " tables");
+            neighbors = new long[n];
+            for (int k = 0; k < joins.size(); k++) {
+                if (lefts[k] != rights[k]) {
+                    neighbors[lefts[k]] |= 1L << rights[k];
+                    neighbors[rights[k]] |= 1L << lefts[k];
+                }
             }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+            scanCosts = new double[n];
+            scanCards = new int[n];
+            for (int i = 0; i < n; i++) {
+                String alias = aliases.get(i);
+                // a subquery's cost and cardinality are not estimated
+                if (alias == null)
+                    continue;
+                TableStats s = stats.get(Database.getCatalog().getTableName(p.getTableId(alias)));
+                Double selectivity = filterSelectivities.get(alias);
+                if (s == null || selectivity == null)
+                    throw new ParsingException("No statistics of table " + alias);
+                scanCosts[i] = s.estimateScanCost();
+                scanCards[i] = s.estimateTableCardinality(selectivity);
             }
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        /** @return the number of the relation alias, numbering it if it is new */
+        private int relation(String alias) throws ParsingException {
+            Integer i = relations.get(alias);
+            if (i == null) {
+                if (alias == null || p.getTableId(alias) == null)
+                    throw new ParsingException("Unknown table " + alias);
+                i = aliases.size();
+                aliases.add(alias);
+                relations.put(alias, i);
+            }
+            return i;
+        }
 
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+        /** @return the number of relations */
+        int size() {
+            return aliases.size();
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
 
-        CostCard cc = new CostCard();
+        /** @return the set of the relations numbered at most i */
+        private long upTo(int i) {
+            return i >= 63 ? -1L : (1L << (i + 1)) - 1;
+        }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
-        return cc;
-    }
+        /** @return the relations not in s that share a join with one in s */
+        private long neighborhood(long s) {
+            long n = 0;
+            for (long rest = s; rest != 0; rest &= rest - 1)
+                n |= neighbors[Long.numberOfTrailingZeros(rest)];
+            return n & ~s;
+        }
 
-    /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
-     */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+        /**
+         * Find the best plan of every connected set of relations, visiting
+         * each connected set, and each of its complements, from the highest
+         * numbered relation down (DPccp's EnumerateCsg). Both sides of each
+         * pair are planned before the pair is.
+         */
+        void enumerate() {
+            int n = aliases.size();
+            pc = new PlanCache(n);
+            bestJoins = new int[1 << n];
+            for (int i = 0; i < n; i++)
+                pc.addPlan(1L << i, scanCosts[i], scanCards[i], 0, null, false);
+            for (int i = n - 1; i >= 0; i--) {
+                emit(1L << i, 0);
+                enumerateRec(1L << i, upTo(i), 0);
+            }
         }
-        return false;
-    }
 
-    /**
-     * Return true if field is a primary key of the specified table, false
-     * otherwise
-     * 
-     * @param tableAlias
-     *            The alias of the table in the query
-     * @param field
-     *            The pure name of the field
-     */
-    private boolean isPkey(String tableAlias, String field) {
-        int tid1 = p.getTableId(tableAlias);
-        String pkey1 = Database.getCatalog().getPrimaryKey(tid1);
+        /**
+         * Emit each connected superset of s that adds neighbors not in x, as
+         * a connected set if s1 is 0 and otherwise as a complement of s1
+         * (DPccp's EnumerateCsgRec).
+         */
+        private void enumerateRec(long s, long x, long s1) {
+            long n = neighborhood(s) & ~x;
+            if (n == 0)
+                return;
+            // the subsets of n in increasing order, so each after its subsets
+            for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+                emit(s | sub, s1);
+            for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+                enumerateRec(s | sub, x | n, s1);
+        }
 
-        return pkey1.equals(field);
-    }
+        private void emit(long s, long s1) {
+            if (s1 == 0)
+                enumerateComplements(s);
+            else
+                considerPair(s1, s);
+        }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
+        /**
+         * Emit the connected complements of s1 that share a join with it and
+         * hold only relations numbered above the lowest of s1 (DPccp's
+         * EnumerateCmp), so each pair is emitted once.
+         */
+        private void enumerateComplements(long s1) {
+            long x = upTo(Long.numberOfTrailingZeros(s1)) | s1;
+            long n = neighborhood(s1) & ~x;
+            for (long rest = n; rest != 0; ) {
+                int i = 63 - Long.numberOfLeadingZeros(rest);
+                rest &= ~(1L << i);
+                considerPair(s1, 1L << i);
+                enumerateRec(1L << i, x | (upTo(i) & n), s1);
+            }
         }
-        return false;
 
-    }
+        private void considerPair(long s1, long s2) {
+            considerJoin(s1, s2);
+            considerJoin(s2, s1);
+        }
 
-    /**
-     * Helper function to display a Swing window with a tree representation of
-     * the specified list of joins. See {@link #orderJoins}, which may want to
-     * call this when the analyze flag is true.
-     * 
-     * @param js
-     *            the join plan to visualize
-     * @param pc
-     *            the PlanCache accumulated whild building the optimal plan
-     * @param stats
-     *            table statistics for base tables
-     * @param selectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     */
-    private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> selectivities) {
-
-        JFrame f = new JFrame("Join Plan for " + p.getQuery());
-
-        // Set the default close operation for the window,
-        // or else the program won't exit when clicking close button
-        f.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
-
-        f.setVisible(true);
-
-        f.setSize(300, 500);
-
-        HashMap<String, DefaultMutableTreeNode> m = new HashMap<String, DefaultMutableTreeNode>();
-
-        // int numTabs = 0;
-
-        // int k;
-        DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
-        boolean neither;
-
-        System.out.println(js);
-        for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
-
-            String table1Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t1Alias));
-            String table2Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t2Alias));
-
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
-
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
-            DefaultMutableTreeNode n = m.get(j.t1Alias);
-            if (n == null) { // never seen this table before
-                n = new DefaultMutableTreeNode(j.t1Alias
-                        + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
-                        + ", card = "
-                        + stats.get(table1Name).estimateTableCardinality(
-                                selectivities.get(j.t1Alias)) + ")");
-                root.add(n);
-            } else {
-                // make left child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t1Alias, root);
-
-            n = m.get(j.t2Alias);
-            if (n == null) { // never seen this table before
-
-                n = new DefaultMutableTreeNode(
-                        j.t2Alias == null ? "Subplan"
-                                : (j.t2Alias
-                                        + " (Cost = "
-                                        + stats.get(table2Name)
-                                                .estimateScanCost()
-                                        + ", card = "
-                                        + stats.get(table2Name)
-                                                .estimateTableCardinality(
-                                                        selectivities
-                                                                .get(j.t2Alias)) + ")"));
-                root.add(n);
-            } else {
-                // make right child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t2Alias, root);
+        /** @return true if join k is between a relation of outer and one of inner */
+        private boolean joins(int k, long outer, long inner) {
+            long l = 1L << lefts[k], r = 1L << rights[k];
+            return (l & outer) != 0 && (r & inner) != 0 || (r & outer) != 0 && (l & inner) != 0;
+        }
+
+        /**
+         * Consider the plan joining the best plans of outer and inner,
+         * keeping it if it is the best plan of their union so far.
+         */
+        private void considerJoin(long outer, long inner) {
+            JoinStep step = estimate(outer, pc.getCard(outer), pc.getCost(outer), pc.joinsPkey(outer),
+                    inner, pc.getCard(inner), pc.getCost(inner), pc.joinsPkey(inner));
+            long s = outer | inner;
+            if (step == null || pc.hasPlan(s) && step.cost >= pc.getCost(s))
+                return;
+            pc.addPlan(s, step.cost, step.card, outer, step.node(), step.pkey);
+            bestJoins[(int) s] = step.best;
+        }
 
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
+        /**
+         * Estimate the plan joining a plan of outer, of cardinality card1
+         * and cost cost1 and joining a primary key if pkey1, with a plan of
+         * inner. The cheapest join between the two sides is the join
+         * predicate; the others are applied to its output.
+         *
+         * @return the estimates, or null if no join is between the two sides
+         */
+        private JoinStep estimate(long outer, int card1, double cost1, boolean pkey1,
+                long inner, int card2, double cost2, boolean pkey2) {
+            boolean innerIsBase = Long.bitCount(inner) == 1
+                && aliases.get(Long.numberOfTrailingZeros(inner)) != null;
+            boolean pkey = pkey1 || pkey2;
+
+            JoinStep step = null;
+            boolean bestLeftPkey = false, bestRightPkey = false;
+            for (int k = 0; k < lefts.length; k++) {
+                if (!joins(k, outer, inner))
+                    continue;
+                pkey |= pkeys[k];
+                LogicalJoinNode j = joins.get(k);
+                if ((outer & (1L << lefts[k])) == 0) {
+                    // a subquery can only be the inner side of its join
+                    if (j instanceof LogicalSubplanJoinNode)
+                        continue;
+                    j = swapped[k];
+                }
+                LogicalJoinNode.Algorithm algorithm = null;
+                double cost = 0;
+                for (LogicalJoinNode.Algorithm a : LogicalJoinNode.Algorithm.values()) {
+                    double c = estimateJoinCost(j, a, card1, card2, cost1, cost2, innerIsBase);
+                    if (algorithm == null || c < cost) {
+                        algorithm = a;
+                        cost = c;
+                    }
+                }
+                if (step == null || cost < step.cost) {
+                    if (step == null)
+                        step = new JoinStep();
+                    step.best = k;
+                    step.join = j;
+                    step.cost = cost;
+                    step.algorithm = algorithm;
+                    bestLeftPkey = Long.bitCount(outer) == 1 ? isPkey(j.t1Alias, j.f1PureName) : pkey1;
+                    bestRightPkey = Long.bitCount(inner) == 1
+                        ? j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName) : pkey2;
                 }
             }
+            if (step == null)
+                return null;
 
-            treetop = root;
+            int card = estimateJoinCardinality(step.join, card1, card2, bestLeftPkey,
+                    bestRightPkey, stats);
+            for (int k = 0; k < lefts.length; k++) {
+                if (k == step.best || !joins(k, outer, inner) || (double) card1 * card2 <= 0)
+                    continue;
+                // one predicate application per tuple, keeping the fraction
+                // of pairs the join would keep
+                LogicalJoinNode j = joins.get(k);
+                double selectivity = (double) estimateJoinCardinality(j, card1, card2,
+                        false, false, stats) / ((double) card1 * card2);
+                step.cost += card;
+                card = (int) Math.max(1, card * Math.min(1.0, selectivity));
+            }
+            step.card = card;
+            step.pkey = pkey;
+            return step;
         }
 
-        JTree tree = new JTree(treetop);
-        JScrollPane treeView = new JScrollPane(tree);
+        /** @return the set of the relations of the connected component of relation i */
+        private long component(int i) {
+            long c = 1L << i;
+            for (long n = neighborhood(c); n != 0; n = neighborhood(c))
+                c |= n;
+            return c;
+        }
 
-        tree.setShowsRootHandles(true);
+        /**
+         * @return the joins of the best plan of each connected component of
+         *   the join graph, each after the joins of the plans it joins
+         */
+        Vector<LogicalJoinNode> order() {
+            Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+            long done = 0;
+            for (int i = 0; i < aliases.size(); i++) {
+                if ((done & (1L << i)) != 0)
+                    continue;
+                long c = component(i);
+                done |= c;
+                appendOrder(c, order);
+                appendSelfJoins(c, order);
+            }
+            return order;
+        }
 
-        // Set the icon for leaf nodes.
-        ImageIcon leafIcon = new ImageIcon("join.jpg");
-        DefaultTreeCellRenderer renderer = new DefaultTreeCellRenderer();
-        renderer.setOpenIcon(leafIcon);
-        renderer.setClosedIcon(leafIcon);
+        /** Append the joins of the best plan of s to order */
+        private void appendOrder(long s, Vector<LogicalJoinNode> order) {
+            long outer = pc.getOuter(s);
+            if (outer == 0)
+                return;
+            long inner = s & ~outer;
+            appendOrder(outer, order);
+            appendOrder(inner, order);
+            order.add(pc.getJoin(s));
+            appendOtherJoins(outer, inner, bestJoins[(int) s], order);
+        }
 
-        tree.setCellRenderer(renderer);
+        /** Append the joins between outer and inner but join best to order */
+        private void appendOtherJoins(long outer, long inner, int best,
+                Vector<LogicalJoinNode> order) {
+            for (int k = 0; k < lefts.length; k++) {
+                if (k != best && joins(k, outer, inner))
+                    order.add(joins.get(k));
+            }
+        }
 
-        f.setSize(300, 500);
+        /** Append the joins of a table of s with itself to order */
+        private void appendSelfJoins(long s, Vector<LogicalJoinNode> order) {
+            for (int k = 0; k < lefts.length; k++) {
+                if (lefts[k] == rights[k] && (s & (1L << lefts[k])) != 0)
+                    order.add(joins.get(k));
+            }
+        }
 
-        f.add(treeView);
-        for (int i = 0; i < tree.getRowCount(); i++) {
-            tree.expandRow(i);
+        /**
+         * Order the joins greedily, without enumerate(). The first plan
+         * joins the two plans whose join has the fewest tuples, starting
+         * from the scans, until no two plans share a join. Later plans, while
+         * there is time before deadline, choose each join with the
+         * cardinalities scaled by random factors. The cheapest is kept.
+         *
+         * @param deadline the System.nanoTime() to stop trying plans at
+         * @return the joins of the plan of each connected component of the
+         *   join graph, each after the joins of the plans it joins
+         */
+        Vector<LogicalJoinNode> orderGreedily(long deadline) {
+            // seeded, so the same query is planned the same way
+            Random random = new Random(aliases.size());
+            ArrayList<Subplan> best = null;
+            double bestCost = 0;
+            for (int pass = 0; pass < GREEDY_PASSES; pass++) {
+                if (pass > 0 && System.nanoTime() >= deadline)
+                    break;
+                ArrayList<Subplan> plans = joinGreedily(pass == 0 ? null : random);
+                double cost = 0;
+                for (Subplan sp : plans)
+                    cost += sp.cost;
+                if (best == null || cost < bestCost) {
+                    best = plans;
+                    bestCost = cost;
+                }
+            }
+
+            Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+            for (Subplan sp : best) {
+                order.addAll(sp.joins);
+                appendSelfJoins(sp.relations, order);
+            }
+            return order;
         }
 
-        if (js.size() == 0) {
-            f.add(new JLabel("No joins in plan."));
+        /**
+         * Join plans greedily, as in GOO: join the two plans sharing a join
+         * whose join has the fewest tuples, until no two share one.
+         *
+         * @param random if not null, scale each cardinality compared by a
+         *   random factor of 1 to 2
+         * @return the plan of each connected component of the join graph
+         */
+        private ArrayList<Subplan> joinGreedily(Random random) {
+            ArrayList<Subplan> plans = new ArrayList<Subplan>();
+            for (int i = 0; i < aliases.size(); i++) {
+                Subplan sp = new Subplan();
+                sp.relations = 1L << i;
+                sp.cost = scanCosts[i];
+                sp.card = scanCards[i];
+                plans.add(sp);
+            }
+
+            while (true) {
+                int outer = -1, inner = -1;
+                JoinStep best = null;
+                double bestCard = 0;
+                for (int a = 0; a < plans.size(); a++) {
+                    Subplan o = plans.get(a);
+                    long n = neighborhood(o.relations);
+                    for (int b = 0; b < plans.size(); b++) {
+                        Subplan i = plans.get(b);
+                        if ((n & i.relations) == 0)
+                            continue;
+                        JoinStep step = estimate(o.relations, o.card, o.cost, o.pkey,
+                                i.relations, i.card, i.cost, i.pkey);
+                        if (step == null)
+                            continue;
+                        double card = random == null ? step.card : step.card * (1.0 + random.nextDouble());
+                        if (best == null || card < bestCard || card == bestCard && step.cost < best.cost) {
+                            outer = a;
+                            inner = b;
+                            best = step;
+                            bestCard = card;
+                        }
+                    }
+                }
+                if (best == null)
+                    return plans;
+
+                Subplan o = plans.get(outer), i = plans.get(inner);
+                Subplan sp = new Subplan();
+                sp.relations = o.relations | i.relations;
+                sp.cost = best.cost;
+                sp.card = best.card;
+                sp.pkey = best.pkey;
+                sp.joins.addAll(o.joins);
+                sp.joins.addAll(i.joins);
+                sp.joins.add(best.node());
+                appendOtherJoins(o.relations, i.relations, best.best, sp.joins);
+                plans.set(Math.min(outer, inner), sp);
+                plans.remove(Math.max(outer, inner));
+            }
         }
+    }
 
-        f.pack();
+    /**
+     * Return true if field is a primary key of the specified table, false
+     * otherwise
+     * 
+     * @param tableAlias
+     *            The alias of the table in the query
+     * @param field
+     *            The pure name of the field
+     */
+    private boolean isPkey(String tableAlias, String field) {
+        int tid1 = p.getTableId(tableAlias);
+        String pkey1 = Database.getCatalog().getPrimaryKey(tid1);
 
+        return pkey1.equals(field);
     }
 
 }
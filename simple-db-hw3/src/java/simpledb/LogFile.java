@@ -3,7 +3,6 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -32,6 +31,54 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<u> Group commit: </u>
+<p>
+
+Log records are appended to an in-memory buffer rather than to the
+file. {@link #logCommit} appends its COMMIT record and then waits, without
+holding the LogFile monitor, until a flusher thread has written the
+buffer to the log segments and forced them to disk. Commits that arrive while a
+force is in progress are written and forced together by the next one, so
+many small transactions share one fsync. The flusher is started on the
+first commit and exits after {@link #FLUSHER_IDLE_MS} without work.
+<p>
+While the flusher writes the segments it holds no lock, so any method
+that reads or writes <tt>segments</tt> directly must first call
+{@link #drain}, which waits for the flusher and writes out the buffer.
+Offsets in the log are the positions records will have in the log, so
+they are assigned when records are buffered.
+
+<u> Recovery: </u>
+<p>
+
+Recovery follows ARIES, with page-level physical log records.  The
+BufferPool may write a page dirtied by a running transaction to disk
+(STEAL), and does not write the pages of a committing transaction
+(NO-FORCE); instead, an UPDATE record with the before and after image of
+a page is logged, and the log forced, before a running transaction's
+page is written, and when a transaction commits.  The offset of that
+record is the LSN of the page, which HeapPages store in their header.
+{@link #dirtyPageTable} keeps, for each page whose logged changes are not
+on disk yet, the LSN of the first of them.
+<p>
+A checkpoint only writes a CHECKPOINT record of the active transactions
+and the dirty page table; it neither flushes pages nor holds the
+BufferPool.  {@link #recover} reads the log forward from the last
+checkpoint to rebuild both tables (analysis), repeats the logged changes
+from the oldest LSN of the dirty page table (redo), skipping HeapPages
+whose LSN shows they already have them, and then reads the log backward,
+restoring the before images of the transactions that did not finish
+(undo).  {@link #rollback} undoes a single transaction the same way.
+The redo pass is run by {@link LogReplay}, which replays the records of
+different pages on different threads.
+Each undone UPDATE record is compensated by a CLR, so the undo is redone,
+and not repeated, if the system crashes while undoing.
+<p>
+Since records hold whole pages, undoing a transaction restores whole
+pages; this relies on strict two-phase locking of pages, so that no other
+transaction changes a page until the transaction that dirtied it
+finishes.
 */
 
 /**
@@ -39,33 +86,50 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log file itself only holds a header.  Its first long integer
+represents the offset of the last written checkpoint, or -1 if there are
+no checkpoints.  It is followed by the integer {@link #MAGIC}, an
+integer, the version of the format, a long integer, the offset of the
+start of the log, and an integer, the size of the segment files.  A log
+file without such a header, such as one written in an older format, is
+not trusted: recovering it only starts a new log.
+
+<li> The log records are stored in fixed-size segment files next to the
+log file, managed by {@link LogSegments}.  Offsets in the log are
+positions in the sequence of records, across segments, and are never
+reused, even when the log is truncated or started again, so that they
+can serve as LSNs.  Truncating the log retires whole segments, which are
+recycled, or compressed into an archive directory if one is set with
+{@link #setArchiveDirectory}.
 
 <li> All additional data in the log consists of log records.  Log
 records are variable length.
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
-
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record begins with a byte type, a long integer
+transaction id and the integer length of its payload, and ends with a
+CRC32C checksum and a long integer file offset representing the
+position in the log file where the record began.  Records are read
+and written by {@link LogRecord}.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and CLR
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
-<li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+<li>UPDATE RECORDS consist of the page, identified by the numeric tag
+of its {@link PageCodec} and its id, its before image, and its after
+image, which is written as the ranges where it differs from the before
+image when that is smaller.  {@link LogRecord#decodeUpdate} returns
+the two images as Page objects.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction.  It is followed by the dirty page table.
+
+<li> CLR records consist of the offset of the UPDATE record they undo
+and the image the page was restored to.
 
 </ul>
 
@@ -74,24 +138,66 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private RandomAccessFile raf; // the header of the log
+    final LogSegments segments;
     Boolean recoveryUndecided; // no call to recover() and no append to log
+    // whether the log file has a header in the current format; protected by this
+    private boolean validHeader;
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CLR_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    /** Size of the header of the log: the checkpoint offset, the magic
+        number, the format version, the offset of the start of the log and
+        the segment size */
+    final static int HEADER_SIZE = LONG_SIZE + INT_SIZE + INT_SIZE + LONG_SIZE + INT_SIZE;
+    /** The int after the checkpoint offset in the header; older logs have
+        a small record type or format version there */
+    final static int MAGIC = 0x5344424c;
+    /** Version of the format of the header and the segments */
+    final static int FORMAT_VERSION = 4;
+    /** Size of the segment files of new logs */
+    public final static int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
 
     long currentOffset = -1;//protected by this
+    // the offset of the first record kept; protected by this
+    private long start = 0;
+    // the log records appended but not yet written to the segments,
+    // which start at offset writtenOffset; protected by this
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream bufferOut = new DataOutputStream(buffer);
+    long writtenOffset = -1; //protected by this
+    // everything before this offset is forced to disk; protected by this
+    private long forcedOffset = -1;
+    private boolean flushing = false; //protected by this
+    private Thread flusher = null; //protected by this
+    private IOException flushError = null; //protected by this
+
+    /** How long the flusher thread waits for work before it exits */
+    static final long FLUSHER_IDLE_MS = 1000;
+
+    /** Number of times the flusher forced the log, for tests */
+    int groupForces = 0; //protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
+    // whether after images are written as deltas of the before images
+    private boolean deltaUpdates = true; //protected by this
+    // the number of threads recover() replays the log on; protected by this
+    private int replayThreads = Runtime.getRuntime().availableProcessors();
+    /** Number of records the last recovery replayed, for tests */
+    int lastReplayed = 0; //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    // pages whose logged changes are not on disk yet, mapped to the
+    // offset of the first of them (their recLSN); protected by this
+    HashMap<PageId,Long> dirtyPageTable = new HashMap<PageId,Long>();
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -105,8 +211,29 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Constructor.
+        @param f The log file's name
+        @param segmentSize The size of the segment files of the log, if it
+        is new; an existing log keeps its segment size
+    */
+    public LogFile(File f, int segmentSize) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        if (raf.length() >= HEADER_SIZE) {
+            raf.seek(LONG_SIZE);
+            if (raf.readInt() == MAGIC && raf.readInt() == FORMAT_VERSION) {
+                raf.readLong();
+                int size = raf.readInt();
+                if (LogSegments.isValidSize(size)) {
+                    segmentSize = size;
+                    validHeader = true;
+                }
+            }
+        }
+        segments = openSegments(f, segmentSize);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -120,18 +247,198 @@ public class LogFile {
         // may not match tableids in the current catalog.
     }
 
+    /** Open the segments of the log f; tests override this to make them fail */
+    LogSegments openSegments(File f, int segmentSize) throws IOException {
+        return new LogSegments(f, segmentSize);
+    }
+
     // we're about to append a log record. if we weren't sure whether the
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
     void preAppend() throws IOException {
+        checkFlushError();
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            startLog();
+        }
+    }
+
+    /** Throw out the records of the log, and start a new one after them */
+    private void startLog() throws IOException {
+        start = segments.restart();
+        writeHeader(NO_CHECKPOINT_ID);
+        currentOffset = start;
+        writtenOffset = start;
+        forcedOffset = start;
+    }
+
+    /** Write the header of the log, with the specified checkpoint offset,
+        and force it to disk */
+    private void writeHeader(long checkpoint) throws IOException {
+        raf.setLength(HEADER_SIZE);
+        raf.seek(0);
+        raf.writeLong(checkpoint);
+        raf.writeInt(MAGIC);
+        raf.writeInt(FORMAT_VERSION);
+        raf.writeLong(start);
+        raf.writeInt(segments.getSegmentSize());
+        raf.getChannel().force(true);
+        validHeader = true;
+    }
+
+    /**
+     * Set the directory the segments of the log are compressed into once
+     * the log is truncated past them, or null to recycle them.
+     */
+    public void setArchiveDirectory(File dir) {
+        segments.setArchiveDirectory(dir);
+    }
+
+    /** @return the offset the next log record appended to the buffer will have */
+    private long bufferEnd() {
+        return writtenOffset + buffer.size();
+    }
+
+    /**
+     * Append a record to the buffer.
+     *
+     * @return the offset of the record
+     */
+    private long appendRecord(int type, long tid, byte[] payload) throws IOException {
+        long start = currentOffset;
+        new LogRecord(type, tid, payload, start).write(bufferOut);
+        currentOffset = bufferEnd();
+        return start;
+    }
+
+    /**
+     * Set whether the after images of UPDATE records are written as the
+     * ranges where they differ from the before images, when that is smaller
+     * than the page.  On by default.
+     */
+    public synchronized void setDeltaUpdates(boolean delta) {
+        deltaUpdates = delta;
+    }
+
+    /**
+     * Set the number of threads {@link #recover} replays the log on.  The
+     * number of processors by default.
+     */
+    public synchronized void setReplayThreads(int threads) {
+        replayThreads = threads;
+    }
+
+    /**
+     * Throw if the log couldn't be written or forced: the records after the
+     * failed ones may not be on disk, so nothing can be logged after them.
+     * Must be called with the LogFile monitor held.
+     */
+    private void checkFlushError() throws IOException {
+        if (flushError != null)
+            throw new IOException("couldn't force the log", flushError);
+    }
+
+    /**
+     * Wait until the flusher is not writing the segments, and write the
+     * buffered log records to them, so that they hold the whole log and can
+     * be read directly. Must be called with the LogFile monitor held.
+     */
+    void drain() throws IOException {
+        while (flushing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted waiting for the log flusher");
+            }
+        }
+        checkFlushError();
+        if (buffer.size() > 0) {
+            segments.write(writtenOffset, buffer.toByteArray(), 0, buffer.size());
+            writtenOffset += buffer.size();
+            buffer.reset();
+        }
+    }
+
+    /**
+     * Wait until the log is forced to disk up to offset lsn, waking the
+     * flusher thread (or starting one) to do it.
+     */
+    private synchronized void waitForForce(long lsn) throws IOException {
+        if (flusher == null) {
+            flusher = new Thread("LogFile flusher") {
+                public void run() {
+                    flushLoop();
+                }
+            };
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        notifyAll();
+        while (forcedOffset < lsn) {
+            checkFlushError();
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted waiting for the log to be forced");
+            }
+        }
+    }
+
+    /**
+     * Body of the flusher thread: repeatedly take the buffered log records,
+     * append them to the segments and force them, outside the LogFile monitor so
+     * that other transactions can keep appending, then wake the committers
+     * waiting for them.  If that fails, the records are put back in front of
+     * the buffer, unforced, and the thread exits.
+     */
+    private void flushLoop() {
+        while (true) {
+            byte[] data;
+            long from;
+            synchronized (this) {
+                long idleSince = System.currentTimeMillis();
+                while (forcedOffset >= bufferEnd() || flushError != null) {
+                    if (flushError != null
+                            || System.currentTimeMillis() - idleSince >= FLUSHER_IDLE_MS) {
+                        flusher = null;
+                        return;
+                    }
+                    try {
+                        wait(FLUSHER_IDLE_MS);
+                    } catch (InterruptedException e) {
+                        flusher = null;
+                        return;
+                    }
+                }
+                data = buffer.toByteArray();
+                buffer.reset();
+                from = writtenOffset;
+                writtenOffset += data.length;
+                flushing = true;
+            }
+            IOException error = null;
+            try {
+                segments.write(from, data, 0, data.length);
+                segments.force();
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (this) {
+                flushing = false;
+                if (error == null) {
+                    forcedOffset = from + data.length;
+                    groupForces++;
+                } else {
+                    flushError = error;
+                    byte[] rest = buffer.toByteArray();
+                    buffer.reset();
+                    buffer.write(data, 0, data.length);
+                    buffer.write(rest, 0, rest.length);
+                    writtenOffset = from;
+                }
+                notifyAll();
+            }
         }
     }
 
@@ -158,10 +465,7 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                appendRecord(ABORT_RECORD, tid.getId(), new byte[0]);
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -169,132 +473,55 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  The record is forced together with
+        those of the other transactions committing at the same time;
+        this returns once it is on disk.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long commitEnd;
+        synchronized (this) {
+            preAppend();
+            //should we verify that this is a live transaction?
+
+            appendRecord(COMMIT_RECORD, tid.getId(), new byte[0]);
+            commitEnd = currentOffset;
+            tidToFirstLogRecord.remove(tid.getId());
+        }
+        waitForForce(commitEnd);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
         (with provided         before and after images.)
         @param tid The transaction performing the write
         @param before The before image of the page
-        @param after The after image of the page
+        @param after The after image of the page, whose LSN (if it is a
+        HeapPage) is set to the offset of the record
 
         @see simpledb.Page#getBeforeImage
     */
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
-        /* update record conists of
+        Debug.log("WRITE, offset = " + currentOffset);
+        /* update record payload consists of
 
-           record type
-           transaction id
-           before page data (see writePageData)
-           after page data
-           start offset
+           page codec tag and page id
+           before page data
+           after page data, in full or as a delta of the before page
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        long lsn = currentOffset;
+        setLsn(after, lsn);
+        appendRecord(UPDATE_RECORD, tid.getId(),
+                LogRecord.encodeUpdate(before, after, deltaUpdates));
+        if (!dirtyPageTable.containsKey(after.getId()))
+            dirtyPageTable.put(after.getId(), lsn);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
-
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
-    }
-
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
-
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
-        }
-        return newPage;
-
-    }
-
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -303,154 +530,174 @@ public class LogFile {
         throws IOException {
         Debug.log("BEGIN");
         if(tidToFirstLogRecord.get(tid.getId()) != null){
-            System.err.printf("logXactionBegin: already began this tid\n");
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        tidToFirstLogRecord.put(tid.getId(),
+                appendRecord(BEGIN_RECORD, tid.getId(), new byte[0]));
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
-    public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+    /** Set the LSN of p, if it is a page that keeps one */
+    private static void setLsn(Page p, long lsn) {
+        if (p instanceof HeapPage)
+            ((HeapPage) p).setLsn(lsn);
+    }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
-            }
+    /**
+     * @return true if tid has logged a BEGIN record and not yet committed
+     *   or aborted; the pages of other transactions need no log records
+     *   before they are written
+     */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    /**
+     * Record that the page with the specified id was written to disk, so
+     * its logged changes are no longer needed for redo.
+     */
+    public synchronized void pageWritten(PageId pid) {
+        dirtyPageTable.remove(pid);
+    }
+
+    /** Checkpoint the log and write a checkpoint record.  The checkpoint is
+        fuzzy: it records the active transactions and the dirty page table,
+        without flushing any pages or holding the BufferPool. */
+    public void logCheckpoint() throws IOException {
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+            preAppend();
+            for (Long key : tidToFirstLogRecord.keySet())
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+            long startCpOffset = appendRecord(CHECKPOINT_RECORD, -1, //no tid
+                    LogRecord.encodeCheckpoint(tidToFirstLogRecord, dirtyPageTable));
+            force();
+
+            //once the CP is written, make sure the CP location in the
+            // header of the log is updated
+            writeHeader(startCpOffset);
+            //Debug.log("CP OFFSET = " + currentOffset);
         }
 
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption: everything before the last checkpoint, the first
+        record of each transaction active at it, and the first record not
+        on disk of each page dirty at it.  The segments that only hold
+        records before that are retired, without copying the rest of the
+        log. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        drain();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
         long minLogRecord = cpLoc;
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+        if (cpLoc == -1L)
+            return; // nothing before a checkpoint to truncate
 
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        LogRecord cp = readRecord(cpLoc);
+        if (cp == null || cp.type != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
+        for (long firstLogRecord : cp.decodeCheckpoint().values()) {
+            if (firstLogRecord < minLogRecord) {
+                minLogRecord = firstLogRecord;
             }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
+        }
+        for (long recLsn : cp.decodeDirtyPages().values()) {
+            if (recLsn < minLogRecord) {
+                minLogRecord = recLsn;
             }
         }
+        if (minLogRecord <= start)
+            return;
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
+        // the header must not point to a retired segment
+        start = minLogRecord;
+        writeHeader(cpLoc);
+        int retired = segments.retireBefore(minLogRecord);
 
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
+        Debug.log("TRUNCATING LOG; NEW START : " + minLogRecord + " RETIRED SEGMENTS: " + retired);
+    }
 
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
+    /**
+     * @return the record at offset lsn, or null if the log ends there
+     */
+    synchronized LogRecord readRecord(long lsn) throws IOException {
+        drain();
+        if (lsn < start || lsn >= writtenOffset)
+            return null;
+        DataInputStream in = new DataInputStream(segments.input(lsn, writtenOffset));
+        return LogRecord.read(in, lsn, writtenOffset - lsn);
+    }
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+    /**
+     * @return the record ending at offset end, or null if end is the start
+     *   of the log
+     */
+    private LogRecord readRecordBefore(long end) throws IOException {
+        if (end <= start)
+            return null;
+        byte[] b = new byte[LONG_SIZE];
+        segments.read(end - LONG_SIZE, b, 0, LONG_SIZE);
+        long offset = new DataInputStream(new ByteArrayInputStream(b)).readLong();
+        LogRecord r = readRecord(offset);
+        if (r == null || r.end() != end)
+            throw new IOException("bad log record at offset " + offset);
+        return r;
+    }
 
-            } catch (EOFException e) {
-                break;
+    /**
+     * Undo the updates of the transactions losers maps to their first log
+     * records: read the log backward from its end, and for each UPDATE
+     * record of one of them not undone yet, log a CLR and install its before
+     * image on disk.  CLRs already in the log show which records a previous
+     * undo compensated.  Must be called with the BufferPool and LogFile
+     * monitors held.
+     */
+    private void undo(Map<Long,Long> losers) throws IOException {
+        if (losers.isEmpty())
+            return;
+        drain();
+        long stop = Collections.min(losers.values());
+        // for each loser, the offset of the oldest record already undone
+        HashMap<Long,Long> undone = new HashMap<Long,Long>();
+        // the page images to install; the last one put is the oldest
+        HashMap<PageId,Page> images = new HashMap<PageId,Page>();
+
+        long end = writtenOffset;
+        LogRecord r;
+        while (end > stop && (r = readRecordBefore(end)) != null) {
+            end = r.offset;
+            if (!losers.containsKey(r.tid))
+                continue;
+            Long oldest = undone.get(r.tid);
+            if (r.type == CLR_RECORD) {
+                long u = r.getUndone();
+                if (oldest == null || u < oldest)
+                    undone.put(r.tid, u);
+            } else if (r.type == UPDATE_RECORD && (oldest == null || r.offset < oldest)) {
+                Page before = r.decodeUpdate()[0];
+                setLsn(before, currentOffset);
+                appendRecord(CLR_RECORD, r.tid, LogRecord.encodeClr(r.offset, before));
+                images.put(before.getId(), before);
+                undone.put(r.tid, r.offset);
             }
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        // write-ahead: the CLRs go to disk before the pages they restore
+        force();
+        for (Page p : images.values()) {
+            Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+            Database.getBufferPool().discardPage(p.getId());
+            dirtyPageTable.remove(p.getId());
+        }
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -459,6 +706,10 @@ public class LogFile {
         transactions that have already committed (though this may not
         be enforced by this method.)
 
+        The pages the transaction wrote to disk are restored from the
+        before images in its log records, and those it only changed in
+        the BufferPool from their before images there.
+
         @param tid The transaction to rollback
     */
     public void rollback(TransactionId tid)
@@ -466,7 +717,11 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not running");
+                undo(Collections.singletonMap(tid.getId(), first));
+                Database.getBufferPool().restorePages(tid);
             }
         }
     }
@@ -478,6 +733,7 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+            segments.close();
             raf.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
@@ -493,18 +749,123 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                if (!validHeader) {
+                    // nothing in the log can be trusted, so there is nothing
+                    // to recover; start a new log over it
+                    if (raf.length() > 0)
+                        System.out.println("Log " + logFile + " is not in the current format;"
+                                           + " starting a new log");
+                    startLog();
+                }
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                raf.seek(LONG_SIZE + INT_SIZE + INT_SIZE);
+                start = raf.readLong();
+                tidToFirstLogRecord.clear();
+                dirtyPageTable.clear();
+
+                // analysis: rebuild the active transaction and dirty page
+                // tables as of the end of the log
+                long from = start;
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    long limit = segments.end(cpLoc);
+                    LogRecord cp = LogRecord.read(new DataInputStream(segments.input(cpLoc, limit)),
+                                                  cpLoc, limit - cpLoc);
+                    if (cp == null || cp.type != CHECKPOINT_RECORD)
+                        throw new IOException("Checkpoint pointer does not point to checkpoint record");
+                    tidToFirstLogRecord.putAll(cp.decodeCheckpoint());
+                    dirtyPageTable.putAll(cp.decodeDirtyPages());
+                    from = cp.end();
+                }
+                long limit = segments.end(from);
+                DataInputStream in = new DataInputStream(segments.input(from, limit));
+                long end = from;
+                LogRecord r;
+                while ((r = LogRecord.read(in, end, limit - end)) != null) {
+                    end = r.end();
+                    switch (r.type) {
+                    case BEGIN_RECORD:
+                        tidToFirstLogRecord.put(r.tid, r.offset);
+                        break;
+                    case COMMIT_RECORD:
+                    case ABORT_RECORD:
+                        tidToFirstLogRecord.remove(r.tid);
+                        break;
+                    case UPDATE_RECORD:
+                    case CLR_RECORD:
+                        if (!tidToFirstLogRecord.containsKey(r.tid))
+                            tidToFirstLogRecord.put(r.tid, r.offset);
+                        PageId pid = r.getPageId();
+                        if (!dirtyPageTable.containsKey(pid))
+                            dirtyPageTable.put(pid, r.offset);
+                        break;
+                    }
+                }
+                // anything after the last whole record was torn by the crash
+                segments.discardFrom(end);
+                currentOffset = end;
+                writtenOffset = end;
+                forcedOffset = end;
+
+                // redo: repeat the changes that may not be on disk
+                if (!dirtyPageTable.isEmpty()) {
+                    LogReplay replay = new LogReplay(segments, dirtyPageTable, replayThreads);
+                    for (PageId pid : replay.run(Collections.min(dirtyPageTable.values()), end))
+                        Database.getBufferPool().discardPage(pid);
+                    lastReplayed = replay.replayed;
+                }
+                dirtyPageTable.clear();
+
+                // undo: roll back the transactions that did not finish
+                HashMap<Long,Long> losers = new HashMap<Long,Long>(tidToFirstLogRecord);
+                undo(losers);
+                for (Long tid : losers.keySet()) {
+                    appendRecord(ABORT_RECORD, tid, new byte[0]);
+                    tidToFirstLogRecord.remove(tid);
+                }
+                force();
             }
          }
     }
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        // some code goes here
+        synchronized (this) {
+            drain();
+            raf.seek(0);
+            long cpLoc = raf.readLong();
+            System.out.println("CHECKPOINT AT " + cpLoc + ", LOG STARTS AT " + start);
+            LogRecord r;
+            for (long lsn = start; (r = readRecord(lsn)) != null; lsn = r.end()) {
+                String what;
+                switch (r.type) {
+                case ABORT_RECORD: what = "ABORT"; break;
+                case COMMIT_RECORD: what = "COMMIT"; break;
+                case BEGIN_RECORD: what = "BEGIN"; break;
+                case UPDATE_RECORD: what = "UPDATE " + r.getPageId(); break;
+                case CLR_RECORD: what = "CLR " + r.getPageId() + " UNDOING " + r.getUndone(); break;
+                case CHECKPOINT_RECORD:
+                    what = "CHECKPOINT ACTIVE " + r.decodeCheckpoint().keySet()
+                        + " DIRTY " + r.decodeDirtyPages();
+                    break;
+                default: what = "UNKNOWN " + r.type;
+                }
+                System.out.println(r.offset + ": " + what + " TID " + r.tid);
+            }
+        }
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        drain();
+        try {
+            segments.force();
+        } catch (IOException e) {
+            flushError = e;
+            throw e;
+        }
+        if (writtenOffset > forcedOffset)
+            forcedOffset = writtenOffset;
+        notifyAll();
     }
 
 }
@@ -0,0 +1,346 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * LogRecord is one record of a {@link LogFile}, and implements the binary
+ * format log records are written in (part of version
+ * {@link LogFile#FORMAT_VERSION} of the format of the log).
+ * <p>
+ * A record is a one byte type, the long id of the transaction that wrote
+ * it and the int length of its payload, followed by the payload, a CRC32C
+ * checksum of everything before it, and the long offset in the log where
+ * the record starts, so that the log can be read backwards. A record whose
+ * checksum does not match (such as one torn by a crash while it was being
+ * written) ends the log.
+ * <p>
+ * The payload of an UPDATE record is the tag of the {@link PageCodec} of the
+ * page and the ints of its id, then the length and bytes of the before
+ * image, then the after image: either FULL_IMAGE and its length and bytes,
+ * or DELTA_IMAGE and the ranges of bytes where it differs from the before
+ * image, as a count followed by an offset, a length and the bytes of each
+ * range. The payload of a CLR (compensation log record), written when an
+ * UPDATE record is undone, is the offset of that UPDATE record, followed by
+ * the page, as the tag, id, length and bytes of the image the page was
+ * restored to. The payload of a CHECKPOINT record is the number of active
+ * transactions, and the id and offset of the first record of each, followed
+ * by the number of dirty pages, and the tag and id of each page and the
+ * offset of the first record whose change is not on disk yet.
+ * <p>
+ * Offsets in the log are LSNs: the position of a record in the sequence of
+ * records across the segments of the log, which stays the same when the
+ * log is truncated.
+ */
+class LogRecord {
+
+    /** Size of a record without its payload */
+    static final int OVERHEAD = 1 + 8 + 4 + 4 + 8;
+
+    static final int FULL_IMAGE = 0;
+    static final int DELTA_IMAGE = 1;
+
+    /** Bytes that must be unchanged between two ranges of a delta image
+        for them to be written separately; a range costs two ints */
+    private static final int MIN_GAP = 8;
+
+    final int type;
+    final long tid;
+    final byte[] payload;
+    final long offset;
+
+    LogRecord(int type, long tid, byte[] payload, long offset) {
+        this.type = type;
+        this.tid = tid;
+        this.payload = payload;
+        this.offset = offset;
+    }
+
+    /** @return the offset in the log just after this record */
+    long end() {
+        return offset + OVERHEAD + payload.length;
+    }
+
+    /** Write the record to out */
+    void write(DataOutput out) throws IOException {
+        byte[] header = header(type, tid, payload.length);
+        int crc = Crc32c.update(0, header, 0, header.length);
+        crc = Crc32c.update(crc, payload, 0, payload.length);
+        out.write(header);
+        out.write(payload);
+        out.writeInt(crc);
+        out.writeLong(offset);
+    }
+
+    private static byte[] header(int type, long tid, int length) {
+        byte[] header = new byte[13];
+        header[0] = (byte) type;
+        for (int i = 0; i < 8; i++)
+            header[1 + i] = (byte) (tid >>> (56 - 8 * i));
+        for (int i = 0; i < 4; i++)
+            header[9 + i] = (byte) (length >>> (24 - 8 * i));
+        return header;
+    }
+
+    /**
+     * Read the record at offset offset from in.
+     *
+     * @param remaining the number of bytes of the log left in in
+     * @return the record, or null if the log ends there
+     */
+    static LogRecord read(DataInput in, long offset, long remaining) throws IOException {
+        if (remaining < OVERHEAD)
+            return null;
+        byte[] header = new byte[13];
+        in.readFully(header);
+        int type = header[0] & 0xff;
+        long tid = 0;
+        for (int i = 0; i < 8; i++)
+            tid = (tid << 8) | (header[1 + i] & 0xff);
+        int length = 0;
+        for (int i = 0; i < 4; i++)
+            length = (length << 8) | (header[9 + i] & 0xff);
+        if (length < 0 || length > remaining - OVERHEAD)
+            return null;
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        int crc = Crc32c.update(0, header, 0, header.length);
+        crc = Crc32c.update(crc, payload, 0, payload.length);
+        if (in.readInt() != crc || in.readLong() != offset)
+            return null;
+        return new LogRecord(type, tid, payload, offset);
+    }
+
+    /**
+     * @return the payload of an UPDATE record of page before, which was
+     *   modified to after
+     * @param delta whether to write the after image as the ranges where it
+     *   differs from the before image, when that is smaller
+     */
+    static byte[] encodeUpdate(Page before, Page after, boolean delta) throws IOException {
+        PageCodec codec = PageCodec.forPage(before);
+        if (after.getClass() != before.getClass() || !after.getId().equals(before.getId()))
+            throw new IOException("before and after images are of different pages");
+        byte[] b = before.getPageData();
+        byte[] a = after.getPageData();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(b.length + 64);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeByte(codec.getTag());
+        codec.writeId(dos, before.getId());
+        dos.writeInt(b.length);
+        dos.write(b);
+
+        ArrayList<int[]> ranges = delta && a.length == b.length ? diff(b, a) : null;
+        int deltaSize = 4;
+        if (ranges != null)
+            for (int[] r : ranges)
+                deltaSize += 8 + r[1] - r[0];
+        if (ranges != null && deltaSize < 4 + a.length) {
+            dos.writeByte(DELTA_IMAGE);
+            dos.writeInt(ranges.size());
+            for (int[] r : ranges) {
+                dos.writeInt(r[0]);
+                dos.writeInt(r[1] - r[0]);
+                dos.write(a, r[0], r[1] - r[0]);
+            }
+        } else {
+            dos.writeByte(FULL_IMAGE);
+            dos.writeInt(a.length);
+            dos.write(a);
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return the ranges [start, end) of the bytes of a that differ from b,
+     *   merging ranges less than MIN_GAP bytes apart
+     */
+    private static ArrayList<int[]> diff(byte[] b, byte[] a) {
+        ArrayList<int[]> ranges = new ArrayList<int[]>();
+        int i = 0;
+        while (i < a.length) {
+            if (a[i] == b[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            for (int j = end; j < a.length && j - end < MIN_GAP; j++) {
+                if (a[j] != b[j])
+                    end = j + 1;
+            }
+            ranges.add(new int[] { start, end });
+            i = end;
+        }
+        return ranges;
+    }
+
+    /** @return the before and after images of this UPDATE record */
+    Page[] decodeUpdate() throws IOException {
+        return decodeUpdate(true);
+    }
+
+    /**
+     * @return the image of the page after this UPDATE record or CLR, without
+     *   building the before image of an UPDATE record
+     */
+    Page decodeAfterImage() throws IOException {
+        if (type == LogFile.CLR_RECORD)
+            return decodeClr();
+        return decodeUpdate(false)[1];
+    }
+
+    /** @return the before image, or null if !withBefore, and the after image */
+    private Page[] decodeUpdate(boolean withBefore) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload));
+        PageCodec codec = PageCodec.forTag(dis.readUnsignedByte());
+        PageId pid = codec.readId(dis);
+        byte[] b = new byte[dis.readInt()];
+        dis.readFully(b);
+        byte[] a;
+        int encoding = dis.readUnsignedByte();
+        if (encoding == DELTA_IMAGE) {
+            a = b.clone();
+            int n = dis.readInt();
+            for (int i = 0; i < n; i++) {
+                int start = dis.readInt();
+                int len = dis.readInt();
+                if (start < 0 || len < 0 || start + len > a.length)
+                    throw new IOException("bad delta range in log record at " + offset);
+                dis.readFully(a, start, len);
+            }
+        } else if (encoding == FULL_IMAGE) {
+            a = new byte[dis.readInt()];
+            dis.readFully(a);
+        } else {
+            throw new IOException("unknown image encoding " + encoding + " in log record at " + offset);
+        }
+        return new Page[] { withBefore ? codec.readPage(pid, b) : null, codec.readPage(pid, a) };
+    }
+
+    /**
+     * @return the payload of a CLR of the UPDATE record at undone, which
+     *   restored the page to image
+     */
+    static byte[] encodeClr(long undone, Page image) throws IOException {
+        PageCodec codec = PageCodec.forPage(image);
+        byte[] data = image.getPageData();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length + 32);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeLong(undone);
+        dos.writeByte(codec.getTag());
+        codec.writeId(dos, image.getId());
+        dos.writeInt(data.length);
+        dos.write(data);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /** @return the offset of the UPDATE record this CLR undid */
+    long getUndone() throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(payload)).readLong();
+    }
+
+    /** @return the image this CLR restored its page to */
+    Page decodeClr() throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload));
+        dis.readLong();
+        PageCodec codec = PageCodec.forTag(dis.readUnsignedByte());
+        PageId pid = codec.readId(dis);
+        byte[] data = new byte[dis.readInt()];
+        dis.readFully(data);
+        return codec.readPage(pid, data);
+    }
+
+    /** @return the id of the page of this UPDATE record or CLR */
+    PageId getPageId() throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload));
+        if (type == LogFile.CLR_RECORD)
+            dis.readLong();
+        return PageCodec.forTag(dis.readUnsignedByte()).readId(dis);
+    }
+
+    /**
+     * @return the payload of a CHECKPOINT record of the active transactions
+     *   firstRecords maps to their first log record, and the dirty pages
+     *   dirtyPages maps to the first record whose change is not on disk
+     */
+    static byte[] encodeCheckpoint(Map<Long, Long> firstRecords, Map<PageId, Long> dirtyPages)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                8 + 16 * firstRecords.size() + 24 * dirtyPages.size());
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(firstRecords.size());
+        for (Map.Entry<Long, Long> e : firstRecords.entrySet()) {
+            dos.writeLong(e.getKey());
+            dos.writeLong(e.getValue());
+        }
+        dos.writeInt(dirtyPages.size());
+        for (Map.Entry<PageId, Long> e : dirtyPages.entrySet()) {
+            PageCodec codec = PageCodec.forId(e.getKey());
+            dos.writeByte(codec.getTag());
+            codec.writeId(dos, e.getKey());
+            dos.writeLong(e.getValue());
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return the ids of the transactions active at this CHECKPOINT record,
+     *   mapped to the offsets of their first log records
+     */
+    LinkedHashMap<Long, Long> decodeCheckpoint() throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload));
+        int n = dis.readInt();
+        LinkedHashMap<Long, Long> firstRecords = new LinkedHashMap<Long, Long>();
+        for (int i = 0; i < n; i++) {
+            long id = dis.readLong();
+            firstRecords.put(id, dis.readLong());
+        }
+        return firstRecords;
+    }
+
+    /**
+     * @return the pages dirty at this CHECKPOINT record, mapped to the
+     *   offsets of the first records whose changes were not on disk
+     */
+    LinkedHashMap<PageId, Long> decodeDirtyPages() throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload));
+        dis.skipBytes(16 * dis.readInt());
+        int n = dis.readInt();
+        LinkedHashMap<PageId, Long> dirtyPages = new LinkedHashMap<PageId, Long>();
+        for (int i = 0; i < n; i++) {
+            PageId pid = PageCodec.forTag(dis.readUnsignedByte()).readId(dis);
+            dirtyPages.put(pid, dis.readLong());
+        }
+        return dirtyPages;
+    }
+}
+
+/**
+ * CRC32C (Castagnoli) checksums, computed a byte at a time with a table.
+ */
+class Crc32c {
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i;
+            for (int k = 0; k < 8; k++)
+                c = (c & 1) != 0 ? (c >>> 1) ^ 0x82F63B78 : c >>> 1;
+            TABLE[i] = c;
+        }
+    }
+
+    /** @return the checksum crc (0 to start) updated with len bytes of b */
+    static int update(int crc, byte[] b, int off, int len) {
+        int c = ~crc;
+        for (int i = off; i < off + len; i++)
+            c = TABLE[(c ^ b[i]) & 0xff] ^ (c >>> 8);
+        return ~c;
+    }
+}
@@ -0,0 +1,328 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * LogReplay is the redo pass of {@link LogFile#recover}: it repeats the
+ * changes logged by the UPDATE records and CLRs of a range of the log, on
+ * several threads.
+ * <p>
+ * A reader thread reads the log ahead of the replay in blocks of
+ * {@link #BLOCK_SIZE} bytes. The calling thread parses the records from
+ * the blocks and hands each one to a worker chosen by the hash of its
+ * page, so the records of a page are replayed in log order, while different
+ * pages are replayed concurrently. The first time a page of a HeapFile
+ * turns up, it is read from disk in the background, so that its LSN is
+ * known by the time its worker gets to it.
+ * <p>
+ * Each worker keeps the latest record of each of its pages, and decodes
+ * and writes the page once, rather than once per record. Workers don't use the
+ * BufferPool, whose monitor the caller holds, so the caller must discard
+ * the pages {@link #run} returns.
+ */
+class LogReplay {
+
+    /** Bytes of the log read at once */
+    static final int BLOCK_SIZE = 1 << 20;
+    /** Blocks the reader may read ahead of the replay */
+    static final int READ_AHEAD = 4;
+    /** Records that may wait for one worker */
+    static final int QUEUE_SIZE = 256;
+    /** Pages a worker may keep records of before writing them out */
+    static final int MAX_PENDING = 256;
+
+    /** LSN of pages on disk that don't record one */
+    private static final long NO_LSN = -1;
+    // ends the blocks of the reader and the records of the workers
+    private static final byte[] END_BLOCK = new byte[0];
+    private static final LogRecord END_RECORD = new LogRecord(0, 0, new byte[0], 0);
+
+    private final LogSegments log;
+    private final Map<PageId, Long> dirtyPages;
+    private final int threads;
+
+    private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(READ_AHEAD);
+    private final ConcurrentHashMap<PageId, Future<Page>> prefetched =
+        new ConcurrentHashMap<PageId, Future<Page>>();
+    private final Set<PageId> written =
+        Collections.synchronizedSet(new HashSet<PageId>());
+    // the first error of a thread of the replay; protected by this
+    private Exception failure = null;
+
+    /** Number of records replayed, for tests and the benchmark */
+    int replayed = 0;
+
+    /**
+     * @param log the segments of the log
+     * @param dirtyPages maps the pages whose logged changes may not be on
+     *   disk to the LSN of the first of them; the records of other pages,
+     *   and earlier ones, are not replayed
+     * @param threads the number of workers
+     */
+    LogReplay(LogSegments log, Map<PageId, Long> dirtyPages, int threads) {
+        this.log = log;
+        this.dirtyPages = dirtyPages;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Replay the records from LSN start to LSN end, which must be whole
+     * records.
+     *
+     * @return the pages that were written
+     */
+    Set<PageId> run(final long start, final long end) throws IOException {
+        Thread reader = new Thread("LogReplay reader") {
+            public void run() {
+                readBlocks(start, end);
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+
+        ExecutorService prefetcher = Executors.newFixedThreadPool(threads);
+        ArrayList<BlockingQueue<LogRecord>> queues = new ArrayList<BlockingQueue<LogRecord>>();
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<LogRecord>(QUEUE_SIZE);
+            Thread worker = new Thread("LogReplay worker " + i) {
+                public void run() {
+                    replay(queue);
+                }
+            };
+            queues.add(queue);
+            workers.add(worker);
+            worker.start();
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BlockStream());
+            HashSet<PageId> seen = new HashSet<PageId>();
+            long offset = start;
+            LogRecord r;
+            while (offset < end && failed() == null
+                   && (r = LogRecord.read(in, offset, end - offset)) != null) {
+                offset = r.end();
+                if (r.type != LogFile.UPDATE_RECORD && r.type != LogFile.CLR_RECORD)
+                    continue;
+                PageId pid = r.getPageId();
+                Long recLsn = dirtyPages.get(pid);
+                if (recLsn == null || r.offset < recLsn)
+                    continue;
+                if (seen.add(pid))
+                    prefetch(prefetcher, pid);
+                put(queues.get(worker(pid)), r);
+            }
+            if (offset < end && failed() == null)
+                throw new IOException("log ends at " + offset + " before " + end);
+        } finally {
+            try {
+                for (BlockingQueue<LogRecord> queue : queues)
+                    put(queue, END_RECORD);
+                for (Thread worker : workers)
+                    worker.join();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted waiting for the log replay");
+            } finally {
+                reader.interrupt();
+                prefetcher.shutdownNow();
+            }
+        }
+        Exception e = failed();
+        if (e instanceof IOException)
+            throw (IOException) e;
+        if (e != null)
+            throw new IOException("log replay failed", e);
+        return written;
+    }
+
+    /**
+     * @return the worker of pid, chosen by its place in its file, since a
+     *   B+ tree page reused under another category has records under two ids
+     */
+    private int worker(PageId pid) {
+        return (int) (((slot(pid) * 0x9E3779B97F4A7C15L) >>> 40) % threads);
+    }
+
+    /** @return the table and page number of pid, as one long */
+    private static long slot(PageId pid) {
+        return ((long) pid.getTableId() << 32) | (pid.getPageNumber() & 0xFFFFFFFFL);
+    }
+
+    private void put(BlockingQueue<LogRecord> queue, LogRecord r) throws InterruptedIOException {
+        try {
+            queue.put(r);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted queueing log records");
+        }
+    }
+
+    private synchronized Exception failed() {
+        return failure;
+    }
+
+    private synchronized void fail(Exception e) {
+        if (failure == null)
+            failure = e;
+    }
+
+    /** Read the bytes of the log from LSN start to LSN end into blocks */
+    private void readBlocks(long start, long end) {
+        try {
+            for (long pos = start; pos < end; ) {
+                byte[] block = new byte[(int) Math.min(BLOCK_SIZE, end - pos)];
+                log.read(pos, block, 0, block.length);
+                blocks.put(block);
+                pos += block.length;
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException e) {
+            fail(e);
+        }
+        try {
+            blocks.put(END_BLOCK);
+        } catch (InterruptedException e) {
+            // the replay is over
+        }
+    }
+
+    /** Start reading the page pid from disk, if it is a page of a HeapFile */
+    private void prefetch(ExecutorService prefetcher, final PageId pid) {
+        final DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (!(f instanceof HeapFile))
+            return;
+        prefetched.put(pid, prefetcher.submit(new Callable<Page>() {
+            public Page call() {
+                return f.readPage(pid);
+            }
+        }));
+    }
+
+    /**
+     * @return the LSN of the page pid on disk, or NO_LSN if the page is not
+     *   a HeapPage, or is not in its file yet
+     */
+    private long lsnOnDisk(PageId pid) throws IOException {
+        Future<Page> page = prefetched.remove(pid);
+        if (page == null)
+            return NO_LSN;
+        try {
+            Page p = page.get();
+            return p instanceof HeapPage ? ((HeapPage) p).getLsn() : NO_LSN;
+        } catch (ExecutionException e) {
+            // IllegalArgumentException or NoSuchElementException: the page
+            // isn't in the file yet
+            return NO_LSN;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted reading page " + pid);
+        }
+    }
+
+    /**
+     * Replay the records of queue until END_RECORD. After an error, the
+     * remaining records are taken but not replayed, so the parser never
+     * waits for a failed worker.
+     */
+    private void replay(BlockingQueue<LogRecord> queue) {
+        // the LSN of each page on disk, and the latest record of each page
+        // not on disk, whose image is only decoded when it's written
+        HashMap<PageId, Long> lsns = new HashMap<PageId, Long>();
+        HashMap<Long, LogRecord> pending = new HashMap<Long, LogRecord>();
+        int count = 0;
+        boolean failed = false;
+        for (;;) {
+            LogRecord r;
+            try {
+                r = queue.take();
+            } catch (InterruptedException e) {
+                fail(e);
+                return;
+            }
+            if (r == END_RECORD)
+                break;
+            if (failed)
+                continue;
+            try {
+                PageId pid = r.getPageId();
+                Long lsn = lsns.get(pid);
+                if (lsn == null) {
+                    lsn = lsnOnDisk(pid);
+                    lsns.put(pid, lsn);
+                }
+                if (r.offset <= lsn)
+                    continue;
+                pending.put(slot(pid), r);
+                count++;
+                if (pending.size() >= MAX_PENDING)
+                    writePending(pending);
+            } catch (Exception e) {
+                fail(e);
+                failed = true;
+            }
+        }
+        try {
+            if (!failed)
+                writePending(pending);
+        } catch (Exception e) {
+            fail(e);
+        }
+        synchronized (this) {
+            replayed += count;
+        }
+    }
+
+    /** Write the images of the pending records, the latest of their pages */
+    private void writePending(HashMap<Long, LogRecord> pending) throws IOException {
+        for (LogRecord r : pending.values()) {
+            Page p = r.decodeAfterImage();
+            Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+            written.add(p.getId());
+        }
+        pending.clear();
+    }
+
+    /** The bytes of the blocks, in order */
+    private class BlockStream extends InputStream {
+        private byte[] block = null;
+        private int pos = 0;
+
+        /** @return false if there are no more bytes */
+        private boolean fill() throws IOException {
+            while (block != END_BLOCK && (block == null || pos == block.length)) {
+                try {
+                    block = blocks.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("interrupted reading the log");
+                }
+                pos = 0;
+            }
+            if (block == END_BLOCK) {
+                Exception e = failed();
+                if (e instanceof IOException)
+                    throw (IOException) e;
+                return false;
+            }
+            return true;
+        }
+
+        public int read() throws IOException {
+            if (!fill())
+                return -1;
+            return block[pos++] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!fill())
+                return -1;
+            int n = Math.min(len, block.length - pos);
+            System.arraycopy(block, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+}
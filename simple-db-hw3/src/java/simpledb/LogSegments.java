@@ -0,0 +1,448 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * LogSegments stores the records of a {@link LogFile} in a sequence of
+ * fixed-size segment files, named after the log with an 8 digit segment
+ * number appended (<tt>log.00000003</tt>).
+ * <p>
+ * The log is a stream of bytes, and the LSN of a byte is its position in
+ * the stream: segment n holds the bytes with LSNs from n * getDataSize()
+ * up to the next segment, after a header of the MAGIC number, the segment
+ * number and the segment size. Records may span two segments.
+ * <p>
+ * Segments are preallocated: a new segment file is filled with zeros up to
+ * its full size when it is created, so writing the log never grows a file.
+ * Truncating the log retires the segments that only hold LSNs before the
+ * truncation point, which costs nothing like copying the rest of the log:
+ * retired segments are renamed to spares (<tt>log.spare3</tt>) and reused
+ * as new segments, up to {@link #MAX_SPARES} of them, and the others are
+ * deleted. If an archive directory is set, retired segments are instead
+ * compressed into it by a background thread, and then deleted.
+ * <p>
+ * A reused segment still holds the records it was written with; they are
+ * never mistaken for records of the log, whose checksums cover their LSNs,
+ * since segment numbers only grow and LSNs are never reused.
+ * <p>
+ * All methods are synchronized, except that archiving happens outside the
+ * monitor.
+ */
+class LogSegments {
+
+    /** The first int of each segment file */
+    static final int MAGIC = 0x53444257;
+    /** Size of the header of a segment: magic, segment number and size */
+    static final int HEADER_SIZE = 4 + 8 + 4;
+    /** Largest size of a segment file */
+    static final int MAX_SIZE = 1 << 30;
+    /** Number of retired segments kept to be reused */
+    static final int MAX_SPARES = 2;
+    // appended to the names of segments waiting to be archived
+    private static final String RETIRED = ".retired";
+
+    private final String prefix;
+    private final int segmentSize;
+    private final int dataSize;
+
+    // numbers of the segment files, and those of them that are open
+    private final TreeSet<Long> live = new TreeSet<Long>();
+    private final HashMap<Long, RandomAccessFile> open = new HashMap<Long, RandomAccessFile>();
+    // segments written since they were last forced
+    private final HashSet<Long> unforced = new HashSet<Long>();
+    private final ArrayList<File> spares = new ArrayList<File>();
+
+    private File archiveDir = null;
+    // retired segments waiting to be archived, and the archiver thread
+    private final LinkedList<File> toArchive = new LinkedList<File>();
+    private Thread archiver = null;
+    private boolean archiving = false;
+    private IOException archiveError = null;
+
+    /** @return true if segments of segmentSize bytes can hold a record and can be mapped */
+    static boolean isValidSize(int segmentSize) {
+        return segmentSize > HEADER_SIZE + LogRecord.OVERHEAD && segmentSize <= MAX_SIZE;
+    }
+
+    /**
+     * Open the segments of the log f.
+     *
+     * @param segmentSize the size of each segment file, including its header
+     */
+    LogSegments(File f, int segmentSize) throws IOException {
+        if (!isValidSize(segmentSize))
+            throw new IllegalArgumentException("log segments of " + segmentSize
+                                               + " bytes are too small or too large");
+        this.prefix = f.getPath();
+        this.segmentSize = segmentSize;
+        this.dataSize = segmentSize - HEADER_SIZE;
+
+        File dir = f.getAbsoluteFile().getParentFile();
+        String name = f.getName();
+        String[] files = dir.list();
+        if (files == null)
+            throw new IOException("can't list log directory " + dir);
+        for (String file : files) {
+            if (!file.startsWith(name + "."))
+                continue;
+            String suffix = file.substring(name.length() + 1);
+            if (suffix.matches("[0-9]{8,}"))
+                live.add(Long.parseLong(suffix));
+            else if (suffix.matches("spare[0-9]+"))
+                spares.add(new File(dir, file));
+            else if (suffix.matches("[0-9]{8,}" + RETIRED))
+                toArchive.add(new File(dir, file));
+        }
+    }
+
+    /** @return the number of bytes of the log each segment holds */
+    int getDataSize() {
+        return dataSize;
+    }
+
+    /** @return the size of each segment file */
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /** @return the file of segment n */
+    File segmentFile(long n) {
+        return new File(prefix + "." + String.format("%08d", n));
+    }
+
+    /** @return the numbers of the segment files */
+    synchronized SortedSet<Long> segments() {
+        return new TreeSet<Long>(live);
+    }
+
+    /**
+     * @return the LSN just after the last byte the segments hold, going on
+     *   from the segment of lsn while there are segments
+     */
+    synchronized long end(long lsn) {
+        long n = lsn / dataSize;
+        while (live.contains(n))
+            n++;
+        return Math.max(lsn, n * dataSize);
+    }
+
+    /**
+     * Set the directory retired segments are compressed into, or null to
+     * recycle them.
+     */
+    synchronized void setArchiveDirectory(File dir) {
+        archiveDir = dir;
+        if (dir != null && !toArchive.isEmpty())
+            startArchiver();
+    }
+
+    /**
+     * @return segment n, opened, or created if create is set
+     * @throws IOException if it doesn't exist and create isn't set, or its
+     *   header is wrong
+     */
+    private RandomAccessFile segment(long n, boolean create) throws IOException {
+        RandomAccessFile raf = open.get(n);
+        if (raf != null)
+            return raf;
+        File f = segmentFile(n);
+        if (live.contains(n)) {
+            raf = new RandomAccessFile(f, "rw");
+            if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC
+                || raf.readLong() != n || raf.readInt() != segmentSize) {
+                raf.close();
+                throw new IOException("bad header in log segment " + f);
+            }
+        } else if (!create) {
+            throw new EOFException("no log segment " + f);
+        } else {
+            boolean reused = false;
+            if (!spares.isEmpty()) {
+                File spare = spares.remove(spares.size() - 1);
+                reused = spare.length() == segmentSize && spare.renameTo(f);
+                if (!reused)
+                    spare.delete();
+            }
+            raf = new RandomAccessFile(f, "rw");
+            if (!reused) {
+                // preallocate the whole segment
+                raf.setLength(0);
+                byte[] zeros = new byte[64 * 1024];
+                for (long pos = 0; pos < segmentSize; pos += zeros.length)
+                    raf.write(zeros, 0, (int) Math.min(zeros.length, segmentSize - pos));
+            }
+            raf.seek(0);
+            raf.writeInt(MAGIC);
+            raf.writeLong(n);
+            raf.writeInt(segmentSize);
+            live.add(n);
+            unforced.add(n);
+        }
+        open.put(n, raf);
+        return raf;
+    }
+
+    /** Write the bytes of b from off to off + len at LSN lsn */
+    synchronized void write(long lsn, byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            long n = lsn / dataSize;
+            int pos = (int) (lsn % dataSize);
+            int count = Math.min(len, dataSize - pos);
+            RandomAccessFile raf = segment(n, true);
+            raf.seek(HEADER_SIZE + pos);
+            raf.write(b, off, count);
+            unforced.add(n);
+            lsn += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Read len bytes at LSN lsn into b at off.
+     *
+     * @throws EOFException if a segment they are in doesn't exist
+     */
+    synchronized void read(long lsn, byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            long n = lsn / dataSize;
+            int pos = (int) (lsn % dataSize);
+            int count = Math.min(len, dataSize - pos);
+            RandomAccessFile raf = segment(n, false);
+            raf.seek(HEADER_SIZE + pos);
+            raf.readFully(b, off, count);
+            lsn += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * @return a stream of the bytes of the log from LSN start to LSN end,
+     *   read a block at a time
+     */
+    InputStream input(final long start, final long end) {
+        return new InputStream() {
+            private final byte[] block = new byte[64 * 1024];
+            private long blockStart = start;
+            private int length = 0;
+            private int pos = 0;
+
+            private boolean fill() throws IOException {
+                if (pos < length)
+                    return true;
+                blockStart += length;
+                pos = 0;
+                length = (int) Math.min(block.length, end - blockStart);
+                if (length <= 0) {
+                    length = 0;
+                    return false;
+                }
+                LogSegments.this.read(blockStart, block, 0, length);
+                return true;
+            }
+
+            public int read() throws IOException {
+                if (!fill())
+                    return -1;
+                return block[pos++] & 0xff;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0)
+                    return 0;
+                if (!fill())
+                    return -1;
+                int n = Math.min(len, length - pos);
+                System.arraycopy(block, pos, b, off, n);
+                pos += n;
+                return n;
+            }
+        };
+    }
+
+    /** Force the segments written since they were last forced to disk */
+    synchronized void force() throws IOException {
+        for (Long n : unforced) {
+            RandomAccessFile raf = open.get(n);
+            if (raf != null)
+                raf.getChannel().force(true);
+        }
+        unforced.clear();
+    }
+
+    /**
+     * Zero the bytes of the segment of lsn from lsn on, and delete the
+     * segments after it, so that nothing written there before a crash is
+     * read as part of the log once it grows past lsn again.
+     */
+    synchronized void discardFrom(long lsn) throws IOException {
+        long n = lsn / dataSize;
+        if (live.contains(n)) {
+            RandomAccessFile raf = segment(n, false);
+            int pos = (int) (lsn % dataSize);
+            byte[] zeros = new byte[Math.min(64 * 1024, dataSize - pos)];
+            raf.seek(HEADER_SIZE + pos);
+            while (pos < dataSize) {
+                int count = Math.min(zeros.length, dataSize - pos);
+                raf.write(zeros, 0, count);
+                pos += count;
+            }
+            raf.getChannel().force(true);
+        }
+        for (Long m : new ArrayList<Long>(live.tailSet(n + 1))) {
+            close(m);
+            live.remove(m);
+            segmentFile(m).delete();
+        }
+    }
+
+    /**
+     * Retire the segments that only hold LSNs before lsn.
+     *
+     * @return the number of segments retired
+     */
+    synchronized int retireBefore(long lsn) throws IOException {
+        int retired = 0;
+        for (Long n : new ArrayList<Long>(live.headSet(lsn / dataSize))) {
+            close(n);
+            live.remove(n);
+            File f = segmentFile(n);
+            File retiredFile = new File(f.getPath() + RETIRED);
+            if (archiveDir != null && f.renameTo(retiredFile)) {
+                toArchive.add(retiredFile);
+                startArchiver();
+            } else if (spares.size() < MAX_SPARES) {
+                File spare = new File(prefix + ".spare" + n);
+                if (f.renameTo(spare))
+                    spares.add(spare);
+                else
+                    f.delete();
+            } else {
+                f.delete();
+            }
+            retired++;
+        }
+        notifyAll();
+        return retired;
+    }
+
+    /**
+     * Retire all the segments, to start a new log.
+     *
+     * @return the LSN of the start of the new log, which is past all the
+     *   LSNs of the old one, so LSNs stored in pages stay older than those
+     *   of the new log
+     */
+    synchronized long restart() throws IOException {
+        long start = live.isEmpty() ? 0 : (live.last() + 1) * dataSize;
+        retireBefore(start);
+        return start;
+    }
+
+    private void close(long n) throws IOException {
+        RandomAccessFile raf = open.remove(n);
+        if (raf != null)
+            raf.close();
+        unforced.remove(n);
+    }
+
+    /** Close the segment files, after the archiver is done */
+    synchronized void close() throws IOException {
+        waitForArchiver();
+        for (Long n : new ArrayList<Long>(open.keySet()))
+            close(n);
+    }
+
+    /** Wait until the retired segments are archived */
+    synchronized void waitForArchiver() throws IOException {
+        while (!toArchive.isEmpty() || archiving) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted waiting for the log archiver");
+            }
+        }
+        if (archiveError != null) {
+            IOException e = archiveError;
+            archiveError = null;
+            throw new IOException("couldn't archive log segment", e);
+        }
+    }
+
+    private void startArchiver() {
+        if (archiver != null)
+            return;
+        archiver = new Thread("LogSegments archiver") {
+            public void run() {
+                archiveLoop();
+            }
+        };
+        archiver.setDaemon(true);
+        archiver.start();
+    }
+
+    /**
+     * Body of the archiver thread: compress the retired segments into the
+     * archive directory, outside the monitor, and delete them.
+     */
+    private void archiveLoop() {
+        while (true) {
+            File f;
+            File dir;
+            synchronized (this) {
+                if (toArchive.isEmpty()) {
+                    archiver = null;
+                    notifyAll();
+                    return;
+                }
+                f = toArchive.removeFirst();
+                dir = archiveDir;
+                archiving = true;
+            }
+            IOException error = null;
+            try {
+                String name = f.getName();
+                name = name.substring(0, name.length() - RETIRED.length());
+                if (dir != null)
+                    archive(f, new File(dir, name + ".gz"));
+                f.delete();
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (this) {
+                archiving = false;
+                if (error != null && archiveError == null)
+                    archiveError = error;
+                notifyAll();
+            }
+        }
+    }
+
+    /** Compress the segment f into to */
+    private static void archive(File f, File to) throws IOException {
+        File tmp = new File(to.getPath() + ".tmp");
+        InputStream in = new FileInputStream(f);
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            GZIPOutputStream out = new GZIPOutputStream(new BufferedOutputStream(fos));
+            try {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) > 0)
+                    out.write(buf, 0, n);
+                out.finish();
+                out.flush();
+                fos.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if (!tmp.renameTo(to))
+            throw new IOException("couldn't rename " + tmp + " to " + to);
+    }
+}
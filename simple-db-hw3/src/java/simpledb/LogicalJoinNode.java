@@ -23,6 +23,21 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The algorithms a join can be run with */
+    public enum Algorithm {
+        /** {@link Join}: scan t2 once per tuple of t1 */
+        NESTED_LOOP,
+        /** {@link BlockNestedLoopJoin}: scan t2 once per block of tuples of t1 */
+        BLOCK_NESTED_LOOP,
+        /** {@link HashEquiJoin}: probe a hash table of a block of tuples of t1 with t2 */
+        HASH,
+        /** {@link IndexNestedLoopJoin}: probe an index of t2 with each tuple of t1 */
+        INDEX
+    }
+
+    /** The algorithm the JoinOptimizer chose to run this join with */
+    public Algorithm algorithm = Algorithm.NESTED_LOOP;
+
     public LogicalJoinNode() {
     }
 
@@ -2,6 +2,8 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -271,6 +273,77 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * @return the qualified names (alias.field) of all fields the query
+     *   refers to, or null if it selects all fields with *
+     */
+    private Set<String> usedFields() {
+        HashSet<String> used = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return null;
+            used.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters)
+            used.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            if (lj.t2Alias != null)
+                used.add(lj.f2QuantifiedName);
+        }
+        if (aggField != null)
+            used.add(aggField);
+        if (groupByField != null)
+            used.add(groupByField);
+        if (oByField != null)
+            used.add(oByField);
+        return used;
+    }
+
+    /**
+     * If table is stored in a {@link BTreeFile} or has a {@link HashIndexFile}
+     * and a filter compares its key field to a constant in a way the index
+     * can look up, return an
+     * {@link IndexScan} for that filter, preferring equality; otherwise
+     * return null. The filter is still applied on top of the scan.
+     */
+    private OpIterator indexScan(TransactionId t, LogicalScanNode table) throws ParsingException {
+        DbFile f = Database.getCatalog().getDatabaseFile(table.t);
+        HashIndexFile hf = Database.getCatalog().getHashIndex(table.t);
+        int keyField;
+        if (f instanceof BTreeFile)
+            keyField = ((BTreeFile) f).keyField();
+        else if (hf != null)
+            keyField = hf.keyField();
+        else
+            return null;
+        String keyName = table.alias + "." + f.getTupleDesc().getFieldName(keyField);
+        Type keyType = f.getTupleDesc().getFieldType(keyField);
+        IndexPredicate best = null;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias) || !lf.fieldQuantifiedName.equals(keyName)
+                    || !IndexPredicate.isIndexable(lf.p))
+                continue;
+            // a hash index only finds equal keys
+            if (!(f instanceof BTreeFile) && lf.p != Predicate.Op.EQUALS)
+                continue;
+            try {
+                IndexPredicate ip = new IndexPredicate(lf.p, keyType.parseText(lf.c));
+                if (best == null || ip.getOp() == Predicate.Op.EQUALS)
+                    best = ip;
+            } catch (java.text.ParseException e) {
+                throw new ParsingException("Bad constant " + lf.c + " for field " + lf.fieldQuantifiedName);
+            }
+        }
+        if (best == null)
+            return null;
+        try {
+            return new IndexScan(t, table.t, table.alias, best);
+        } catch (DbException e) {
+            throw new ParsingException(e.getMessage());
+        }
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -289,6 +362,9 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        Set<String> usedFields = usedFields();
+        // the scans that are not replaced by index scans, by alias
+        HashMap<String,SeqScan> scans = new HashMap<String,SeqScan>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -299,7 +375,23 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table " + table.t);
             }
             
-            subplanMap.put(table.alias,ss);
+            if (usedFields != null) {
+                // only read the fields the query refers to
+                TupleDesc td = ss.getTupleDesc();
+                ArrayList<Integer> proj = new ArrayList<Integer>();
+                for (int i = 0; i < td.numFields(); i++)
+                    if (usedFields.contains(td.getFieldName(i)))
+                        proj.add(i);
+                int[] fields = new int[proj.size()];
+                for (int i = 0; i < fields.length; i++)
+                    fields[i] = proj.get(i);
+                ss.setProjection(fields);
+            }
+
+            OpIterator is = indexScan(t, table);
+            subplanMap.put(table.alias, is != null ? is : ss);
+            if (is == null)
+                scans.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -323,10 +415,11 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            try {
+                f = ftyp.parseText(lf.c);
+            } catch (java.text.ParseException e) {
+                throw new ParsingException("Bad constant " + lf.c + " for field " + lf.fieldQuantifiedName);
+            }
 
             Predicate p = null;
             try {
@@ -335,6 +428,10 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // let the scan skip the pages no tuple of which can pass p
+            SeqScan scan = scans.get(lf.tableAlias);
+            if (scan != null)
+                scan.addPushdownPredicate(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -385,7 +482,8 @@ public class LogicalPlan {
             j = jo.instantiateJoin(lj,plan1,plan2);
             subplanMap.put(t1name, j);
 
-            if (!isSubqueryJoin) {
+            // a join of two tables an earlier join joined filters its plan
+            if (!isSubqueryJoin && !t2name.equals(t1name)) {
                 subplanMap.remove(t2name);
                 equivMap.put(t2name,t1name);  //keep track of the fact that this new node contains both tables
                     //make sure anything that was equiv to lj.t2 (which we are just removed) is
@@ -416,14 +514,13 @@ public class LogicalPlan {
             if (si.aggOp != null) {
                 outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
+                int  id;
                 try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                outTypes.add(Aggregate.aggregateType(td.getFieldType(id), getAggOp(si.aggOp)));
 
             } else if (hasAgg) {
                     if (groupByField == null) {
@@ -0,0 +1,166 @@
+package simpledb;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * Knows how to compute some aggregate over a set of LongFields, DoubleFields
+ * or DateFields. MIN, MAX, SUM and AVG produce a value of the aggregated
+ * field's type (AVG of a LONG_TYPE field is rounded down, as for
+ * IntegerAggregator); COUNT produces an INT_TYPE value. Dates only support
+ * MIN, MAX and COUNT.
+ */
+public class NumericAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Running aggregate of one group */
+    private static class GroupState {
+        Field min, max;
+        long longSum;
+        double doubleSum;
+        int count;
+    }
+
+    private final int gbFieldIdx;
+    private final int aFieldIdx;
+    private final Type aFieldType;
+    private final Op what;
+    private final Map<Field, GroupState> aggState;
+    private TupleDesc dstSchema;
+
+    /**
+     * Aggregate constructor
+     * 
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field: LONG_TYPE, DOUBLE_TYPE or
+     *            DATE_TYPE
+     * @param what
+     *            the aggregation operator
+     * @throws IllegalArgumentException if what is not supported for afieldtype
+     */
+    public NumericAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        if (what != Op.MIN && what != Op.MAX && what != Op.COUNT
+                && (afieldtype == Type.DATE_TYPE || (what != Op.SUM && what != Op.AVG)))
+            throw new IllegalArgumentException("unsupported aggregate " + what + " over " + afieldtype);
+        gbFieldIdx = gbfield;
+        aFieldIdx = afield;
+        aFieldType = afieldtype;
+        this.what = what;
+        aggState = new HashMap<Field, GroupState>();
+        dstSchema = null;
+    }
+
+    private void deduceDstSchema(Tuple t) {
+        Type aggType = Aggregate.aggregateType(aFieldType, what);
+        if (gbFieldIdx == Aggregator.NO_GROUPING) {
+            dstSchema = new TupleDesc(new Type[] { aggType },
+                    new String[] { what.toString() });
+        } else {
+            TupleDesc td = t.getTupleDesc();
+            dstSchema = new TupleDesc(
+                    new Type[] { td.getFieldType(gbFieldIdx), aggType },
+                    new String[] { td.getFieldName(gbFieldIdx), td.getFieldName(aFieldIdx) });
+        }
+    }
+
+    public void reset() {
+        aggState.clear();
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     * 
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        if (aggState.isEmpty()) {
+            deduceDstSchema(tup);
+        }
+        Field gbValue = gbFieldIdx == Aggregator.NO_GROUPING
+                ? new IntField(Aggregator.NO_GROUPING) : tup.getField(gbFieldIdx);
+
+        GroupState g = aggState.get(gbValue);
+        if (g == null) {
+            g = new GroupState();
+            aggState.put(gbValue, g);
+        }
+        g.count++;
+        switch (what) {
+        case MIN:
+        case MAX:
+            Field v = tup.getField(aFieldIdx);
+            if (g.min == null || v.compare(Predicate.Op.LESS_THAN, g.min))
+                g.min = v;
+            if (g.max == null || v.compare(Predicate.Op.GREATER_THAN, g.max))
+                g.max = v;
+            break;
+        case SUM:
+        case AVG:
+            if (aFieldType == Type.DOUBLE_TYPE)
+                g.doubleSum += tup.getDouble(aFieldIdx);
+            else
+                g.longSum += tup.getLong(aFieldIdx);
+            break;
+        default:
+            break;
+        }
+    }
+
+    private Field result(GroupState g) {
+        switch (what) {
+        case MIN:
+            return g.min;
+        case MAX:
+            return g.max;
+        case COUNT:
+            return new IntField(g.count);
+        case SUM:
+            return aFieldType == Type.DOUBLE_TYPE
+                    ? new DoubleField(g.doubleSum) : new LongField(g.longSum);
+        case AVG:
+            return aFieldType == Type.DOUBLE_TYPE
+                    ? new DoubleField(g.doubleSum / g.count) : new LongField(g.longSum / g.count);
+        default:
+            throw new IllegalStateException("impossible to reach here");
+        }
+    }
+
+    public Vector<Tuple> getAggResults() {
+        Vector<Tuple> results = new Vector<Tuple>();
+        for (Entry<Field, GroupState> entry : aggState.entrySet()) {
+            Tuple t = new Tuple(dstSchema);
+            if (gbFieldIdx != Aggregator.NO_GROUPING) {
+                t.setField(0, entry.getKey());
+                t.setField(1, result(entry.getValue()));
+            } else {
+                t.setField(0, result(entry.getValue()));
+            }
+            results.add(t);
+        }
+        return results;
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     * 
+     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public OpIterator iterator() {
+        return new AggregatorIterator(this);
+    }
+
+}
@@ -29,6 +29,17 @@ public class OperatorCardinality {
         } else if (o instanceof HashEquiJoin) {
             return updateHashEquiJoinCardinality((HashEquiJoin) o,
                     tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            return updateReplacedJoinCardinality(o,
+                    ((IndexNestedLoopJoin) o).getJoinPredicate(), tableAliasToId,
+                    tableStats);
+        } else if (o instanceof BlockNestedLoopJoin) {
+            return updateReplacedJoinCardinality(o,
+                    ((BlockNestedLoopJoin) o).getJoinPredicate(), tableAliasToId,
+                    tableStats);
+        } else if (o instanceof JoinFilter) {
+            return updateJoinFilterCardinality((JoinFilter) o, tableAliasToId,
+                    tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
@@ -41,9 +52,9 @@ public class OperatorCardinality {
                     hasJoinPK = updateOperatorCardinality(
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
-                } else if (children[0] instanceof SeqScan) {
+                } else if (scanTableName(children[0]) != null) {
                     childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
+                            scanTableName(children[0]))
                             .estimateTableCardinality(1.0);
                 }
             }
@@ -77,9 +88,9 @@ public class OperatorCardinality {
                 f.setEstimatedCardinality((int) (oChild
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
-            } else if (child instanceof SeqScan) {
+            } else if (scanTableName(child) != null) {
                 f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
+                        scanTableName(child))
                         .estimateTableCardinality(1.0) * selectivity) + 1);
                 return false;
             }
@@ -120,9 +131,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (scanTableName(child1) != null) {
+            child1Card = (int) (tableStats.get(scanTableName(child1)).estimateTableCardinality(1.0));
         }
 
         if (child2 instanceof Operator) {
@@ -132,9 +142,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (scanTableName(child2) != null) {
+            child2Card = (int) (tableStats.get(scanTableName(child2)).estimateTableCardinality(1.0));
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -144,6 +153,71 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
+    /**
+     * Set the cardinality of a join operator o, which joins its two children
+     * with p, to that of the nested loops join it replaces.
+     */
+    private static boolean updateReplacedJoinCardinality(Operator o,
+            JoinPredicate p, Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        OpIterator[] children = o.getChildren();
+        Join nl = new Join(p, children[0], children[1]);
+        boolean hasJoinPK = updateJoinCardinality(nl, tableAliasToId, tableStats);
+        o.setEstimatedCardinality(nl.getEstimatedCardinality());
+        return hasJoinPK;
+    }
+
+    /**
+     * A JoinFilter keeps the fraction of its child's tuples that a join of
+     * the two tables of its predicate keeps of their pairs.
+     */
+    private static boolean updateJoinFilterCardinality(JoinFilter f,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        OpIterator child = f.getChildren()[0];
+        JoinPredicate pred = f.getJoinPredicate();
+        TupleDesc td = child.getTupleDesc();
+        String[] tmp1 = td.getFieldName(pred.getField1()).split("[.]");
+        String tableAlias1 = tmp1[0];
+        String pureFieldName1 = tmp1[1];
+        String[] tmp2 = td.getFieldName(pred.getField2()).split("[.]");
+        String tableAlias2 = tmp2[0];
+        String pureFieldName2 = tmp2[1];
+
+        int childCard = 1;
+        boolean hasJoinPK = false;
+        if (child instanceof Operator) {
+            Operator oChild = (Operator) child;
+            hasJoinPK = updateOperatorCardinality(oChild, tableAliasToId,
+                    tableStats);
+            childCard = Math.max(oChild.getEstimatedCardinality(), 1);
+        } else if (scanTableName(child) != null) {
+            childCard = tableStats.get(scanTableName(child))
+                    .estimateTableCardinality(1.0);
+        }
+
+        int card1 = aliasCardinality(tableAlias1, tableAliasToId, tableStats);
+        int card2 = aliasCardinality(tableAlias2, tableAliasToId, tableStats);
+        double selectivity = (double) JoinOptimizer.estimateTableJoinCardinality(
+                pred.getOperator(), tableAlias1, tableAlias2, pureFieldName1,
+                pureFieldName2, card1, card2, false, false, tableStats,
+                tableAliasToId) / ((double) card1 * card2);
+        f.setEstimatedCardinality((int) Math.max(1,
+                childCard * Math.min(1.0, selectivity)));
+        return hasJoinPK;
+    }
+
+    /** @return the estimated number of tuples of the table alias stands for, at least 1 */
+    private static int aliasCardinality(String alias,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        Integer tableId = tableAliasToId.get(alias);
+        if (tableId == null)
+            return 1;
+        TableStats s = tableStats.get(Database.getCatalog().getTableName(tableId));
+        return s == null ? 1 : Math.max(s.estimateTableCardinality(1.0), 1);
+    }
+
     private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -177,9 +251,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (scanTableName(child1) != null) {
+            child1Card = (int) (tableStats.get(scanTableName(child1)).estimateTableCardinality(1.0));
         }
 
         if (child2 instanceof Operator) {
@@ -189,9 +262,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (scanTableName(child2) != null) {
+            child2Card = (int) (tableStats.get(scanTableName(child2)).estimateTableCardinality(1.0));
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -219,8 +291,8 @@ public class OperatorCardinality {
             return hasJoinPK;
         }
 
-        if (child instanceof SeqScan) {
-            childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
+        if (scanTableName(child) != null) {
+            childCard = (int) (tableStats.get(scanTableName(child))
                     .estimateTableCardinality(1.0));
         }
 
@@ -244,4 +316,13 @@ public class OperatorCardinality {
         a.setEstimatedCardinality(childCard);
         return hasJoinPK;
     }
+
+    /** @return the table scanned by a SeqScan or IndexScan, or null for other operators */
+    private static String scanTableName(OpIterator o) {
+        if (o instanceof SeqScan)
+            return ((SeqScan) o).getTableName();
+        if (o instanceof IndexScan)
+            return ((IndexScan) o).getTableName();
+        return null;
+    }
 }
@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OptimisticValidator runs the transactions started in optimistic mode (see
+ * {@link Transaction#Transaction(boolean)}). Such a transaction reads pages
+ * without waiting for anyone, and the version of each page it reads is
+ * recorded in its read set. Its inserts and deletes are buffered rather than
+ * applied, so its own reads don't see them. At commit, the read set is
+ * validated: if any page read has been written since, the transaction is
+ * aborted; otherwise its writes are installed through the BufferPool, and
+ * logged and committed like those of any other transaction.
+ * <p>
+ * A page's version changes whenever a transaction dirties it, committed or
+ * not, so validation is conservative. Versions are only tracked while an
+ * optimistic transaction is running.
+ *
+ * @Threadsafe
+ */
+public class OptimisticValidator {
+
+    /** The reads and buffered writes of an optimistic transaction */
+    static class ReadWriteSet {
+        final HashMap<PageId, Long> reads = new HashMap<PageId, Long>();
+        final ArrayList<Tuple> deletes = new ArrayList<Tuple>();
+        final ArrayList<Tuple> inserts = new ArrayList<Tuple>();
+        final ArrayList<Integer> insertTables = new ArrayList<Integer>();
+    }
+
+    private final ConcurrentHashMap<TransactionId, ReadWriteSet> running =
+        new ConcurrentHashMap<TransactionId, ReadWriteSet>();
+    /** Version of each page written while optimistic transactions run; 0 if absent */
+    private final ConcurrentHashMap<PageId, Long> versions = new ConcurrentHashMap<PageId, Long>();
+    private final AtomicLong clock = new AtomicLong();
+    // serializes validation and installation, so no other transaction
+    // validates against writes that are only half installed
+    private final Object commitLock = new Object();
+
+    /** Start running tid optimistically */
+    public void begin(TransactionId tid) {
+        synchronized (commitLock) {
+            running.put(tid, new ReadWriteSet());
+        }
+    }
+
+    private long version(PageId pid) {
+        Long v = versions.get(pid);
+        return v == null ? 0 : v;
+    }
+
+    /** Record that tid is reading page pid, if it runs optimistically */
+    public void read(TransactionId tid, PageId pid) {
+        if (running.isEmpty())
+            return;
+        ReadWriteSet rw = running.get(tid);
+        if (rw == null)
+            return;
+        synchronized (rw) {
+            if (!rw.reads.containsKey(pid))
+                rw.reads.put(pid, version(pid));
+        }
+    }
+
+    /** Record that the pages have been dirtied, so they have new versions */
+    public void written(List<Page> pages) {
+        if (running.isEmpty())
+            return;
+        for (Page p : pages)
+            versions.put(p.getId(), clock.incrementAndGet());
+    }
+
+    /**
+     * Buffer the insert of t into table tableId, if tid runs optimistically.
+     *
+     * @return true if the insert was buffered
+     */
+    public boolean bufferInsert(TransactionId tid, int tableId, Tuple t) {
+        ReadWriteSet rw = running.isEmpty() ? null : running.get(tid);
+        if (rw == null)
+            return false;
+        synchronized (rw) {
+            rw.inserts.add(t);
+            rw.insertTables.add(tableId);
+        }
+        return true;
+    }
+
+    /**
+     * Buffer the delete of t, if tid runs optimistically. The page t is on
+     * must have been read by tid.
+     *
+     * @return true if the delete was buffered
+     */
+    public boolean bufferDelete(TransactionId tid, Tuple t) {
+        ReadWriteSet rw = running.isEmpty() ? null : running.get(tid);
+        if (rw == null)
+            return false;
+        // other deletes of t reset its RecordId, so the copy keeps it
+        Tuple copy = new Tuple(t.getTupleDesc());
+        for (int i = 0; i < copy.numFields(); i++)
+            copy.copyField(i, t, i);
+        copy.setRecordId(t.getRecordId());
+        synchronized (rw) {
+            rw.deletes.add(copy);
+        }
+        read(tid, t.getRecordId().getPageId());
+        return true;
+    }
+
+    /**
+     * Validate the reads of tid and install its writes, which the caller
+     * then commits. tid no longer runs optimistically afterwards.
+     *
+     * @throws TransactionAbortedException if a page tid read has been
+     *   written since, or its writes can't be installed; the caller must
+     *   abort tid
+     */
+    public void commit(TransactionId tid)
+        throws TransactionAbortedException, IOException {
+        synchronized (commitLock) {
+            ReadWriteSet rw = running.remove(tid);
+            try {
+                if (rw == null)
+                    return;
+                synchronized (rw) {
+                    for (Map.Entry<PageId, Long> e : rw.reads.entrySet()) {
+                        if (version(e.getKey()) != e.getValue())
+                            throw new TransactionAbortedException();
+                    }
+                }
+                BufferPool pool = Database.getBufferPool();
+                try {
+                    for (Tuple t : rw.deletes)
+                        pool.deleteTuple(tid, t);
+                    for (int i = 0; i < rw.inserts.size(); i++)
+                        pool.insertTuple(tid, rw.insertTables.get(i), rw.inserts.get(i));
+                } catch (DbException e) {
+                    TransactionAbortedException aborted = new TransactionAbortedException();
+                    aborted.initCause(e);
+                    throw aborted;
+                }
+            } finally {
+                if (running.isEmpty())
+                    versions.clear();
+            }
+        }
+    }
+
+    /** Forget tid, which has committed or aborted */
+    public void transactionComplete(TransactionId tid) {
+        if (running.isEmpty())
+            return;
+        synchronized (commitLock) {
+            running.remove(tid);
+            if (running.isEmpty())
+                versions.clear();
+        }
+    }
+
+    /** @return the number of page versions tracked, for tests */
+    int numVersions() {
+        return versions.size();
+    }
+}
@@ -7,8 +7,8 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
- *     Page(PageId id, byte[] data)
+ * For recovery purposes, each page class MUST have a {@link PageCodec}
+ * registered, which rebuilds its pages from the bytes of getPageData.
  */
 public interface Page {
 
@@ -0,0 +1,203 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * PageCodec rebuilds the pages of one Page class from the images written
+ * to the log. Each codec has a small numeric tag, which the log records
+ * instead of the class names of the page and its id, and knows how to
+ * construct the page and its id directly, without reflection.
+ * <p>
+ * The codecs of all page classes of SimpleDb are registered when this class
+ * is loaded; a new page class must {@link #register} one before pages of
+ * it can be logged.
+ */
+public abstract class PageCodec {
+
+    private static final PageCodec[] byTag = new PageCodec[256];
+    private static final HashMap<Class<?>, PageCodec> byClass = new HashMap<Class<?>, PageCodec>();
+    private static final HashMap<Class<?>, PageCodec> byIdClass = new HashMap<Class<?>, PageCodec>();
+
+    private final int tag;
+    private final Class<? extends PageId> idClass;
+    private final int idLength;
+
+    /**
+     * @param tag the tag of the codec in the log, between 1 and 255
+     * @param idClass the class of the ids of the pages
+     * @param idLength the number of ints PageId.serialize() returns for the
+     *   ids of the pages
+     */
+    protected PageCodec(int tag, Class<? extends PageId> idClass, int idLength) {
+        this.tag = tag;
+        this.idClass = idClass;
+        this.idLength = idLength;
+    }
+
+    /** @return the tag of the codec in the log */
+    public int getTag() {
+        return tag;
+    }
+
+    /** @return the number of ints of the serialized ids of the pages */
+    public int getIdLength() {
+        return idLength;
+    }
+
+    /** @return the page id serialized as ints */
+    protected abstract PageId newId(int[] ints);
+
+    /** @return the page with the specified id, parsed from data */
+    protected abstract Page newPage(PageId pid, byte[] data) throws IOException;
+
+    /**
+     * Register codec as the codec of pageClass.
+     *
+     * @throws IllegalArgumentException if another codec has the same tag
+     */
+    public static synchronized void register(Class<? extends Page> pageClass, PageCodec codec) {
+        if (codec.tag <= 0 || codec.tag >= byTag.length)
+            throw new IllegalArgumentException("bad page codec tag " + codec.tag);
+        if (byTag[codec.tag] != null && byTag[codec.tag] != codec)
+            throw new IllegalArgumentException("page codec tag " + codec.tag + " already in use");
+        byTag[codec.tag] = codec;
+        byClass.put(pageClass, codec);
+        if (!byIdClass.containsKey(codec.idClass))
+            byIdClass.put(codec.idClass, codec);
+    }
+
+    /**
+     * @return the codec of the class of page p
+     * @throws IOException if there is none
+     */
+    public static synchronized PageCodec forPage(Page p) throws IOException {
+        PageCodec codec = byClass.get(p.getClass());
+        if (codec == null)
+            throw new IOException("no page codec for " + p.getClass().getName());
+        return codec;
+    }
+
+    /**
+     * @return a codec whose pages have ids of the class of pid, to write and
+     *   read ids without their pages
+     * @throws IOException if there is none
+     */
+    public static synchronized PageCodec forId(PageId pid) throws IOException {
+        PageCodec codec = byIdClass.get(pid.getClass());
+        if (codec == null)
+            throw new IOException("no page codec for " + pid.getClass().getName());
+        return codec;
+    }
+
+    /**
+     * @return the codec with the specified tag
+     * @throws IOException if there is none
+     */
+    public static synchronized PageCodec forTag(int tag) throws IOException {
+        PageCodec codec = tag > 0 && tag < byTag.length ? byTag[tag] : null;
+        if (codec == null)
+            throw new IOException("unknown page codec tag " + tag);
+        return codec;
+    }
+
+    /** Write pid, which must be an id of a page of this codec */
+    public void writeId(DataOutput out, PageId pid) throws IOException {
+        int[] ints = pid.serialize();
+        if (ints.length != idLength)
+            throw new IOException("page id " + pid + " does not match its codec");
+        for (int i : ints)
+            out.writeInt(i);
+    }
+
+    /** Read an id written by writeId */
+    public PageId readId(DataInput in) throws IOException {
+        int[] ints = new int[idLength];
+        for (int i = 0; i < idLength; i++)
+            ints[i] = in.readInt();
+        return newId(ints);
+    }
+
+    /** @return the page with the specified id, parsed from data */
+    public Page readPage(PageId pid, byte[] data) throws IOException {
+        return newPage(pid, data);
+    }
+
+    static {
+        register(HeapPage.class, new PageCodec(1, HeapPageId.class, 2) {
+            protected PageId newId(int[] ints) {
+                return new HeapPageId(ints[0], ints[1]);
+            }
+            protected Page newPage(PageId pid, byte[] data) throws IOException {
+                return new HeapPage((HeapPageId) pid, data);
+            }
+        });
+        register(SlottedHeapPage.class, new PageCodec(2, HeapPageId.class, 2) {
+            protected PageId newId(int[] ints) {
+                return new HeapPageId(ints[0], ints[1]);
+            }
+            protected Page newPage(PageId pid, byte[] data) throws IOException {
+                return new SlottedHeapPage((HeapPageId) pid, data);
+            }
+        });
+        register(BTreeRootPtrPage.class, new BTreeCodec(3) {
+            protected Page newPage(PageId pid, byte[] data) throws IOException {
+                return new BTreeRootPtrPage((BTreePageId) pid, data);
+            }
+        });
+        register(BTreeInternalPage.class, new BTreeCodec(4) {
+            protected Page newPage(PageId pid, byte[] data) throws IOException {
+                return new BTreeInternalPage((BTreePageId) pid, data);
+            }
+        });
+        register(BTreeLeafPage.class, new BTreeCodec(5) {
+            protected Page newPage(PageId pid, byte[] data) throws IOException {
+                return new BTreeLeafPage((BTreePageId) pid, data);
+            }
+        });
+        register(BTreeHeaderPage.class, new BTreeCodec(6) {
+            protected Page newPage(PageId pid, byte[] data) throws IOException {
+                return new BTreeHeaderPage((BTreePageId) pid, data);
+            }
+        });
+        register(ColumnPage.class, new PageCodec(7, ColumnPageId.class, 3) {
+            protected PageId newId(int[] ints) {
+                return new ColumnPageId(ints[0], ints[1], ints[2]);
+            }
+            protected Page newPage(PageId pid, byte[] data) throws IOException {
+                ColumnPageId id = (ColumnPageId) pid;
+                ColumnarFile f = (ColumnarFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+                return new ColumnPage(id, f.getColumnType(id.getColumn()), data);
+            }
+        });
+        register(HashIndexMetaPage.class, new PageCodec(8, HashIndexPageId.class, 2) {
+            protected PageId newId(int[] ints) {
+                return new HashIndexPageId(ints[0], ints[1]);
+            }
+            protected Page newPage(PageId pid, byte[] data) throws IOException {
+                return new HashIndexMetaPage((HashIndexPageId) pid, data);
+            }
+        });
+        register(HashIndexPage.class, new PageCodec(9, HashIndexPageId.class, 2) {
+            protected PageId newId(int[] ints) {
+                return new HashIndexPageId(ints[0], ints[1]);
+            }
+            protected Page newPage(PageId pid, byte[] data) throws IOException {
+                HashIndexFile f = (HashIndexFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+                return new HashIndexPage((HashIndexPageId) pid, data,
+                        f.getTupleDesc().getFieldType(0), f.getIndexedTableId());
+            }
+        });
+    }
+
+    /** Codec of a kind of BTreeFile page */
+    private static abstract class BTreeCodec extends PageCodec {
+        BTreeCodec(int tag) {
+            super(tag, BTreePageId.class, 3);
+        }
+
+        protected PageId newId(int[] ints) {
+            return new BTreePageId(ints[0], ints[1], ints[2]);
+        }
+    }
+}
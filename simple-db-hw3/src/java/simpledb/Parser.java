@@ -4,6 +4,7 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -356,26 +357,31 @@ public class Parser {
                     throw new simpledb.ParsingException(
                             "Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant) e;
+                Type ftype = td.getFieldType(i);
                 if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
+                    if (ftype == Type.STRING_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is not an integer, expected a string.");
+                                + " is a number, expected a string.");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
-                    t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (ftype.isNumeric()) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is a string, expected an integer.");
+                                + " is a string, expected a number.");
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
+                            "Only string or numeric constants are supported.");
+                }
+                // dates and booleans may be written either way, e.g.
+                // '2017-03-01' or 1488326400000, 'true' or 1
+                try {
+                    t.setField(i, ftype.parseText(zc.getValue()));
+                } catch (java.text.ParseException pe) {
+                    throw new simpledb.ParsingException("Value "
+                            + zc.getValue() + " is not a valid "
+                            + ftype.name().toLowerCase());
                 }
 
                 i++;
@@ -595,9 +601,32 @@ public class Parser {
         p.start(argv);
     }
 
+    /** Minutes between background refreshes of the table statistics */
+    static final int STATS_REFRESH_MINUTES = 10;
+
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
 
+    /** The file the table statistics are saved in, next to the catalog */
+    private File statsFile = null;
+
     protected void shutdown() {
+        TableStats.stopRefresh();
+        // commits don't write their pages, so write them before checkpointing
+        try {
+            Database.getBufferPool().flushAllPages();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // after the flush, so the statistics are stamped with the files as
+        // the next start will find them
+        if (statsFile != null) {
+            try {
+                TableStats.writeStatistics(statsFile);
+            } catch (IOException e) {
+                System.out.println("Couldn't save table stats: " + e.getMessage());
+            }
+        }
+        Database.getLogFile().shutdown();
         System.out.println("Bye");
     }
 
@@ -606,7 +635,11 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        // committed changes may be only in the log
+        Database.getLogFile().recover();
+        statsFile = new File(argv[0] + ".stats");
+        TableStats.computeStatistics(statsFile);
+        TableStats.scheduleRefresh(STATS_REFRESH_MINUTES, TimeUnit.MINUTES);
 
         String queryFile = null;
 
@@ -1,50 +1,87 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.Vector;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to join each set of the relations of a query. Sets of relations are
+ * bitmasks, with bit i set if relation i is in the set, and index arrays, so
+ * looking up a plan neither allocates nor hashes. The best plan of a set
+ * joins the best plans of two smaller sets, so it is stored as the join and
+ * the set of the outer side of it. */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
+    private final double[] bestCosts;
+    private final int[] bestCardinalities;
+    private final long[] bestOuters;
+    private final LogicalJoinNode[] bestJoins;
+    private final boolean[] joinsPkey;
+    private final boolean[] present;
+
+    /**
+     * Create a PlanCache of the subsets of numRelations relations
+     * @param numRelations the number of relations of the query; the cache
+     *   takes space exponential in it
+     */
+    PlanCache(int numRelations) {
+        int size = 1 << numRelations;
+        bestCosts = new double[size];
+        bestCardinalities = new int[size];
+        bestOuters = new long[size];
+        bestJoins = new LogicalJoinNode[size];
+        joinsPkey = new boolean[size];
+        present = new boolean[size];
+    }
+
+    /** Add a new cost, cardinality and ordering for a particular set of relations.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        specified set
+        @param s the set of relations for which a new plan is being added
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
-    */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
-    }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+        @param outer the relations of the outer side of the last join of the plan; 0 for a single relation
+        @param j the last join of the plan, whose t1Alias is in outer; null for a single relation
+        @param pkey true if a join of the plan is on a primary key
     */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    void addPlan(long s, double cost, int card, long outer, LogicalJoinNode j, boolean pkey) {
+        int i = (int) s;
+        bestCosts[i] = cost;
+        bestCardinalities[i] = card;
+        bestOuters[i] = outer;
+        bestJoins[i] = j;
+        joinsPkey[i] = pkey;
+        present[i] = true;
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
-        @return the cost of the best order for s in the cache
+
+    /** @return true if there is a plan for the set of relations s in the cache */
+    boolean hasPlan(long s) {
+        return present[(int) s];
+    }
+
+    /** Find the cost of the best plan in the cache for the specified set of relations
+        @param s the set of relations to look up the best cost for
+        @return the cost of the best plan for s in the cache
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    double getCost(long s) {
+        return bestCosts[(int) s];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
-        @return the cardinality of the best order for s in the cache
+
+    /** Find the cardinality of the best plan in the cache for the specified set of relations
+        @param s the set of relations to look up the best cardinality for
+        @return the cardinality of the best plan for s in the cache
     */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    int getCard(long s) {
+        return bestCardinalities[(int) s];
+    }
+
+    /** @return the relations of the outer side of the last join of the best plan for s; 0 for a single relation */
+    long getOuter(long s) {
+        return bestOuters[(int) s];
+    }
+
+    /** @return the last join of the best plan for s; null for a single relation */
+    LogicalJoinNode getJoin(long s) {
+        return bestJoins[(int) s];
+    }
+
+    /** @return true if a join of the best plan for s is on a primary key */
+    boolean joinsPkey(long s) {
+        return joinsPkey[(int) s];
     }
 }
@@ -105,6 +105,40 @@ public class Predicate implements Serializable {
        return lhs.compare(operator, operand);
     }
 
+    /**
+     * Decides from the range of values a group of tuples holds in this
+     * predicate's field whether any of them can pass the predicate. Used to
+     * skip pages using their min/max summaries.
+     *
+     * @param min the smallest value in the group, or null if unknown
+     * @param max the largest value in the group, or null if unknown
+     * @return false only if no value in [min, max] passes the predicate
+     */
+    public boolean mayMatch(Field min, Field max) {
+        if (min == null || max == null || operator == Op.LIKE
+                || min.getType() != operand.getType()
+                || max.getType() != operand.getType()) {
+            return true;
+        }
+        switch (operator) {
+        case EQUALS:
+            return !min.compare(Op.GREATER_THAN, operand)
+                && !max.compare(Op.LESS_THAN, operand);
+        case NOT_EQUALS:
+            return !(min.equals(operand) && max.equals(operand));
+        case GREATER_THAN:
+            return max.compare(Op.GREATER_THAN, operand);
+        case GREATER_THAN_OR_EQ:
+            return max.compare(Op.GREATER_THAN_OR_EQ, operand);
+        case LESS_THAN:
+            return min.compare(Op.LESS_THAN, operand);
+        case LESS_THAN_OR_EQ:
+            return min.compare(Op.LESS_THAN_OR_EQ, operand);
+        default:
+            return true;
+        }
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
@@ -0,0 +1,28 @@
+package simpledb;
+
+/**
+ * A DbFile that can do part of a scan's work itself: it only materializes the
+ * fields a query needs and may skip over pages that cannot contain tuples
+ * passing the scan's selection predicates. {@link SeqScan} uses this
+ * iterator when the parser has given it a projection or predicates.
+ */
+public interface PushdownDbFile extends DbFile {
+
+    /**
+     * Returns an iterator over the tuples of this file, like
+     * {@link DbFile#iterator}, with two differences:
+     * <ul>
+     * <li> only the fields listed in fields need to be set in the returned
+     *      tuples; the others may be left unset (and read as null)
+     * <li> tuples on pages whose summaries show that they cannot pass one of
+     *      preds may be left out
+     * </ul>
+     * The predicates are a hint only: tuples that fail them may still be
+     * returned, so the caller must still apply them.
+     *
+     * @param tid the transaction performing the scan
+     * @param fields the indices of the fields to read, or null for all
+     * @param preds predicates over this file's fields; may be empty
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] preds);
+}
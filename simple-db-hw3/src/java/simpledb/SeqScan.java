@@ -32,6 +32,8 @@ public class SeqScan implements OpIterator {
     final String tableAlias;
     final DbFile srcData;
     DbFileIterator srcDataItr; 
+    int[] projection;
+    final ArrayList<Predicate> pushdown = new ArrayList<Predicate>();
     
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
     	xactionId = tid;
@@ -70,7 +72,37 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public void reset(int tableid, String tableAlias) {
-    	srcDataItr = srcData.iterator(xactionId);
+    	srcDataItr = makeIterator();
+    }
+
+    /**
+     * Only read the specified fields of the table, if the table's file
+     * supports it (see {@link PushdownDbFile}); the other fields of the
+     * returned tuples are left unset. Must be called before open().
+     *
+     * @param fields the indices of the fields to read, or null for all
+     */
+    public void setProjection(int[] fields) {
+    	projection = fields;
+    }
+
+    /**
+     * Pass a predicate over this table's fields to the table's file, which
+     * may use it to skip pages no tuple of which can pass it (see
+     * {@link PushdownDbFile}). The scan does not filter on the predicate
+     * itself; {@link LogicalPlan#physicalPlan} passes it the predicates of
+     * the {@link Filter}s it puts over the scan. Must be called before open().
+     */
+    public void addPushdownPredicate(Predicate p) {
+    	pushdown.add(p);
+    }
+
+    private DbFileIterator makeIterator() {
+    	if(srcData instanceof PushdownDbFile && (projection != null || !pushdown.isEmpty())) {
+    		return ((PushdownDbFile) srcData).iterator(xactionId, projection,
+    				pushdown.toArray(new Predicate[0]));
+    	}
+    	return srcData.iterator(xactionId);
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -79,7 +111,7 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
     	if(srcDataItr == null) {
-    		srcDataItr = srcData.iterator(xactionId);
+    		srcDataItr = makeIterator();
     	}
     	srcDataItr.open();
     }
@@ -94,7 +126,14 @@ public class SeqScan implements OpIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
-    	return Database.getCatalog().getTupleDesc(tableId);
+    	TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+    	Type[] types = new Type[td.numFields()];
+    	String[] names = new String[td.numFields()];
+    	for(int i = 0; i < types.length; ++i) {
+    		types[i] = td.getFieldType(i);
+    		names[i] = tableAlias + "." + td.getFieldName(i);
+    	}
+    	return new TupleDesc(types, names);
    }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -1,13 +1,17 @@
 package simpledb;
 import java.io.*;
+import java.util.*;
 
 public class SimpleDb {
     public static void main (String args[])
             throws DbException, TransactionAbortedException, IOException {
-        // convert a file
-        if(args[0].equals("convert")) {
+        // convert a file; convertslotted writes the SlottedHeapPage format,
+        // convertcolumnar the files of a ColumnarFile, convertbtree a
+        // BTreeFile keyed on the field given after the separator (default 0)
+        if(args[0].equals("convert") || args[0].equals("convertslotted")
+                || args[0].equals("convertcolumnar") || args[0].equals("convertbtree")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>(args[0].equals("convertbtree") ? 6 : 5)){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -30,20 +34,28 @@ public class SimpleDb {
                 }
                 int index=0;
                 for (String s: typeStringAr) {
-                        if (s.toLowerCase().equals("int"))
-                            ts[index++]=Type.INT_TYPE;
-                        else if (s.toLowerCase().equals("string"))
-                                ts[index++]=Type.STRING_TYPE;
-                            else {
-                                System.err.println("Unknown type " + s);
-                                return;
-                            }
+                        ts[index] = Type.forName(s);
+                        if (ts[index++] == null) {
+                            System.err.println("Unknown type " + s);
+                            return;
+                        }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            if (args[0].equals("convertslotted"))
+                HeapFileEncoder.convertSlotted(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            else if (args[0].equals("convertbtree"))
+                HeapFileEncoder.convertBTree(sourceTxtFile,targetDatFile,
+                        args.length==6 ? Integer.parseInt(args[5]) : 0,
+                        numOfAttributes,ts,fieldSeparator);
+            else if (args[0].equals("convertcolumnar"))
+                HeapFileEncoder.convertColumnar(sourceTxtFile,targetDatFile,
+                        numOfAttributes,ts,fieldSeparator);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
@@ -67,6 +79,27 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("rebuildzones")) {
+            // rebuild the zone maps of the heap files of a catalog, or of
+            // the tables named after the catalog file
+            if (args.length < 2) {
+                System.err.println("Usage: rebuildzones catalogFile [table ...]");
+                return;
+            }
+            Database.getCatalog().loadSchema(args[1]);
+            List<String> names = Arrays.asList(args).subList(2, args.length);
+            TransactionId tid = new TransactionId();
+            Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+            while (it.hasNext()) {
+                int id = it.next();
+                String name = Database.getCatalog().getTableName(id);
+                DbFile f = Database.getCatalog().getDatabaseFile(id);
+                if (!(f instanceof HeapFile) || (!names.isEmpty() && !names.contains(name)))
+                    continue;
+                ((HeapFile) f).rebuildZoneMap(tid);
+                System.out.println("Rebuilt zone map of " + name);
+            }
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
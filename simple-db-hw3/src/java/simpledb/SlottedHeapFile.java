@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are {@link SlottedHeapPage}s,
+ * so variable-length fields only take up the space they need. Everything
+ * else (page numbering, insertion, iteration) is inherited from HeapFile.
+ * <p>
+ * Tables are stored in this format when their catalog entry is followed by
+ * the <tt>slotted</tt> option, e.g.
+ * <pre>
+ *     users (id int pk, name string) slotted
+ * </pre>
+ * and are written by {@link HeapFileEncoder#convertSlotted}.
+ *
+ * @see SlottedHeapPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected TuplePage createPage(HeapPageId id, byte[] data) throws IOException {
+        return new SlottedHeapPage(id, data);
+    }
+
+    @Override
+    protected byte[] createEmptyPageData() {
+        return SlottedHeapPage.createEmptyPageData();
+    }
+}
@@ -0,0 +1,316 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is an alternative page format for HeapFiles that stores
+ * tuples with variable-length fields. Unlike {@link HeapPage}, a string only
+ * occupies as many bytes as its UTF-8 encoding needs, so tables with short
+ * string columns fit many more tuples per page.
+ * <p>
+ * The layout of a page is:
+ * <ul>
+ * <li> a 4 byte header: the number of slots in the slot directory and the
+ *      offset of the first byte of tuple data (both unsigned shorts)
+ * <li> the slot directory, one 4 byte entry per slot holding the offset and
+ *      length of the slot's tuple (an offset of 0 marks a free slot)
+ * <li> free space
+ * <li> the tuple data, packed against the end of the page
+ * </ul>
+ * Within a tuple, STRING_TYPE fields are written as an unsigned short byte
+ * length followed by the bytes; all other fields use their fixed-width
+ * encoding. Slot numbers are stable, so RecordIds stay valid while other
+ * tuples come and go. Deleting a tuple frees its bytes immediately: the data
+ * area is always written out compacted, and free slots at the end of the
+ * directory are dropped.
+ * <p>
+ * Because offsets are stored as unsigned shorts, pages may be at most 64KB.
+ *
+ * @see HeapFile
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    /** Bytes used by the page header */
+    static final int HEADER_SIZE = 4;
+    /** Bytes used by each slot directory entry */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /** Tuples by slot number; null entries are free slots */
+    final ArrayList<Tuple> slots;
+    /** Total encoded size of the tuples on this page */
+    int usedBytes;
+    TransactionId dirtier;
+
+    byte[] oldData;
+    private final Byte oldDataLock=new Byte((byte)0);
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     * An all-zero array (see {@link #createEmptyPageData}) is an empty page.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        pid = id;
+        td = Database.getCatalog().getTupleDesc(id.getTableId());
+        slots = new ArrayList<Tuple>();
+        usedBytes = 0;
+
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        int numSlots = dis.readUnsignedShort();
+        dis.readUnsignedShort(); // start of data, implied by the slot entries
+        for (int i = 0; i < numSlots; i++) {
+            int offset = dis.readUnsignedShort();
+            int length = dis.readUnsignedShort();
+            if (offset == 0) {
+                slots.add(null);
+                continue;
+            }
+            DataInputStream tis = new DataInputStream(
+                    new ByteArrayInputStream(data, offset, length));
+            Tuple t = readTuple(td, tis);
+            t.setRecordId(new RecordId(pid, i));
+            slots.add(t);
+            usedBytes += length;
+        }
+        dis.close();
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of bytes t occupies on a slotted page of schema td
+     */
+    static int encodedSize(TupleDesc td, Tuple t) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.STRING_TYPE)
+                size += 2 + stringBytes(t, j).length;
+            else
+                size += type.getLen();
+        }
+        return size;
+    }
+
+    /** @return the bytes written for string field j of t, truncated to fit the field */
+    private static byte[] stringBytes(Tuple t, int j) {
+        return StringField.truncate(t.getStringBytes(j), Type.STRING_LEN);
+    }
+
+    static void writeTuple(TupleDesc td, Tuple t, DataOutputStream dos) throws IOException {
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.STRING_TYPE) {
+                byte[] bs = stringBytes(t, j);
+                dos.writeShort(bs.length);
+                dos.write(bs);
+            } else {
+                type.serialize(t, j, dos);
+            }
+        }
+    }
+
+    static Tuple readTuple(TupleDesc td, DataInputStream dis) throws IOException {
+        Tuple t = new Tuple(td);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                if (type == Type.STRING_TYPE) {
+                    byte[] bs = new byte[dis.readUnsignedShort()];
+                    dis.readFully(bs);
+                    t.setStringBytes(j, bs);
+                } else {
+                    type.parseInto(dis, t, j);
+                }
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("parsing error!", e);
+        }
+        return t;
+    }
+
+    /**
+     * Pack the specified tuples into a page image in the slotted format; the
+     * ith tuple goes into slot i. Used by {@link #getPageData} and by
+     * {@link HeapFileEncoder}.
+     *
+     * @throws IOException if the tuples do not fit on one page
+     */
+    static byte[] createPageData(TupleDesc td, List<Tuple> tuples) throws IOException {
+        return createPageData(td, tuples, BufferPool.getPageSize());
+    }
+
+    static byte[] createPageData(TupleDesc td, List<Tuple> tuples, int pageSize)
+            throws IOException {
+        byte[] data = new byte[pageSize];
+
+        int numSlots = tuples.size();
+        while (numSlots > 0 && tuples.get(numSlots - 1) == null)
+            numSlots--;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        int dataStart = pageSize;
+        int dirEnd = HEADER_SIZE + numSlots * SLOT_SIZE;
+        for (int i = 0; i < numSlots; i++) {
+            Tuple t = tuples.get(i);
+            int offset = 0, length = 0;
+            if (t != null) {
+                baos.reset();
+                writeTuple(td, t, dos);
+                dos.flush();
+                length = baos.size();
+                dataStart -= length;
+                if (dataStart < dirEnd)
+                    throw new IOException("tuples do not fit on a page");
+                System.arraycopy(baos.toByteArray(), 0, data, dataStart, length);
+                offset = dataStart;
+            }
+            putShort(data, HEADER_SIZE + i * SLOT_SIZE, offset);
+            putShort(data, HEADER_SIZE + i * SLOT_SIZE + 2, length);
+        }
+        putShort(data, 0, numSlots);
+        putShort(data, 2, dataStart == pageSize ? 0 : dataStart);
+        return data;
+    }
+
+    private static void putShort(byte[] data, int pos, int v) {
+        data[pos] = (byte) (v >>> 8);
+        data[pos + 1] = (byte) v;
+    }
+
+    /**
+     * @return the number of bytes still available for tuples and their slot
+     *         directory entries
+     */
+    public int getFreeSpace() {
+        return BufferPool.getPageSize() - HEADER_SIZE - slots.size() * SLOT_SIZE - usedBytes;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+        oldData = getPageData().clone();
+        }
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, with the
+     * tuple data compacted against the end of the page.
+     */
+    public byte[] getPageData() {
+        try {
+            return createPageData(td, slots);
+        } catch (IOException e) {
+            // insertTuple only admits tuples that fit
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedHeapPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        int needed = encodedSize(td, t);
+        if (!slots.contains(null))
+            needed += SLOT_SIZE;
+        return needed <= getFreeSpace();
+    }
+
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("Schema mismatch.");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("No room on page for tuple.");
+        }
+        int slotIdx = slots.indexOf(null);
+        if (slotIdx < 0) {
+            slotIdx = slots.size();
+            slots.add(t);
+        } else {
+            slots.set(slotIdx, t);
+        }
+        usedBytes += encodedSize(td, t);
+        t.setRecordId(new RecordId(pid, slotIdx));
+    }
+
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId r = t.getRecordId();
+        int slotIdx = r == null ? -1 : r.getTupleNumber();
+        if (r == null || !pid.equals(r.getPageId()) || slotIdx < 0
+                || slotIdx >= slots.size() || slots.get(slotIdx) == null) {
+            throw new DbException("Tuple page and slot unmatched in SlottedHeapPage.");
+        }
+        usedBytes -= encodedSize(td, slots.get(slotIdx));
+        slots.set(slotIdx, null);
+        // trailing free slots give their directory entries back
+        while (!slots.isEmpty() && slots.get(slots.size() - 1) == null)
+            slots.remove(slots.size() - 1);
+        t.setRecordId(new RecordId(pid, -1));
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    // see TuplePage.java for javadocs
+    public Tuple getTuple(int slot) {
+        if (slot < 0 || slot >= slots.size())
+            throw new NoSuchElementException();
+        return slots.get(slot);
+    }
+
+    /**
+     * @return the number of tuples stored on this page
+     */
+    public int getNumTuples() {
+        int n = 0;
+        for (Tuple t : slots)
+            if (t != null)
+                n++;
+        return n;
+    }
+
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> live = new ArrayList<Tuple>();
+        for (Tuple t : slots)
+            if (t != null)
+                live.add(t);
+        return Collections.unmodifiableList(live).iterator();
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.charset.Charset;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -9,6 +10,9 @@ public class StringField implements Field {
 
 	private static final long serialVersionUID = 1L;
 
+	/** Charset used to store strings in tuples and on pages */
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+
 	private final String value;
 	private final int maxSize;
 
@@ -47,22 +51,18 @@ public class StringField implements Field {
 
 	/**
 	 * Write this string to dos. Always writes maxSize + 4 bytes to the passed
-	 * in dos. First four bytes are string length, next bytes are string, with
+	 * in dos. First four bytes are the length of the UTF-8 encoded string,
+	 * next bytes are the encoded string (cut to at most maxSize bytes), with
 	 * remainder padded with 0 to maxSize.
 	 * 
 	 * @param dos
 	 *            Where the string is written
 	 */
 	public void serialize(DataOutputStream dos) throws IOException {
-		String s = value;
-		int overflow = maxSize - s.length();
-		if (overflow < 0) {
-			String news = s.substring(0, maxSize);
-			s = news;
-		}
-		dos.writeInt(s.length());
-		dos.writeBytes(s);
-		while (overflow-- > 0)
+		byte[] bs = truncate(encode(value), maxSize);
+		dos.writeInt(bs.length);
+		dos.write(bs);
+		for (int i = bs.length; i < maxSize; i++)
 			dos.write((byte) 0);
 	}
 
@@ -105,6 +105,36 @@ public class StringField implements Field {
 		return false;
 	}
 
+	/**
+	 * @return the bytes used to store s in a tuple or on a page (UTF-8)
+	 */
+	public static byte[] encode(String s) {
+		return s.getBytes(CHARSET);
+	}
+
+	/**
+	 * @return the String represented by bytes produced by {@link #encode}
+	 */
+	public static String decode(byte[] bs) {
+		return new String(bs, CHARSET);
+	}
+
+	/**
+	 * Cut encoded string bytes to at most maxBytes, without splitting a
+	 * multi-byte character.
+	 * 
+	 * @return bs itself if it is short enough, otherwise a truncated copy
+	 */
+	public static byte[] truncate(byte[] bs, int maxBytes) {
+		if (bs.length <= maxBytes)
+			return bs;
+		int len = maxBytes;
+		// back up over UTF-8 continuation bytes (10xxxxxx)
+		while (len > 0 && (bs[len] & 0xC0) == 0x80)
+			len--;
+		return java.util.Arrays.copyOf(bs, len);
+	}
+
 	/**
 	 * @return the Type for this Field
 	 */
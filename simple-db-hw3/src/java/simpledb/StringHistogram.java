@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.*;
+
 /**
  * A class to represent a fixed-width histogram over a single String-based
  * field.
@@ -20,6 +22,20 @@ public class StringHistogram {
         hist = new IntHistogram(buckets, minVal(), maxVal());
     }
 
+    private StringHistogram(IntHistogram hist) {
+        this.hist = hist;
+    }
+
+    /** Write this histogram to dos, to be read back by {@link #read} */
+    void write(DataOutputStream dos) throws IOException {
+        hist.write(dos);
+    }
+
+    /** @return a histogram written by {@link #write} */
+    static StringHistogram read(DataInputStream dis) throws IOException {
+        return new StringHistogram(IntHistogram.read(dis));
+    }
+
     /**
      * Convert a string to an integer, with the property that if the return
      * value(s1) < return value(s2), then s1 < s2
@@ -1,10 +1,10 @@
 package simpledb;
 
-import java.io.IOException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
@@ -48,18 +48,292 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * Compute the statistics of every table of the catalog. The scans of all
+     * tables are handed to the worker pool at once, so tables, and ranges of
+     * pages of large tables, are scanned in parallel. Tables are sampled as
+     * set by {@link #setSampleRate}.
+     */
     public static void computeStatistics() {
-        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        computeStatistics(Database.getCatalog().tableIdIterator());
+    }
 
+    /**
+     * Compute the statistics of the tables tableIt returns, as
+     * {@link #computeStatistics()} does for all of them.
+     */
+    private static void computeStatistics(Iterator<Integer> tableIt) {
         System.out.println("Computing table stats.");
+        HashMap<Integer, List<Future<Collector>>> scans = new HashMap<Integer, List<Future<Collector>>>();
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            scans.put(tableid, submitScans(Database.getCatalog().getDatabaseFile(tableid)));
+        }
+        for (Map.Entry<Integer, List<Future<Collector>>> e : scans.entrySet()) {
+            int tableid = e.getKey();
+            DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+            TableStats s = new TableStats(tableid, IOCOSTPERPAGE, collect(f, e.getValue()));
+            String name = Database.getCatalog().getTableName(tableid);
+            setTableStats(name, s);
+            if (s.getCardinalityError() > 0)
+                System.out.println("Sampled " + s.getPagesSampled() + " of " + f.numPages()
+                        + " pages of " + name + ": about " + s.totalTuples() + " tuples (+/- "
+                        + Math.round(s.getCardinalityError() * 100) + "%)");
         }
         System.out.println("Done.");
     }
 
+    /**
+     * Load the statistics of the tables of the catalog from statsFile, and
+     * compute those of the tables it has none for, or whose files have
+     * changed since they were saved. All of them are then saved back to
+     * statsFile, so startup only scans the tables that changed.
+     */
+    public static void computeStatistics(File statsFile) {
+        Set<Integer> loaded = readStatistics(statsFile);
+        ArrayList<Integer> tables = new ArrayList<Integer>();
+        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        while (tableIt.hasNext()) {
+            int tableid = tableIt.next();
+            if (!loaded.contains(tableid))
+                tables.add(tableid);
+        }
+        if (!loaded.isEmpty())
+            System.out.println("Loaded the statistics of " + loaded.size() + " tables from " + statsFile + ".");
+        if (tables.isEmpty())
+            return;
+        computeStatistics(tables.iterator());
+        try {
+            writeStatistics(statsFile);
+        } catch (IOException e) {
+            System.out.println("Couldn't save table stats to " + statsFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Version of the statistics file format. The file holds the version
+     * and the number of tables, then for each table its name, the length
+     * and modification time of its file when the statistics were saved, and
+     * the length and bytes of its statistics.
+     */
+    static final int STATS_FILE_VERSION = 1;
+
+    /**
+     * @return the length and modification time of the file f stores its
+     *   tuples in, which change whenever they do; null if f isn't stored in
+     *   a file of its own
+     */
+    private static long[] fileStamp(DbFile f) {
+        File file;
+        if (f instanceof HeapFile)
+            file = ((HeapFile) f).getFile();
+        else if (f instanceof BTreeFile)
+            file = ((BTreeFile) f).getFile();
+        else if (f instanceof ColumnarFile)
+            // every insert and delete writes the live column
+            file = ((ColumnarFile) f).getColumnFile(f.getTupleDesc().numFields());
+        else
+            return null;
+        return new long[] { file.length(), file.lastModified() };
+    }
+
+    /**
+     * Set the statistics of the tables of the catalog that statsFile holds
+     * statistics of, unless the file of the table has changed since they
+     * were saved.
+     *
+     * @return the ids of the tables whose statistics were set
+     */
+    public static Set<Integer> readStatistics(File statsFile) {
+        HashSet<Integer> loaded = new HashSet<Integer>();
+        if (!statsFile.exists())
+            return loaded;
+        Catalog catalog = Database.getCatalog();
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(statsFile)));
+            try {
+                if (dis.readInt() != STATS_FILE_VERSION)
+                    throw new IOException("unknown statistics file version");
+                int tables = dis.readInt();
+                for (int i = 0; i < tables; i++) {
+                    String name = dis.readUTF();
+                    long length = dis.readLong();
+                    long modified = dis.readLong();
+                    byte[] stats = new byte[dis.readInt()];
+                    dis.readFully(stats);
+                    int tableid;
+                    try {
+                        tableid = catalog.getTableId(name);
+                    } catch (NoSuchElementException e) {
+                        continue;
+                    }
+                    long[] stamp = fileStamp(catalog.getDatabaseFile(tableid));
+                    if (stamp == null || stamp[0] != length || stamp[1] != modified)
+                        continue;
+                    TableStats s = new TableStats(tableid,
+                            new DataInputStream(new ByteArrayInputStream(stats)));
+                    if (s.tDesc != null) {
+                        setTableStats(name, s);
+                        loaded.add(tableid);
+                    }
+                }
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            // the tables whose statistics couldn't be read are scanned instead
+            System.out.println("Ignoring the rest of statistics file " + statsFile + ": " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ignoring the rest of statistics file " + statsFile + ": " + e.getMessage());
+        }
+        return loaded;
+    }
+
+    /**
+     * Save the statistics of the tables of the catalog to statsFile,
+     * replacing its contents. Statistics that tuples have been inserted into
+     * or deleted from since they were computed aren't saved, since the
+     * changes aren't; those tables are analyzed again when the file is read.
+     */
+    public static void writeStatistics(File statsFile) throws IOException {
+        Catalog catalog = Database.getCatalog();
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<long[]> stamps = new ArrayList<long[]>();
+        ArrayList<byte[]> stats = new ArrayList<byte[]>();
+        for (Map.Entry<String, TableStats> e : statsMap.entrySet()) {
+            TableStats s = e.getValue();
+            int tableid;
+            try {
+                tableid = catalog.getTableId(e.getKey());
+            } catch (NoSuchElementException ex) {
+                continue;
+            }
+            long[] stamp = fileStamp(s.hFile);
+            if (s.hFile != catalog.getDatabaseFile(tableid) || stamp == null || s.getModifications() != 0)
+                continue;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(bytes);
+            s.write(dos);
+            dos.flush();
+            names.add(e.getKey());
+            stamps.add(stamp);
+            stats.add(bytes.toByteArray());
+        }
+
+        // write a new file and rename it over the old one, so a crash leaves
+        // one or the other
+        File tmp = new File(statsFile.getPath() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            dos.writeInt(STATS_FILE_VERSION);
+            dos.writeInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                dos.writeUTF(names.get(i));
+                dos.writeLong(stamps.get(i)[0]);
+                dos.writeLong(stamps.get(i)[1]);
+                dos.writeInt(stats.get(i).length);
+                dos.write(stats.get(i));
+            }
+        } finally {
+            dos.close();
+        }
+        if (!tmp.renameTo(statsFile))
+            throw new IOException("can't replace " + statsFile);
+    }
+
+    private static ScheduledExecutorService refresher = null;
+
+    /**
+     * Recompute the statistics of every table on a background thread every
+     * period, starting one period from now, replacing those of each table
+     * as they are ready.
+     */
+    public static synchronized void scheduleRefresh(long period, TimeUnit unit) {
+        stopRefresh();
+        refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "TableStats refresher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    computeStatistics();
+                } catch (RuntimeException e) {
+                    // keep refreshing; the next run may succeed
+                    e.printStackTrace();
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /** Stop the background refresh of statistics, if any */
+    public static synchronized void stopRefresh() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * Fraction of the tuples of a table that may be inserted or deleted
+     * before its statistics are stale, and the table is analyzed again
+     */
+    static double staleFraction = 0.2;
+
+    /** Number of tuples that may be inserted or deleted in any table before its statistics are stale */
+    static int staleModifications = 1000;
+
+    /**
+     * Number of times a stale table is analyzed again before its statistics
+     * are kept, until more tuples are inserted or deleted
+     */
+    static int maxAnalyzeAttempts = 5;
+
+    /** Delay before analyzing a stale table again after a failure; doubled after each */
+    static long analyzeRetryMs = 1000;
+
+    /**
+     * Record that t has been inserted into table tableid, in the statistics
+     * of the table, if it has any. Called by the BufferPool for every insert.
+     */
+    public static void recordInsert(int tableid, Tuple t) {
+        TableStats s = getTableStats(Database.getCatalog().getTableName(tableid));
+        if (s != null)
+            s.inserted(t);
+    }
+
+    /**
+     * Record that t has been deleted from table tableid, in the statistics
+     * of the table, if it has any. Called by the BufferPool for every delete.
+     */
+    public static void recordDelete(int tableid, Tuple t) {
+        TableStats s = getTableStats(Database.getCatalog().getTableName(tableid));
+        if (s != null)
+            s.deleted(t);
+    }
+
+    private static ScheduledExecutorService analyzer = null;
+
+    /**
+     * @return the thread stale tables are analyzed again on; not a worker,
+     *   since analyzing a table waits for the workers
+     */
+    private static synchronized ScheduledExecutorService analyzer() {
+        if (analyzer == null) {
+            analyzer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TableStats analyzer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return analyzer;
+    }
+
     /**
      * Number of bins for the histogram. Feel free to increase this value over
      * 100, though our tests assume that you have at least 100 bins in your
@@ -67,13 +341,346 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Number of tuples of a table the histograms are built from. Larger
+     * tables are histogrammed from a uniform sample of their tuples; the
+     * tuple counts and extremes of those scanned whole are still exact.
+     */
+    static final int SAMPLE_SIZE = 100000;
+
+    /** Number of most common values kept of each numeric field */
+    static final int NUM_MCVS = 20;
+
+    private static volatile boolean equiDepth = true;
+
+    /**
+     * Choose the statistics of numeric fields computed from now on: an
+     * {@link EquiDepthHistogram} with their most common values, or the
+     * equi-width {@link IntHistogram} and {@link DoubleHistogram}.
+     */
+    public static void setEquiDepthHistograms(boolean equiDepth) {
+        TableStats.equiDepth = equiDepth;
+    }
+
+    /** Number of pages of a HeapFile scanned by one task */
+    static int pagesPerTask = 256;
+
+    /**
+     * HeapFiles with more pages than this are sampled, so that about this
+     * many of their pages are read, unless they have a sample rate
+     */
+    static int samplePages = 1024;
+
+    private static final ConcurrentHashMap<Integer, Double> sampleRates = new ConcurrentHashMap<Integer, Double>();
+
+    /**
+     * Set the fraction of the pages of table tableid read to compute its
+     * statistics: its pages are sampled at random, and its tuple count
+     * scaled from theirs. Only HeapFiles are sampled.
+     *
+     * @param rate the fraction of the pages read; 1.0 reads them all
+     */
+    public static void setSampleRate(int tableid, double rate) {
+        if (rate <= 0 || rate > 1)
+            throw new IllegalArgumentException("sample rate must be in (0, 1]: " + rate);
+        sampleRates.put(tableid, rate);
+    }
+
+    /**
+     * @return the fraction of the pages of table tableid read to compute its
+     *   statistics: its sample rate if it has one, otherwise the rate that
+     *   reads about samplePages pages
+     */
+    public static double getSampleRate(int tableid) {
+        Double rate = sampleRates.get(tableid);
+        if (rate != null)
+            return rate;
+        int pages = Database.getCatalog().getDatabaseFile(tableid).numPages();
+        return pages > samplePages ? (double) samplePages / pages : 1.0;
+    }
+
+    private static ExecutorService workers = null;
+
+    /** @return the pool of daemon threads the tables are scanned on */
+    private static synchronized ExecutorService workers() {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "TableStats worker");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return workers;
+    }
+
+    /**
+     * The extremes, count, distinct value sketches and sample of the tuples
+     * of a range of a table, with fields indexed by position. Collectors of different ranges are
+     * merged into the statistics of the table.
+     */
+    static class Collector {
+        final Type[] types;
+        final int[] intMins, intMaxs;
+        final double[] doubleMins, doubleMaxs;
+        final HyperLogLog[] sketches;
+        int count = 0;
+        // the pages read, and the sum of the squares of their tuple counts,
+        // when pages are sampled
+        boolean sampled = false;
+        int pages = 0;
+        double pageSquares = 0;
+        final int capacity;
+        final ArrayList<Tuple> sample = new ArrayList<Tuple>();
+        final Random random;
+
+        /**
+         * @param capacity the size of the sample
+         * @param seed the seed of the sample, so statistics are repeatable
+         */
+        Collector(TupleDesc td, int capacity, long seed) {
+            int n = td.numFields();
+            types = new Type[n];
+            for (int i = 0; i < n; i++)
+                types[i] = td.getFieldType(i);
+            intMins = new int[n];
+            intMaxs = new int[n];
+            doubleMins = new double[n];
+            doubleMaxs = new double[n];
+            sketches = new HyperLogLog[n];
+            for (int i = 0; i < n; i++)
+                sketches[i] = new HyperLogLog();
+            this.capacity = capacity;
+            random = new Random(seed);
+        }
+
+        /** @return true if the sample holds every tuple collected */
+        boolean complete() {
+            return sample.size() == count;
+        }
+
+        void add(Tuple t) {
+            for (int i = 0; i < types.length; i++) {
+                if (types[i] == Type.INT_TYPE) {
+                    int v = t.getInt(i);
+                    if (count == 0 || v < intMins[i])
+                        intMins[i] = v;
+                    if (count == 0 || v > intMaxs[i])
+                        intMaxs[i] = v;
+                } else if (isWide(types[i])) {
+                    double v = numericValue(t, i);
+                    if (count == 0 || v < doubleMins[i])
+                        doubleMins[i] = v;
+                    if (count == 0 || v > doubleMaxs[i])
+                        doubleMaxs[i] = v;
+                }
+                sketches[i].addField(t, i);
+            }
+            count++;
+            // reservoir sampling: each tuple seen so far is in the sample
+            // with the same probability
+            if (sample.size() < capacity) {
+                sample.add(t);
+            } else {
+                int j = random.nextInt(count);
+                if (j < capacity)
+                    sample.set(j, t);
+            }
+        }
+
+        /** Record that a sampled page held the last tuples tuples added */
+        void addPage(int tuples) {
+            sampled = true;
+            pages++;
+            pageSquares += (double) tuples * tuples;
+        }
+
+        /** Merge the extremes and count of other into this; samples are merged by {@link #collect} */
+        void mergeExtremes(Collector other) {
+            sampled |= other.sampled;
+            pages += other.pages;
+            pageSquares += other.pageSquares;
+            for (int i = 0; i < types.length; i++)
+                sketches[i].merge(other.sketches[i]);
+            if (other.count == 0)
+                return;
+            for (int i = 0; i < types.length; i++) {
+                if (count == 0 || other.intMins[i] < intMins[i])
+                    intMins[i] = other.intMins[i];
+                if (count == 0 || other.intMaxs[i] > intMaxs[i])
+                    intMaxs[i] = other.intMaxs[i];
+                if (count == 0 || other.doubleMins[i] < doubleMins[i])
+                    doubleMins[i] = other.doubleMins[i];
+                if (count == 0 || other.doubleMaxs[i] > doubleMaxs[i])
+                    doubleMaxs[i] = other.doubleMaxs[i];
+            }
+            count += other.count;
+        }
+    }
+
+    /**
+     * Scan pages first to end - 1 of f, or all of f if it isn't a HeapFile,
+     * into a sample of capacity tuples
+     */
+    private static Collector scan(DbFile f, int first, int end, int capacity)
+        throws DbException, TransactionAbortedException {
+        TransactionId tid = new Transaction().getId();
+        DbFileIterator iter = f instanceof HeapFile
+            ? ((HeapFile) f).iterator(tid, first, end) : f.iterator(tid);
+        Collector c = new Collector(f.getTupleDesc(), capacity, first);
+        iter.open();
+        while (iter.hasNext())
+            c.add(iter.next());
+        iter.close();
+        return c;
+    }
+
+    /**
+     * Read the pages pgnos of f directly from disk, rather than through the
+     * BufferPool, into a sample of capacity tuples
+     */
+    private static Collector scanSample(HeapFile f, int[] pgnos, int capacity) {
+        Collector c = new Collector(f.getTupleDesc(), capacity, pgnos[0]);
+        for (int pgno : pgnos) {
+            TuplePage p = (TuplePage) f.readPage(new HeapPageId(f.getId(), pgno));
+            int before = c.count;
+            Iterator<Tuple> it = p.iterator();
+            while (it.hasNext())
+                c.add(it.next());
+            c.addPage(c.count - before);
+        }
+        return c;
+    }
+
+    /**
+     * Hand the scans of a random sample of rate of the pages of f to the
+     * worker pool, in sorted ranges of pagesPerTask pages.
+     */
+    private static List<Future<Collector>> submitSampledScans(final HeapFile f, double rate) {
+        int pages = f.numPages();
+        int k = (int) Math.max(1, Math.min(pages, Math.ceil(rate * pages)));
+        // the first k of a partial shuffle are a uniform sample
+        int[] pgnos = new int[pages];
+        for (int i = 0; i < pages; i++)
+            pgnos[i] = i;
+        Random random = new Random();
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(pages - i);
+            int tmp = pgnos[i];
+            pgnos[i] = pgnos[j];
+            pgnos[j] = tmp;
+        }
+        Arrays.sort(pgnos, 0, k);
+
+        ArrayList<Future<Collector>> scans = new ArrayList<Future<Collector>>();
+        for (int first = 0; first < k; first += pagesPerTask) {
+            final int[] range = Arrays.copyOfRange(pgnos, first, Math.min(k, first + pagesPerTask));
+            final int capacity = (int) Math.min(SAMPLE_SIZE, ((long) SAMPLE_SIZE * range.length + k - 1) / k);
+            scans.add(workers().submit(new Callable<Collector>() {
+                public Collector call() {
+                    return scanSample(f, range, capacity);
+                }
+            }));
+        }
+        return scans;
+    }
+
+    /**
+     * Hand the scans of the ranges of pages of f to the worker pool. Each
+     * range samples its share of SAMPLE_SIZE by pages, so the samples of all
+     * ranges together hold about SAMPLE_SIZE tuples.
+     */
+    private static List<Future<Collector>> submitScans(final DbFile f) {
+        if (f instanceof HeapFile && f.numPages() > 0) {
+            double rate = getSampleRate(f.getId());
+            if (rate < 1.0)
+                return submitSampledScans((HeapFile) f, rate);
+        }
+        ArrayList<Future<Collector>> scans = new ArrayList<Future<Collector>>();
+        int pages = f instanceof HeapFile ? f.numPages() : 0;
+        int first = 0;
+        do {
+            final int from = first;
+            final int to = f instanceof HeapFile ? Math.min(pages, first + pagesPerTask) : Integer.MAX_VALUE;
+            final int capacity = pages == 0 ? SAMPLE_SIZE
+                : (int) Math.min(SAMPLE_SIZE, ((long) SAMPLE_SIZE * (to - from) + pages - 1) / pages);
+            scans.add(workers().submit(new Callable<Collector>() {
+                public Collector call() throws DbException, TransactionAbortedException {
+                    return scan(f, from, to, capacity);
+                }
+            }));
+            first = to;
+        } while (first < pages);
+        return scans;
+    }
+
+    /**
+     * Wait for the scans of the ranges of a table and merge them: the
+     * sample of the table draws from the sample of each range in
+     * proportion to the number of tuples in the range.
+     */
+    private static Collector collect(DbFile f, List<Future<Collector>> scans) {
+        ArrayList<Collector> parts = new ArrayList<Collector>();
+        for (Future<Collector> scan : scans) {
+            try {
+                parts.add(scan.get());
+            } catch (InterruptedException e) {
+                throw new RuntimeException("interrupted computing table stats", e);
+            } catch (ExecutionException e) {
+                // keep the statistics of the other ranges
+                e.getCause().printStackTrace();
+            }
+        }
+        if (parts.isEmpty())
+            return new Collector(f.getTupleDesc(), 0, 0);
+        Collector all = parts.get(0);
+        boolean complete = all.complete();
+        for (int i = 1; i < parts.size(); i++) {
+            all.mergeExtremes(parts.get(i));
+            complete &= parts.get(i).complete();
+        }
+        if (parts.size() == 1 || complete && all.count <= SAMPLE_SIZE) {
+            for (int i = 1; i < parts.size(); i++)
+                all.sample.addAll(parts.get(i).sample);
+            return all;
+        }
+        ArrayList<Tuple> sample = new ArrayList<Tuple>();
+        for (Collector part : parts) {
+            int k = (int) Math.round((double) SAMPLE_SIZE * part.count / all.count);
+            k = Math.min(k, part.sample.size());
+            // the first k of a partial shuffle are a uniform sample
+            for (int i = 0; i < k; i++) {
+                Collections.swap(part.sample, i, i + part.random.nextInt(part.sample.size() - i));
+                sample.add(part.sample.get(i));
+            }
+        }
+        all.sample.clear();
+        all.sample.addAll(sample);
+        return all;
+    }
+
     private int ioCostPerPage;
-    private HeapFile hFile;
+    private DbFile hFile;
     private TupleDesc tDesc;
     private int numTuples = 0;
-    private HashMap<String, Integer> mins, maxs;
-    private HashMap<String, IntHistogram> intHistograms;
-    private HashMap<String, StringHistogram> stringHistograms;
+    private int pagesSampled;
+    // tuples read, and the sketch of the distinct values of each field
+    private int tuplesRead;
+    private HyperLogLog[] sketches;
+    private double cardinalityError = 0;
+    // the histogram of each field, by position; null for the other types
+    private IntHistogram[] intHistograms;
+    private StringHistogram[] stringHistograms;
+    private DoubleHistogram[] doubleHistograms;
+    private EquiDepthHistogram[] equiDepthHistograms;
+    // the changes to the table since the statistics were computed: the
+    // tuples inserted and deleted, and the values of each numeric field
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+    private DeltaHistogram[] deltas;
+    private final AtomicBoolean stale = new AtomicBoolean(false);
     
     /**
      * Create a new TableStats object, that keeps track of statistics on each
@@ -86,121 +693,264 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this(tableid, ioCostPerPage, collect(Database.getCatalog().getDatabaseFile(tableid),
+             submitScans(Database.getCatalog().getDatabaseFile(tableid))));
+    }
 
+    /**
+     * Build the histograms of table tableid in one pass over the sample of
+     * its tuples, whose extremes have been collected while scanning it.
+     */
+    private TableStats(int tableid, int ioCostPerPage, Collector c) {
     	this.ioCostPerPage = ioCostPerPage;
-    	hFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+    	hFile = Database.getCatalog().getDatabaseFile(tableid);
     	tDesc = hFile.getTupleDesc();
-    	mins = new HashMap<String, Integer>();
-    	maxs = new HashMap<String, Integer>();
-    	intHistograms = new HashMap<String, IntHistogram>();
-    	stringHistograms = new HashMap<String, StringHistogram>();
-    	numTuples = 0;
-    	Transaction t = new Transaction();
-    	TransactionId tid = t.getId();
-    	DbFileIterator iter = hFile.iterator(tid);
-    	
-    	setExtremes(iter, tDesc);
-    	
-    	for(int i = 0; i < tDesc.numFields(); i++){
-    		
-    		String fieldName = tDesc.getFieldName(i);
-    		if(tDesc.getFieldType(i) == Type.INT_TYPE){
-    			IntHistogram iHist = new IntHistogram(NUM_HIST_BINS, mins.get(fieldName), maxs.get(fieldName));
-    			this.intHistograms.put(fieldName, iHist);
+    	numTuples = c.count;
+    	tuplesRead = c.count;
+    	sketches = c.sketches;
+    	pagesSampled = hFile.numPages();
+    	if(c.sampled){
+    		// scale the mean tuples per sampled page to the table, and estimate
+    		// the standard error of that from the variance between pages
+    		int pages = hFile.numPages();
+    		int k = c.pages;
+    		double mean = (double) c.count / k;
+    		double variance = k > 1 ? Math.max(0, (c.pageSquares - k * mean * mean) / (k - 1)) : 0;
+    		double error = pages * Math.sqrt(variance / k * Math.max(0, 1 - (double) k / pages));
+    		numTuples = (int) Math.round(mean * pages);
+    		pagesSampled = k;
+    		cardinalityError = numTuples > 0 ? 1.96 * error / numTuples : 0;
+    	}
+    	int n = tDesc.numFields();
+    	intHistograms = new IntHistogram[n];
+    	stringHistograms = new StringHistogram[n];
+    	doubleHistograms = new DoubleHistogram[n];
+    	equiDepthHistograms = new EquiDepthHistogram[n];
+    	deltas = new DeltaHistogram[n];
+    	for(int i = 0; i < n; i++){
+    		Type type = tDesc.getFieldType(i);
+    		if(type == Type.INT_TYPE){
+    			deltas[i] = new DeltaHistogram(NUM_HIST_BINS, c.intMins[i], c.intMaxs[i], true);
+    		}
+    		else if(type == Type.BOOLEAN_TYPE){
+    			deltas[i] = new DeltaHistogram(2, 0, 1, true);
+    		}
+    		else if(isWide(type)){
+    			deltas[i] = new DeltaHistogram(NUM_HIST_BINS, c.doubleMins[i], c.doubleMaxs[i],
+    					type != Type.DOUBLE_TYPE);
     		}
-    		if(tDesc.getFieldType(i) == Type.STRING_TYPE){
-    			StringHistogram sHist = new StringHistogram(NUM_HIST_BINS);
-    			this.stringHistograms.put(fieldName, sHist);
+    		if(equiDepth && (type == Type.INT_TYPE || isWide(type))){
+    			double[] values = new double[c.sample.size()];
+    			for(int j = 0; j < values.length; j++){
+    				Tuple t = c.sample.get(j);
+    				values[j] = type == Type.INT_TYPE ? t.getInt(i) : numericValue(t, i);
+    			}
+    			equiDepthHistograms[i] = new EquiDepthHistogram(values, NUM_HIST_BINS, NUM_MCVS,
+    					type != Type.DOUBLE_TYPE);
+    		}
+    		else if(type == Type.INT_TYPE){
+    			intHistograms[i] = new IntHistogram(NUM_HIST_BINS, c.intMins[i], c.intMaxs[i]);
+    		}
+    		else if(type == Type.STRING_TYPE){
+    			stringHistograms[i] = new StringHistogram(NUM_HIST_BINS);
+    		}
+    		else if(type == Type.BOOLEAN_TYPE){
+    			// one bucket for false, one for true
+    			intHistograms[i] = new IntHistogram(2, 0, 1);
+    		}
+    		else if(isWide(type)){
+    			doubleHistograms[i] = new DoubleHistogram(NUM_HIST_BINS, c.doubleMins[i],
+    					c.doubleMaxs[i], type != Type.DOUBLE_TYPE);
+    		}
+    	}
+
+    	for(Tuple t : c.sample){
+    		for(int i = 0; i < n; i++){
+    			if(intHistograms[i] != null){
+    				intHistograms[i].addValue(tDesc.getFieldType(i) == Type.BOOLEAN_TYPE
+    						? (t.getBoolean(i) ? 1 : 0) : t.getInt(i));
+    			}
+    			else if(stringHistograms[i] != null){
+    				stringHistograms[i].addValue(((StringField) t.getField(i)).getValue());
+    			}
+    			else if(doubleHistograms[i] != null){
+    				doubleHistograms[i].addValue(numericValue(t, i));
+    			}
     		}
     	}
-    	
-    	fillHistograms(iter, tDesc);
     }
-    
-    private void setExtremes(DbFileIterator iter, TupleDesc td)
-    {
-    	Tuple currentTuple;
-    	try {
-			iter.open();
-	    	while (iter.hasNext())
-	    	{
-	    		currentTuple = iter.next();
-	    		numTuples++;
-	    		for (int i = 0; i < td.numFields(); i++)
-	    		{	    
-	    			String fieldname = td.getFieldName(i);
-	    			
-	    			if(td.getFieldType(i) == Type.INT_TYPE){
-	    				int fieldvalue = ((IntField) currentTuple.getField(i)).getValue();
-	    				if (!this.maxs.containsKey(fieldname))
-	    					maxs.put(fieldname, fieldvalue);
-	    				else 
-	    				{
-	    					int currentMax = maxs.get(fieldname);
-	    					int newMax = (currentMax > fieldvalue) ? currentMax : fieldvalue;
-	    					maxs.put(fieldname, newMax);
-	    				}
-	    				if (!this.mins.containsKey(fieldname))
-	    					mins.put(fieldname, fieldvalue);
-	    				else 
-	    				{
-	    					int currentMin = mins.get(fieldname);
-	    					int newMin = (currentMin < fieldvalue) ? currentMin : fieldvalue;
-	    					mins.put(fieldname, newMin);
-	    				}
-	    			}
-
-	    		}
-	    	}
-	    	iter.close();
-		} catch (DbException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (TransactionAbortedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-}
-    
-    private void fillHistograms(DbFileIterator iter, TupleDesc td)
-    {
-    	Tuple currentTuple;
-    	try {
-			iter.open();
-			while (iter.hasNext())
-			{
-				currentTuple = iter.next();
-				for (int i = 0; i < td.numFields(); i++)
-				{
-					String fieldname = td.getFieldName(i);
-					if(td.getFieldType(i) == Type.INT_TYPE){
-						int intTupleValue = ((IntField) currentTuple.getField(i)).getValue();
-						this.intHistograms.get(fieldname).addValue(intTupleValue);
-					}
-					if(td.getFieldType(i) == Type.STRING_TYPE){
-						String stringTupleValue = ((StringField) currentTuple.getField(i)).getValue();
-						this.stringHistograms.get(fieldname).addValue(stringTupleValue);
-					}
-					
-				}
-			}
-			iter.close();
-		} catch (DbException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		} catch (TransactionAbortedException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-}
+
+    private static final byte NO_HISTOGRAM = 0, INT_HISTOGRAM = 1, STRING_HISTOGRAM = 2,
+        DOUBLE_HISTOGRAM = 3, EQUI_DEPTH_HISTOGRAM = 4;
+
+    /**
+     * Write these statistics to dos, to be read back by
+     * {@link #TableStats(int, DataInputStream)}. The changes since they were
+     * computed aren't written.
+     */
+    private void write(DataOutputStream dos) throws IOException {
+    	dos.writeInt(ioCostPerPage);
+    	dos.writeInt(numTuples);
+    	dos.writeInt(pagesSampled);
+    	dos.writeInt(tuplesRead);
+    	dos.writeDouble(cardinalityError);
+    	int n = tDesc.numFields();
+    	dos.writeInt(n);
+    	for(int i = 0; i < n; i++){
+    		dos.writeUTF(tDesc.getFieldType(i).name());
+    		if(equiDepthHistograms[i] != null){
+    			dos.writeByte(EQUI_DEPTH_HISTOGRAM);
+    			equiDepthHistograms[i].write(dos);
+    		}
+    		else if(intHistograms[i] != null){
+    			dos.writeByte(INT_HISTOGRAM);
+    			intHistograms[i].write(dos);
+    		}
+    		else if(stringHistograms[i] != null){
+    			dos.writeByte(STRING_HISTOGRAM);
+    			stringHistograms[i].write(dos);
+    		}
+    		else if(doubleHistograms[i] != null){
+    			dos.writeByte(DOUBLE_HISTOGRAM);
+    			doubleHistograms[i].write(dos);
+    		}
+    		else {
+    			dos.writeByte(NO_HISTOGRAM);
+    		}
+    		dos.writeBoolean(deltas[i] != null);
+    		if(deltas[i] != null)
+    			deltas[i].writeRange(dos);
+    		sketches[i].write(dos);
+    	}
+    }
+
+    /**
+     * Read the statistics of table tableid written by {@link #write}. If
+     * they were written for different field types, tDesc is left null.
+     */
+    private TableStats(int tableid, DataInputStream dis) throws IOException {
+    	hFile = Database.getCatalog().getDatabaseFile(tableid);
+    	ioCostPerPage = dis.readInt();
+    	numTuples = dis.readInt();
+    	pagesSampled = dis.readInt();
+    	tuplesRead = dis.readInt();
+    	cardinalityError = dis.readDouble();
+    	TupleDesc td = hFile.getTupleDesc();
+    	int n = dis.readInt();
+    	if(n != td.numFields())
+    		return;
+    	intHistograms = new IntHistogram[n];
+    	stringHistograms = new StringHistogram[n];
+    	doubleHistograms = new DoubleHistogram[n];
+    	equiDepthHistograms = new EquiDepthHistogram[n];
+    	deltas = new DeltaHistogram[n];
+    	sketches = new HyperLogLog[n];
+    	for(int i = 0; i < n; i++){
+    		if(!dis.readUTF().equals(td.getFieldType(i).name()))
+    			return;
+    		byte histogram = dis.readByte();
+    		if(histogram == EQUI_DEPTH_HISTOGRAM)
+    			equiDepthHistograms[i] = EquiDepthHistogram.read(dis);
+    		else if(histogram == INT_HISTOGRAM)
+    			intHistograms[i] = IntHistogram.read(dis);
+    		else if(histogram == STRING_HISTOGRAM)
+    			stringHistograms[i] = StringHistogram.read(dis);
+    		else if(histogram == DOUBLE_HISTOGRAM)
+    			doubleHistograms[i] = DoubleHistogram.read(dis);
+    		if(dis.readBoolean())
+    			deltas[i] = DeltaHistogram.readRange(dis);
+    		sketches[i] = HyperLogLog.read(dis);
+    	}
+    	tDesc = td;
+    }
+
+    /** Record that t has been inserted into the table */
+    void inserted(Tuple t) {
+    	inserts.increment();
+    	for(int i = 0; i < deltas.length; i++){
+    		if(deltas[i] != null)
+    			deltas[i].addValue(doubleValue(t.getField(i)));
+    		sketches[i].addField(t, i);
+    	}
+    	checkStale();
+    }
+
+    /**
+     * Record that t has been deleted from the table. Its values stay in the
+     * sketches of distinct values, which can't forget values.
+     */
+    void deleted(Tuple t) {
+    	deletes.increment();
+    	for(int i = 0; i < deltas.length; i++){
+    		if(deltas[i] != null)
+    			deltas[i].removeValue(doubleValue(t.getField(i)));
+    	}
+    	checkStale();
+    }
+
+    /** @return the number of tuples inserted or deleted since the statistics were computed */
+    public long getModifications() {
+    	return inserts.sum() + deletes.sum();
+    }
+
+    /**
+     * Analyze the table again in the background, once, if so many of its
+     * tuples have been inserted or deleted that these statistics are stale.
+     * The new statistics replace these when they are ready. An analysis that
+     * fails is retried after a growing delay, up to maxAnalyzeAttempts times;
+     * then these statistics are kept until the table changes again.
+     */
+    private void checkStale() {
+    	long modifications = getModifications();
+    	if(modifications < staleModifications || modifications < staleFraction * numTuples)
+    		return;
+    	if(!stale.compareAndSet(false, true))
+    		return;
+    	final int tableid = hFile.getId();
+    	analyzer().submit(new Runnable() {
+    		private int attempts = 0;
+
+    		public void run() {
+    			try {
+    				String name = Database.getCatalog().getTableName(tableid);
+    				System.out.println("Statistics of " + name + " are stale; analyzing it again.");
+    				setTableStats(name, new TableStats(tableid, ioCostPerPage));
+    			} catch (RuntimeException e) {
+    				// the table may have been dropped, or be unreadable for now
+    				attempts++;
+    				if(attempts < maxAnalyzeAttempts){
+    					long delay = analyzeRetryMs << (attempts - 1);
+    					System.out.println("Couldn't analyze table " + tableid + " again: " + e
+    							+ "; retrying in " + delay + " ms.");
+    					analyzer().schedule(this, delay, TimeUnit.MILLISECONDS);
+    				}
+    				else {
+    					System.out.println("Couldn't analyze table " + tableid + " again: " + e
+    							+ "; keeping its statistics.");
+    					stale.set(false);
+    				}
+    			}
+    		}
+    	});
+    }
+
+    /**
+     * @return true for the types histogrammed with a DoubleHistogram
+     */
+    private static boolean isWide(Type t) {
+    	return t == Type.LONG_TYPE || t == Type.DOUBLE_TYPE || t == Type.DATE_TYPE;
+    }
+
+    /**
+     * @return field i of t, which must be a LONG_TYPE, DOUBLE_TYPE or
+     *         DATE_TYPE field, as a double
+     */
+    private static double numericValue(Tuple t, int i) {
+    	if(t.getTupleDesc().getFieldType(i) == Type.DOUBLE_TYPE)
+    		return t.getDouble(i);
+    	return t.getLong(i);
+    }
+
     /**
      * Estimates the cost of sequentially scanning the file, given that the cost
      * to read a page is costPerPageIO. You can assume that there are no seeks
@@ -215,7 +965,7 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return ((HeapFile)this.hFile).numPages() * this.ioCostPerPage;
+        return this.hFile.numPages() * this.ioCostPerPage;
     }
 
     /**
@@ -230,7 +980,7 @@ public class TableStats {
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
     	
-        return (int) (this.numTuples * selectivityFactor);
+        return (int) (totalTuples() * selectivityFactor);
     }
 
     /**
@@ -263,27 +1013,101 @@ public class TableStats {
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
-    	String fieldName = tDesc.getFieldName(field);
+    	double selectivity = histogramSelectivity(field, op, constant);
+    	if(deltas[field] == null || getModifications() == 0)
+    		return selectivity;
+    	// add the net change in the matching tuples to those the histograms
+    	// were built from
+    	int total = totalTuples();
+    	if(total == 0)
+    		return 0.0;
+    	double matches = selectivity * numTuples
+    			+ deltas[field].estimateCount(op, doubleValue(constant));
+    	return Math.max(0.0, Math.min(1.0, matches / total));
+    }
+
+    /** @return the value of a numeric or boolean field as a double */
+    private static double doubleValue(Field f) {
+    	if(f instanceof IntField)
+    		return ((IntField)f).getValue();
+    	if(f instanceof BooleanField)
+    		return ((BooleanField)f).getValue() ? 1 : 0;
+    	if(f instanceof DoubleField)
+    		return ((DoubleField)f).getValue();
+    	if(f instanceof DateField)
+    		return ((DateField)f).getValue();
+    	return ((LongField)f).getValue();
+    }
+
+    /**
+     * @return the selectivity of predicate <tt>field op constant</tt> on the
+     *   tuples the histograms were built from
+     */
+    private double histogramSelectivity(int field, Predicate.Op op, Field constant) {
     	Type fieldType = constant.getType();
+    	if(equiDepthHistograms[field] != null){
+    		return equiDepthHistograms[field].estimateSelectivity(op, doubleValue(constant));
+    	}
     	if(fieldType == Type.INT_TYPE){
     		int v = ((IntField)constant).getValue();
-    		IntHistogram iHisto = this.intHistograms.get(fieldName);
+    		IntHistogram iHisto = this.intHistograms[field];
     		return iHisto.estimateSelectivity(op, v);
     	}
+    	else if(fieldType == Type.BOOLEAN_TYPE){
+    		int v = ((BooleanField)constant).getValue() ? 1 : 0;
+    		return this.intHistograms[field].estimateSelectivity(op, v);
+    	}
+    	else if(isWide(fieldType)){
+    		return this.doubleHistograms[field].estimateSelectivity(op, doubleValue(constant));
+    	}
     	else {
     		String s = ((StringField)constant).getValue();
-    		StringHistogram sHisto = this.stringHistograms.get(fieldName);
+    		StringHistogram sHisto = this.stringHistograms[field];
     		return sHisto.estimateSelectivity(op, s);
     	}
         
     }
 
     /**
-     * return the total number of tuples in this table
+     * return the total number of tuples in this table, counting those
+     * inserted and deleted since the statistics were computed
      * */
     public int totalTuples() {
         // some code goes here
-        return this.numTuples;
+        return (int) Math.max(0, this.numTuples + inserts.sum() - deletes.sum());
+    }
+
+    /**
+     * @return the estimated number of distinct values of the field, from
+     *   its HyperLogLog sketch. A sample of the pages says little about the
+     *   values it missed: if nearly all the values read were distinct, the
+     *   field is taken to be a key and the count scaled to the table,
+     *   otherwise the values read are taken to be all there are. Values
+     *   inserted since are counted; those deleted still are.
+     */
+    public double distinctValues(int field) {
+        double d = Math.min(sketches[field].estimate(), tuplesRead + inserts.sum());
+        if (tuplesRead < numTuples && d >= 0.9 * tuplesRead)
+            d = d * numTuples / tuplesRead;
+        return Math.max(1.0, Math.min(d, totalTuples()));
+    }
+
+    /** @return the sketch of the distinct values of the field */
+    public HyperLogLog getSketch(int field) {
+        return sketches[field];
+    }
+
+    /** @return the number of pages read to compute these statistics */
+    public int getPagesSampled() {
+        return pagesSampled;
+    }
+
+    /**
+     * @return the half-width of the 95% confidence interval of totalTuples(),
+     *   relative to it; 0 if the tuples were counted rather than sampled
+     */
+    public double getCardinalityError() {
+        return cardinalityError;
     }
 
 }
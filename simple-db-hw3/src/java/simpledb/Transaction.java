@@ -9,15 +9,29 @@ import java.io.*;
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean optimistic;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param optimistic true if the transaction should buffer its writes
+     *   and validate its reads at commit, rather than lock
+     * @see OptimisticValidator
+     */
+    public Transaction(boolean optimistic) {
         tid = new TransactionId();
+        this.optimistic = optimistic;
     }
 
-    /** Start the transaction running */
+    /** Start the transaction running, and take its snapshot */
     public void start() {
         started = true;
+        Database.getVersionStore().begin(tid);
+        if (optimistic)
+            Database.getOptimisticValidator().begin(tid);
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -29,8 +43,25 @@ public class Transaction {
         return tid;
     }
 
-    /** Finish the transaction */
-    public void commit() throws IOException {
+    public boolean isOptimistic() {
+        return optimistic;
+    }
+
+    /**
+     * Finish the transaction
+     *
+     * @throws TransactionAbortedException if the transaction is optimistic
+     *   and failed validation, in which case it has been aborted
+     */
+    public void commit() throws IOException, TransactionAbortedException {
+        if (started && optimistic) {
+            try {
+                Database.getOptimisticValidator().commit(tid);
+            } catch (TransactionAbortedException e) {
+                abort();
+                throw e;
+            }
+        }
         transactionComplete(false);
     }
 
@@ -47,8 +78,9 @@ public class Transaction {
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
+                //log the changes to the dirty pages of this transaction;
+                //the pages themselves are written later (NO-FORCE)
+                Database.getBufferPool().logPages(tid);
                 Database.getLogFile().logCommit(tid);
             }
 
@@ -1,34 +1,81 @@
 package simpledb;
 
 import java.io.Serializable;
-import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Internally the values are kept in a compact form, indexed by field
+ * position: INT_TYPE and BOOLEAN_TYPE fields live in an int[], LONG_TYPE,
+ * DOUBLE_TYPE and DATE_TYPE fields in a long[], and STRING_TYPE fields as the
+ * raw bytes of the string. Field objects are only created (and cached) when
+ * somebody asks for them through {@link #getField}; operators that just move
+ * values around should use the typed accessors, {@link #copyField} or
+ * {@link #merge} instead. A Field whose type differs from the schema's type
+ * for that position is kept as an object.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    public TupleDesc tupleDesc;
+    public RecordId recId;
+
+    /** Values of the INT_TYPE (and BOOLEAN_TYPE, as 0/1) fields, indexed by
+        field number. */
+    private final int[] ints;
+    /** Values of the LONG_TYPE, DATE_TYPE and DOUBLE_TYPE (as raw bits)
+        fields, indexed by field number (null if the schema has none). */
+    private final long[] longs;
+    /** Bytes of the STRING_TYPE fields, indexed by field number (null if the
+        schema has no string fields). */
+    private final byte[][] strings;
+    /** One bit per field, set once the field has been assigned. */
+    private final long[] assigned;
+    /** One bit per field whose value is not of the schema's type and so only
+        lives in boxed. */
+    private final long[] foreign;
+    /** Boxed fields handed out by getField, allocated on first use. */
+    private Field[] boxed;
+
     /**
      * Create a new tuple with the specified schema (type).
-     * 
+     *
      * @param td
      *            the schema of this tuple. It must be a valid TupleDesc
      *            instance with at least one field.
      */
-
-    public Field[] fields;
-    public TupleDesc tupleDesc;
-    public RecordId recId;
-    
     public Tuple(TupleDesc td) {
     	tupleDesc = td;
-    	fields = new Field[td.numFields()];
+    	int n = td.numFields();
+    	ints = new int[n];
+    	boolean hasStrings = false;
+    	boolean hasLongs = false;
+    	for(int i = 0; i < n; ++i) {
+    		Type t = td.getFieldType(i);
+    		if(t == Type.STRING_TYPE) {
+    			hasStrings = true;
+    		}
+    		else if(isWide(t)) {
+    			hasLongs = true;
+    		}
+    	}
+    	longs = hasLongs ? new long[n] : null;
+    	strings = hasStrings ? new byte[n][] : null;
+    	assigned = new long[(n + 63) >>> 6];
+    	foreign = new long[(n + 63) >>> 6];
+    }
+
+    /**
+     * @return true if values of type t are kept in the long[]
+     */
+    private static boolean isWide(Type t) {
+    	return t == Type.LONG_TYPE || t == Type.DOUBLE_TYPE || t == Type.DATE_TYPE;
     }
 
     /**
@@ -48,7 +95,7 @@ public class Tuple implements Serializable {
 
     /**
      * Set the RecordId information for this tuple.
-     * 
+     *
      * @param rid
      *            the new RecordId for this tuple.
      */
@@ -56,60 +103,384 @@ public class Tuple implements Serializable {
     	recId = rid;
     }
 
+    /**
+     * @return the number of fields in this tuple
+     */
+    public int numFields() {
+    	return ints.length;
+    }
+
     /**
      * Change the value of the ith field of this tuple.
-     * 
+     *
      * @param i
      *            index of the field to change. It must be a valid index.
      * @param f
      *            new value for the field.
      */
     public void setField(int i, Field f) {
-       fields[i] = f;
+    	if(f == null) {
+    		clear(i);
+    		return;
+    	}
+    	Type t = f.getType();
+    	if(t != tupleDesc.getFieldType(i)) {
+    		// no compact slot for this value; keep the object itself
+    		box()[i] = f;
+    		mark(i);
+    		setForeign(i, true);
+    		return;
+    	}
+    	switch(t) {
+    	case INT_TYPE:
+    		ints[i] = ((IntField) f).getValue();
+    		break;
+    	case BOOLEAN_TYPE:
+    		ints[i] = ((BooleanField) f).getValue() ? 1 : 0;
+    		break;
+    	case LONG_TYPE:
+    		longs[i] = ((LongField) f).getValue();
+    		break;
+    	case DATE_TYPE:
+    		longs[i] = ((DateField) f).getValue();
+    		break;
+    	case DOUBLE_TYPE:
+    		longs[i] = Double.doubleToRawLongBits(((DoubleField) f).getValue());
+    		break;
+    	case STRING_TYPE:
+    		strings[i] = StringField.encode(((StringField) f).getValue());
+    		break;
+    	}
+    	mark(i);
+    	setForeign(i, false);
+    	if(boxed != null) {
+    		boxed[i] = f;
+    	}
     }
 
     /**
      * @return the value of the ith field, or null if it has not been set.
-     * 
+     *
      * @param i
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-    	return fields[i];
+    	if(!isSet(i)) {
+    		return null;
+    	}
+    	Field[] b = box();
+    	if(b[i] == null) {
+    		switch(tupleDesc.getFieldType(i)) {
+    		case STRING_TYPE:
+    			b[i] = new StringField(StringField.decode(strings[i]), Type.STRING_LEN);
+    			break;
+    		case BOOLEAN_TYPE:
+    			b[i] = new BooleanField(ints[i] != 0);
+    			break;
+    		case LONG_TYPE:
+    			b[i] = new LongField(longs[i]);
+    			break;
+    		case DATE_TYPE:
+    			b[i] = new DateField(longs[i]);
+    			break;
+    		case DOUBLE_TYPE:
+    			b[i] = new DoubleField(Double.longBitsToDouble(longs[i]));
+    			break;
+    		default:
+    			b[i] = new IntField(ints[i]);
+    		}
+    	}
+    	return b[i];
+    }
+
+    /**
+     * @return true if the ith field has been assigned a value
+     */
+    public boolean isSet(int i) {
+    	return (assigned[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field
+     */
+    public int getInt(int i) {
+    	if(isForeign(i)) {
+    		return ((IntField) boxed[i]).getValue();
+    	}
+    	return ints[i];
+    }
+
+    /**
+     * Set the ith field, which must be an INT_TYPE field, without creating a
+     * Field object.
+     */
+    public void setInt(int i, int v) {
+    	ints[i] = v;
+    	setCompact(i);
+    }
+
+    /**
+     * @return the value of the ith field, which must be a LONG_TYPE field
+     *         or a DATE_TYPE field (milliseconds since the epoch)
+     */
+    public long getLong(int i) {
+    	if(isForeign(i)) {
+    		Field f = boxed[i];
+    		return f instanceof DateField ? ((DateField) f).getValue() : ((LongField) f).getValue();
+    	}
+    	return longs[i];
+    }
+
+    /**
+     * Set the ith field, which must be a LONG_TYPE or DATE_TYPE field,
+     * without creating a Field object.
+     */
+    public void setLong(int i, long v) {
+    	longs[i] = v;
+    	setCompact(i);
+    }
+
+    /**
+     * @return the value of the ith field, which must be a DOUBLE_TYPE field
+     */
+    public double getDouble(int i) {
+    	if(isForeign(i)) {
+    		return ((DoubleField) boxed[i]).getValue();
+    	}
+    	return Double.longBitsToDouble(longs[i]);
+    }
+
+    /**
+     * Set the ith field, which must be a DOUBLE_TYPE field, without creating
+     * a Field object.
+     */
+    public void setDouble(int i, double v) {
+    	longs[i] = Double.doubleToRawLongBits(v);
+    	setCompact(i);
+    }
+
+    /**
+     * @return the value of the ith field, which must be a BOOLEAN_TYPE field
+     */
+    public boolean getBoolean(int i) {
+    	if(isForeign(i)) {
+    		return ((BooleanField) boxed[i]).getValue();
+    	}
+    	return ints[i] != 0;
+    }
+
+    /**
+     * Set the ith field, which must be a BOOLEAN_TYPE field, without creating
+     * a Field object.
+     */
+    public void setBoolean(int i, boolean v) {
+    	ints[i] = v ? 1 : 0;
+    	setCompact(i);
+    }
+
+    /**
+     * @return the encoded bytes of the ith field, which must be a
+     *         STRING_TYPE field. The returned array is shared with this tuple
+     *         and must not be modified.
+     */
+    public byte[] getStringBytes(int i) {
+    	if(isForeign(i) && boxed[i] instanceof StringField) {
+    		return StringField.encode(((StringField) boxed[i]).getValue());
+    	}
+    	if(strings == null || strings[i] == null) {
+    		throw new IllegalStateException("field " + i + " is not a string");
+    	}
+    	return strings[i];
+    }
+
+    /**
+     * Set the ith field, which must be a STRING_TYPE field, to the specified
+     * encoded bytes. The array is kept by reference.
+     */
+    public void setStringBytes(int i, byte[] bytes) {
+    	strings[i] = bytes;
+    	setCompact(i);
+    }
+
+    /**
+     * Copy field srcIdx of src into field i of this tuple without boxing it.
+     */
+    public void copyField(int i, Tuple src, int srcIdx) {
+    	if(!src.isSet(srcIdx)) {
+    		clear(i);
+    		return;
+    	}
+    	Type t = src.tupleDesc.getFieldType(srcIdx);
+    	if(src.isForeign(srcIdx) || t != tupleDesc.getFieldType(i)) {
+    		setField(i, src.getField(srcIdx));
+    		return;
+    	}
+    	if(t == Type.STRING_TYPE) {
+    		strings[i] = src.strings[srcIdx];
+    	}
+    	else if(isWide(t)) {
+    		longs[i] = src.longs[srcIdx];
+    	}
+    	else {
+    		ints[i] = src.ints[srcIdx];
+    	}
+    	setCompact(i);
+    	if(boxed != null && src.boxed != null) {
+    		boxed[i] = src.boxed[srcIdx];
+    	}
+    }
+
+    /**
+     * Concatenate two tuples, as done by the join operators. The values are
+     * copied array-wise rather than field by field.
+     *
+     * @param td
+     *            the schema of the result; the merge of the two tuple's schemas
+     * @param t1
+     *            the tuple providing the first t1.numFields() fields
+     * @param t2
+     *            the tuple providing the remaining fields
+     * @return the new tuple
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+    	Tuple out = new Tuple(td);
+    	int n1 = t1.ints.length;
+    	int n2 = t2.ints.length;
+    	System.arraycopy(t1.ints, 0, out.ints, 0, n1);
+    	System.arraycopy(t2.ints, 0, out.ints, n1, n2);
+    	if(out.longs != null) {
+    		if(t1.longs != null) {
+    			System.arraycopy(t1.longs, 0, out.longs, 0, n1);
+    		}
+    		if(t2.longs != null) {
+    			System.arraycopy(t2.longs, 0, out.longs, n1, n2);
+    		}
+    	}
+    	if(out.strings != null) {
+    		if(t1.strings != null) {
+    			System.arraycopy(t1.strings, 0, out.strings, 0, n1);
+    		}
+    		if(t2.strings != null) {
+    			System.arraycopy(t2.strings, 0, out.strings, n1, n2);
+    		}
+    	}
+    	if(t1.boxed != null || t2.boxed != null) {
+    		Field[] b = out.box();
+    		if(t1.boxed != null) {
+    			System.arraycopy(t1.boxed, 0, b, 0, n1);
+    		}
+    		if(t2.boxed != null) {
+    			System.arraycopy(t2.boxed, 0, b, n1, n2);
+    		}
+    	}
+    	for(int i = 0; i < n1; ++i) {
+    		if(t1.isSet(i)) {
+    			out.mark(i);
+    			out.setForeign(i, t1.isForeign(i));
+    		}
+    	}
+    	for(int i = 0; i < n2; ++i) {
+    		if(t2.isSet(i)) {
+    			out.mark(n1 + i);
+    			out.setForeign(n1 + i, t2.isForeign(i));
+    		}
+    	}
+    	return out;
     }
 
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
-     * 
+     *
      * column1\tcolumn2\tcolumn3\t...\tcolumnN\n
-     * 
+     *
      * where \t is any whitespace, except newline, and \n is a newline
      */
     public String toString() {
-    	String out = new String();
+    	StringBuilder out = new StringBuilder();
     	int i = 0;
-    	for(; i < fields.length - 1; ++i) {
-    			out = out + fields[i] + '\t';
+    	for(; i < ints.length - 1; ++i) {
+    		out.append(getField(i)).append('\t');
     	}
-    	out = out + fields[i] + '\n';
-    	return out;
+    	out.append(getField(i)).append('\n');
+    	return out.toString();
     }
-    
+
     /**
      * @return
      *        An iterator which iterates over all the fields of this tuple
      * */
     public Iterator<Field> fields()
     {
-    	return Arrays.asList(fields).iterator();
+    	return new Iterator<Field>() {
+    		private int cur = 0;
+
+    		public boolean hasNext() {
+    			return cur < ints.length;
+    		}
+
+    		public Field next() {
+    			if(!hasNext()) {
+    				throw new NoSuchElementException();
+    			}
+    			return getField(cur++);
+    		}
+
+    		public void remove() {
+    			throw new UnsupportedOperationException();
+    		}
+    	};
     }
-    
+
     /**
-     * reset the TupleDesc of this tuple
+     * reset the TupleDesc of this tuple (the field types must not change)
      * */
     public void resetTupleDesc(TupleDesc td)
     {
         tupleDesc = td;
     }
+
+    private Field[] box() {
+    	if(boxed == null) {
+    		boxed = new Field[ints.length];
+    	}
+    	return boxed;
+    }
+
+    private void mark(int i) {
+    	assigned[i >>> 6] |= 1L << i;
+    }
+
+    private boolean isForeign(int i) {
+    	return (foreign[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private void setForeign(int i, boolean value) {
+    	if(value) {
+    		foreign[i >>> 6] |= 1L << i;
+    	}
+    	else {
+    		foreign[i >>> 6] &= ~(1L << i);
+    	}
+    }
+
+    /** Record that field i now holds the value stored in its compact slot. */
+    private void setCompact(int i) {
+    	mark(i);
+    	setForeign(i, false);
+    	if(boxed != null) {
+    		boxed[i] = null;
+    	}
+    }
+
+    private void clear(int i) {
+    	assigned[i >>> 6] &= ~(1L << i);
+    	setForeign(i, false);
+    	if(strings != null) {
+    		strings[i] = null;
+    	}
+    	if(boxed != null) {
+    		boxed[i] = null;
+    	}
+    }
 }
@@ -213,9 +213,6 @@ public class TupleDesc implements Serializable {
     			return false;
     		}
     		for(int i = 0; i < attributes.size(); ++i) {
-    			if(!td.attributes.get(i).fieldName.equals(attributes.get(i).fieldName)) {
-    				return false;
-    				}
     			   if(!td.attributes.get(i).fieldType.equals(attributes.get(i).fieldType)) {
     				return false;
     			   }
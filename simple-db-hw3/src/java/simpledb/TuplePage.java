@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is implemented by the page formats that a {@link HeapFile} can
+ * be made of. It adds the tuple-level operations HeapFile needs on top of
+ * {@link Page}.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * @return true if t can be added to this page with
+     *   {@link #insertTuple}
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to
+     * reflect that it is now stored on this page.
+     * @throws DbException if the page is full or the tupledesc is mismatched.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated
+     * to reflect that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return the tuple in slot slot of this page, which is the tuple number
+     *   of its RecordId, or null if the slot is empty
+     * @throws java.util.NoSuchElementException if the page has no such slot
+     */
+    public Tuple getTuple(int slot);
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    public Iterator<Tuple> iterator();
+}
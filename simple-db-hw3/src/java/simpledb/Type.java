@@ -24,6 +24,29 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException {
+            try {
+                t.setInt(i, dis.readInt());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void serialize(Tuple t, int i, DataOutputStream dos) throws IOException {
+            dos.writeInt(t.getInt(i));
+        }
+
+        @Override
+        public Field parseText(String s) throws ParseException {
+            try {
+                return new IntField(Integer.parseInt(s.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParseException("couldn't parse " + s, 0);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -35,13 +58,186 @@ public enum Type implements Serializable {
             try {
                 int strLen = dis.readInt();
                 byte bs[] = new byte[strLen];
-                dis.read(bs);
+                dis.readFully(bs);
+                dis.skipBytes(STRING_LEN-strLen);
+                return new StringField(StringField.decode(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
                 dis.skipBytes(STRING_LEN-strLen);
-                return new StringField(new String(bs), STRING_LEN);
+                t.setStringBytes(i, bs);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public void serialize(Tuple t, int i, DataOutputStream dos) throws IOException {
+            byte bs[] = StringField.truncate(t.getStringBytes(i), STRING_LEN);
+            int strLen = bs.length;
+            dos.writeInt(strLen);
+            dos.write(bs, 0, strLen);
+            for (int j = strLen; j < STRING_LEN; j++)
+                dos.write(0);
+        }
+
+        @Override
+        public Field parseText(String s) throws ParseException {
+            return new StringField(s, STRING_LEN);
+        }
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException {
+            try {
+                t.setLong(i, dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void serialize(Tuple t, int i, DataOutputStream dos) throws IOException {
+            dos.writeLong(t.getLong(i));
+        }
+
+        @Override
+        public Field parseText(String s) throws ParseException {
+            try {
+                return new LongField(Long.parseLong(s.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParseException("couldn't parse " + s, 0);
+            }
+        }
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException {
+            try {
+                t.setDouble(i, dis.readDouble());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void serialize(Tuple t, int i, DataOutputStream dos) throws IOException {
+            dos.writeDouble(t.getDouble(i));
+        }
+
+        @Override
+        public Field parseText(String s) throws ParseException {
+            try {
+                return new DoubleField(Double.parseDouble(s.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParseException("couldn't parse " + s, 0);
+            }
+        }
+    }, DATE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DateField(dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException {
+            try {
+                t.setLong(i, dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void serialize(Tuple t, int i, DataOutputStream dos) throws IOException {
+            dos.writeLong(t.getLong(i));
+        }
+
+        @Override
+        public Field parseText(String s) throws ParseException {
+            return new DateField(DateField.parse(s));
+        }
+    }, BOOLEAN_TYPE() {
+        @Override
+        public int getLen() {
+            return 1;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new BooleanField(dis.readBoolean());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException {
+            try {
+                t.setBoolean(i, dis.readBoolean());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public void serialize(Tuple t, int i, DataOutputStream dos) throws IOException {
+            dos.writeBoolean(t.getBoolean(i));
+        }
+
+        @Override
+        public Field parseText(String s) throws ParseException {
+            s = s.trim().toLowerCase();
+            if (s.equals("true") || s.equals("t") || s.equals("1"))
+                return new BooleanField(true);
+            if (s.equals("false") || s.equals("f") || s.equals("0"))
+                return new BooleanField(false);
+            throw new ParseException("couldn't parse " + s, 0);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +256,60 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * Read a value of this type from the specified DataInputStream directly
+   * into field i of t, without creating a Field object.
+   * @param dis The input stream to read from
+   * @param t The tuple to store the value in
+   * @param i The field of t to set
+   * @throws ParseException if the data read from the input stream is not
+   *   of the appropriate type.
+   */
+    public abstract void parseInto(DataInputStream dis, Tuple t, int i) throws ParseException;
+
+  /**
+   * Write field i of t, which must be of this type, in the same format
+   * {@link Field#serialize} would use.
+   * @param t The tuple holding the value
+   * @param i The field of t to write
+   * @param dos The output stream to write to
+   */
+    public abstract void serialize(Tuple t, int i, DataOutputStream dos) throws IOException;
+
+  /**
+   * @return a Field of this type holding the value written as text in s, as
+   *   found in catalog data files, query constants and INSERT statements.
+   * @throws ParseException if s is not a valid value of this type.
+   */
+    public abstract Field parseText(String s) throws ParseException;
+
+  /**
+   * @return true if this type holds numbers that can be summed and averaged
+   */
+    public boolean isNumeric() {
+        return this == INT_TYPE || this == LONG_TYPE || this == DOUBLE_TYPE;
+    }
+
+  /**
+   * @return the type with the specified name as used in catalog files
+   *   ("int", "string", "long", "double", "date" or "boolean"), or null if
+   *   there is no such type.
+   */
+    public static Type forName(String name) {
+        name = name.trim().toLowerCase();
+        if (name.equals("int"))
+            return INT_TYPE;
+        if (name.equals("string"))
+            return STRING_TYPE;
+        if (name.equals("long"))
+            return LONG_TYPE;
+        if (name.equals("double"))
+            return DOUBLE_TYPE;
+        if (name.equals("date"))
+            return DATE_TYPE;
+        if (name.equals("boolean") || name.equals("bool"))
+            return BOOLEAN_TYPE;
+        return null;
+    }
+
 }
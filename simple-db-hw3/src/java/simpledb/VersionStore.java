@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * VersionStore gives started {@link Transaction}s snapshot isolation over
+ * HeapFiles. A transaction's snapshot is taken when it starts: its scans see
+ * the tuples of the transactions that committed before then, and its own,
+ * but not those of transactions that commit later or haven't committed.
+ * <p>
+ * Pages only hold the latest version of each tuple, so the store keeps what
+ * older snapshots need to undo the latest changes: which running or recently
+ * committed transaction inserted each tuple, and a copy of each tuple deleted
+ * by one, which {@link HeapFileIterator} adds back for the snapshots that
+ * can't see the delete. Once every running snapshot sees a transaction's
+ * changes, the versions it made obsolete are dropped.
+ * <p>
+ * Deleting a tuple that a concurrent transaction has already deleted, or
+ * that a concurrent insert has replaced in its slot, aborts the transaction
+ * (first updater wins). Readers take no locks; writers still rely on
+ * writing to different pages than other running transactions, since aborts
+ * restore whole pages (see {@link LogFile}).
+ * <p>
+ * TransactionIds that were never started are not versioned: they see the
+ * pages as they are, and what they change is seen by every snapshot.
+ *
+ * @Threadsafe
+ */
+public class VersionStore {
+
+    /** A deleted tuple, kept for the snapshots that don't see the delete */
+    static class Version {
+        final Tuple tuple;
+        /** the transaction that inserted the tuple, or null if every snapshot sees it */
+        TransactionId creator;
+        final TransactionId deleter;
+
+        Version(Tuple tuple, TransactionId creator, TransactionId deleter) {
+            this.tuple = tuple;
+            this.creator = creator;
+            this.deleter = deleter;
+        }
+    }
+
+    /** The versions of the tuples of one page */
+    static class PageVersions {
+        /** the transactions that inserted tuples on the page, by RecordId */
+        final HashMap<RecordId, TransactionId> created = new HashMap<RecordId, TransactionId>();
+        final ArrayList<Version> deleted = new ArrayList<Version>();
+
+        boolean isEmpty() {
+            return created.isEmpty() && deleted.isEmpty();
+        }
+    }
+
+    /** Commit timestamp of the last commit */
+    private long clock = 0;
+    /** Timestamp of the snapshot of each running transaction */
+    private final HashMap<TransactionId, Long> snapshots = new HashMap<TransactionId, Long>();
+    /** Commit timestamp of the transactions some running snapshot doesn't see */
+    private final HashMap<TransactionId, Long> commits = new HashMap<TransactionId, Long>();
+    private final HashMap<PageId, PageVersions> pages = new HashMap<PageId, PageVersions>();
+    /** The pages each running transaction wrote */
+    private final HashMap<TransactionId, HashSet<PageId>> written = new HashMap<TransactionId, HashSet<PageId>>();
+    /** Oldest snapshot at the last garbage collection */
+    private long horizon = 0;
+
+    /** Take the snapshot of tid, which sees every transaction committed so far */
+    public synchronized void begin(TransactionId tid) {
+        snapshots.put(tid, clock);
+    }
+
+    /**
+     * @return true if the snapshot of reader, which started at start, sees
+     *   the changes of writer
+     */
+    private boolean sees(TransactionId reader, long start, TransactionId writer) {
+        if (writer == null || writer.equals(reader))
+            return true;
+        Long committed = commits.get(writer);
+        if (committed != null)
+            return committed <= start;
+        // a running transaction, or one every snapshot sees
+        return !snapshots.containsKey(writer);
+    }
+
+    private PageVersions versions(PageId pid) {
+        PageVersions v = pages.get(pid);
+        if (v == null) {
+            v = new PageVersions();
+            pages.put(pid, v);
+        }
+        return v;
+    }
+
+    private void wrote(TransactionId tid, PageId pid) {
+        HashSet<PageId> pids = written.get(tid);
+        if (pids == null) {
+            pids = new HashSet<PageId>();
+            written.put(tid, pids);
+        }
+        pids.add(pid);
+    }
+
+    /**
+     * Record that tid inserted t, which now has its RecordId.
+     */
+    public synchronized void inserted(TransactionId tid, Tuple t) {
+        if (!snapshots.containsKey(tid))
+            return;
+        RecordId rid = t.getRecordId();
+        versions(rid.getPageId()).created.put(rid, tid);
+        wrote(tid, rid.getPageId());
+    }
+
+    /**
+     * Check that tid may delete t, which must still be on its page.
+     *
+     * @throws TransactionAbortedException if a transaction tid doesn't see
+     *   has deleted t, or inserted the tuple now in t's slot
+     */
+    public synchronized void checkDelete(TransactionId tid, Tuple t) throws TransactionAbortedException {
+        Long start = snapshots.get(tid);
+        if (start == null)
+            return;
+        RecordId rid = t.getRecordId();
+        PageVersions v = pages.get(rid.getPageId());
+        if (v == null)
+            return;
+        if (!sees(tid, start, v.created.get(rid)))
+            throw new TransactionAbortedException();
+        for (Version old : v.deleted) {
+            if (old.tuple.getRecordId().equals(rid) && !sees(tid, start, old.deleter))
+                throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Record that tid deleted t, which was at rid.
+     */
+    public synchronized void deleted(TransactionId tid, Tuple t, RecordId rid) {
+        if (!snapshots.containsKey(tid))
+            return;
+        PageVersions v = versions(rid.getPageId());
+        TransactionId creator = v.created.remove(rid);
+        wrote(tid, rid.getPageId());
+        // no other snapshot saw the tuple if tid inserted it
+        if (tid.equals(creator))
+            return;
+        Tuple copy = new Tuple(t.getTupleDesc());
+        for (int i = 0; i < copy.numFields(); i++)
+            copy.copyField(i, t, i);
+        copy.setRecordId(rid);
+        v.deleted.add(new Version(copy, creator, tid));
+    }
+
+    /**
+     * @return the tuples of page pid the snapshot of tid sees, given the
+     *   tuples on the page
+     */
+    public synchronized Iterator<Tuple> visibleTuples(TransactionId tid, PageId pid, Iterator<Tuple> onPage) {
+        Long start = snapshots.get(tid);
+        PageVersions v = pages.get(pid);
+        if (start == null || v == null)
+            return onPage;
+        ArrayList<Tuple> visible = new ArrayList<Tuple>();
+        while (onPage.hasNext()) {
+            Tuple t = onPage.next();
+            if (sees(tid, start, v.created.get(t.getRecordId())))
+                visible.add(t);
+        }
+        for (Version old : v.deleted) {
+            if (sees(tid, start, old.creator) && !sees(tid, start, old.deleter))
+                visible.add(old.tuple);
+        }
+        return visible.iterator();
+    }
+
+    /**
+     * Finish tid. A commit makes its changes visible to the snapshots taken
+     * from now on; an abort forgets them, since its pages have been
+     * restored already. Then the versions no snapshot needs any more are
+     * dropped.
+     */
+    public synchronized void transactionComplete(TransactionId tid, boolean commit) {
+        if (snapshots.remove(tid) == null)
+            return;
+        HashSet<PageId> pids = written.remove(tid);
+        if (pids != null && commit) {
+            commits.put(tid, ++clock);
+        } else if (pids != null) {
+            for (PageId pid : pids) {
+                PageVersions v = pages.get(pid);
+                v.created.values().removeAll(Collections.singleton(tid));
+                for (Iterator<Version> it = v.deleted.iterator(); it.hasNext(); ) {
+                    Version old = it.next();
+                    if (!old.deleter.equals(tid))
+                        continue;
+                    it.remove();
+                    if (old.creator != null)
+                        v.created.put(old.tuple.getRecordId(), old.creator);
+                }
+                if (v.isEmpty())
+                    pages.remove(pid);
+            }
+        }
+        collectGarbage();
+    }
+
+    /**
+     * Drop the versions made obsolete by the transactions every running
+     * snapshot sees, if the oldest snapshot has moved on.
+     */
+    private void collectGarbage() {
+        long oldest = clock;
+        for (long start : snapshots.values())
+            oldest = Math.min(oldest, start);
+        if (oldest == horizon)
+            return;
+        horizon = oldest;
+
+        HashSet<TransactionId> seen = new HashSet<TransactionId>();
+        for (Iterator<Map.Entry<TransactionId, Long>> it = commits.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<TransactionId, Long> e = it.next();
+            if (e.getValue() <= horizon) {
+                seen.add(e.getKey());
+                it.remove();
+            }
+        }
+        if (seen.isEmpty())
+            return;
+        for (Iterator<PageVersions> it = pages.values().iterator(); it.hasNext(); ) {
+            PageVersions v = it.next();
+            v.created.values().removeAll(seen);
+            for (Iterator<Version> vit = v.deleted.iterator(); vit.hasNext(); ) {
+                Version old = vit.next();
+                if (seen.contains(old.deleter))
+                    vit.remove();
+                else if (seen.contains(old.creator))
+                    old.creator = null;
+            }
+            if (v.isEmpty())
+                it.remove();
+        }
+    }
+
+    /** @return the number of deleted tuples kept, for tests */
+    synchronized int numVersions() {
+        int n = 0;
+        for (PageVersions v : pages.values())
+            n += v.deleted.size();
+        return n;
+    }
+
+    /** @return the number of pages with versions kept, for tests */
+    synchronized int numPages() {
+        return pages.size();
+    }
+}
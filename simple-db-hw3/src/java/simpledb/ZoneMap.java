@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ZoneMap keeps the smallest and largest value of some columns of a table
+ * for every page of the column, so that scans can skip pages that cannot
+ * contain tuples passing a predicate (see {@link Predicate#mayMatch}).
+ * A zone may be unknown (null), in which case the page is always read. Zones
+ * are only ever widened when values are added; deleting values leaves them
+ * as they are, so they stay correct, if loose.
+ * <p>
+ * On disk a zone map holds a version number, the number of columns, and for
+ * every column the number of pages followed by, for every page, a byte that
+ * is 1 if the zone is known and the page's min and max in the column type's
+ * serialized format.
+ *
+ * @see ColumnarFile
+ * @see HeapFile
+ */
+public class ZoneMap {
+
+    static final int VERSION = 1;
+
+    private final Type[] types;
+    /** zones.get(c).get(p) is {min, max} of page p of column c, or null */
+    private final ArrayList<ArrayList<Field[]>> zones;
+    /** true if a zone has changed since the zone map was read or written */
+    private boolean changed;
+
+    /**
+     * Create an empty zone map, in which all zones are unknown.
+     *
+     * @param types the types of the columns
+     */
+    public ZoneMap(Type[] types) {
+        this.types = types;
+        this.zones = new ArrayList<ArrayList<Field[]>>();
+        for (int c = 0; c < types.length; c++)
+            zones.add(new ArrayList<Field[]>());
+    }
+
+    /**
+     * Read a zone map from f. If f does not exist or cannot be read, all
+     * zones are unknown.
+     *
+     * @param f the file to read
+     * @param types the types of the columns
+     */
+    public static ZoneMap open(File f, Type[] types) {
+        ZoneMap zm = new ZoneMap(types);
+        if (!f.exists() || f.length() == 0)
+            return zm;
+        try {
+            zm.read(f);
+        } catch (IOException e) {
+            // a missing or damaged zone map only stops pages from being skipped
+            System.out.println("Ignoring zone map " + f + ": " + e.getMessage());
+            zm.clear();
+        }
+        return zm;
+    }
+
+    /** @return the number of columns */
+    public int numColumns() {
+        return types.length;
+    }
+
+    /** @return {min, max} of page p of column c, or null if not known */
+    public synchronized Field[] get(int c, int p) {
+        ArrayList<Field[]> z = zones.get(c);
+        return p < z.size() ? z.get(p) : null;
+    }
+
+    /**
+     * @return false only if the zones of page p show that no tuple on the page
+     *   passes pred, whose field is the column the zone map is queried for
+     */
+    public boolean mayMatch(Predicate pred, int p) {
+        if (pred.getField() >= types.length)
+            return true;
+        Field[] z = get(pred.getField(), p);
+        return z == null || pred.mayMatch(z[0], z[1]);
+    }
+
+    /** Set the zone of page p of column c; null makes it unknown */
+    public synchronized void set(int c, int p, Field[] zone) {
+        ArrayList<Field[]> z = zones.get(c);
+        while (z.size() <= p)
+            z.add(null);
+        z.set(p, zone);
+        changed = true;
+    }
+
+    /**
+     * Widen the known zone of page p of column c to include [min, max], or
+     * set it to [min, max] if it is unknown.
+     */
+    public synchronized void widen(int c, int p, Field min, Field max) {
+        Field[] old = get(c, p);
+        if (old != null) {
+            if (old[0].compare(Predicate.Op.LESS_THAN, min))
+                min = old[0];
+            if (old[1].compare(Predicate.Op.GREATER_THAN, max))
+                max = old[1];
+        }
+        set(c, p, new Field[] { min, max });
+    }
+
+    /** Make all zones unknown */
+    public synchronized void clear() {
+        for (ArrayList<Field[]> z : zones)
+            z.clear();
+        changed = true;
+    }
+
+    private synchronized void read(File f) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (dis.readInt() != VERSION)
+                throw new IOException("unknown zone map version");
+            if (dis.readInt() != types.length)
+                throw new IOException("zone map has wrong number of columns");
+            for (int c = 0; c < types.length; c++) {
+                int pages = dis.readInt();
+                for (int p = 0; p < pages; p++) {
+                    boolean known = dis.readByte() != 0;
+                    Field min = types[c].parse(dis);
+                    Field max = types[c].parse(dis);
+                    zones.get(c).add(known ? new Field[] { min, max } : null);
+                }
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("bad zone map", e);
+        } finally {
+            dis.close();
+        }
+        changed = false;
+    }
+
+    /**
+     * Write this zone map to f, replacing its contents.
+     */
+    public synchronized void write(File f) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            dos.writeInt(VERSION);
+            dos.writeInt(types.length);
+            for (int c = 0; c < types.length; c++) {
+                Tuple t = new Tuple(new TupleDesc(new Type[] { types[c], types[c] }));
+                dos.writeInt(zones.get(c).size());
+                for (Field[] z : zones.get(c)) {
+                    dos.writeByte(z == null ? 0 : 1);
+                    if (z == null) {
+                        dos.write(new byte[2 * types[c].getLen()]);
+                        continue;
+                    }
+                    t.setField(0, z[0]);
+                    t.setField(1, z[1]);
+                    types[c].serialize(t, 0, dos);
+                    types[c].serialize(t, 1, dos);
+                }
+            }
+        } finally {
+            dos.close();
+        }
+        changed = false;
+    }
+
+    /**
+     * Write this zone map to f if a zone has changed since it was last read
+     * or written.
+     */
+    public synchronized void flush(File f) throws IOException {
+        if (changed)
+            write(f);
+    }
+}
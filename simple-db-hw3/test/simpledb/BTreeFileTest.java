@@ -0,0 +1,270 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private BTreeFile bf;
+
+    /**
+     * Use small pages, so a few thousand tuples make a tree of several
+     * levels, and create an empty tree of two int fields keyed on field 0.
+     */
+    @Before public void createFile() throws Exception {
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        bf = new BTreeFile(f, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(bf, "btree");
+    }
+
+    @After public void resetPageSize() {
+        BufferPool.resetPageSize();
+    }
+
+    private void insert(int key, int value) throws Exception {
+        Tuple t = new Tuple(bf.getTupleDesc());
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(value));
+        Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+    }
+
+    private ArrayList<Tuple> scan(DbFileIterator it) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    private int count(Predicate.Op op, int key) throws Exception {
+        return scan(bf.indexIterator(tid, new IndexPredicate(op, new IntField(key)))).size();
+    }
+
+    private static int key(Tuple t) {
+        return ((IntField) t.getField(0)).getValue();
+    }
+
+    private void assertSorted(List<Tuple> tuples) {
+        for (int i = 1; i < tuples.size(); i++)
+            assertTrue(key(tuples.get(i - 1)) <= key(tuples.get(i)));
+    }
+
+    /** @return the number of levels of the tree */
+    private int depth() throws Exception {
+        HashMap<PageId, Page> dirty = new HashMap<PageId, Page>();
+        BTreePageId pid = bf.getRootPtrPage(tid, dirty, Permissions.READ_ONLY).getRootId();
+        int depth = 1;
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            pid = ((BTreeInternalPage) bf.getPage(tid, dirty, pid, Permissions.READ_ONLY)).getChildId(0);
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * Random inserts with duplicate keys split pages up to a tree of more
+     * than two levels; scans return all tuples in key order and index
+     * lookups find exactly the matching ones.
+     */
+    @Test public void insertRandom() throws Exception {
+        Random rand = new Random(42);
+        int[] counts = new int[500];
+        for (int i = 0; i < 3000; i++) {
+            int k = rand.nextInt(counts.length);
+            counts[k]++;
+            insert(k, i);
+        }
+        assertTrue(depth() > 2);
+
+        ArrayList<Tuple> all = scan(bf.iterator(tid));
+        assertEquals(3000, all.size());
+        assertSorted(all);
+
+        int less = 0;
+        for (int k = 0; k < 250; k++)
+            less += counts[k];
+        assertEquals(counts[123], count(Predicate.Op.EQUALS, 123));
+        assertEquals(counts[0], count(Predicate.Op.EQUALS, 0));
+        assertEquals(0, count(Predicate.Op.EQUALS, 500));
+        assertEquals(less, count(Predicate.Op.LESS_THAN, 250));
+        assertEquals(less + counts[250], count(Predicate.Op.LESS_THAN_OR_EQ, 250));
+        assertEquals(3000 - less, count(Predicate.Op.GREATER_THAN_OR_EQ, 250));
+        assertEquals(3000 - less - counts[250], count(Predicate.Op.GREATER_THAN, 250));
+        assertEquals(3000 - counts[7], count(Predicate.Op.NOT_EQUALS, 7));
+        assertSorted(scan(bf.indexIterator(tid, new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(99)))));
+    }
+
+    /**
+     * Deleting most tuples merges and redistributes pages and shrinks the
+     * tree; inserting again reuses the freed pages instead of growing the
+     * file.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        for (int i = 0; i < 2000; i++)
+            insert(i, i);
+        int depth = depth();
+        int pages = bf.numPages();
+
+        ArrayList<Tuple> all = scan(bf.iterator(tid));
+        for (Tuple t : all)
+            if (key(t) % 50 != 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+
+        ArrayList<Tuple> left = scan(bf.iterator(tid));
+        assertEquals(40, left.size());
+        for (int i = 0; i < left.size(); i++)
+            assertEquals(i * 50, key(left.get(i)));
+        assertTrue(depth() < depth);
+        assertEquals(1, count(Predicate.Op.EQUALS, 1000));
+        assertEquals(0, count(Predicate.Op.EQUALS, 1001));
+
+        Database.getBufferPool().flushAllPages();
+        for (int i = 0; i < 2000; i++)
+            if (i % 50 != 0)
+                insert(i, i);
+        assertEquals(2000, scan(bf.iterator(tid)).size());
+        Database.getBufferPool().flushAllPages();
+        // the file grows by at most the header page and a few pages the
+        // different order of inserts leaves half full
+        assertTrue(bf.numPages() < pages + pages / 4);
+    }
+
+    /**
+     * Aborting a transaction that merged and redistributed pages restores
+     * every tuple, both on the pages it stole to disk in the middle and on
+     * the pages still in the cache; the pages it freed are not reused before
+     * it finishes.
+     */
+    @Test public void abortMerges() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        tid = t1.getId();
+        for (int i = 0; i < 2000; i++)
+            insert(i, i);
+        t1.commit();
+        int pages = bf.numPages();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        tid = t2.getId();
+        ArrayList<Tuple> all = scan(bf.iterator(tid));
+        for (Tuple t : all) {
+            if (key(t) % 50 != 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+            if (key(t) == 1000)
+                Database.getBufferPool().flushAllPages();
+        }
+        assertEquals(40, scan(bf.iterator(tid)).size());
+        for (int i = 2000; i < 2200; i++)
+            insert(i, i);
+        assertTrue(bf.numPages() > pages);
+        t2.abort();
+
+        tid = new TransactionId();
+        all = scan(bf.iterator(tid));
+        assertEquals(2000, all.size());
+        for (int i = 0; i < all.size(); i++)
+            assertEquals(i, key(all.get(i)));
+        assertEquals(1, count(Predicate.Op.EQUALS, 1001));
+    }
+
+    /**
+     * Deleting a tuple that isn't in the tree fails.
+     */
+    @Test(expected = DbException.class)
+    public void deleteMissing() throws Exception {
+        insert(1, 1);
+        Tuple t = new Tuple(bf.getTupleDesc());
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(2));
+        bf.deleteTuple(tid, t);
+    }
+
+    /**
+     * A bulk loaded tree holds all tuples in key order, and an IndexScan of
+     * one key only reads the pages on the path to it.
+     */
+    @Test public void bulkLoadAndIndexScan() throws Exception {
+        File txt = File.createTempFile("btree", ".txt");
+        txt.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(txt));
+        for (int i = 4999; i >= 0; i--)
+            pw.println(i + "," + (i % 7));
+        pw.close();
+        File dat = File.createTempFile("btree", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convertBTree(txt, dat, 0, 2, Utility.getTypes(2), ',');
+        BTreeFile loaded = new BTreeFile(dat, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(loaded, "loaded");
+
+        ArrayList<Tuple> all = scan(loaded.iterator(tid));
+        assertEquals(5000, all.size());
+        for (int i = 0; i < all.size(); i++)
+            assertEquals(i, key(all.get(i)));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        IndexScan is = new IndexScan(tid, loaded.getId(), "l",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(3210)));
+        is.open();
+        assertTrue(is.hasNext());
+        Tuple t = is.next();
+        assertEquals(3210, key(t));
+        assertEquals(new IntField(3210 % 7), t.getField(1));
+        assertFalse(is.hasNext());
+        is.close();
+        assertEquals("l." + loaded.getTupleDesc().getFieldName(0), is.getTupleDesc().getFieldName(0));
+        int cached = Database.getBufferPool().pages.size();
+        assertTrue(cached <= 5);
+        assertTrue(loaded.numPages() > 100);
+
+        // the loaded tree takes inserts like any other
+        Tuple n = new Tuple(loaded.getTupleDesc());
+        n.setField(0, new IntField(3210));
+        n.setField(1, new IntField(-1));
+        Database.getBufferPool().insertTuple(tid, loaded.getId(), n);
+        assertEquals(2, scan(loaded.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(3210)))).size());
+    }
+
+    /**
+     * A field annotated with "index" in the catalog makes the table a
+     * BTreeFile keyed on that field.
+     */
+    @Test public void catalogIndexAnnotation() throws Exception {
+        File cat = File.createTempFile("catalog", ".txt");
+        cat.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(cat));
+        pw.println("indexed (a int, b int pk index)");
+        pw.close();
+        Database.getCatalog().loadSchema(cat.getPath());
+        DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("indexed"));
+        assertTrue(f instanceof BTreeFile);
+        assertEquals(1, ((BTreeFile) f).keyField());
+        assertEquals("b", Database.getCatalog().getPrimaryKey(f.getId()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,172 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnarFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private TupleDesc td;
+    private ColumnarFile cf;
+
+    /**
+     * Write a table of ROWS rows (id, "name" + id, id % 7), sorted on id,
+     * with HeapFileEncoder.convertColumnar.
+     */
+    @Before public void createTable() throws Exception {
+        Database.resetBufferPool(1000);
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+        td = new TupleDesc(types, new String[] { "id", "name", "score" });
+
+        File in = File.createTempFile("columnar", ".txt");
+        in.deleteOnExit();
+        PrintWriter w = new PrintWriter(in, "UTF-8");
+        for (int i = 0; i < ROWS; i++)
+            w.println(i + ",name" + i + "," + (i % 7));
+        w.close();
+        File out = File.createTempFile("columnar", ".dat");
+        out.deleteOnExit();
+        for (int c = 0; c <= types.length; c++)
+            ColumnarFile.getColumnFile(out, c, types.length).deleteOnExit();
+        HeapFileEncoder.convertColumnar(in, out, types.length, types, ',');
+
+        cf = new ColumnarFile(out, td);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+    }
+
+    private int countColumnPages(int column) {
+        int n = 0;
+        for (PageId pid : Database.getBufferPool().pages.keySet())
+            if (pid instanceof ColumnPageId && ((ColumnPageId) pid).getColumn() == column)
+                n++;
+        return n;
+    }
+
+    /**
+     * A scan of all fields returns every row as it was written.
+     */
+    @Test public void fullScan() throws Exception {
+        DbFileIterator it = cf.iterator(new TransactionId());
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(n, t.getInt(0));
+            assertEquals("name" + n, ((StringField) t.getField(1)).getValue());
+            assertEquals(n % 7, t.getInt(2));
+            n++;
+        }
+        it.close();
+        assertEquals(ROWS, n);
+    }
+
+    /**
+     * A scan of only the integer fields does not read the string column.
+     */
+    @Test public void projection() throws Exception {
+        DbFileIterator it = cf.iterator(new TransactionId(), new int[] { 0, 2 }, new Predicate[0]);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(n % 7, t.getInt(2));
+            assertFalse(t.isSet(1));
+            n++;
+        }
+        it.close();
+        assertEquals(ROWS, n);
+        assertEquals(0, countColumnPages(1));
+        assertEquals(cf.numPages(0), countColumnPages(0));
+    }
+
+    /**
+     * A predicate on the sorted id field lets the scan skip all but the last
+     * page of the id column.
+     */
+    @Test public void zoneSkipping() throws Exception {
+        assertTrue(cf.numPages(0) > 2);
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 10));
+        DbFileIterator it = cf.iterator(new TransactionId(), new int[] { 0 }, new Predicate[] { p });
+        it.open();
+        int matches = 0;
+        while (it.hasNext()) {
+            if (p.filter(it.next()))
+                matches++;
+        }
+        it.close();
+        assertEquals(10, matches);
+        assertEquals(1, countColumnPages(0));
+    }
+
+    /**
+     * Tuples inserted and deleted through the BufferPool show up in scans,
+     * and inserting widens the zone of the page written to.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(ROWS * 10));
+        t.setField(1, new StringField("inserted", Type.STRING_LEN));
+        t.setField(2, new IntField(-1));
+        Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(ROWS * 10));
+        DbFileIterator it = cf.iterator(tid, null, new Predicate[] { p });
+        it.open();
+        Tuple found = null;
+        while (it.hasNext()) {
+            Tuple next = it.next();
+            if (p.filter(next))
+                found = next;
+        }
+        it.close();
+        assertEquals("inserted", ((StringField) found.getField(1)).getValue());
+
+        // delete the inserted tuple and every row with an odd id
+        Database.getBufferPool().deleteTuple(tid, found);
+        it = cf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple next = it.next();
+            if (next.getInt(0) % 2 == 1)
+                Database.getBufferPool().deleteTuple(tid, next);
+        }
+        it.close();
+
+        HashSet<Integer> seen = new HashSet<Integer>();
+        it = cf.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            seen.add(it.next().getInt(0));
+        it.close();
+        assertEquals(ROWS / 2, seen.size());
+        assertFalse(seen.contains(ROWS * 10));
+        assertFalse(seen.contains(1));
+
+        // what was flushed can be read back by a new ColumnarFile
+        Database.getBufferPool().flushAllPages();
+        ColumnarFile reopened = new ColumnarFile(cf.getFile(), td);
+        assertEquals(new IntField(ROWS * 10), reopened.getZoneMap().get(0, cf.numPages(0) - 1)[1]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarFileTest.class);
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.Predicate.Op;
+
+public class DeltaHistogramTest {
+
+	/**
+	 * Values inside and outside the analyzed range are counted, and deletes
+	 * cancel inserts.
+	 */
+	@Test public void insertDeleteTest() {
+		DeltaHistogram h = new DeltaHistogram(10, 0, 99, true);
+		for (int i = 0; i < 100; i++)
+			h.addValue(i);
+		for (int i = 200; i < 300; i++)
+			h.addValue(i);
+		Assert.assertEquals(200, h.total());
+		Assert.assertEquals(100, h.estimateCount(Op.LESS_THAN, 100), 1.0);
+		Assert.assertEquals(150, h.estimateCount(Op.GREATER_THAN_OR_EQ, 50), 2.0);
+		Assert.assertEquals(50, h.estimateCount(Op.GREATER_THAN_OR_EQ, 250), 2.0);
+		Assert.assertEquals(1, h.estimateCount(Op.EQUALS, 42), 0.2);
+		Assert.assertEquals(0, h.estimateCount(Op.EQUALS, -5), 0.0);
+
+		for (int i = 0; i < 50; i++)
+			h.removeValue(i);
+		Assert.assertEquals(150, h.total());
+		Assert.assertEquals(0, h.estimateCount(Op.LESS_THAN, 50), 1.0);
+	}
+
+	/**
+	 * Deleting values that were there when the field was analyzed makes the
+	 * counts negative.
+	 */
+	@Test public void negativeTest() {
+		DeltaHistogram h = new DeltaHistogram(10, 0, 99, true);
+		for (int i = 0; i < 10; i++)
+			h.removeValue(5);
+		Assert.assertEquals(-10, h.total());
+		Assert.assertEquals(-10, h.estimateCount(Op.LESS_THAN, 10), 0.0);
+		Assert.assertEquals(0, h.estimateCount(Op.GREATER_THAN, 10), 0.0);
+	}
+
+	/**
+	 * Values added by many threads at once are all counted.
+	 */
+	@Test public void concurrentTest() throws InterruptedException {
+		final DeltaHistogram h = new DeltaHistogram(100, 0, 1000, true);
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int v = 0; v < 10000; v++)
+						h.addValue(v % 2000);
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		Assert.assertEquals(80000, h.total());
+		Assert.assertEquals(40000, h.estimateCount(Op.GREATER_THAN, 1000), 100.0);
+	}
+}
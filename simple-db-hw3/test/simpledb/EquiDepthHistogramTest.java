@@ -0,0 +1,98 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.Predicate.Op;
+
+public class EquiDepthHistogramTest {
+
+	/**
+	 * @return 1000 values: 0 to 99 once each, and 900 sevens
+	 */
+	private double[] skewedValues() {
+		double[] values = new double[1000];
+		for (int i = 0; i < 100; i++)
+			values[i] = i;
+		for (int i = 100; i < 1000; i++)
+			values[i] = 7;
+		return values;
+	}
+
+	/**
+	 * The most common value is kept with its exact count, and the others
+	 * aren't swamped by it.
+	 */
+	@Test public void skewedEqualsTest() {
+		EquiDepthHistogram h = new EquiDepthHistogram(skewedValues(), 10, 5, true);
+		
+		Assert.assertEquals(1, h.numMcvs());
+		Assert.assertEquals(0.901, h.estimateSelectivity(Op.EQUALS, 7), 1e-9);
+		Assert.assertEquals(0.001, h.estimateSelectivity(Op.EQUALS, 50), 1e-9);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, 100), 1e-9);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, -1), 1e-9);
+		Assert.assertEquals(0.999, h.estimateSelectivity(Op.NOT_EQUALS, 50), 1e-9);
+	}
+
+	/**
+	 * Range predicates count the most common values on the right side.
+	 */
+	@Test public void skewedRangeTest() {
+		EquiDepthHistogram h = new EquiDepthHistogram(skewedValues(), 10, 5, true);
+		
+		Assert.assertEquals(0.007, h.estimateSelectivity(Op.LESS_THAN, 7), 0.002);
+		Assert.assertEquals(0.908, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 7), 0.002);
+		Assert.assertEquals(0.092, h.estimateSelectivity(Op.GREATER_THAN, 7), 0.002);
+		Assert.assertEquals(0.95, h.estimateSelectivity(Op.LESS_THAN, 50), 0.002);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.LESS_THAN, 0), 1e-9);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.LESS_THAN, 100), 1e-9);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, 0), 1e-9);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.GREATER_THAN, 99), 1e-9);
+	}
+
+	/**
+	 * Buckets hold about the same number of values, so a dense range gets
+	 * more buckets than a sparse one.
+	 */
+	@Test public void equiDepthTest() {
+		// 0 to 899, and 900 to 9900 in steps of 100
+		double[] values = new double[1000];
+		for (int i = 0; i < 900; i++)
+			values[i] = i;
+		for (int i = 900; i < 1000; i++)
+			values[i] = 900 + (i - 900) * 90;
+		EquiDepthHistogram h = new EquiDepthHistogram(values, 10, 5, true);
+		
+		Assert.assertEquals(0, h.numMcvs());
+		Assert.assertEquals(10, h.numBuckets());
+		Assert.assertEquals(0.45, h.estimateSelectivity(Op.LESS_THAN, 450), 0.01);
+		Assert.assertEquals(0.95, h.estimateSelectivity(Op.LESS_THAN, 5000), 0.02);
+		Assert.assertEquals(0.001, h.estimateSelectivity(Op.EQUALS, 450), 1e-9);
+	}
+
+	/**
+	 * The selectivities of equality over every value add up to one.
+	 */
+	@Test public void equalsAddUpTest() {
+		double[] values = new double[5000];
+		for (int c = 0; c < values.length; c++)
+			values[c] = (c * 23) % 101;
+		EquiDepthHistogram h = new EquiDepthHistogram(values, 10, 5, true);
+		
+		double selectivity = 0.0;
+		for (int c = 0; c < 101; c++)
+			selectivity += h.estimateSelectivity(Op.EQUALS, c);
+		Assert.assertEquals(1.0, selectivity, 0.001);
+		Assert.assertEquals(1.0 / 101, h.avgSelectivity(), 0.001);
+	}
+
+	/**
+	 * An empty histogram selects nothing.
+	 */
+	@Test public void emptyTest() {
+		EquiDepthHistogram h = new EquiDepthHistogram(new double[0], 10, 5, true);
+		
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, 3), 1e-9);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.LESS_THAN, 3), 1e-9);
+	}
+}
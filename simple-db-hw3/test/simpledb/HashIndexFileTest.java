@@ -0,0 +1,267 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile hf;
+    private HashIndexFile index;
+
+    /**
+     * Use small pages, so a few thousand keys split many buckets and fill
+     * the directory, and create an empty table of two int fields with a
+     * hash index on field 0.
+     */
+    @Before public void createFile() throws Exception {
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        File f = File.createTempFile("hashed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zones").deleteOnExit();
+        hf = new HeapFile(f, Utility.getTupleDesc(2, "f"));
+        Database.getCatalog().addTable(hf, "hashed", "f0");
+        File idx = File.createTempFile("hashed", ".hash");
+        idx.deleteOnExit();
+        index = new HashIndexFile(idx, hf.getId(), 0, Type.INT_TYPE);
+        Database.getCatalog().addHashIndex(index);
+    }
+
+    @After public void resetPageSize() {
+        BufferPool.resetPageSize();
+    }
+
+    private Tuple insert(int key, int value) throws Exception {
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(value));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        return t;
+    }
+
+    private int countEntries() throws Exception {
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private ArrayList<Tuple> lookup(int key) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = index.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    private int numBuckets() throws Exception {
+        return index.getMetaPage(tid, new HashMap<PageId, Page>(), Permissions.READ_ONLY).getNumBuckets();
+    }
+
+    /**
+     * Inserts through the BufferPool add index entries and split buckets;
+     * every key is found, with the tuple holding it.
+     */
+    @Test public void insertAndLookup() throws Exception {
+        for (int i = 0; i < 2000; i++)
+            insert(i * 7, i);
+        assertEquals(2000, countEntries());
+        assertEquals(HashIndexMetaPage.getMaxBuckets(), numBuckets());
+
+        for (int i = 0; i < 2000; i += 37) {
+            ArrayList<Tuple> found = lookup(i * 7);
+            assertEquals(1, found.size());
+            assertEquals(new IntField(i), found.get(0).getField(1));
+        }
+        assertEquals(0, lookup(3).size());
+    }
+
+    /**
+     * Deletes through the BufferPool remove the entries, and the overflow
+     * pages they empty are reused by later inserts.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1600; i++)
+            tuples.add(insert(i, i));
+        Database.getBufferPool().flushAllPages();
+        int pages = index.numPages();
+
+        for (int i = 0; i < tuples.size(); i += 2)
+            Database.getBufferPool().deleteTuple(tid, tuples.get(i));
+        assertEquals(800, countEntries());
+        assertEquals(0, lookup(10).size());
+        assertEquals(1, lookup(11).size());
+
+        for (int i = 0; i < 1600; i += 2)
+            insert(i, -i);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1600, countEntries());
+        assertEquals(new IntField(-10), lookup(10).get(0).getField(1));
+        assertTrue(index.numPages() <= pages + 1);
+    }
+
+    /**
+     * Aborting a transaction that split buckets, added pages and freed
+     * overflow pages restores the index, including the pages it stole to
+     * disk, and leaves no pages of it in use.
+     */
+    @Test public void abortSplits() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        tid = t1.getId();
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 200; i++)
+            tuples.add(insert(i, i));
+        t1.commit();
+        HashIndexMetaPage meta = index.getMetaPage(tid, new HashMap<PageId, Page>(), Permissions.READ_ONLY);
+        int buckets = meta.getNumBuckets();
+        int pages = meta.getNumPages();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        tid = t2.getId();
+        for (int i = 200; i < 1000; i++) {
+            insert(i, i);
+            if (i == 600)
+                Database.getBufferPool().flushAllPages();
+        }
+        for (int i = 0; i < 200; i += 2)
+            Database.getBufferPool().deleteTuple(tid, tuples.get(i));
+        assertTrue(numBuckets() > buckets);
+        t2.abort();
+
+        tid = new TransactionId();
+        meta = index.getMetaPage(tid, new HashMap<PageId, Page>(), Permissions.READ_ONLY);
+        assertEquals(buckets, meta.getNumBuckets());
+        assertEquals(pages, meta.getNumPages());
+        assertEquals(200, countEntries());
+        for (int i = 0; i < 200; i += 7)
+            assertEquals(1, lookup(i).size());
+        assertEquals(0, lookup(500).size());
+    }
+
+    /**
+     * Deleting a tuple the index doesn't hold fails without touching the
+     * table.
+     */
+    @Test(expected = DbException.class)
+    public void deleteMissing() throws Exception {
+        Tuple t = insert(1, 1);
+        index.deleteTuple(tid, t);
+        index.deleteTuple(tid, t);
+    }
+
+    /**
+     * An IndexScan of one primary key of a large table reads the meta page,
+     * one bucket page and one heap page.
+     */
+    @Test public void indexScanReadsFewPages() throws Exception {
+        BufferPool.resetPageSize();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        File f = File.createTempFile("hashed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zones").deleteOnExit();
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 20000; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, i % 13)));
+        HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 2);
+        HeapFile big = Utility.openHeapFile(2, "f", f);
+        File idx = File.createTempFile("hashed", ".hash");
+        idx.deleteOnExit();
+        HashIndexFile bigIndex = new HashIndexFile(idx, big.getId(), 0, Type.INT_TYPE);
+        Database.getCatalog().addHashIndex(bigIndex);
+        bigIndex.build(tid);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(big.numPages() > 30);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        IndexScan is = new IndexScan(tid, big.getId(), "b",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(12345)));
+        is.open();
+        assertTrue(is.hasNext());
+        assertEquals(new IntField(12345 % 13), is.next().getField(1));
+        assertFalse(is.hasNext());
+        is.close();
+        assertTrue(Database.getBufferPool().pages.size() <= 3);
+    }
+
+    /**
+     * A primary key annotated with "hash" in the catalog gets an index,
+     * built from the table's tuples, which the planner uses for equality
+     * filters on the key.
+     */
+    @Test public void catalogHashAnnotation() throws Exception {
+        BufferPool.resetPageSize();
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File dat = new File(dir, "users.dat");
+        dat.deleteOnExit();
+        new File(dir, "users.dat.zones").deleteOnExit();
+        new File(dir, "users.hash").deleteOnExit();
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 1000; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i % 10, i)));
+        HeapFileEncoder.convert(rows, dat, BufferPool.getPageSize(), 2);
+        File cat = new File(dir, "catalog.txt");
+        cat.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(cat));
+        pw.println("users (a int, id int pk hash)");
+        pw.close();
+        Database.getCatalog().loadSchema(cat.getPath());
+
+        int tableId = Database.getCatalog().getTableId("users");
+        HashIndexFile users = Database.getCatalog().getHashIndex(tableId);
+        assertNotNull(users);
+        assertEquals(1, users.keyField());
+        assertTrue(new File(dir, "users.hash").length() > 0);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "u");
+        lp.addFilter("u.id", Predicate.Op.EQUALS, "567");
+        lp.addProjectField("u.a", null);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("users", new TableStats(tableId, TableStats.IOCOSTPERPAGE));
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        boolean usesIndex = false;
+        for (OpIterator o = plan; o instanceof Operator; o = ((Operator) o).getChildren()[0])
+            usesIndex |= ((Operator) o).getChildren()[0] instanceof IndexScan;
+        assertTrue(usesIndex);
+        plan.open();
+        assertTrue(plan.hasNext());
+        assertEquals(new IntField(7), plan.next().getField(0));
+        assertFalse(plan.hasNext());
+        plan.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
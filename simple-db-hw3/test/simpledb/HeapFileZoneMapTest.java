@@ -0,0 +1,152 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HeapFileZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private HeapFile hf;
+
+    /**
+     * Create a two column heap file of ROWS rows (i, i % 10), sorted on the
+     * first field.
+     */
+    @Before public void createFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 10);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("zones", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zones").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        hf = Utility.openHeapFile(2, "c", f);
+    }
+
+    private int countCachedPages() {
+        int n = 0;
+        for (PageId pid : Database.getBufferPool().pages.keySet())
+            if (pid.getTableId() == hf.getId())
+                n++;
+        return n;
+    }
+
+    private int countMatches(Predicate p) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SeqScan ss = new SeqScan(new TransactionId(), hf.getId(), "t");
+        ss.addPushdownPredicate(p);
+        Filter filter = new Filter(p, ss);
+        filter.open();
+        int n = 0;
+        while (filter.hasNext()) {
+            assertTrue(p.filter(filter.next()));
+            n++;
+        }
+        filter.close();
+        return n;
+    }
+
+    /**
+     * Without a zone map every page is read; after rebuilding it a Filter on
+     * the sorted field only reads the pages that can hold matches.
+     */
+    @Test public void rebuildAndSkip() throws Exception {
+        assertTrue(hf.numPages() > 3);
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 10));
+        assertEquals(10, countMatches(p));
+        assertEquals(hf.numPages(), countCachedPages());
+
+        hf.rebuildZoneMap(new TransactionId());
+        assertEquals(10, countMatches(p));
+        assertEquals(1, countCachedPages());
+
+        // predicates on the unsorted field can't skip anything
+        assertEquals(ROWS / 10, countMatches(new Predicate(1, Predicate.Op.EQUALS, new IntField(3))));
+        assertEquals(hf.numPages(), countCachedPages());
+    }
+
+    /**
+     * The planner passes the predicates of filters to the scans below them,
+     * while a Filter built over a scan leaves the scan reading every page.
+     */
+    @Test public void plannerPushesFilters() throws Exception {
+        hf.rebuildZoneMap(new TransactionId());
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN_OR_EQ, "" + (ROWS - 10));
+        lp.addProjectField("t.c1", null);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(Database.getCatalog().getTableName(hf.getId()),
+                  new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        assertEquals(10, n);
+        assertEquals(1, countCachedPages());
+
+        SeqScan ss = new SeqScan(tid, hf.getId(), "t");
+        new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 10)), ss);
+        ss.open();
+        n = 0;
+        while (ss.hasNext()) {
+            ss.next();
+            n++;
+        }
+        ss.close();
+        assertEquals(ROWS, n);
+    }
+
+    /**
+     * Inserts widen the zones of the page they go to, and the zones survive
+     * flushing the page and reopening the file.
+     */
+    @Test public void insertWidens() throws Exception {
+        hf.rebuildZoneMap(new TransactionId());
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(-5));
+        assertEquals(0, countMatches(p));
+
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(-5));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        int pgno = t.getRecordId().getPageId().getPageNumber();
+        Database.getBufferPool().flushAllPages();
+
+        assertEquals(1, countMatches(p));
+        HeapFile reopened = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(new IntField(-5), reopened.getZoneMap().get(0, pgno)[0]);
+        assertNull(reopened.getZoneMap().get(0, hf.numPages()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileZoneMapTest.class);
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class HyperLogLogTest {
+
+	/**
+	 * Estimates of many distinct values are within a few standard errors.
+	 */
+	@Test public void accuracyTest() {
+		HyperLogLog h = new HyperLogLog();
+		for (int i = 0; i < 200000; i++)
+			h.addLong(i);
+		Assert.assertEquals(200000, h.estimate(), 200000 * 0.05);
+	}
+
+	/**
+	 * Duplicates don't change the estimate, and few values are counted
+	 * nearly exactly.
+	 */
+	@Test public void duplicatesTest() {
+		HyperLogLog h = new HyperLogLog();
+		for (int i = 0; i < 100000; i++)
+			h.addLong(i % 50);
+		Assert.assertEquals(50, h.estimate(), 1.0);
+
+		HyperLogLog empty = new HyperLogLog();
+		Assert.assertEquals(0, empty.estimate(), 1e-9);
+	}
+
+	/**
+	 * A merged sketch estimates the distinct values of the union.
+	 */
+	@Test public void mergeTest() {
+		HyperLogLog a = new HyperLogLog();
+		HyperLogLog b = new HyperLogLog();
+		for (int i = 0; i < 60000; i++)
+			a.addLong(i);
+		for (int i = 40000; i < 100000; i++)
+			b.addLong(i);
+		a.merge(b);
+		Assert.assertEquals(100000, a.estimate(), 100000 * 0.05);
+	}
+
+	/**
+	 * Strings and doubles are hashed by value.
+	 */
+	@Test public void typesTest() {
+		HyperLogLog s = new HyperLogLog();
+		HyperLogLog d = new HyperLogLog();
+		for (int i = 0; i < 30000; i++) {
+			s.addString("value" + (i % 1000));
+			d.addDouble((i % 1000) / 8.0);
+		}
+		d.addDouble(-0.0);
+		Assert.assertEquals(1000, s.estimate(), 1000 * 0.05);
+		Assert.assertEquals(1000, d.estimate(), 1000 * 0.05);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void mergePrecisionTest() {
+		new HyperLogLog(10).merge(new HyperLogLog(12));
+	}
+}
@@ -0,0 +1,232 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private static final int INNER_ROWS = 3000;
+
+    private TransactionId tid;
+    private HeapFile outer, inner;
+
+    private static HeapFile createFile(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        File f = File.createTempFile("inlj", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zones").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        return Utility.openHeapFile(2, "f", f);
+    }
+
+    /**
+     * Create an outer table of 20 rows (i, i * 7) and an inner table of
+     * INNER_ROWS rows (i % 100, i).
+     */
+    @Before public void createFiles() throws Exception {
+        tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 20; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i * 7)));
+        outer = createFile(tuples);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < INNER_ROWS; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i % 100, i)));
+        inner = createFile(tuples);
+    }
+
+    private static ArrayList<ArrayList<Integer>> run(OpIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                row.add(((IntField) t.getField(i)).getValue());
+            rows.add(row);
+        }
+        it.close();
+        return rows;
+    }
+
+    private static void assertSameRows(List<ArrayList<Integer>> expected, List<ArrayList<Integer>> actual) {
+        Comparator<ArrayList<Integer>> order = new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++)
+                    if (!a.get(i).equals(b.get(i)))
+                        return a.get(i).compareTo(b.get(i));
+                return 0;
+            }
+        };
+        ArrayList<ArrayList<Integer>> e = new ArrayList<ArrayList<Integer>>(expected);
+        ArrayList<ArrayList<Integer>> a = new ArrayList<ArrayList<Integer>>(actual);
+        Collections.sort(e, order);
+        Collections.sort(a, order);
+        assertEquals(e, a);
+    }
+
+    private OpIterator innerScan() {
+        return new SeqScan(tid, inner.getId(), "i");
+    }
+
+    private OpIterator outerScan() {
+        return new SeqScan(tid, outer.getId(), "o");
+    }
+
+    private JoinPredicate outer1EqInner0() {
+        return new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    }
+
+    /**
+     * The join returns the same tuples as a nested loops join, and builds
+     * the index once for both runs.
+     */
+    @Test public void matchesNestedLoops() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = run(new Join(outer1EqInner0(), outerScan(), innerScan()));
+        assertEquals(15 * (INNER_ROWS / 100), expected.size());
+
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(outer1EqInner0(), outerScan(), innerScan());
+        assertFalse(Database.getIndexCache().isCached(inner.getId(), 0));
+        assertSameRows(expected, run(j));
+        assertTrue(Database.getIndexCache().isCached(inner.getId(), 0));
+
+        j = new IndexNestedLoopJoin(outer1EqInner0(), outerScan(), innerScan());
+        j.open();
+        assertTrue(j.isUsingIndex());
+        j.close();
+        assertSameRows(expected, run(j));
+    }
+
+    /**
+     * The filters over the inner scan are applied to the fetched tuples.
+     */
+    @Test public void innerFilters() throws Exception {
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(1000));
+        ArrayList<ArrayList<Integer>> expected = run(new Join(outer1EqInner0(), outerScan(),
+                new Filter(p, innerScan())));
+        ArrayList<ArrayList<Integer>> actual = run(new IndexNestedLoopJoin(outer1EqInner0(), outerScan(),
+                new Filter(p, innerScan())));
+        assertEquals(15 * 10, actual.size());
+        assertSameRows(expected, actual);
+    }
+
+    /**
+     * Inserting and deleting tuples of the inner table drops its index, so
+     * the next join sees the changes.
+     */
+    @Test public void writesInvalidate() throws Exception {
+        run(new IndexNestedLoopJoin(outer1EqInner0(), outerScan(), innerScan()));
+        assertTrue(Database.getIndexCache().isCached(inner.getId(), 0));
+
+        Tuple t = new Tuple(inner.getTupleDesc());
+        t.setField(0, new IntField(7));
+        t.setField(1, new IntField(-1));
+        Database.getBufferPool().insertTuple(tid, inner.getId(), t);
+        assertFalse(Database.getIndexCache().isCached(inner.getId(), 0));
+        assertEquals(15 * (INNER_ROWS / 100) + 1,
+                run(new IndexNestedLoopJoin(outer1EqInner0(), outerScan(), innerScan())).size());
+
+        DbFileIterator it = inner.iterator(tid);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        assertFalse(Database.getIndexCache().isCached(inner.getId(), 0));
+        assertEquals(15 * (INNER_ROWS / 100),
+                run(new IndexNestedLoopJoin(outer1EqInner0(), outerScan(), innerScan())).size());
+    }
+
+    /**
+     * An index that doesn't fit in the cache isn't built, and the join runs
+     * as nested loops.
+     */
+    @Test public void fallbackWhenTooBig() throws Exception {
+        Database.resetIndexCache(1000);
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(outer1EqInner0(), outerScan(), innerScan());
+        j.open();
+        assertFalse(j.isUsingIndex());
+        j.close();
+        assertEquals(15 * (INNER_ROWS / 100), run(j).size());
+        assertEquals(0, Database.getIndexCache().getUsedBytes());
+    }
+
+    /**
+     * Non-equality joins and inner sides that aren't base table scans can't
+     * use an index.
+     */
+    @Test public void canUse() throws Exception {
+        assertTrue(IndexNestedLoopJoin.canUse(outer1EqInner0(), outerScan(), innerScan()));
+        assertFalse(IndexNestedLoopJoin.canUse(new JoinPredicate(1, Predicate.Op.LESS_THAN, 0),
+                outerScan(), innerScan()));
+        assertFalse(IndexNestedLoopJoin.canUse(outer1EqInner0(), outerScan(),
+                new Join(outer1EqInner0(), innerScan(), outerScan())));
+    }
+
+    /** @return the joins of outer and inner ordered by the optimizer */
+    private Vector<LogicalJoinNode> orderJoins(JoinOptimizer jo) throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("outer_t", new TableStats(outer.getId(), TableStats.IOCOSTPERPAGE));
+        stats.put("inner_t", new TableStats(inner.getId(), TableStats.IOCOSTPERPAGE));
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        filterSelectivities.put("o", 1.0);
+        filterSelectivities.put("i", 1.0);
+        return jo.orderJoins(stats, filterSelectivities, false);
+    }
+
+    /**
+     * The optimizer runs an equality join of two base tables, one of which
+     * is much smaller than the other, as an index join if the index of the
+     * larger table is cached, and as a hash join otherwise: building the
+     * index costs more than hashing the smaller table.
+     */
+    @Test public void optimizerChoosesIndexJoin() throws Exception {
+        Database.getCatalog().addTable(outer, "outer_t");
+        Database.getCatalog().addTable(inner, "inner_t");
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(outer.getId(), "o");
+        lp.addScan(inner.getId(), "i");
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("o", "i", "o.f1", "i.f0", Predicate.Op.EQUALS));
+        JoinOptimizer jo = new JoinOptimizer(lp, joins);
+
+        Vector<LogicalJoinNode> order = orderJoins(jo);
+        assertEquals(1, order.size());
+        assertEquals(LogicalJoinNode.Algorithm.HASH, order.get(0).algorithm);
+
+        Database.getIndexCache().getIndex(tid, inner.getId(), 0);
+        order = orderJoins(jo);
+        assertEquals(1, order.size());
+        LogicalJoinNode lj = order.get(0);
+        assertEquals(LogicalJoinNode.Algorithm.INDEX, lj.algorithm);
+        assertEquals(LogicalJoinNode.Algorithm.NESTED_LOOP, joins.get(0).algorithm);
+
+        boolean outerFirst = lj.t1Alias.equals("o");
+        OpIterator j = JoinOptimizer.instantiateJoin(lj, outerFirst ? outerScan() : innerScan(),
+                outerFirst ? innerScan() : outerScan());
+        assertTrue(j instanceof IndexNestedLoopJoin);
+        assertEquals(15 * (INNER_ROWS / 100), run(j).size());
+
+        // and is estimated cheaper than nested loops
+        double nl = jo.estimateJoinCost(joins.get(0), LogicalJoinNode.Algorithm.NESTED_LOOP,
+                20, INNER_ROWS, 1000, 6000, true);
+        assertTrue(jo.estimateJoinCost(joins.get(0), LogicalJoinNode.Algorithm.INDEX,
+                20, INNER_ROWS, 1000, 6000, true) < nl);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
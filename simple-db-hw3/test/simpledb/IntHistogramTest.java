@@ -174,4 +174,21 @@ public class IntHistogramTest {
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 3) < 0.001);
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 8) > 0.01);
 	}
+
+	/**
+	 * Make sure that equality in a bucket spanning several values doesn't
+	 * round down to zero.
+	 */
+	@Test public void opEqualsWideBucketTest() {
+		IntHistogram h = new IntHistogram(10, 0, 99);
+		
+		// Set some values
+		h.addValue(5);
+		h.addValue(5);
+		h.addValue(5);
+		
+		// the bucket of 5 holds 0 to 9, and all three values
+		Assert.assertEquals(0.1, h.estimateSelectivity(Op.EQUALS, 5), 0.001);
+		Assert.assertEquals(0.9, h.estimateSelectivity(Op.NOT_EQUALS, 5), 0.001);
+	}
 }
@@ -3,6 +3,7 @@ package simpledb;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Vector;
@@ -265,6 +266,31 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(cardinality == 800 || cardinality == 2000);
     }
 
+    /**
+     * Verify that equi-joins on columns that aren't keys are estimated from
+     * their distinct values: the columns of TB hold 0 to 20
+     */
+    @Test
+    public void estimateJoinCardinalityFromDistinctValues() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName2 + " t1, " + tableName2
+                        + " t2 WHERE t1.c8 = t2.c7;"),
+                new Vector<LogicalJoinNode>());
+        LogicalJoinNode node = new LogicalJoinNode("t1", "t2", "c3", "c4",
+                Predicate.Op.EQUALS);
+
+        double cardinality = j.estimateJoinCardinality(node, 10000, 10000,
+                false, false, TableStats.getStatsMap());
+        Assert.assertEquals(10000.0 * 10000 / 21, cardinality, 10000.0 * 10000 / 21 * 0.1);
+
+        // a filtered side has at most as many distinct values as tuples
+        cardinality = j.estimateJoinCardinality(node, 10, 10000, false, false,
+                TableStats.getStatsMap());
+        Assert.assertEquals(10.0 * 10000 / 21, cardinality, 10.0 * 10000 / 21 * 0.1);
+    }
+
     /**
      * Determine whether the orderJoins implementation is doing a reasonable job
      * of ordering joins, and not taking an unreasonable amount of time to do so
@@ -621,4 +647,235 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Create the tables t0 .. t(n-1), of 100 tuples of two columns each,
+     * with their statistics and filter selectivities.
+     */
+    private void createTables(int n, HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile first = SystemTestUtil.createRandomHeapFile(2, 100,
+                Integer.MAX_VALUE, null, tuples, "c");
+        for (int i = 0; i < n; i++) {
+            HeapFile f = i == 0 ? first : createDuplicateHeapFile(tuples, 2, "c");
+            Database.getCatalog().addTable(f, "t" + i);
+            stats.put("t" + i, new TableStats(f.getId(), 103));
+            filterSelectivities.put("t" + i, 1.0);
+        }
+    }
+
+    /**
+     * Check that order joins the n tables t0 .. t(n-1) with the nodes: each
+     * node is in it once, and the first n - 1 nodes to join tables not yet
+     * joined join them all.
+     */
+    private void checkOrder(Vector<LogicalJoinNode> order,
+            Vector<LogicalJoinNode> nodes, int n) {
+        Assert.assertEquals(nodes.size(), order.size());
+        for (LogicalJoinNode node : nodes) {
+            int found = 0;
+            for (LogicalJoinNode j : order) {
+                if (j.t1Alias.equals(node.t1Alias) && j.t2Alias.equals(node.t2Alias)
+                        && j.f1PureName.equals(node.f1PureName)
+                        || j.t1Alias.equals(node.t2Alias) && j.t2Alias.equals(node.t1Alias)
+                        && j.f1PureName.equals(node.f2PureName))
+                    found++;
+            }
+            Assert.assertEquals(1, found);
+        }
+        // the component of each table, as the number of its first table
+        int[] component = new int[n];
+        for (int i = 0; i < n; i++)
+            component[i] = i;
+        int merges = 0;
+        for (LogicalJoinNode j : order) {
+            int c1 = component[Integer.parseInt(j.t1Alias.substring(1))];
+            int c2 = component[Integer.parseInt(j.t2Alias.substring(1))];
+            if (c1 == c2)
+                continue;
+            merges++;
+            for (int i = 0; i < n; i++) {
+                if (component[i] == c2)
+                    component[i] = c1;
+            }
+        }
+        Assert.assertEquals(n - 1, merges);
+    }
+
+    /**
+     * Order the joins of a ring of n tables with chords across it, and
+     * check the order.
+     */
+    private void orderCyclicJoins(int n) throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        createTables(n, stats, filterSelectivities);
+
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        StringBuilder from = new StringBuilder();
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            from.append(i == 0 ? "" : ", ").append("t").append(i);
+            // the ring, and chords across it from every fourth table
+            int[] others = i % 4 == 0 && i < n / 2 ? new int[] { i + 1, i + n / 2 }
+                : new int[] { (i + 1) % n };
+            for (int o : others) {
+                nodes.add(new LogicalJoinNode("t" + i, "t" + o, "c0", "c1",
+                        Predicate.Op.EQUALS));
+                where.append(where.length() == 0 ? "" : " AND ").append("t").append(i)
+                    .append(".c0 = t").append(o).append(".c1");
+            }
+        }
+        Collections.shuffle(nodes);
+        JoinOptimizer j = new JoinOptimizer(new Parser().generateLogicalPlan(
+                new TransactionId(), "SELECT * FROM " + from + " WHERE " + where + ";"), nodes);
+
+        Vector<LogicalJoinNode> result = j.orderJoins(stats, filterSelectivities, false);
+        checkOrder(result, nodes, n);
+    }
+
+    /**
+     * Order the joins of a query whose join graph has cycles: a ring of 16
+     * tables with chords. The joins that close cycles are applied after the
+     * join that connects their tables.
+     */
+    @Test(timeout = 10000)
+    public void cyclicOrderJoinsTest() throws Exception {
+        orderCyclicJoins(16);
+    }
+
+    /**
+     * The joins of queries of more tables than the threshold are ordered
+     * greedily, within the time budget.
+     */
+    @Test(timeout = 10000)
+    public void greedyOrderJoinsTest() throws Exception {
+        JoinOptimizer.setGreedyBudget(200);
+        orderCyclicJoins(32);
+
+        // a query small enough for dynamic programming, ordered greedily
+        JoinOptimizer.setDpThreshold(4);
+        try {
+            orderCyclicJoins(12);
+        } finally {
+            JoinOptimizer.setDpThreshold(16);
+            JoinOptimizer.setGreedyBudget(500);
+        }
+    }
+
+    /** @return true if a join in plan joins two joins */
+    private boolean joinsJoins(OpIterator plan) {
+        if (!(plan instanceof Operator))
+            return false;
+        OpIterator[] children = ((Operator) plan).getChildren();
+        if (children.length == 2 && isJoin(children[0]) && isJoin(children[1]))
+            return true;
+        for (OpIterator child : children) {
+            if (joinsJoins(child))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isJoin(OpIterator plan) {
+        while (plan instanceof Filter || plan instanceof JoinFilter)
+            plan = ((Operator) plan).getChildren()[0];
+        return plan instanceof Join || plan instanceof IndexNestedLoopJoin
+            || plan instanceof HashEquiJoin || plan instanceof BlockNestedLoopJoin;
+    }
+
+    /**
+     * A chain of joins whose middle join matches many tuples, and whose
+     * ends are selective, is planned bushy: the two ends are joined first,
+     * and then joined to each other.
+     */
+    @Test
+    public void bushyOrderJoinsTest() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 2000; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (String name : new String[] { "a", "b", "c", "d" }) {
+            HeapFile f = createDuplicateHeapFile(tuples, 2, "c");
+            Database.getCatalog().addTable(f, name);
+            stats.put(name, new TableStats(f.getId(), 103));
+        }
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM a, b, c, d "
+                + "WHERE a.c0 = b.c0 AND b.c1 = c.c1 AND c.c0 = d.c0 AND a.c0 = 5 AND d.c0 = 15;");
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        Assert.assertTrue(joinsJoins(plan));
+
+        int a = plan.getTupleDesc().fieldNameToIndex("a.c0");
+        int d = plan.getTupleDesc().fieldNameToIndex("d.c0");
+        plan.open();
+        int rows = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            Assert.assertEquals(5, ((IntField) t.getField(a)).getValue());
+            Assert.assertEquals(15, ((IntField) t.getField(d)).getValue());
+            rows++;
+        }
+        plan.close();
+        Assert.assertEquals(1, rows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the first JoinFilter in plan, or null if there is none */
+    private JoinFilter findJoinFilter(OpIterator plan) {
+        if (plan instanceof JoinFilter)
+            return (JoinFilter) plan;
+        if (!(plan instanceof Operator))
+            return null;
+        for (OpIterator child : ((Operator) plan).getChildren()) {
+            JoinFilter f = findJoinFilter(child);
+            if (f != null)
+                return f;
+        }
+        return null;
+    }
+
+    /**
+     * The join closing a cycle of the join graph filters the join of its
+     * two tables, and is estimated to keep a fraction of its tuples.
+     */
+    @Test
+    public void cyclicQueryTest() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 20; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 5)));
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        for (String name : new String[] { "a", "b", "c" }) {
+            HeapFile f = createDuplicateHeapFile(tuples, 2, "c");
+            Database.getCatalog().addTable(f, name);
+            stats.put(name, new TableStats(f.getId(), 103));
+        }
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM a, b, c "
+                + "WHERE a.c1 = b.c1 AND b.c1 = c.c1 AND c.c0 = a.c0;");
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OperatorCardinality.updateOperatorCardinality((Operator) plan,
+                lp.getTableAliasToIdMapping(), stats);
+        JoinFilter filter = findJoinFilter(plan);
+        Assert.assertNotNull(filter);
+        int joined = ((Operator) filter.getChildren()[0]).getEstimatedCardinality();
+        Assert.assertTrue(filter.getEstimatedCardinality() < joined);
+        Assert.assertTrue(filter.getEstimatedCardinality() > 1);
+        int a = plan.getTupleDesc().fieldNameToIndex("a.c0");
+        int c = plan.getTupleDesc().fieldNameToIndex("c.c0");
+        plan.open();
+        int rows = 0;
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            Assert.assertEquals(t.getField(a), t.getField(c));
+            rows++;
+        }
+        plan.close();
+        // each tuple of a and c, with the 4 tuples of b of the same c1
+        Assert.assertEquals(80, rows);
+        Database.getBufferPool().transactionComplete(tid);
+    }
 }
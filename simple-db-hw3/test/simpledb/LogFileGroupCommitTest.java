@@ -0,0 +1,182 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogFileGroupCommitTest extends SimpleDbTestBase {
+
+    /** BEGIN and COMMIT records have no payload */
+    private static final int RECORD_SIZE = LogRecord.OVERHEAD;
+
+    private File f;
+    private LogFile log;
+
+    @Before public void createLog() throws Exception {
+        f = File.createTempFile("group", ".log");
+        f.deleteOnExit();
+        log = new LogFile(f);
+    }
+
+    @After public void closeLog() throws Exception {
+        log.force();
+        TestUtil.deleteLog(f);
+    }
+
+    /**
+     * Records are buffered until a commit, whose force writes them all to
+     * the log at once.
+     */
+    @Test public void commitForcesBufferedRecords() throws Exception {
+        for (int i = 0; i < 10; i++)
+            log.logXactionBegin(new TransactionId());
+        synchronized (log) {
+            assertEquals(0, log.writtenOffset);
+        }
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        synchronized (log) {
+            assertEquals(12 * RECORD_SIZE, log.writtenOffset);
+            assertEquals(1, log.groupForces);
+        }
+    }
+
+    /**
+     * Transactions committing concurrently share forces, and each commit
+     * is written once logCommit returns.
+     */
+    @Test public void concurrentCommitsShareForces() throws Exception {
+        final int threads = 8;
+        final int commits = 50;
+        final ArrayList<Exception> errors = new ArrayList<Exception>();
+        ArrayList<Thread> committers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < commits; j++) {
+                            TransactionId tid = new TransactionId();
+                            log.logXactionBegin(tid);
+                            long end;
+                            synchronized (log) {
+                                end = log.currentOffset + RECORD_SIZE;
+                            }
+                            log.logCommit(tid);
+                            synchronized (log) {
+                                assertTrue(log.writtenOffset >= end);
+                            }
+                        }
+                    } catch (Exception e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            committers.add(t);
+            t.start();
+        }
+        for (Thread t : committers)
+            t.join();
+
+        assertEquals(0, errors.size());
+        synchronized (log) {
+            assertEquals(threads * commits * 2 * RECORD_SIZE, log.writtenOffset);
+            assertTrue(log.groupForces > 0);
+            assertTrue(log.groupForces < threads * commits);
+        }
+    }
+
+    /**
+     * A checkpoint writes the buffered records before its own, so the log
+     * stays in order.
+     */
+    @Test public void checkpointDrainsBuffer() throws Exception {
+        TransactionId open = new TransactionId();
+        log.logXactionBegin(open);
+        log.logCheckpoint();
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        long cp = raf.readLong();
+        raf.close();
+        assertEquals(RECORD_SIZE, cp);
+        LogRecord begin = log.readRecord(0);
+        assertEquals(LogFile.BEGIN_RECORD, begin.type);
+        assertEquals(open.getId(), begin.tid);
+        assertEquals(LogFile.CHECKPOINT_RECORD, log.readRecord(begin.end()).type);
+    }
+
+    /**
+     * A commit whose force fails throws and leaves its records unforced, and
+     * every later append and force throws too, so nothing is committed past
+     * records that may not be on disk.
+     */
+    @Test public void failedForceFailsCommits() throws Exception {
+        File bad = File.createTempFile("failing", ".log");
+        bad.deleteOnExit();
+        final boolean[] failing = new boolean[] { false };
+        LogFile failLog = new LogFile(bad) {
+            LogSegments openSegments(File f, int segmentSize) throws IOException {
+                return new LogSegments(f, segmentSize) {
+                    synchronized void force() throws IOException {
+                        if (failing[0])
+                            throw new IOException("disk full");
+                        super.force();
+                    }
+                };
+            }
+        };
+        TransactionId tid = new TransactionId();
+        failLog.logXactionBegin(tid);
+        failLog.logCommit(tid);
+
+        failing[0] = true;
+        tid = new TransactionId();
+        failLog.logXactionBegin(tid);
+        try {
+            failLog.logCommit(tid);
+            fail("the commit isn't on disk");
+        } catch (IOException e) {
+        }
+        synchronized (failLog) {
+            assertEquals(2 * RECORD_SIZE, failLog.writtenOffset);
+            assertEquals(4 * RECORD_SIZE, failLog.currentOffset);
+        }
+
+        failing[0] = false;
+        try {
+            failLog.logXactionBegin(new TransactionId());
+            fail("appended after a failed force");
+        } catch (IOException e) {
+        }
+        try {
+            failLog.force();
+            fail("forced after a failed force");
+        } catch (IOException e) {
+        }
+        TestUtil.deleteLog(bad);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileGroupCommitTest.class);
+    }
+}
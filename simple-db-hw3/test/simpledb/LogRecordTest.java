@@ -0,0 +1,193 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogRecordTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private HeapPage before;
+    private HeapPage after;
+
+    /**
+     * Set up a page and a copy of it with one more tuple.
+     */
+    @Before public void createPages() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        before = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        after = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        after.insertTuple(Utility.getHeapTuple(new int[] { 1234, 5678 }));
+    }
+
+    /** @return the bytes of the records, as they are written to the log */
+    private static byte[] writeRecords(LogRecord... records) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        for (LogRecord r : records)
+            r.write(out);
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    /** @return the record at offset of the log bytes data, or null if the log ends there */
+    private static LogRecord read(byte[] data, long offset) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, (int) offset,
+                data.length - (int) offset));
+        return LogRecord.read(in, offset, data.length - offset);
+    }
+
+    /**
+     * The after image of a small change is written as a delta much smaller
+     * than the page, and both images are read back.
+     */
+    @Test public void deltaUpdate() throws Exception {
+        byte[] payload = LogRecord.encodeUpdate(before, after, true);
+        assertTrue(payload.length < BufferPool.getPageSize() + 100);
+
+        Page[] images = new LogRecord(LogFile.UPDATE_RECORD, 1, payload, 0).decodeUpdate();
+        assertEquals(pid, images[0].getId());
+        assertTrue(images[1] instanceof HeapPage);
+        assertArrayEquals(before.getPageData(), images[0].getPageData());
+        assertArrayEquals(after.getPageData(), images[1].getPageData());
+    }
+
+    /**
+     * Without delta encoding both images are written in full.
+     */
+    @Test public void fullUpdate() throws Exception {
+        byte[] payload = LogRecord.encodeUpdate(before, after, false);
+        assertTrue(payload.length > 2 * BufferPool.getPageSize());
+
+        Page[] images = new LogRecord(LogFile.UPDATE_RECORD, 1, payload, 0).decodeUpdate();
+        assertArrayEquals(after.getPageData(), images[1].getPageData());
+    }
+
+    /**
+     * Records are read back with their offsets, and a record whose bytes
+     * are damaged or cut short ends the log.
+     */
+    @Test public void checksum() throws Exception {
+        LogRecord first = new LogRecord(LogFile.BEGIN_RECORD, 7, new byte[0], 0);
+        LogRecord second = new LogRecord(LogFile.UPDATE_RECORD, 7,
+                LogRecord.encodeUpdate(before, after, true), first.end());
+        byte[] log = writeRecords(first, second);
+
+        LogRecord r = read(log, 0);
+        assertEquals(LogFile.BEGIN_RECORD, r.type);
+        assertEquals(7, r.tid);
+        r = read(log, r.end());
+        assertEquals(second.end(), r.end());
+        assertNull(read(log, r.end()));
+
+        int damaged = (int) first.end() + 20;
+        log[damaged] ^= 1;
+        assertEquals(first.end(), read(log, 0).end());
+        assertNull(read(log, first.end()));
+
+        log[damaged] ^= 1;
+        assertNull(read(Arrays.copyOf(log, (int) second.end() - 1), first.end()));
+    }
+
+    /**
+     * Truncating the log at a checkpoint drops the records before the first
+     * one of the transactions active at it, and keeps the offsets of the
+     * others.
+     */
+    @Test public void truncate() throws Exception {
+        File f = File.createTempFile("truncate", ".log");
+        LogFile log = new LogFile(f);
+        TransactionId done = new TransactionId();
+        log.logXactionBegin(done);
+        log.logWrite(done, before, after);
+        log.logCommit(done);
+        TransactionId open = new TransactionId();
+        log.logXactionBegin(open);
+        long first = log.tidToFirstLogRecord.get(open.getId());
+        log.logWrite(open, before, after);
+        log.pageWritten(pid);
+        log.logCheckpoint();
+        log.force();
+
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        long cp = raf.readLong();
+        assertEquals(LogFile.MAGIC, raf.readInt());
+        assertEquals(LogFile.FORMAT_VERSION, raf.readInt());
+        assertEquals(first, raf.readLong());
+        raf.close();
+        ArrayList<LogRecord> records = new ArrayList<LogRecord>();
+        for (LogRecord r = log.readRecord(first); r != null; r = log.readRecord(r.end()))
+            records.add(r);
+        assertNull(log.readRecord(0));
+
+        assertEquals(3, records.size());
+        assertEquals(LogFile.BEGIN_RECORD, records.get(0).type);
+        assertEquals(first, records.get(0).offset);
+        assertEquals(open.getId(), records.get(1).tid);
+        assertEquals(pid, records.get(1).getPageId());
+        assertArrayEquals(after.getPageData(), records.get(1).decodeUpdate()[1].getPageData());
+        assertEquals(cp, records.get(2).offset);
+        assertEquals(log.currentOffset, records.get(2).end());
+        assertEquals(Collections.singletonMap(open.getId(), first), records.get(2).decodeCheckpoint());
+        assertEquals(0, records.get(2).decodeDirtyPages().size());
+        assertEquals((Long) first, log.tidToFirstLogRecord.get(open.getId()));
+        TestUtil.deleteLog(f);
+    }
+
+    /**
+     * The records of pages whose logged changes are not on disk are kept
+     * when the log is truncated, and listed in the checkpoint.
+     */
+    @Test public void truncateKeepsDirtyPages() throws Exception {
+        File f = File.createTempFile("truncate", ".log");
+        LogFile log = new LogFile(f);
+        TransactionId done = new TransactionId();
+        log.logXactionBegin(done);
+        long first = log.currentOffset;
+        log.logWrite(done, before, after);
+        log.logCommit(done);
+        log.logCheckpoint();
+        log.force();
+
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        long cp = raf.readLong();
+        raf.readInt();
+        raf.readInt();
+        assertEquals(first, raf.readLong());
+        raf.close();
+        assertEquals(first, after.getLsn());
+        assertEquals(Collections.singletonMap((PageId) pid, first), log.readRecord(cp).decodeDirtyPages());
+        TestUtil.deleteLog(f);
+    }
+
+    /**
+     * Pages without a registered codec can't be logged.
+     */
+    @Test(expected = IOException.class)
+    public void unknownPageClass() throws Exception {
+        Page p = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA) {
+        };
+        LogRecord.encodeUpdate(p, p, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogRecordTest.class);
+    }
+}
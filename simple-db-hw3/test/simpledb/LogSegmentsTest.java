@@ -0,0 +1,198 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogSegmentsTest extends SimpleDbTestBase {
+
+    /** Small enough for each UPDATE record to span segments */
+    private static final int SEGMENT_SIZE = 3000;
+
+    private File f;
+    private File archive;
+    private LogFile log;
+    private HeapPageId pid;
+    private HeapPage before;
+    private HeapPage after;
+
+    @Before public void createLog() throws Exception {
+        f = File.createTempFile("segments", ".log");
+        log = new LogFile(f, SEGMENT_SIZE);
+
+        pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+        before = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        after = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        after.insertTuple(Utility.getHeapTuple(new int[] { 1234, 5678 }));
+    }
+
+    @After public void deleteLog() throws Exception {
+        log.segments.close();
+        TestUtil.deleteLog(f);
+        if (archive != null) {
+            for (File file : archive.listFiles())
+                file.delete();
+            archive.delete();
+        }
+    }
+
+    /** Log n committed transactions that each update the page */
+    private void logUpdates(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            log.logWrite(tid, before, after);
+            log.logCommit(tid);
+        }
+    }
+
+    /** Checkpoint the log with the page on disk, so only the checkpoint is kept */
+    private long checkpoint() throws IOException {
+        log.pageWritten(pid);
+        long cp = log.currentOffset;
+        log.logCheckpoint();
+        return cp;
+    }
+
+    private File segment(long n) {
+        return log.segments.segmentFile(n);
+    }
+
+    /**
+     * Records span segments, which are preallocated to their full size.
+     */
+    @Test public void recordsSpanSegments() throws Exception {
+        logUpdates(3);
+        assertTrue(log.segments.segments().size() > 3);
+        for (long n : log.segments.segments())
+            assertEquals(SEGMENT_SIZE, segment(n).length());
+
+        LogRecord r = log.readRecord(0);
+        r = log.readRecord(r.end());
+        assertEquals(LogFile.UPDATE_RECORD, r.type);
+        int dataSize = log.segments.getDataSize();
+        assertTrue(r.offset / dataSize < (r.end() - 1) / dataSize);
+        HeapPage image = (HeapPage) r.decodeUpdate()[1];
+        assertEquals(r.offset, image.getLsn());
+        byte[] expected = after.getPageData();
+        byte[] actual = image.getPageData();
+        assertArrayEquals(Arrays.copyOfRange(expected, HeapPage.LSN_SIZE, expected.length),
+                          Arrays.copyOfRange(actual, HeapPage.LSN_SIZE, actual.length));
+    }
+
+    /**
+     * Truncating the log retires the segments before the checkpoint without
+     * touching the others, keeps a few as spares, and reuses them.
+     */
+    @Test public void truncateRecyclesSegments() throws Exception {
+        logUpdates(3);
+        long cp = checkpoint();
+        long first = cp / log.segments.getDataSize();
+        assertEquals(first, (long) log.segments.segments().first());
+        assertFalse(segment(0).exists());
+        assertEquals(LogFile.CHECKPOINT_RECORD, log.readRecord(cp).type);
+
+        File[] spares = f.getAbsoluteFile().getParentFile().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(f.getName() + ".spare");
+            }
+        });
+        assertEquals(LogSegments.MAX_SPARES, spares.length);
+
+        logUpdates(3);
+        for (File spare : spares)
+            assertFalse(spare.exists());
+    }
+
+    /**
+     * With an archive directory, retired segments are compressed into it.
+     */
+    @Test public void truncateArchivesSegments() throws Exception {
+        archive = File.createTempFile("archive", "");
+        archive.delete();
+        archive.mkdir();
+        log.setArchiveDirectory(archive);
+        logUpdates(3);
+        long cp = checkpoint();
+        log.segments.waitForArchiver();
+
+        long retired = cp / log.segments.getDataSize();
+        assertEquals(retired, archive.list().length);
+        for (long n = 0; n < retired; n++) {
+            assertFalse(segment(n).exists());
+            InputStream in = new GZIPInputStream(new FileInputStream(
+                    new File(archive, segment(n).getName() + ".gz")));
+            DataInputStream dis = new DataInputStream(in);
+            assertEquals(LogSegments.MAGIC, dis.readInt());
+            assertEquals(n, dis.readLong());
+            in.close();
+        }
+    }
+
+    /**
+     * A log started again instead of recovered starts after the old one, so
+     * LSNs are never reused.
+     */
+    @Test public void restartKeepsLsnsGrowing() throws Exception {
+        logUpdates(2);
+        long end = log.currentOffset;
+        log.segments.close();
+
+        log = new LogFile(f, SEGMENT_SIZE);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.force();
+        assertTrue(log.tidToFirstLogRecord.get(tid.getId()) >= end);
+        assertTrue(log.segments.segments().first() > 0);
+    }
+
+    /**
+     * A log file in an older format, whose first record type is where the
+     * header has its version, is not taken for a header: recovering it
+     * starts a new log, whose header later opens trust.
+     */
+    @Test public void olderFormatIsNotTrusted() throws Exception {
+        log.segments.close();
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(f));
+        dos.writeLong(LogFile.NO_CHECKPOINT_ID);
+        dos.writeInt(LogFile.BEGIN_RECORD);
+        dos.writeLong(0);
+        dos.writeLong(LogFile.LONG_SIZE);
+        dos.close();
+
+        log = new LogFile(f, SEGMENT_SIZE);
+        assertEquals(SEGMENT_SIZE, log.segments.getSegmentSize());
+        log.recover();
+        logUpdates(1);
+        checkpoint();
+        log.segments.close();
+
+        log = new LogFile(f, 2 * SEGMENT_SIZE);
+        assertEquals(SEGMENT_SIZE, log.segments.getSegmentSize());
+        log.recover();
+        assertTrue(log.tidToFirstLogRecord.isEmpty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogSegmentsTest.class);
+    }
+}
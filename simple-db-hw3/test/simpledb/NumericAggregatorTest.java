@@ -0,0 +1,96 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class NumericAggregatorTest extends SimpleDbTestBase {
+
+  TupleDesc td;
+  Tuple[] tuples;
+
+  /**
+   * Initialize each unit test: (group int, amount double, big long, day date)
+   */
+  @Before public void createTuples() throws Exception {
+    td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.DOUBLE_TYPE,
+        Type.LONG_TYPE, Type.DATE_TYPE });
+    Object[][] rows = {
+      { 1, 1.5, 10000000000L, "2017-01-01" },
+      { 1, 2.5, 20000000000L, "2017-02-01" },
+      { 2, 4.0, 5L, "2016-12-31" },
+    };
+    tuples = new Tuple[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      Tuple t = new Tuple(td);
+      t.setInt(0, (Integer) rows[i][0]);
+      t.setDouble(1, (Double) rows[i][1]);
+      t.setLong(2, (Long) rows[i][2]);
+      t.setField(3, Type.DATE_TYPE.parseText((String) rows[i][3]));
+      tuples[i] = t;
+    }
+  }
+
+  private Map<Field, Field> aggregate(int afield, Aggregator.Op op) {
+    NumericAggregator agg = new NumericAggregator(0, Type.INT_TYPE, afield,
+        td.getFieldType(afield), op);
+    for (Tuple t : tuples)
+      agg.mergeTupleIntoGroup(t);
+    Map<Field, Field> result = new HashMap<Field, Field>();
+    for (Tuple t : agg.getAggResults()) {
+      assertEquals(Aggregate.aggregateType(td.getFieldType(afield), op),
+          t.getTupleDesc().getFieldType(1));
+      result.put(t.getField(0), t.getField(1));
+    }
+    return result;
+  }
+
+  /**
+   * Test SUM and AVG over doubles and longs
+   */
+  @Test public void sumAvg() throws Exception {
+    Map<Field, Field> r = aggregate(1, Aggregator.Op.SUM);
+    assertEquals(new DoubleField(4.0), r.get(new IntField(1)));
+    assertEquals(new DoubleField(4.0), r.get(new IntField(2)));
+
+    r = aggregate(1, Aggregator.Op.AVG);
+    assertEquals(new DoubleField(2.0), r.get(new IntField(1)));
+
+    r = aggregate(2, Aggregator.Op.SUM);
+    assertEquals(new LongField(30000000000L), r.get(new IntField(1)));
+  }
+
+  /**
+   * Test MIN, MAX and COUNT over dates
+   */
+  @Test public void dates() throws Exception {
+    Map<Field, Field> r = aggregate(3, Aggregator.Op.MIN);
+    assertEquals("2017-01-01", r.get(new IntField(1)).toString());
+    r = aggregate(3, Aggregator.Op.MAX);
+    assertEquals("2017-02-01", r.get(new IntField(1)).toString());
+    r = aggregate(3, Aggregator.Op.COUNT);
+    assertEquals(new IntField(2), r.get(new IntField(1)));
+
+    try {
+      aggregate(3, Aggregator.Op.SUM);
+      throw new Exception("SUM of dates should be rejected");
+    } catch (IllegalArgumentException e) {
+      // explicitly ignored
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(NumericAggregatorTest.class);
+  }
+}
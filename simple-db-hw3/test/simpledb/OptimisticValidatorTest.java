@@ -0,0 +1,182 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OptimisticValidatorTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private HeapFile other;
+
+    /** @return a table of one page holding the tuples (0, 0) to (9, 9) */
+    private HeapFile createTable() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 10; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+        File file = File.createTempFile("optimistic", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + ".zones").deleteOnExit();
+        HeapFileEncoder.convert(rows, file, BufferPool.getPageSize(), 2);
+        return Utility.openHeapFile(2, file);
+    }
+
+    @Before public void createTables() throws Exception {
+        table = createTable();
+        other = createTable();
+    }
+
+    private Transaction begin(boolean optimistic) {
+        Transaction t = new Transaction(optimistic);
+        t.start();
+        return t;
+    }
+
+    private void insert(Transaction t, HeapFile f, int v) throws Exception {
+        Database.getBufferPool().insertTuple(t.getId(), f.getId(),
+                Utility.getHeapTuple(new int[] { v, v }));
+    }
+
+    /** @return the first fields of the tuples of f that t sees, sorted */
+    private ArrayList<Integer> contents(Transaction t, HeapFile f) throws Exception {
+        DbFileIterator it = f.iterator(t.getId());
+        it.open();
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        while (it.hasNext())
+            values.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Collections.sort(values);
+        return values;
+    }
+
+    private ArrayList<Integer> contents(HeapFile f) throws Exception {
+        return contents(new Transaction(), f);
+    }
+
+    /** @return 0 to 9 and the extra values, sorted */
+    private ArrayList<Integer> expected(int... extra) {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++)
+            values.add(i);
+        for (int v : extra)
+            values.add(v);
+        Collections.sort(values);
+        return values;
+    }
+
+    private void assertAborts(Transaction t) throws Exception {
+        try {
+            t.commit();
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Writes are buffered, and installed at commit.
+     */
+    @Test public void writesInstalledAtCommit() throws Exception {
+        Transaction t = begin(true);
+        insert(t, table, 100);
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(t.getId(), first);
+        assertEquals(expected(), contents(table));
+
+        t.commit();
+        ArrayList<Integer> values = expected(100);
+        values.remove(Integer.valueOf(((IntField) first.getField(0)).getValue()));
+        assertEquals(values, contents(table));
+    }
+
+    /**
+     * A transaction that read a page written since aborts at commit, and
+     * its writes are dropped.
+     */
+    @Test public void readConflictAborts() throws Exception {
+        Transaction t = begin(true);
+        assertEquals(expected(), contents(t, table));
+        insert(t, other, 100);
+
+        Transaction writer = begin(false);
+        insert(writer, table, 200);
+        writer.commit();
+
+        assertAborts(t);
+        assertEquals(expected(200), contents(table));
+        assertEquals(expected(), contents(other));
+    }
+
+    /**
+     * Of two optimistic transactions that read and write the same page,
+     * the first to commit wins.
+     */
+    @Test public void firstCommitWins() throws Exception {
+        Transaction t1 = begin(true);
+        Transaction t2 = begin(true);
+        contents(t1, table);
+        contents(t2, table);
+        insert(t1, table, 100);
+        insert(t2, table, 200);
+
+        t1.commit();
+        assertAborts(t2);
+        assertEquals(expected(100), contents(table));
+    }
+
+    /**
+     * Writes to pages a transaction didn't read don't abort it.
+     */
+    @Test public void disjointPages() throws Exception {
+        Transaction t = begin(true);
+        assertEquals(expected(), contents(t, table));
+
+        Transaction writer = begin(false);
+        insert(writer, other, 200);
+        writer.commit();
+
+        insert(t, table, 100);
+        t.commit();
+        assertEquals(expected(100), contents(table));
+        assertEquals(expected(200), contents(other));
+    }
+
+    /**
+     * Page versions are only tracked while optimistic transactions run.
+     */
+    @Test public void versionsDropped() throws Exception {
+        OptimisticValidator validator = Database.getOptimisticValidator();
+        Transaction t = begin(true);
+        contents(t, table);
+        Transaction writer = begin(false);
+        insert(writer, other, 200);
+        writer.commit();
+        assertEquals(1, validator.numVersions());
+
+        t.commit();
+        assertEquals(0, validator.numVersions());
+        writer = begin(false);
+        insert(writer, other, 300);
+        writer.commit();
+        assertEquals(0, validator.numVersions());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OptimisticValidatorTest.class);
+    }
+}
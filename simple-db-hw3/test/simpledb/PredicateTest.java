@@ -55,6 +55,27 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Unit test for Predicate.mayMatch() over the range [0, 10]
+   */
+  @Test public void mayMatch() {
+    Field min = TestUtil.getField(0);
+    Field max = TestUtil.getField(10);
+
+    assertTrue(new Predicate(0, Predicate.Op.EQUALS, TestUtil.getField(5)).mayMatch(min, max));
+    assertFalse(new Predicate(0, Predicate.Op.EQUALS, TestUtil.getField(11)).mayMatch(min, max));
+    assertTrue(new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(9)).mayMatch(min, max));
+    assertFalse(new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(10)).mayMatch(min, max));
+    assertTrue(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(10)).mayMatch(min, max));
+    assertFalse(new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(0)).mayMatch(min, max));
+    assertTrue(new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, TestUtil.getField(0)).mayMatch(min, max));
+    assertTrue(new Predicate(0, Predicate.Op.NOT_EQUALS, TestUtil.getField(0)).mayMatch(min, max));
+    assertFalse(new Predicate(0, Predicate.Op.NOT_EQUALS, TestUtil.getField(0)).mayMatch(min, min));
+
+    // without a range nothing can be ruled out
+    assertTrue(new Predicate(0, Predicate.Op.EQUALS, TestUtil.getField(11)).mayMatch(null, null));
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Measures how long recovery takes to replay a synthetic log of committed
+ * updates none of which reached the table, for several numbers of replay
+ * threads.  Run it with
+ * <pre>
+ *   java -cp ... simpledb.RecoveryBenchmark [updates [pages [threads ...]]]
+ * </pre>
+ * which defaults to 5000 updates of 64 pages, replayed on 1, 2 and 4
+ * threads.  Each update inserts a tuple into a page or deletes it again,
+ * and every 100 updates are committed.
+ */
+public class RecoveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int updates = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int[] threads = { 1, 2, 4 };
+        if (args.length > 2) {
+            threads = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++)
+                threads[i - 2] = Integer.parseInt(args[i]);
+        }
+
+        for (int t : threads) {
+            File table = createLog(updates, pages);
+            Database.reset();
+            Utility.openHeapFile(2, table);
+            LogFile log = Database.getLogFile();
+            log.setReplayThreads(t);
+
+            long start = System.nanoTime();
+            log.recover();
+            long ms = (System.nanoTime() - start) / 1000000;
+            System.out.println("BENCHMARK " + t + " threads: replayed " + log.lastReplayed
+                               + " records in " + ms + " ms");
+            table.delete();
+        }
+    }
+
+    /**
+     * Create a table of empty pages, and a log of the specified number of
+     * committed updates of them that were not written to the table.
+     *
+     * @return the table
+     */
+    static File createLog(int updates, int pages) throws Exception {
+        File f = File.createTempFile("recovery", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zones").deleteOnExit();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f));
+        for (int i = 0; i < pages; i++)
+            out.write(HeapPage.createEmptyPageData());
+        out.close();
+
+        Database.reset();
+        HeapFile table = Utility.openHeapFile(2, f);
+        HeapPage[] images = new HeapPage[pages];
+        Tuple[] inserted = new Tuple[pages];
+        for (int i = 0; i < pages; i++)
+            images[i] = (HeapPage) table.readPage(new HeapPageId(table.getId(), i));
+
+        LogFile log = Database.getLogFile();
+        TransactionId tid = null;
+        for (int i = 0; i < updates; i++) {
+            if (i % 100 == 0) {
+                if (tid != null)
+                    log.logCommit(tid);
+                tid = new TransactionId();
+                log.logXactionBegin(tid);
+            }
+            int p = i % pages;
+            HeapPage page = images[p];
+            Page before = page.getBeforeImage();
+            if (inserted[p] == null) {
+                inserted[p] = Utility.getHeapTuple(new int[] { i, i });
+                page.insertTuple(inserted[p]);
+            } else {
+                page.deleteTuple(inserted[p]);
+                inserted[p] = null;
+            }
+            log.logWrite(tid, before, page);
+            page.setBeforeImage();
+        }
+        if (tid != null)
+            log.logCommit(tid);
+        return f;
+    }
+}
@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws IOException {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple makeTuple(int id, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings should take up much less room than on a HeapPage, and a
+     * page should round trip through getPageData.
+     */
+    @Test public void fillAndReread() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        int n = 0;
+        while (true) {
+            Tuple t = makeTuple(n, "v" + n);
+            if (!page.hasRoomFor(t))
+                break;
+            page.insertTuple(t);
+            assertEquals(n, t.getRecordId().getTupleNumber());
+            n++;
+        }
+        int fixedSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        assertTrue(n > 5 * fixedSlots);
+
+        try {
+            page.insertTuple(makeTuple(-1, "x"));
+            throw new Exception("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        SlottedHeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(n, reread.getNumTuples());
+        Iterator<Tuple> it = reread.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(makeTuple(i, "v" + i), t));
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleting a tuple frees its bytes and keeps the other tuples' slots.
+     */
+    @Test public void deleteCompacts() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        Tuple a = makeTuple(1, "first");
+        Tuple b = makeTuple(2, "a somewhat longer second string");
+        Tuple c = makeTuple(3, "third");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.insertTuple(c);
+        int free = page.getFreeSpace();
+
+        page.deleteTuple(b);
+        assertEquals(free + SlottedHeapPage.encodedSize(td, b), page.getFreeSpace());
+
+        SlottedHeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(2, reread.getNumTuples());
+        Iterator<Tuple> it = reread.iterator();
+        assertEquals(0, it.next().getRecordId().getTupleNumber());
+        assertEquals(2, it.next().getRecordId().getTupleNumber());
+
+        // the freed slot is reused
+        Tuple d = makeTuple(4, "fourth");
+        reread.insertTuple(d);
+        assertEquals(1, d.getRecordId().getTupleNumber());
+
+        try {
+            page.deleteTuple(b);
+            throw new Exception("tuple already deleted; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+    }
+
+    /**
+     * Non-ASCII strings are stored as UTF-8 and survive a round trip, and
+     * strings longer than STRING_LEN bytes are cut on a character boundary,
+     * with the free space counting the bytes actually stored.
+     */
+    @Test public void utf8Strings() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        String s = "naïve café 日本";
+        StringBuilder longer = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN; i++)
+            longer.append('é');
+        page.insertTuple(makeTuple(1, s));
+        page.insertTuple(makeTuple(2, longer.toString()));
+        page.insertTuple(makeTuple(3, "x" + longer));
+
+        SlottedHeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(reread.getFreeSpace(), page.getFreeSpace());
+        Iterator<Tuple> it = reread.iterator();
+        assertEquals(s, ((StringField) it.next().getField(1)).getValue());
+        String cut = ((StringField) it.next().getField(1)).getValue();
+        assertEquals(longer.substring(0, Type.STRING_LEN / 2), cut);
+        cut = ((StringField) it.next().getField(1)).getValue();
+        assertEquals("x" + longer.substring(0, Type.STRING_LEN / 2 - 1), cut);
+    }
+
+    /**
+     * A SlottedHeapFile written by HeapFileEncoder.convertSlotted can be
+     * scanned and appended to.
+     */
+    @Test public void encodeAndInsert() throws Exception {
+        File in = File.createTempFile("slotted", ".txt");
+        in.deleteOnExit();
+        java.io.PrintWriter w = new java.io.PrintWriter(in, "UTF-8");
+        for (int i = 0; i < 2000; i++)
+            w.println(i + ",name" + i);
+        w.close();
+        File out = File.createTempFile("slotted", ".dat");
+        out.deleteOnExit();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        HeapFileEncoder.convertSlotted(in, out, BufferPool.getPageSize(), 2, types, ',');
+
+        SlottedHeapFile f = new SlottedHeapFile(out, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        assertTrue(f.numPages() < 2000 * td.getSize() / BufferPool.getPageSize());
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), makeTuple(2000, "name2000"));
+
+        ArrayList<Integer> seen = new ArrayList<Integer>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("name" + t.getInt(0), ((StringField) t.getField(1)).getValue());
+            seen.add(t.getInt(0));
+        }
+        it.close();
+        assertEquals(2001, seen.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -1,7 +1,9 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -31,7 +33,7 @@ public class TableStatsTest extends SimpleDbTestBase {
 	private double[] getRandomTableScanCosts(int[] pageNums, int[] ioCosts) throws IOException, DbException, TransactionAbortedException {
 		double[] ret = new double[ioCosts.length];
 		for(int i = 0; i < ioCosts.length; ++i) {
-			HeapFile hf = SystemTestUtil.createRandomHeapFile(1, 992*pageNums[i], 32, null, tuples);
+			HeapFile hf = SystemTestUtil.createRandomHeapFile(1, 991*pageNums[i], 32, null, tuples);
 			Assert.assertEquals(pageNums[i], hf.numPages());			
 			String tableName = SystemTestUtil.getUUID();
 			Database.getCatalog().addTable(hf, tableName);
@@ -107,6 +109,22 @@ public class TableStatsTest extends SimpleDbTestBase {
 	 * IntHistogramTest, so we hopefully don't need all the JUnit checkboxes.
 	 */
 	@Test public void estimateSelectivityTest() {
+		checkSelectivity(new TableStats(this.tableId, IO_COST));
+	}
+	
+	/**
+	 * Verify the same selectivity estimates with equi-width histograms.
+	 */
+	@Test public void equiWidthSelectivityTest() {
+		TableStats.setEquiDepthHistograms(false);
+		try {
+			checkSelectivity(new TableStats(this.tableId, IO_COST));
+		} finally {
+			TableStats.setEquiDepthHistograms(true);
+		}
+	}
+	
+	private void checkSelectivity(TableStats s) {
 		final int maxCellVal = 32;	// Tuple values are randomized between 0 and this number
 		
 		final Field aboveMax = new IntField(maxCellVal + 10);
@@ -115,8 +133,6 @@ public class TableStatsTest extends SimpleDbTestBase {
 		final Field atMin = new IntField(0);
 		final Field belowMin = new IntField(-10);
 		
-		TableStats s = new TableStats(this.tableId, IO_COST);
-		
 		for (int col = 0; col < 10; col++) {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.EQUALS, aboveMax), 0.001);			
 			Assert.assertEquals(1.0/32.0, s.estimateSelectivity(col, Predicate.Op.EQUALS, halfMaxMin), 0.015);
@@ -151,4 +167,244 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Verify that scanning a table in ranges of pages on several threads
+	 * gives the same statistics as scanning it whole.
+	 */
+	@Test public void rangesMergedTest() {
+		TableStats whole = new TableStats(this.tableId, IO_COST);
+		int pagesPerTask = TableStats.pagesPerTask;
+		TableStats.pagesPerTask = 7;
+		TableStats ranges;
+		try {
+			ranges = new TableStats(this.tableId, IO_COST);
+		} finally {
+			TableStats.pagesPerTask = pagesPerTask;
+		}
+		Assert.assertTrue(f.numPages() > 7);
+		Assert.assertEquals(whole.totalTuples(), ranges.totalTuples());
+		for (int col = 0; col < 10; col++) {
+			for (int v = -1; v <= 33; v += 3) {
+				for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+						Predicate.Op.GREATER_THAN_OR_EQ }) {
+					Assert.assertEquals(whole.estimateSelectivity(col, op, new IntField(v)),
+							ranges.estimateSelectivity(col, op, new IntField(v)), 1e-9);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Verify that a sampled table's tuple count is scaled from the pages
+	 * read, within its confidence interval, and that selectivities are
+	 * still sensible. All pages but the last are full, so the count is
+	 * close.
+	 */
+	@Test public void sampledTest() {
+		TableStats.setSampleRate(this.tableId, 0.3);
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		int pages = f.numPages();
+		Assert.assertEquals((int) Math.ceil(0.3 * pages), s.getPagesSampled());
+		Assert.assertTrue(s.getCardinalityError() < 0.05);
+		Assert.assertEquals(10200, s.totalTuples(), 10200 * Math.max(s.getCardinalityError(), 0.02));
+		Assert.assertEquals(1.0/32.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(16)), 0.02);
+		Assert.assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(16)), 0.1);
+
+		TableStats.setSampleRate(this.tableId, 1.0);
+		s = new TableStats(this.tableId, IO_COST);
+		Assert.assertEquals(pages, s.getPagesSampled());
+		Assert.assertEquals(0.0, s.getCardinalityError(), 0.0);
+		Assert.assertEquals(10200, s.totalTuples());
+	}
+
+	/**
+	 * Verify that statistics are refreshed in the background.
+	 */
+	@Test public void refreshTest() throws InterruptedException {
+		TableStats.getStatsMap().remove(this.tableName);
+		TableStats.scheduleRefresh(10, TimeUnit.MILLISECONDS);
+		try {
+			for (int i = 0; i < 500 && TableStats.getTableStats(this.tableName) == null; i++)
+				Thread.sleep(10);
+		} finally {
+			TableStats.stopRefresh();
+		}
+		Assert.assertEquals(10200, TableStats.getTableStats(this.tableName).totalTuples());
+	}
+
+	/**
+	 * Verify the distinct values of the columns, which hold 0 to 32.
+	 */
+	@Test public void distinctValuesTest() {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		for (int col = 0; col < 10; col++)
+			Assert.assertEquals(33, s.distinctValues(col), 1.0);
+	}
+
+	/** Insert count tuples whose fields are all v into the table */
+	private void insertAll(TransactionId tid, int count, int v) throws Exception {
+		for (int i = 0; i < count; i++)
+			Database.getBufferPool().insertTuple(tid, this.tableId, Utility.getHeapTuple(v, 10));
+	}
+
+	/**
+	 * Verify that inserts and deletes update the statistics of the table
+	 * without analyzing it again.
+	 */
+	@Test public void incrementalTest() throws Exception {
+		int staleModifications = TableStats.staleModifications;
+		TableStats.staleModifications = Integer.MAX_VALUE;
+		try {
+			TableStats s = new TableStats(this.tableId, IO_COST);
+			TableStats.setTableStats(this.tableName, s);
+			TransactionId tid = new TransactionId();
+			insertAll(tid, 2000, 100);
+			Assert.assertEquals(12200, s.totalTuples());
+			Assert.assertEquals(2000, s.getModifications());
+			Assert.assertEquals(2000.0 / 12200, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(50)), 0.01);
+			Assert.assertEquals(10200.0 / 12200, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(50)), 0.01);
+			Assert.assertEquals(2000.0 / 12200, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(100)), 0.01);
+			Assert.assertEquals(34, s.distinctValues(0), 1.0);
+
+			// delete the tuples just inserted
+			DbFileIterator it = this.f.iterator(tid);
+			it.open();
+			ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				if (t.getInt(0) == 100)
+					inserted.add(t);
+			}
+			it.close();
+			Assert.assertEquals(2000, inserted.size());
+			for (Tuple t : inserted)
+				Database.getBufferPool().deleteTuple(tid, t);
+			Assert.assertEquals(10200, s.totalTuples());
+			Assert.assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(50)), 0.01);
+			Assert.assertEquals(1.0, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(50)), 0.01);
+		} finally {
+			TableStats.staleModifications = staleModifications;
+		}
+	}
+
+	/**
+	 * Verify that a table is analyzed again in the background once enough
+	 * of it has changed.
+	 */
+	@Test public void staleTest() throws Exception {
+		int staleModifications = TableStats.staleModifications;
+		double staleFraction = TableStats.staleFraction;
+		TableStats.staleModifications = 100;
+		TableStats.staleFraction = 0.01;
+		try {
+			TableStats s = new TableStats(this.tableId, IO_COST);
+			TableStats.setTableStats(this.tableName, s);
+			// stale after 1% of the 10200 tuples, 102, have changed
+			insertAll(new TransactionId(), 101, 5);
+			Thread.sleep(100);
+			Assert.assertSame(s, TableStats.getTableStats(this.tableName));
+
+			insertAll(new TransactionId(), 1, 5);
+			for (int i = 0; i < 500 && TableStats.getTableStats(this.tableName) == s; i++)
+				Thread.sleep(10);
+			TableStats analyzed = TableStats.getTableStats(this.tableName);
+			Assert.assertNotSame(s, analyzed);
+			Assert.assertEquals(10302, analyzed.totalTuples());
+			Assert.assertEquals(0, analyzed.getModifications());
+		} finally {
+			TableStats.staleModifications = staleModifications;
+			TableStats.staleFraction = staleFraction;
+		}
+	}
+
+	/**
+	 * Verify that a stale table whose analysis fails is analyzed again
+	 * after a delay, rather than left stale.
+	 */
+	@Test public void staleRetryTest() throws Exception {
+		int staleModifications = TableStats.staleModifications;
+		double staleFraction = TableStats.staleFraction;
+		long analyzeRetryMs = TableStats.analyzeRetryMs;
+		TableStats.staleModifications = 100;
+		TableStats.staleFraction = 0.01;
+		TableStats.analyzeRetryMs = 10;
+		// the analyses of the table fail while this is positive
+		final int[] failures = new int[] { 2 };
+		HeapFile failing = new HeapFile(f.getFile(), f.getTupleDesc()) {
+			public int numPages() {
+				synchronized (failures) {
+					if (failures[0] > 0 && Thread.currentThread().getName().equals("TableStats analyzer")) {
+						failures[0]--;
+						throw new IllegalStateException("can't read the table");
+					}
+				}
+				return super.numPages();
+			}
+		};
+		Database.getCatalog().addTable(failing, this.tableName);
+		try {
+			TableStats s = new TableStats(this.tableId, IO_COST);
+			TableStats.setTableStats(this.tableName, s);
+			insertAll(new TransactionId(), 102, 5);
+			for (int i = 0; i < 500 && TableStats.getTableStats(this.tableName) == s; i++)
+				Thread.sleep(10);
+			synchronized (failures) {
+				Assert.assertEquals(0, failures[0]);
+			}
+			TableStats analyzed = TableStats.getTableStats(this.tableName);
+			Assert.assertNotSame(s, analyzed);
+			Assert.assertEquals(10302, analyzed.totalTuples());
+		} finally {
+			TableStats.staleModifications = staleModifications;
+			TableStats.staleFraction = staleFraction;
+			TableStats.analyzeRetryMs = analyzeRetryMs;
+		}
+	}
+
+	/** Assert that a and b estimate the same selectivities and counts */
+	private void assertSameEstimates(TableStats a, TableStats b) {
+		Assert.assertEquals(a.totalTuples(), b.totalTuples());
+		Assert.assertEquals(a.estimateScanCost(), b.estimateScanCost(), 0.0);
+		for (int col = 0; col < 10; col++) {
+			Assert.assertEquals(a.distinctValues(col), b.distinctValues(col), 0.0);
+			for (Predicate.Op op : Predicate.Op.values()) {
+				for (int v = -1; v <= 33; v += 3) {
+					Assert.assertEquals(a.estimateSelectivity(col, op, new IntField(v)),
+							b.estimateSelectivity(col, op, new IntField(v)), 0.0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Verify that saved statistics are read back as they were, unless the
+	 * table has changed since.
+	 */
+	@Test public void persistTest() throws IOException {
+		File statsFile = File.createTempFile("table", ".stats");
+		statsFile.deleteOnExit();
+		for (boolean equiDepth : new boolean[] { true, false }) {
+			TableStats.setEquiDepthHistograms(equiDepth);
+			try {
+				TableStats s = new TableStats(this.tableId, IO_COST);
+				TableStats.setTableStats(this.tableName, s);
+				TableStats.writeStatistics(statsFile);
+				TableStats.getStatsMap().remove(this.tableName);
+
+				Assert.assertTrue(TableStats.readStatistics(statsFile).contains(this.tableId));
+				TableStats loaded = TableStats.getTableStats(this.tableName);
+				Assert.assertNotSame(s, loaded);
+				assertSameEstimates(s, loaded);
+			} finally {
+				TableStats.setEquiDepthHistograms(true);
+			}
+		}
+
+		TableStats.getStatsMap().remove(this.tableName);
+		File data = this.f.getFile();
+		data.setLastModified(data.lastModified() + 1000);
+		Assert.assertFalse(TableStats.readStatistics(statsFile).contains(this.tableId));
+		Assert.assertNull(TableStats.getTableStats(this.tableName));
+	}
 }
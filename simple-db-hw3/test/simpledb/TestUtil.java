@@ -190,6 +190,18 @@ public class TestUtil {
         return buf;
     }
 
+    /**
+     * Delete the log file f, and its segments and spare segments.
+     */
+    public static void deleteLog(File f) {
+        File dir = f.getAbsoluteFile().getParentFile();
+        for (File file : dir.listFiles()) {
+            if (file.getName().startsWith(f.getName() + "."))
+                file.delete();
+        }
+        f.delete();
+    }
+
     /**
      * Stub DbFile class for unit testing.
      */
@@ -1,6 +1,8 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +31,65 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for the typed accessors and Tuple.merge()
+     */
+    @Test public void compactFields() {
+        TupleDesc td1 = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        TupleDesc td2 = Utility.getTupleDesc(1);
+
+        Tuple t1 = new Tuple(td1);
+        assertNull(t1.getField(0));
+        t1.setInt(0, 42);
+        t1.setField(1, new StringField("abc", Type.STRING_LEN));
+        assertEquals(new IntField(42), t1.getField(0));
+        assertArrayEquals("abc".getBytes(), t1.getStringBytes(1));
+
+        Tuple t2 = new Tuple(td2);
+        t2.setField(0, new IntField(7));
+
+        Tuple merged = Tuple.merge(TupleDesc.merge(td1, td2), t1, t2);
+        assertEquals(42, merged.getInt(0));
+        assertEquals(new StringField("abc", Type.STRING_LEN), merged.getField(1));
+        assertEquals(7, merged.getInt(2));
+    }
+
+    /**
+     * Unit test for the LONG, DOUBLE, DATE and BOOLEAN types, including a
+     * round trip through Type.serialize() and Type.parseInto()
+     */
+    @Test public void wideFields() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.LONG_TYPE, Type.DOUBLE_TYPE,
+                Type.DATE_TYPE, Type.BOOLEAN_TYPE, Type.INT_TYPE });
+        assertEquals(8 + 8 + 8 + 1 + 4, td.getSize());
+
+        Tuple t = new Tuple(td);
+        t.setField(0, new LongField(1L << 40));
+        t.setDouble(1, 2.5);
+        t.setField(2, Type.DATE_TYPE.parseText("2017-03-01"));
+        t.setBoolean(3, true);
+        t.setInt(4, -3);
+        assertEquals(new DoubleField(2.5), t.getField(1));
+        assertEquals("2017-03-01", t.getField(2).toString());
+        assertEquals(1488326400000L, t.getLong(2));
+
+        java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
+        java.io.DataOutputStream dos = new java.io.DataOutputStream(baos);
+        for (int i = 0; i < td.numFields(); i++)
+            td.getFieldType(i).serialize(t, i, dos);
+        assertEquals(td.getSize(), baos.size());
+
+        java.io.DataInputStream dis = new java.io.DataInputStream(
+                new java.io.ByteArrayInputStream(baos.toByteArray()));
+        Tuple back = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            td.getFieldType(i).parseInto(dis, back, i);
+        for (int i = 0; i < td.numFields(); i++)
+            assertEquals(t.getField(i), back.getField(i));
+        assertEquals(1L << 40, back.getLong(0));
+        assertEquals(new BooleanField(true), back.getField(3));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -0,0 +1,203 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class VersionStoreTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+    private VersionStore versions;
+
+    /**
+     * Create a table of one page holding the tuples (0, 0) to (9, 9).
+     */
+    @Before public void createTable() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 10; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+        File file = File.createTempFile("versions", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + ".zones").deleteOnExit();
+        HeapFileEncoder.convert(rows, file, BufferPool.getPageSize(), 2);
+        table = Utility.openHeapFile(2, file);
+        versions = Database.getVersionStore();
+    }
+
+    private Transaction begin() {
+        Transaction t = new Transaction();
+        t.start();
+        return t;
+    }
+
+    private void insert(Transaction t, int v) throws Exception {
+        Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                Utility.getHeapTuple(new int[] { v, v }));
+    }
+
+    /** Delete the tuple (v, v) as t sees the table */
+    private void delete(Transaction t, int v) throws Exception {
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            if (((IntField) tup.getField(0)).getValue() == v) {
+                it.close();
+                Database.getBufferPool().deleteTuple(t.getId(), tup);
+                return;
+            }
+        }
+        fail("no tuple " + v);
+    }
+
+    /** @return the first fields of the tuples t sees, sorted */
+    private ArrayList<Integer> contents(Transaction t) throws Exception {
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        while (it.hasNext())
+            values.add(((IntField) it.next().getField(0)).getValue());
+        it.close();
+        Collections.sort(values);
+        return values;
+    }
+
+    /** @return 0 to 9 and the extra values, sorted */
+    private ArrayList<Integer> expected(int... extra) {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++)
+            values.add(i);
+        for (int v : extra)
+            values.add(v);
+        Collections.sort(values);
+        return values;
+    }
+
+    /** @return values without the missing ones */
+    private ArrayList<Integer> without(ArrayList<Integer> values, int... missing) {
+        for (int v : missing)
+            values.remove(Integer.valueOf(v));
+        return values;
+    }
+
+    /**
+     * A snapshot sees neither the inserts of a running transaction nor those
+     * committed after it started; the inserting transaction sees its own.
+     */
+    @Test public void insertsVisibleAfterCommit() throws Exception {
+        Transaction reader = begin();
+        Transaction writer = begin();
+        insert(writer, 100);
+        assertEquals(expected(100), contents(writer));
+        assertEquals(expected(), contents(reader));
+
+        writer.commit();
+        assertEquals(expected(), contents(reader));
+        Transaction later = begin();
+        assertEquals(expected(100), contents(later));
+        reader.commit();
+        later.commit();
+    }
+
+    /**
+     * A snapshot keeps seeing the tuples deleted after it started.
+     */
+    @Test public void deletesVisibleAfterCommit() throws Exception {
+        Transaction reader = begin();
+        Transaction writer = begin();
+        delete(writer, 5);
+        assertEquals(without(expected(), 5), contents(writer));
+        assertEquals(expected(), contents(reader));
+
+        writer.commit();
+        assertEquals(expected(), contents(reader));
+        Transaction later = begin();
+        assertEquals(without(expected(), 5), contents(later));
+        reader.commit();
+        later.commit();
+    }
+
+    /**
+     * An aborted transaction's changes are never seen, and its versions
+     * are forgotten.
+     */
+    @Test public void abort() throws Exception {
+        Transaction writer = begin();
+        insert(writer, 100);
+        delete(writer, 5);
+        writer.abort();
+
+        Transaction reader = begin();
+        assertEquals(expected(), contents(reader));
+        reader.commit();
+        assertEquals(0, versions.numPages());
+    }
+
+    /**
+     * Deleting a tuple a concurrent transaction has deleted aborts.
+     */
+    @Test public void firstUpdaterWins() throws Exception {
+        Transaction t1 = begin();
+        Transaction t2 = begin();
+        delete(t1, 3);
+        try {
+            delete(t2, 3);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            t2.abort();
+        }
+        t1.commit();
+
+        Transaction reader = begin();
+        assertEquals(without(expected(), 3), contents(reader));
+        reader.commit();
+    }
+
+    /**
+     * Versions are kept while a snapshot needs them, and dropped when the
+     * oldest snapshot has moved past the transactions that made them.
+     */
+    @Test public void garbageCollection() throws Exception {
+        Transaction reader = begin();
+        Transaction writer = begin();
+        delete(writer, 1);
+        delete(writer, 2);
+        insert(writer, 100);
+        writer.commit();
+        assertEquals(2, versions.numVersions());
+
+        Transaction later = begin();
+        reader.commit();
+        assertEquals(0, versions.numVersions());
+        assertEquals(0, versions.numPages());
+        assertEquals(without(expected(100), 1, 2), contents(later));
+        later.commit();
+    }
+
+    /**
+     * Transactions that were never started see the pages as they are.
+     */
+    @Test public void unversioned() throws Exception {
+        Transaction writer = begin();
+        insert(writer, 100);
+        Transaction bare = new Transaction();
+        assertEquals(expected(100), contents(bare));
+        writer.commit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VersionStoreTest.class);
+    }
+}
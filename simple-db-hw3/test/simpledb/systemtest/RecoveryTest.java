@@ -0,0 +1,190 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Crashes are simulated by resetting the Database, which loses the
+ * BufferPool with the pages not written yet, and opening the table again
+ * before recovering from the log.
+ */
+public class RecoveryTest extends SimpleDbTestBase {
+
+    private File file;
+    private HeapFile table;
+
+    /**
+     * Create a table of one page holding the tuples (0, 0) to (9, 9).
+     */
+    @Before public void createTable() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 10; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, i)));
+        file = File.createTempFile("recovery", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + ".zones").deleteOnExit();
+        HeapFileEncoder.convert(rows, file, BufferPool.getPageSize(), 2);
+        table = Utility.openHeapFile(2, file);
+    }
+
+    private Transaction begin() {
+        Transaction t = new Transaction();
+        t.start();
+        return t;
+    }
+
+    private void insert(Transaction t, int... values) throws Exception {
+        for (int v : values)
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                    Utility.getHeapTuple(new int[] { v, v }));
+    }
+
+    /** @return the first fields of the tuples of the table, sorted */
+    private ArrayList<Integer> contents() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        while (scan.hasNext())
+            values.add(((IntField) scan.next().getField(0)).getValue());
+        scan.close();
+        Collections.sort(values);
+        return values;
+    }
+
+    private ArrayList<Integer> expected(int... extra) {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 10; i++)
+            values.add(i);
+        for (int v : extra)
+            values.add(v);
+        Collections.sort(values);
+        return values;
+    }
+
+    private void crashAndRecover() throws Exception {
+        crashAndRecover(1);
+    }
+
+    private void crashAndRecover(int threads) throws Exception {
+        Database.reset();
+        table = Utility.openHeapFile(2, file);
+        Database.getLogFile().setReplayThreads(threads);
+        Database.getLogFile().recover();
+    }
+
+    /**
+     * A commit doesn't write the pages of the transaction (NO-FORCE), so
+     * after a crash its changes are redone from the log.
+     */
+    @Test public void redoCommitted() throws Exception {
+        Transaction t = begin();
+        insert(t, 100, 101);
+        t.commit();
+        assertEquals(expected(100, 101), contents());
+
+        crashAndRecover();
+        assertEquals(expected(100, 101), contents());
+    }
+
+    /**
+     * Pages of a running transaction may be written to disk (STEAL); after
+     * a crash its changes are undone from the log.
+     */
+    @Test public void undoStolen() throws Exception {
+        Transaction t = begin();
+        insert(t, 100);
+        Database.getBufferPool().flushAllPages();
+        insert(t, 101);
+
+        crashAndRecover();
+        assertEquals(expected(), contents());
+
+        // recovery wrote CLRs and an ABORT record, so recovering again
+        // does nothing more
+        crashAndRecover();
+        assertEquals(expected(), contents());
+    }
+
+    /**
+     * An abort restores both the pages written to disk and those in the
+     * BufferPool, without losing the changes of committed transactions
+     * that are not on disk yet.
+     */
+    @Test public void abort() throws Exception {
+        Transaction t1 = begin();
+        insert(t1, 100);
+        t1.commit();
+
+        Transaction t2 = begin();
+        insert(t2, 200);
+        Database.getBufferPool().flushAllPages();
+        insert(t2, 201);
+        t2.abort();
+        assertEquals(expected(100), contents());
+
+        Transaction t3 = begin();
+        insert(t3, 300);
+        t3.abort();
+        assertEquals(expected(100), contents());
+
+        crashAndRecover();
+        assertEquals(expected(100), contents());
+    }
+
+    /**
+     * A checkpoint flushes no pages, but records them as dirty, so changes
+     * committed before it are still redone, and transactions running at it
+     * still undone.
+     */
+    @Test public void fuzzyCheckpoint() throws Exception {
+        Transaction t1 = begin();
+        insert(t1, 100);
+        t1.commit();
+        Transaction t2 = begin();
+        insert(t2, 200);
+
+        Database.getLogFile().logCheckpoint();
+        Database.getBufferPool().flushAllPages();
+        insert(t2, 201);
+
+        crashAndRecover();
+        assertEquals(expected(100), contents());
+    }
+
+    /**
+     * The log is replayed on several threads; the records of each page are
+     * still replayed in order, so the last image of each page wins.
+     */
+    @Test public void parallelReplay() throws Exception {
+        int[] values = new int[2000];
+        for (int i = 0; i < values.length; i++)
+            values[i] = 1000 + i;
+        for (int i = 0; i < values.length; i += 400) {
+            Transaction t = begin();
+            insert(t, Arrays.copyOfRange(values, i, i + 400));
+            t.commit();
+        }
+        assertTrue(table.numPages() > 3);
+
+        crashAndRecover(4);
+        assertEquals(expected(values), contents());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecoveryTest.class);
+    }
+}